@@ -3,8 +3,20 @@ LOCAL_PATH := $(call my-dir)
 
 include $(CLEAR_VARS)
 LOCAL_MODULE     := main
-LOCAL_SRC_FILES  := main.c android_native_app_glue.c
+LOCAL_SRC_FILES  := main.c loadgen.c nettx.c android_native_app_glue.c
 LOCAL_C_INCLUDES := $(LOCAL_PATH)
-LOCAL_LDLIBS     := -llog -landroid -lm     # <- math lib for sin()
+LOCAL_LDLIBS     := -llog -landroid -lm     # <- math lib for the signal tables
+# default target, from the top-level make (HOST/PORT); /data/local/tmp/pwload.conf overrides
+ifneq ($(LG_HOST),)
+LOCAL_CFLAGS     += -DLG_HOST=\"$(LG_HOST)\" -DLG_PORT=$(LG_PORT)
+endif
 # APP_PLATFORM comes from your top-level make (NDK_PLATFORM), ok.
 include $(BUILD_SHARED_LIBRARY)
+
+# libpwtx.so: native sender behind NativeSender.java (StreamService, "native" TX path)
+include $(CLEAR_VARS)
+LOCAL_MODULE     := pwtx
+LOCAL_SRC_FILES  := pwtx.c nettx.c
+LOCAL_C_INCLUDES := $(LOCAL_PATH)
+LOCAL_LDLIBS     := -llog -ldl -landroid          # multinetwork; ATrace is looked up at run time
+include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,482 @@
+/*
+ * loadgen - see loadgen.h
+ */
+#define _GNU_SOURCE
+#include "loadgen.h"
+#include "nettx.h"
+
+#include <errno.h>
+#include <math.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/uio.h>
+#include <time.h>
+#include <unistd.h>
+
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LGLOG(...) __android_log_print(ANDROID_LOG_INFO, "pw-load", __VA_ARGS__)
+#else
+#define LGLOG(...) do { fprintf(stderr, "pw-load: " __VA_ARGS__); fputc('\n', stderr); } while (0)
+#endif
+
+#define HDR        20
+#define MAGIC      0x5057
+#define T_AUDIO    1
+#define T_FORMAT   2
+#define ENC_S16LE  1
+#define ENC_ULAW   2
+#define RESYNC_NS  200000000LL  /* this far behind: give up catching up */
+#define MAX_BATCH  16
+#define BACKOFF_MIN_NS   50000000LL
+#define BACKOFF_MAX_NS 1000000000LL
+#define BACKOFF_AFTER_NS 2000000000LL  /* retry at BACKOFF_MIN_NS for this long */
+
+static const char *SIGNALS[] = { "sine", "sweep", "noise", "impulse" };
+static const char *FORMATS[] = { "s16le", "s24le", "ulaw" };
+
+struct lg_stream {
+	struct lg *g;
+	int index;
+	pthread_t th;
+	pthread_mutex_t mu;
+	struct lg_stats st;
+	int64_t taken_ns;
+	int64_t down_since;     /* start of the current outage, not yet in st.down_ns */
+};
+
+struct lg {
+	struct lg_config cfg;
+	atomic_int run;
+	uint8_t *table;         /* wire bytes, table_frames + chunk_frames (wrap copy) */
+	size_t table_frames, frame_bytes;
+	struct ntx_opts net;
+	struct lg_stream *s;
+};
+
+static int64_t mono_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static int64_t cpu_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_THREAD_CPUTIME_ID, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static void sleep_until(int64_t t)
+{
+	struct timespec ts = { (time_t)(t / 1000000000LL), (long)(t % 1000000000LL) };
+	while (clock_nanosleep(CLOCK_MONOTONIC, TIMER_ABSTIME, &ts, NULL) == EINTR)
+		;
+}
+
+static void put32(uint8_t *b, uint32_t v)
+{
+	b[0] = v >> 24; b[1] = v >> 16; b[2] = v >> 8; b[3] = v;
+}
+
+static void put_hdr(uint8_t *b, int type, uint32_t len, uint32_t seq, int64_t pts)
+{
+	b[0] = MAGIC >> 8; b[1] = MAGIC & 0xFF; b[2] = type; b[3] = 0;
+	put32(b + 4, len);
+	put32(b + 8, seq);
+	put32(b + 12, (uint32_t)((uint64_t)pts >> 32));
+	put32(b + 16, (uint32_t)pts);
+}
+
+/* G.711 mu-law, same as PcmConvert.java */
+static uint8_t ulaw(int16_t pcm)
+{
+	int s = pcm, sign = (s >> 8) & 0x80;
+	if (sign)
+		s = -s;
+	if (s > 32635)
+		s = 32635;
+	s += 0x84;
+	int exp = 7;
+	for (int m = 0x4000; (s & m) == 0 && exp > 0; m >>= 1)
+		exp--;
+	int mant = (s >> (exp + 3)) & 0x0F;
+	return (uint8_t)~(sign | (exp << 4) | mant);
+}
+
+void lg_defaults(struct lg_config *c)
+{
+	memset(c, 0, sizeof(*c));
+	snprintf(c->host, sizeof(c->host), "127.0.0.1");
+	c->port = 9999;
+	c->streams = 1;
+	c->rate = 48000;
+	c->channels = 2;
+	c->format = LG_S16LE;
+	c->chunk_frames = 480;
+	c->signal = LG_SINE;
+	c->freq = 440;
+	c->freq2 = 20000;
+	c->sweep_secs = 5;
+	c->impulse_ms = 500;
+	c->level = 0.5;
+	c->batch = 1;
+	c->lowat = 32768;
+}
+
+static int pick(const char *v, const char **names, int n)
+{
+	for (int i = 0; i < n; i++)
+		if (!strcmp(v, names[i]))
+			return i;
+	return -1;
+}
+
+int lg_set(struct lg_config *c, const char *k, const char *v)
+{
+	int i;
+	if (!strcmp(k, "host")) {
+		snprintf(c->host, sizeof(c->host), "%s", v);
+	} else if (!strcmp(k, "port")) {
+		c->port = atoi(v);
+	} else if (!strcmp(k, "port_step")) {
+		c->port_step = atoi(v);
+	} else if (!strcmp(k, "streams")) {
+		c->streams = atoi(v);
+	} else if (!strcmp(k, "rate")) {
+		c->rate = atoi(v);
+	} else if (!strcmp(k, "channels")) {
+		c->channels = atoi(v);
+	} else if (!strcmp(k, "format")) {
+		if ((i = pick(v, FORMATS, 3)) < 0)
+			return -1;
+		c->format = i;
+	} else if (!strcmp(k, "chunk")) {
+		c->chunk_frames = atoi(v);
+	} else if (!strcmp(k, "signal")) {
+		if ((i = pick(v, SIGNALS, 4)) < 0)
+			return -1;
+		c->signal = i;
+	} else if (!strcmp(k, "freq")) {
+		c->freq = atof(v);
+	} else if (!strcmp(k, "freq2")) {
+		c->freq2 = atof(v);
+	} else if (!strcmp(k, "sweep")) {
+		c->sweep_secs = atof(v);
+	} else if (!strcmp(k, "impulse_ms")) {
+		c->impulse_ms = atof(v);
+	} else if (!strcmp(k, "level")) {
+		c->level = atof(v);
+	} else if (!strcmp(k, "framed")) {
+		c->framed = atoi(v) != 0;
+	} else if (!strcmp(k, "batch")) {
+		c->batch = atoi(v);
+	} else if (!strcmp(k, "sndbuf")) {
+		c->sndbuf = atoi(v);
+	} else if (!strcmp(k, "lowat")) {
+		c->lowat = atoi(v);
+	} else {
+		return -1;
+	}
+	return 0;
+}
+
+int lg_load(struct lg_config *c, const char *path)
+{
+	FILE *f = fopen(path, "r");
+	char line[256];
+	int n = 0;
+	if (!f)
+		return 0;
+	while (fgets(line, sizeof(line), f)) {
+		char *eq = strchr(line, '='), *e;
+		if (line[0] == '#' || !eq)
+			continue;
+		*eq = 0;
+		for (e = eq + 1 + strlen(eq + 1); e > eq + 1 && (e[-1] == '\n' || e[-1] == ' '); )
+			*--e = 0;
+		if (lg_set(c, line, eq + 1) < 0)
+			LGLOG("%s: bad setting %s=%s", path, line, eq + 1);
+		else
+			n++;
+	}
+	fclose(f);
+	return n;
+}
+
+void lg_describe(const struct lg_config *c, char *out, size_t n)
+{
+	snprintf(out, n, "%dx %s:%d%s %s %dHz %dch chunk=%dx%d %s%s sndbuf=%d lowat=%d",
+		 c->streams, c->host, c->port, c->port_step ? "+" : "", FORMATS[c->format], c->rate,
+		 c->channels, c->chunk_frames, c->batch, SIGNALS[c->signal],
+		 c->framed ? " framed" : "", c->sndbuf, c->lowat);
+}
+
+static int check(const struct lg_config *c)
+{
+	return c->streams >= 1 && c->streams <= 256 && c->rate >= 8000 && c->rate <= 384000 &&
+	       c->channels >= 1 && c->channels <= 8 && c->chunk_frames >= 16 &&
+	       c->chunk_frames <= c->rate && c->port > 0 && c->port < 65536 &&
+	       c->level >= 0 && c->level <= 1 && c->freq > 0 && c->freq2 > 0 &&
+	       c->sweep_secs > 0 && c->impulse_ms > 0 && c->format >= 0 && c->format <= LG_ULAW &&
+	       c->signal >= 0 && c->signal <= LG_IMPULSE &&
+	       c->batch >= 1 && c->batch <= MAX_BATCH && c->sndbuf >= 0 && c->lowat >= 0 &&
+	       !(c->framed && c->format == LG_S24LE);   /* no FORMAT encoding for it */
+}
+
+/* Renders the loop of the signal in wire format. Lengths are chosen so the loop is
+ * seamless: 1 s for sine (freq rounded to whole Hz) and noise, one sweep, one impulse
+ * period. */
+static int build_table(struct lg *g)
+{
+	const struct lg_config *c = &g->cfg;
+	size_t frames, fb = (size_t)c->channels *
+			    (c->format == LG_S24LE ? 3 : c->format == LG_ULAW ? 1 : 2);
+	double amp = c->level * 32767.0;
+	switch (c->signal) {
+	case LG_SWEEP: frames = (size_t)(c->sweep_secs * c->rate); break;
+	case LG_IMPULSE: frames = (size_t)(c->impulse_ms * c->rate / 1000.0); break;
+	default: frames = (size_t)c->rate; break;
+	}
+	if (frames < 1)
+		frames = 1;
+	g->frame_bytes = fb;
+	g->table_frames = frames;
+	g->table = malloc((frames + c->chunk_frames) * fb);
+	if (!g->table)
+		return -1;
+
+	double f0 = c->freq, f1 = c->freq2, T = c->sweep_secs, k = log(f1 / f0);
+	uint32_t rnd = 0x12345678u;
+	for (size_t i = 0; i < frames; i++) {
+		double t = (double)i / c->rate, v = 0;
+		if (c->signal == LG_SINE)
+			v = sin(2 * M_PI * floor(c->freq + 0.5) * t);
+		else if (c->signal == LG_SWEEP)
+			v = (fabs(k) < 1e-9) ? sin(2 * M_PI * f0 * t)
+					     : sin(2 * M_PI * f0 * T / k * (exp(t * k / T) - 1));
+		else if (c->signal == LG_IMPULSE)
+			v = (i == 0) ? 1.0 : 0.0;
+		for (int ch = 0; ch < c->channels; ch++) {
+			if (c->signal == LG_NOISE) {
+				/* xorshift32, independent per channel */
+				rnd ^= rnd << 13; rnd ^= rnd >> 17; rnd ^= rnd << 5;
+				v = (double)(int32_t)rnd / 2147483648.0;
+			}
+			int32_t s = (int32_t)lrint(v * amp);
+			uint8_t *p = g->table + i * fb + ch * (fb / c->channels);
+			if (c->format == LG_S16LE) {
+				p[0] = s; p[1] = s >> 8;
+			} else if (c->format == LG_S24LE) {
+				int32_t s24 = s * 256;
+				p[0] = s24; p[1] = s24 >> 8; p[2] = s24 >> 16;
+			} else {
+				p[0] = ulaw((int16_t)s);
+			}
+		}
+	}
+	/* the first chunk again after the end: any chunk is one contiguous slice */
+	for (size_t i = 0; i < (size_t)c->chunk_frames; i++)
+		memcpy(g->table + (frames + i) * fb, g->table + (i % frames) * fb, fb);
+	return 0;
+}
+
+static void *stream_main(void *arg)
+{
+	struct lg_stream *s = arg;
+	struct lg *g = s->g;
+	const struct lg_config *c = &g->cfg;
+	const int port = c->port + s->index * c->port_step;
+	const size_t cb = (size_t)c->chunk_frames * g->frame_bytes;
+	const int64_t chunk_ns = (int64_t)c->chunk_frames * 1000000000LL / c->rate;
+	/* streams start at different points of the loop */
+	size_t pos = g->table_frames * s->index / c->streams;
+	uint8_t fmt[HDR + 8], hdr[MAX_BATCH][HDR];
+	struct iovec v[2 * MAX_BATCH];
+	uint32_t seq = 0;
+	int64_t backoff = BACKOFF_MIN_NS, lost = mono_ns(), cpu = cpu_ns();
+	char peer[64];
+
+	while (atomic_load(&g->run)) {
+		int64_t ct = mono_ns();
+		int fd = ntx_connect(c->host, port, &g->net, peer, sizeof(peer));
+		if (fd < 0) {
+			/* quick retries through a receiver restart, backing off once the
+			 * outage is longer than that */
+			int64_t now = mono_ns();
+			if (now - lost > BACKOFF_AFTER_NS)
+				backoff = backoff * 2 < BACKOFF_MAX_NS ? backoff * 2 : BACKOFF_MAX_NS;
+			sleep_until(now + backoff);
+			continue;
+		}
+		backoff = BACKOFF_MIN_NS;
+		LGLOG("stream %d connected to %s", s->index, peer);
+		int64_t t0 = mono_ns();
+		pthread_mutex_lock(&s->mu);
+		s->st.connected = 1;
+		s->st.connect_ns = t0 - ct;
+		s->st.down_ns += t0 - s->down_since;
+		pthread_mutex_unlock(&s->mu);
+
+		uint64_t frames = 0;
+		if (c->framed) {
+			struct iovec f = { fmt, HDR + 8 };
+			put_hdr(fmt, T_FORMAT, 8, seq++, t0);
+			fmt[HDR] = c->format == LG_ULAW ? ENC_ULAW : ENC_S16LE;
+			fmt[HDR + 1] = c->channels;
+			fmt[HDR + 2] = 0;
+			fmt[HDR + 3] = 0;
+			put32(fmt + HDR + 4, c->rate);
+			if (ntx_send(fd, &f, 1, &g->net, &g->run) < 0)
+				goto drop;
+		}
+		while (atomic_load(&g->run)) {
+			/* a batch is due when its last frame would have been captured */
+			uint64_t end = frames + (uint64_t)c->chunk_frames * c->batch;
+			int64_t due = t0 + (int64_t)(end / c->rate) * 1000000000LL
+				    + (int64_t)(end % c->rate) * 1000000000LL / c->rate;
+			sleep_until(due);
+			int64_t w = mono_ns(), wake = w - due;
+
+			int nv = 0;
+			for (int k = 0; k < c->batch; k++) {
+				if (c->framed) {
+					/* pts of each chunk is its own capture time */
+					put_hdr(hdr[k], T_AUDIO, (uint32_t)cb, seq++,
+						due - (c->batch - 1 - k) * chunk_ns);
+					v[nv].iov_base = hdr[k];
+					v[nv++].iov_len = HDR;
+				}
+				v[nv].iov_base = g->table + pos * g->frame_bytes;
+				v[nv++].iov_len = cb;
+				pos = (pos + c->chunk_frames) % g->table_frames;
+			}
+			if (ntx_send(fd, v, nv, &g->net, &g->run) < 0)
+				goto drop;
+			int64_t now = mono_ns(), sn = now - w, cn = cpu_ns();
+
+			pthread_mutex_lock(&s->mu);
+			s->st.bytes += (cb + (c->framed ? HDR : 0)) * c->batch;
+			s->st.chunks += c->batch;
+			s->st.syscalls++;
+			s->st.cpu_ns += cn - cpu;
+			s->st.wake_sum_ns += wake;
+			if (wake > s->st.wake_max_ns)
+				s->st.wake_max_ns = wake;
+			s->st.send_sum_ns += sn;
+			if (sn > s->st.send_max_ns)
+				s->st.send_max_ns = sn;
+			if (wake > chunk_ns)
+				s->st.late++;
+			pthread_mutex_unlock(&s->mu);
+			cpu = cn;
+
+			frames = end;
+			if (now - due > RESYNC_NS) {
+				/* a receiver that stalled us this long is measured, not chased */
+				t0 = mono_ns();
+				frames = 0;
+				pthread_mutex_lock(&s->mu);
+				s->st.resyncs++;
+				pthread_mutex_unlock(&s->mu);
+			}
+		}
+drop:
+		close(fd);
+		lost = mono_ns();
+		pthread_mutex_lock(&s->mu);
+		s->st.connected = 0;
+		s->down_since = lost;
+		if (atomic_load(&g->run))
+			s->st.reconnects++;
+		pthread_mutex_unlock(&s->mu);
+		if (atomic_load(&g->run))
+			LGLOG("stream %d lost %s, reconnecting", s->index, peer);
+	}
+	return NULL;
+}
+
+struct lg *lg_start(const struct lg_config *c)
+{
+	struct lg *g;
+	if (!check(c)) {
+		LGLOG("bad config");
+		return NULL;
+	}
+	g = calloc(1, sizeof(*g));
+	if (!g)
+		return NULL;
+	g->cfg = *c;
+	atomic_init(&g->run, 1);
+	ntx_defaults(&g->net);
+	g->net.sndbuf = c->sndbuf;
+	g->net.notsent_lowat = c->lowat;
+	g->s = calloc(c->streams, sizeof(*g->s));
+	if (!g->s || build_table(g) < 0) {
+		free(g->s);
+		free(g);
+		return NULL;
+	}
+	for (int i = 0; i < c->streams; i++) {
+		struct lg_stream *s = &g->s[i];
+		s->g = g;
+		s->index = i;
+		s->taken_ns = mono_ns();
+		s->down_since = s->taken_ns;
+		pthread_mutex_init(&s->mu, NULL);
+		pthread_create(&s->th, NULL, stream_main, s);
+	}
+	return g;
+}
+
+void lg_stop(struct lg *g)
+{
+	if (!g)
+		return;
+	atomic_store(&g->run, 0);
+	for (int i = 0; i < g->cfg.streams; i++) {
+		pthread_join(g->s[i].th, NULL);
+		pthread_mutex_destroy(&g->s[i].mu);
+	}
+	free(g->s);
+	free(g->table);
+	free(g);
+}
+
+int lg_streams(const struct lg *g) { return g ? g->cfg.streams : 0; }
+
+int64_t lg_take(struct lg *g, int i, struct lg_stats *out)
+{
+	struct lg_stream *s = &g->s[i];
+	int64_t now = mono_ns(), dt;
+	pthread_mutex_lock(&s->mu);
+	if (!s->st.connected) {
+		s->st.down_ns += now - s->down_since;
+		s->down_since = now;
+	}
+	*out = s->st;
+	memset(&s->st, 0, sizeof(s->st));
+	s->st.connected = out->connected;
+	dt = now - s->taken_ns;
+	s->taken_ns = now;
+	pthread_mutex_unlock(&s->mu);
+	return dt;
+}
+
+void lg_format_stats(const struct lg_stats *s, int i, int64_t dt, char *out, size_t n)
+{
+	double secs = dt / 1e9;
+	uint64_t w = s->syscalls ? s->syscalls : 1;
+	snprintf(out, n, "s%d %s kbps=%.0f chunks=%llu sys=%llu wake=%.2f/%.2fms late=%llu "
+		 "resync=%llu send=%.2f/%.2fms cpu=%.2f%% reconn=%llu conn=%.1fms down=%.0fms",
+		 i, s->connected ? "up" : "down", secs > 0 ? s->bytes * 8 / secs / 1000.0 : 0.0,
+		 (unsigned long long)s->chunks, (unsigned long long)s->syscalls,
+		 s->wake_sum_ns / 1e6 / w, s->wake_max_ns / 1e6, (unsigned long long)s->late,
+		 (unsigned long long)s->resyncs, s->send_sum_ns / 1e6 / w, s->send_max_ns / 1e6,
+		 secs > 0 ? s->cpu_ns / 1e7 / secs : 0.0, (unsigned long long)s->reconnects,
+		 s->connect_ns / 1e6, s->down_ns / 1e6);
+}
@@ -0,0 +1,76 @@
+/*
+ * loadgen - multi-stream PCM load generator for receiver benchmarking
+ *
+ * N streams, one thread and one TCP connection each, send a precomputed test signal at
+ * a fixed rate. Each chunk is due at an absolute deadline (clock_nanosleep TIMER_ABSTIME
+ * on CLOCK_MONOTONIC), so pacing does not drift; how late each wakeup and each send was
+ * is kept per stream. The signal is rendered once into a wire-format table at start,
+ * the hot loop only copies from it. Transport is nettx: raced non-blocking connects and
+ * sendmsg() of batch chunks per wakeup.
+ *
+ * Plain POSIX: the same core runs in the NativeActivity (main.c) and as a Linux host
+ * binary (loadgen_host.c).
+ */
+#ifndef LOADGEN_H
+#define LOADGEN_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+enum lg_signal { LG_SINE, LG_SWEEP, LG_NOISE, LG_IMPULSE };
+enum lg_format { LG_S16LE, LG_S24LE, LG_ULAW };
+
+struct lg_config {
+	char host[128];
+	int port;
+	int port_step;          /* stream i connects to port + i * port_step */
+	int streams;
+	int rate;
+	int channels;
+	int format;             /* enum lg_format */
+	int chunk_frames;
+	int signal;             /* enum lg_signal */
+	double freq, freq2;     /* sine: freq; sweep: freq -> freq2 */
+	double sweep_secs;
+	double impulse_ms;      /* impulse train period */
+	double level;           /* 0..1 of full scale */
+	int framed;             /* Framing.java headers, FORMAT first */
+	int batch;              /* chunks per wakeup and sendmsg() */
+	int sndbuf;             /* SO_SNDBUF bytes, 0 = kernel default */
+	int lowat;              /* TCP_NOTSENT_LOWAT bytes, 0 = off */
+};
+
+struct lg_stats {
+	uint64_t bytes, chunks;
+	uint64_t late;          /* wakeups more than one chunk behind the deadline */
+	uint64_t resyncs;       /* fell so far behind that the schedule was reset */
+	uint64_t reconnects;
+	int64_t wake_sum_ns, wake_max_ns;   /* wakeup - deadline */
+	int64_t send_sum_ns, send_max_ns;   /* time blocked in send() */
+	uint64_t syscalls;      /* sendmsg() calls */
+	int64_t cpu_ns;         /* thread CPU time */
+	int64_t connect_ns;     /* last successful connect */
+	int64_t down_ns;        /* time without a connection */
+	int connected;
+};
+
+struct lg;
+
+void lg_defaults(struct lg_config *c);
+/* key=value setting (host, port, port_step, streams, rate, channels, format, chunk,
+ * signal, freq, freq2, sweep, impulse_ms, level, framed, batch, sndbuf, lowat); -1 on
+ * unknown key or value */
+int lg_set(struct lg_config *c, const char *key, const char *val);
+/* lg_set for each "key=value" line of a file; 0 if the file does not exist */
+int lg_load(struct lg_config *c, const char *path);
+void lg_describe(const struct lg_config *c, char *out, size_t n);
+
+struct lg *lg_start(const struct lg_config *c);
+void lg_stop(struct lg *g);
+int lg_streams(const struct lg *g);
+/* stats of stream i since the previous call; returns the interval in ns */
+int64_t lg_take(struct lg *g, int i, struct lg_stats *out);
+/* one line for stream i from a lg_take() result */
+void lg_format_stats(const struct lg_stats *s, int i, int64_t interval_ns, char *out, size_t n);
+
+#endif
@@ -0,0 +1,123 @@
+/*
+ * pwload - loadgen (loadgen.h) as a Linux host binary
+ *
+ *   make pwload      (or: cc -O2 -Wall -pthread -o pwload jni/loadgen.c jni/nettx.c
+ *                         jni/loadgen_host.c -lm)
+ *   pwload [-c file] [-s secs] [key=value ...]
+ *
+ * Settings are the lg_set() keys, e.g.
+ *   pwload host=192.168.1.50 port=4010 port_step=1 streams=8 signal=sweep chunk=240
+ *   pwload streams=4 batch=4 lowat=16384 sndbuf=65536
+ * Prints one stats line per stream every second, a total at the end and the process
+ * CPU time (getrusage) for before/after comparisons.
+ */
+#define _GNU_SOURCE
+#include "loadgen.h"
+
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/resource.h>
+#include <time.h>
+#include <unistd.h>
+
+static volatile sig_atomic_t stop;
+
+static void on_sig(int sig)
+{
+	(void)sig;
+	stop = 1;
+}
+
+int main(int argc, char **argv)
+{
+	struct lg_config c;
+	struct lg_stats st;
+	char line[384];
+	int secs = 0, opt;
+
+	lg_defaults(&c);
+	while ((opt = getopt(argc, argv, "c:s:")) != -1) {
+		switch (opt) {
+		case 'c':
+			if (lg_load(&c, optarg) <= 0)
+				fprintf(stderr, "pwload: nothing read from %s\n", optarg);
+			break;
+		case 's': secs = atoi(optarg); break;
+		default:
+			fprintf(stderr, "usage: %s [-c file] [-s secs] [key=value ...]\n", argv[0]);
+			return 2;
+		}
+	}
+	for (int i = optind; i < argc; i++) {
+		char *eq = strchr(argv[i], '=');
+		if (!eq) {
+			fprintf(stderr, "pwload: expected key=value, got %s\n", argv[i]);
+			return 2;
+		}
+		*eq = 0;
+		if (lg_set(&c, argv[i], eq + 1) < 0) {
+			fprintf(stderr, "pwload: bad setting %s=%s\n", argv[i], eq + 1);
+			return 2;
+		}
+	}
+
+	signal(SIGINT, on_sig);
+	signal(SIGTERM, on_sig);
+	lg_describe(&c, line, sizeof(line));
+	printf("pwload %s\n", line);
+	struct lg *g = lg_start(&c);
+	if (!g) {
+		fprintf(stderr, "pwload: bad config\n");
+		return 1;
+	}
+
+	int n = lg_streams(g);
+	struct lg_stats *tot = calloc(n, sizeof(*tot));
+	int64_t *tot_ns = calloc(n, sizeof(*tot_ns));
+	for (int t = 0; !stop && (!secs || t < secs); t++) {
+		sleep(1);
+		for (int i = 0; i < n; i++) {
+			int64_t dt = lg_take(g, i, &st);
+			lg_format_stats(&st, i, dt, line, sizeof(line));
+			printf("pwload %s\n", line);
+			tot[i].bytes += st.bytes;
+			tot[i].chunks += st.chunks;
+			tot[i].late += st.late;
+			tot[i].resyncs += st.resyncs;
+			tot[i].reconnects += st.reconnects;
+			tot[i].syscalls += st.syscalls;
+			tot[i].cpu_ns += st.cpu_ns;
+			tot[i].down_ns += st.down_ns;
+			if (st.connect_ns > tot[i].connect_ns)
+				tot[i].connect_ns = st.connect_ns;
+			tot[i].wake_sum_ns += st.wake_sum_ns;
+			tot[i].send_sum_ns += st.send_sum_ns;
+			if (st.wake_max_ns > tot[i].wake_max_ns)
+				tot[i].wake_max_ns = st.wake_max_ns;
+			if (st.send_max_ns > tot[i].send_max_ns)
+				tot[i].send_max_ns = st.send_max_ns;
+			tot[i].connected = st.connected;
+			tot_ns[i] += dt;
+		}
+		fflush(stdout);
+	}
+	lg_stop(g);
+	int64_t wall = 0;
+	for (int i = 0; i < n; i++) {
+		lg_format_stats(&tot[i], i, tot_ns[i], line, sizeof(line));
+		printf("pwload total %s\n", line);
+		if (tot_ns[i] > wall)
+			wall = tot_ns[i];
+	}
+	struct rusage ru;
+	getrusage(RUSAGE_SELF, &ru);
+	double cpu = ru.ru_utime.tv_sec + ru.ru_stime.tv_sec +
+		     (ru.ru_utime.tv_usec + ru.ru_stime.tv_usec) / 1e6;
+	printf("pwload cpu user+sys=%.3fs (%.2f%% of %.1fs) ctxsw=%ld/%ld\n", cpu,
+	       wall > 0 ? cpu * 1e11 / wall : 0.0, wall / 1e9, ru.ru_nvcsw, ru.ru_nivcsw);
+	free(tot);
+	free(tot_ns);
+	return 0;
+}
@@ -2,20 +2,12 @@
 #include <android/native_window.h>
 #include <android/native_window_jni.h>
 #include <android_native_app_glue.h>
-#include <arpa/inet.h>
-#include <errno.h>
-#include <math.h>
-#include <netdb.h>
-#include <pthread.h>
-#include <sched.h>
-#include <stdatomic.h>
 #include <stdint.h>
 #include <stdio.h>
 #include <string.h>
-#include <sys/socket.h>
 #include <time.h>
-#include <unistd.h>
 #include <android/looper.h>
+#include "loadgen.h"
 
 #define TAG "MiniNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, TAG, __VA_ARGS__)
@@ -50,135 +42,176 @@ static const uint8_t FONT5x7[96][5] = {
   {0x0C,0x50,0x50,0x50,0x3C}, {0x44,0x64,0x54,0x4C,0x44}, {0x00,0x08,0x36,0x41,0x00}, {0x00,0x00,0x7F,0x00,0x00},
   {0x00,0x41,0x36,0x08,0x00}, {0x08,0x04,0x08,0x10,0x08}
 };
-// -------- simple pixel put & text draw onto ANativeWindow buffer (ARGB_8888)
-static inline void put_px(uint32_t *fb, int W, int x, int y, uint32_t argb) {
-  if ((unsigned)x < (unsigned)W && y >= 0) fb[y*(size_t)W + x] = argb;
+// -------- drawing into a locked ANativeWindow buffer (ARGB_8888), clipped to the dirty rect
+struct canvas { uint32_t *fb; int stride; ARect clip; };
+
+static inline void put_px(const struct canvas *c, int x, int y, uint32_t argb) {
+  if (x >= c->clip.left && x < c->clip.right && y >= c->clip.top && y < c->clip.bottom)
+    c->fb[y*(size_t)c->stride + x] = argb;
 }
-static void draw_char(uint32_t *fb, int W, int x, int y, char c, uint32_t fg) {
+static void draw_char(const struct canvas *cv, int x, int y, char c, uint32_t fg) {
   if (c < 32 || c > 127) c = '?';
   const uint8_t *col = FONT5x7[c - 32];
   for (int i=0;i<5;i++) {
     uint8_t bits = col[i];
-    for (int j=0;j<7;j++) if (bits & (1<<(6-j))) put_px(fb, W, x+i, y+j, fg);
+    for (int j=0;j<7;j++) if (bits & (1<<(6-j))) put_px(cv, x+i, y+j, fg);
   }
 }
-static void draw_text(uint32_t *fb, int W, int x, int y, const char *s, uint32_t fg) {
-  for (int i=0; s[i]; ++i) { draw_char(fb, W, x + i*6, y, s[i], fg); }
+static void draw_text(const struct canvas *cv, int x, int y, const char *s, uint32_t fg) {
+  for (int i=0; s[i] && x + i*6 < cv->clip.right; ++i) draw_char(cv, x + i*6, y, s[i], fg);
 }
-// -------- TCP sine generator thread
-typedef struct {
-  atomic_int run;
-  char host[128];
-  int port;
-} tx_cfg_t;
-
-static void ms_sleep(int ms){
-  struct timespec ts; ts.tv_sec = ms/1000; ts.tv_nsec = (ms%1000)*1000000L; nanosleep(&ts,NULL);
+// clip rect in one colour: memset when all bytes match, else the first row is built once
+// and memcpy'd down
+static void fill_clip(const struct canvas *c, uint32_t argb) {
+  int w = c->clip.right - c->clip.left;
+  if (w <= 0 || c->clip.bottom <= c->clip.top) return;
+  uint32_t *row0 = c->fb + c->clip.top*(size_t)c->stride + c->clip.left;
+  uint8_t b = argb & 0xFF;
+  if (argb == b * 0x01010101u) {
+    for (int y = c->clip.top; y < c->clip.bottom; y++)
+      memset(c->fb + y*(size_t)c->stride + c->clip.left, b, w * 4);
+    return;
+  }
+  for (int x = 0; x < w; x++) row0[x] = argb;
+  for (int y = c->clip.top + 1; y < c->clip.bottom; y++)
+    memcpy(c->fb + y*(size_t)c->stride + c->clip.left, row0, w * 4);
 }
 
-static void *tx_thread(void *arg) {
-  tx_cfg_t *cfg = (tx_cfg_t*)arg;
-  const int rate=48000, ch=2;
-  const double two_pi=6.283185307179586, freq=440.0;
-  double phase=0.0, step = two_pi*freq/(double)rate;
-  const int frames_per_chunk = 480; // 10 ms
-  int16_t buf[frames_per_chunk * ch];
-
-  while (atomic_load(&cfg->run)) {
-    // connect (retry until OK)
-    int fd = socket(AF_INET, SOCK_STREAM, 0);
-    if (fd < 0) { ms_sleep(500); continue; }
-    struct hostent *he = gethostbyname(cfg->host);
-    if (!he) { close(fd); ms_sleep(1000); continue; }
-    struct sockaddr_in sa; memset(&sa,0,sizeof(sa));
-    sa.sin_family = AF_INET;
-    memcpy(&sa.sin_addr, he->h_addr, he->h_length);
-    sa.sin_port = htons(cfg->port);
-
-    if (connect(fd, (struct sockaddr*)&sa, sizeof(sa)) != 0) {
-      close(fd); ms_sleep(500); continue;
-    }
-    LOGI("TCP connected to %s:%d", cfg->host, cfg->port);
-
-    // stream loop
-    struct timespec t0; clock_gettime(CLOCK_MONOTONIC, &t0);
-    uint64_t sent_frames = 0;
-    while (atomic_load(&cfg->run)) {
-      // fill 10 ms of stereo S16LE
-      for (int i=0;i<frames_per_chunk;i++) {
-        int16_t s = (int16_t)(sin(phase) * 30000.0);
-        phase += step; if (phase >= two_pi) phase -= two_pi;
-        buf[2*i+0] = s; // L
-        buf[2*i+1] = s; // R
-      }
-      size_t need = sizeof(buf), off=0;
-      while (off < need) {
-        ssize_t n = send(fd, ((uint8_t*)buf)+off, need-off, 0);
-        if (n <= 0) goto reconnect;
-        off += (size_t)n;
-      }
-      sent_frames += frames_per_chunk;
-
-      // pace to 48k
-      double secs = (double)sent_frames / (double)rate;
-      struct timespec now; clock_gettime(CLOCK_MONOTONIC, &now);
-      double elapsed = (now.tv_sec - t0.tv_sec) + (now.tv_nsec - t0.tv_nsec)/1e9;
-      if (elapsed < secs) {
-        int ms = (int)((secs - elapsed)*1000.0);
-        if (ms > 0) ms_sleep(ms);
-      }
-    }
-reconnect:
-    LOGE("TCP reconnect...");
-    close(fd);
-    ms_sleep(200);
+// -------- load generator (loadgen.c), settings from LG_CONF if present
+#ifndef LG_HOST
+#define LG_HOST "192.168.1.131"
+#endif
+#ifndef LG_PORT
+#define LG_PORT 9999
+#endif
+#define LG_CONF "/data/local/tmp/pwload.conf"
+#define LG_LINES 8
+
+// -------- screen: fixed text rows, redrawn only when their text changes
+enum { ROW_TITLE, ROW_DESC, ROW_TOTAL, ROW_STREAM0, ROWS = ROW_STREAM0 + LG_LINES };
+#define ROW_H 12
+#define BG 0xFF101418
+static const uint32_t ROW_FG[ROW_STREAM0 + 1] = { 0xFFFFFFFF, 0xFF66CCFF, 0xFFFFD060, 0xFFB0B8C0 };
+
+static char g_rows[ROWS][128];
+static uint32_t g_dirty;        // rows whose text changed since the last render
+static int g_full = 1;          // window (re)created, resized or redraw requested
+static uint64_t g_tx_bytes, g_tx_reconn;
+
+static int row_y(int r) { return r == ROW_TITLE ? 20 : 28 + r*ROW_H; }
+static uint32_t row_fg(int r) { return ROW_FG[r < ROW_STREAM0 ? r : ROW_STREAM0]; }
+
+static void set_row(int r, const char *text) {
+  if (strncmp(g_rows[r], text, sizeof(g_rows[r]) - 1) == 0) return;
+  snprintf(g_rows[r], sizeof(g_rows[r]), "%s", text);
+  g_dirty |= 1u << r;
+}
+
+// once a second: per-stream stats into the log and their rows, totals into the overlay row
+static void take_stats(struct lg *g) {
+  struct lg_stats st;
+  int n = lg_streams(g), up = 0;
+  uint64_t bytes = 0;
+  int64_t span = 0;
+  for (int i = 0; i < n; i++) {
+    char line[384];
+    int64_t dt = lg_take(g, i, &st);
+    lg_format_stats(&st, i, dt, line, sizeof(line));
+    LOGI("%s", line);
+    if (i < LG_LINES) set_row(ROW_STREAM0 + i, line);
+    bytes += st.bytes;
+    g_tx_reconn += st.reconnects;
+    up += st.connected;
+    if (dt > span) span = dt;
   }
-  return NULL;
+  g_tx_bytes += bytes;
+  char total[128];
+  snprintf(total, sizeof(total), "tx %.2f MB  %.0f kb/s  reconnects %llu  up %d/%d",
+           g_tx_bytes / 1e6, span > 0 ? bytes * 8e6 / span : 0.0,
+           (unsigned long long)g_tx_reconn, up, n);
+  set_row(ROW_TOTAL, total);
 }
 
-// -------- rendering (fill background + text)
+// -------- rendering: whole window after g_full, otherwise the band of the dirty rows
 static void render(ANativeWindow *win) {
-  if (!win) return;
+  if (!win || (!g_full && !g_dirty)) return;
+  ARect r = { 0, 0, ANativeWindow_getWidth(win), ANativeWindow_getHeight(win) };
+  if (!g_full) {
+    int first = __builtin_ctz(g_dirty), last = 31 - __builtin_clz(g_dirty);
+    r.top = row_y(first) - 2;
+    r.bottom = row_y(last) + ROW_H - 2;
+  }
   ANativeWindow_Buffer buf;
-  if (ANativeWindow_lock(win, &buf, NULL) != 0) return;
-
-  int W = buf.width, H = buf.height;
-  uint32_t *fb = (uint32_t*)buf.bits;
-  // clear (dark)
-  for (int y=0;y<H;y++) {
-    for (int x=0;x<W;x++) fb[y*(size_t)W+x] = 0xFF101418;
+  // r comes back as what must be repainted: can be larger (e.g. no previous frame)
+  if (ANativeWindow_lock(win, &buf, &r) != 0) return;
+  struct canvas cv = { (uint32_t*)buf.bits, buf.stride, r };
+  if (cv.clip.right > buf.width) cv.clip.right = buf.width;
+  if (cv.clip.bottom > buf.height) cv.clip.bottom = buf.height;
+  fill_clip(&cv, BG);
+  for (int i = 0; i < ROWS; i++) {
+    int y = row_y(i);
+    if (g_rows[i][0] && y + 7 > cv.clip.top && y < cv.clip.bottom)
+      draw_text(&cv, 10, y, g_rows[i], row_fg(i));
   }
-  const char *line1 = "MiniNative (no Java)";
-  const char *line2 = "TCP 48kHz 16-bit stereo -> 192.168.1.131:9999";
-  draw_text(fb, W, 10, 20, line1, 0xFFFFFFFF);
-  draw_text(fb, W, 10, 40, line2, 0xFF66CCFF);
   ANativeWindow_unlockAndPost(win);
+  g_full = 0;
+  g_dirty = 0;
+}
+
+static void on_cmd(struct android_app *app, int32_t cmd) {
+  (void)app;
+  switch (cmd) {
+  case APP_CMD_INIT_WINDOW:
+  case APP_CMD_WINDOW_RESIZED:
+  case APP_CMD_WINDOW_REDRAW_NEEDED:
+  case APP_CMD_CONTENT_RECT_CHANGED:
+  case APP_CMD_CONFIG_CHANGED:
+    g_full = 1;
+    break;
+  }
+}
+
+static int64_t mono_ms(void) {
+  struct timespec ts; clock_gettime(CLOCK_MONOTONIC, &ts);
+  return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
 }
 
 // -------- app entry
 void android_main(struct android_app* app) {
-  app->onAppCmd = NULL;
+  app->onAppCmd = on_cmd;
   LOGI("android_main start");
 
-  // start TX thread
-  tx_cfg_t cfg; atomic_init(&cfg.run, 1);
-  snprintf(cfg.host, sizeof(cfg.host), "192.168.1.131");
-  cfg.port = 9999;
-  pthread_t th; pthread_create(&th, NULL, tx_thread, &cfg);
+  // start the streams
+  struct lg_config cfg;
+  lg_defaults(&cfg);
+  snprintf(cfg.host, sizeof(cfg.host), "%s", LG_HOST);
+  cfg.port = LG_PORT;
+  if (lg_load(&cfg, LG_CONF) > 0) LOGI("settings from %s", LG_CONF);
+  set_row(ROW_TITLE, "MiniNative load generator");
+  lg_describe(&cfg, g_rows[ROW_DESC], sizeof(g_rows[ROW_DESC]));
+  LOGI("loadgen %s", g_rows[ROW_DESC]);
+  struct lg *lg = lg_start(&cfg);
+  if (!lg) { LOGE("loadgen: bad config"); set_row(ROW_TOTAL, "bad config"); }
+  int64_t t_stats = mono_ms() + 1000;
 
-  int events, ident; struct android_poll_source* source;
+  int events; struct android_poll_source* source;
   while (1) {
-    /* drain all pending events without blocking */
-    while ((ident = ALooper_pollOnce(0, NULL, &events, (void**)&source)) >= 0) {
-      if (source) source->process(app, source);
-      if (app->destroyRequested) { atomic_store(&cfg.run, 0); goto done; }
+    /* sleep in the looper until an event or the next stats tick; nothing is drawn
+     * unless a row changed or the window asked for it */
+    int wait = lg ? (int)(t_stats - mono_ms()) : -1;
+    if (lg && wait <= 0) {
+      t_stats += 1000;
+      if (t_stats <= mono_ms()) t_stats = mono_ms() + 1000;
+      take_stats(lg);
+      wait = 0;
     }
-    if (app->window) render(app->window);
-    ms_sleep(16); /* ~60 fps pace */
+    if (ALooper_pollOnce(lg ? (wait > 0 ? wait : 0) : -1, NULL, &events, (void**)&source) >= 0
+        && source)
+      source->process(app, source);
+    if (app->destroyRequested) break;
+    render(app->window);
   }
 
-done:
   LOGI("stopping...");
-  atomic_store(&cfg.run, 0);
-  pthread_join(th, NULL);
+  lg_stop(lg);
 }
@@ -0,0 +1,228 @@
+/*
+ * nettx - see nettx.h
+ */
+#define _GNU_SOURCE
+#include "nettx.h"
+
+#include <arpa/inet.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <netdb.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <poll.h>
+#include <stdio.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <time.h>
+#include <unistd.h>
+
+#ifdef __ANDROID__
+#include <android/multinetwork.h>
+#endif
+
+#ifndef TCP_NOTSENT_LOWAT
+#define TCP_NOTSENT_LOWAT 25
+#endif
+
+#define MAX_ADDRS 8
+
+static int64_t mono_ms(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+void ntx_defaults(struct ntx_opts *o)
+{
+	o->connect_ms = 3000;
+	o->stagger_ms = 250;    /* RFC 8305 connection attempt delay */
+	o->stall_ms = 3000;
+	o->sndbuf = 0;
+	o->notsent_lowat = 32768;
+	o->net = 0;
+}
+
+static int start_attempt(const struct addrinfo *ai, const struct ntx_opts *o)
+{
+	int fd = socket(ai->ai_family, ai->ai_socktype | SOCK_NONBLOCK | SOCK_CLOEXEC,
+			ai->ai_protocol);
+	if (fd < 0)
+		return -1;
+#ifdef __ANDROID__
+	if (o->net > 0 && android_setsocknetwork((net_handle_t)o->net, fd) != 0) {
+		close(fd);
+		return -1;
+	}
+#endif
+	/* window sizing has to be in place before the handshake */
+	if (o->sndbuf > 0)
+		setsockopt(fd, SOL_SOCKET, SO_SNDBUF, &o->sndbuf, sizeof(o->sndbuf));
+	if (connect(fd, ai->ai_addr, ai->ai_addrlen) == 0 || errno == EINPROGRESS)
+		return fd;
+	close(fd);
+	return -1;
+}
+
+static void tune(int fd, const struct ntx_opts *o)
+{
+	int one = 1;
+	setsockopt(fd, IPPROTO_TCP, TCP_NODELAY, &one, sizeof(one));
+	if (o->notsent_lowat > 0)
+		setsockopt(fd, IPPROTO_TCP, TCP_NOTSENT_LOWAT, &o->notsent_lowat,
+			   sizeof(o->notsent_lowat));
+}
+
+static void name_of(const struct addrinfo *ai, char *out, size_t n)
+{
+	char a[INET6_ADDRSTRLEN] = "?";
+	int port = 0;
+	if (ai->ai_family == AF_INET) {
+		const struct sockaddr_in *s = (const struct sockaddr_in *)ai->ai_addr;
+		inet_ntop(AF_INET, &s->sin_addr, a, sizeof(a));
+		port = ntohs(s->sin_port);
+	} else if (ai->ai_family == AF_INET6) {
+		const struct sockaddr_in6 *s = (const struct sockaddr_in6 *)ai->ai_addr;
+		inet_ntop(AF_INET6, &s->sin6_addr, a, sizeof(a));
+		port = ntohs(s->sin6_port);
+	}
+	snprintf(out, n, ai->ai_family == AF_INET6 ? "[%s]:%d" : "%s:%d", a, port);
+}
+
+int ntx_connect(const char *host, int port, const struct ntx_opts *o, char *peer, size_t n)
+{
+	struct addrinfo hints, *res = NULL, *ai;
+	const struct addrinfo *order[MAX_ADDRS], *v6[MAX_ADDRS], *v4[MAX_ADDRS];
+	int n6 = 0, n4 = 0, na = 0, winner = -1;
+	char ps[8];
+
+	if (o->net == NTX_NET_NONE) {
+		errno = ENETUNREACH;
+		return -1;
+	}
+	memset(&hints, 0, sizeof(hints));
+	hints.ai_family = AF_UNSPEC;
+	hints.ai_socktype = SOCK_STREAM;
+	hints.ai_flags = AI_ADDRCONFIG;
+	snprintf(ps, sizeof(ps), "%d", port);
+#ifdef __ANDROID__
+	if (o->net > 0) {
+		if (android_getaddrinfofornetwork((net_handle_t)o->net, host, ps, &hints, &res) != 0)
+			return -1;
+	} else
+#endif
+	if (getaddrinfo(host, ps, &hints, &res) != 0)
+		return -1;
+	for (ai = res; ai; ai = ai->ai_next) {
+		if (ai->ai_family == AF_INET6 && n6 < MAX_ADDRS)
+			v6[n6++] = ai;
+		else if (ai->ai_family == AF_INET && n4 < MAX_ADDRS)
+			v4[n4++] = ai;
+	}
+	/* interleave families, resolver's first family first */
+	int first6 = res && res->ai_family == AF_INET6;
+	for (int i = 0; na < MAX_ADDRS && (i < n6 || i < n4); i++) {
+		const struct addrinfo *a = first6 ? (i < n6 ? v6[i] : NULL) : (i < n4 ? v4[i] : NULL);
+		const struct addrinfo *b = first6 ? (i < n4 ? v4[i] : NULL) : (i < n6 ? v6[i] : NULL);
+		if (a && na < MAX_ADDRS)
+			order[na++] = a;
+		if (b && na < MAX_ADDRS)
+			order[na++] = b;
+	}
+
+	struct pollfd pf[MAX_ADDRS];
+	int who[MAX_ADDRS], live = 0, next = 0;
+	int64_t t0 = mono_ms(), deadline = t0 + o->connect_ms, next_at = t0;
+	while (winner < 0) {
+		int64_t now = mono_ms();
+		if (now >= deadline)
+			break;
+		if (next < na && (now >= next_at || live == 0)) {
+			int fd = start_attempt(order[next], o);
+			if (fd >= 0) {
+				pf[live].fd = fd;
+				pf[live].events = POLLOUT;
+				who[live++] = next;
+			}
+			next++;
+			next_at = now + o->stagger_ms;
+			continue;
+		}
+		if (live == 0)
+			break;  /* all tried, all failed */
+		int64_t until = (next < na && next_at < deadline) ? next_at : deadline;
+		int r = poll(pf, live, (int)(until - now));
+		if (r < 0 && errno != EINTR)
+			break;
+		for (int i = 0; r > 0 && i < live; i++) {
+			if (!pf[i].revents)
+				continue;
+			int err = 0;
+			socklen_t len = sizeof(err);
+			getsockopt(pf[i].fd, SOL_SOCKET, SO_ERROR, &err, &len);
+			if (err == 0 && winner < 0) {
+				winner = pf[i].fd;
+				if (peer)
+					name_of(order[who[i]], peer, n);
+			} else {
+				close(pf[i].fd);
+			}
+			/* drop slot i, the next attempt may start at once */
+			pf[i] = pf[--live];
+			who[i] = who[live];
+			i--;
+			next_at = 0;
+			if (winner >= 0)
+				break;
+		}
+	}
+	for (int i = 0; i < live; i++)
+		if (pf[i].fd != winner)
+			close(pf[i].fd);
+	freeaddrinfo(res);
+	if (winner >= 0)
+		tune(winner, o);
+	return winner;
+}
+
+int ntx_send(int fd, struct iovec *iov, int n, const struct ntx_opts *o, atomic_int *run)
+{
+	struct msghdr m;
+	int64_t stalled = 0;
+	while (n > 0) {
+		memset(&m, 0, sizeof(m));
+		m.msg_iov = iov;
+		m.msg_iovlen = n;
+		ssize_t r = sendmsg(fd, &m, MSG_NOSIGNAL | MSG_DONTWAIT);
+		if (r < 0 && errno == EINTR)
+			continue;
+		if (r < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) {
+			/* full (or over the not-sent low mark): wait, shows up as send time */
+			struct pollfd p = { fd, POLLOUT, 0 };
+			int64_t now = mono_ms();
+			if (!stalled)
+				stalled = now;
+			if (!atomic_load(run) || now - stalled >= o->stall_ms)
+				return -1;
+			if (poll(&p, 1, 100) < 0 && errno != EINTR)
+				return -1;
+			if (p.revents & (POLLERR | POLLHUP))
+				return -1;
+			continue;
+		}
+		if (r <= 0)
+			return -1;
+		stalled = 0;
+		while (n > 0 && (size_t)r >= iov->iov_len) {
+			r -= iov->iov_len;
+			iov++;
+			n--;
+		}
+		if (n > 0) {
+			iov->iov_base = (uint8_t *)iov->iov_base + r;
+			iov->iov_len -= r;
+		}
+	}
+	return 0;
+}
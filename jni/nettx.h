@@ -0,0 +1,45 @@
+/*
+ * nettx - TCP transport of the native sender
+ *
+ * Connect: getaddrinfo() for every address family, attempts raced Happy Eyeballs style
+ * (RFC 8305): families interleaved, the next attempt starts stagger_ms after the previous
+ * one or as soon as it fails, the first socket to complete wins. Sockets are non-blocking
+ * and every wait is a poll() with a timeout, so nothing hangs on a dead peer.
+ *
+ * Send: sendmsg() of a whole iovec (several chunks in one call when batching), with
+ * TCP_NOTSENT_LOWAT keeping the unsent backlog in the kernel small: data waits in our
+ * schedule rather than in a deep socket queue.
+ *
+ * Network: on Android the sockets and the lookup can be pinned to one network (the Wi-Fi
+ * Network's handle), so the stream never leaves on the default route, which may be
+ * cellular. NTX_NET_NONE means that network is required but absent: connect fails at once.
+ */
+#ifndef NETTX_H
+#define NETTX_H
+
+#include <stdatomic.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <sys/uio.h>
+
+struct ntx_opts {
+	int connect_ms;         /* whole connect, all attempts */
+	int stagger_ms;         /* head start of one attempt over the next */
+	int stall_ms;           /* a send blocked this long means the peer is gone */
+	int sndbuf;             /* SO_SNDBUF bytes, 0 = kernel default */
+	int notsent_lowat;      /* TCP_NOTSENT_LOWAT bytes, 0 = off */
+	int64_t net;            /* Network.getNetworkHandle(), 0 = default route */
+};
+
+#define NTX_NET_NONE (-1)
+
+void ntx_defaults(struct ntx_opts *o);
+
+/* connected, tuned, non-blocking socket or -1; peer gets "addr:port" of the winner */
+int ntx_connect(const char *host, int port, const struct ntx_opts *o, char *peer, size_t n);
+
+/* all of iov, waiting in poll() while the socket is full; -1 on error, stall or !*run.
+ * iov is consumed (bases and lengths advance). */
+int ntx_send(int fd, struct iovec *iov, int n, const struct ntx_opts *o, atomic_int *run);
+
+#endif
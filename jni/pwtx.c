@@ -0,0 +1,569 @@
+/*
+ * pwtx - native sender thread behind NativeSender.java (libpwtx.so)
+ *
+ * Java keeps the capture, this thread owns the socket: pacing, batching and the writes
+ * happen here, off the ART heap. Chunks live in a fixed pool of direct ByteBuffers that
+ * Java allocates once; their addresses are taken at open. Every slot is in exactly one
+ * state and only moves along
+ *
+ *   FREE -> JAVA (acquire) -> QUEUED (submit) -> SENDING -> FREE
+ *                JAVA -> FREE (release: nothing to send, e.g. muted)
+ *                QUEUED -> JAVA (acquire with no FREE slot: the oldest queued chunk is
+ *                                evicted and counted, capture never waits on the link)
+ *
+ * so a buffer is never written by Java while the kernel may still read it. The first
+ * HDR bytes of each slot are room for the frame header; Java fills from HDR on.
+ *
+ * The thread connects with nettx (raced, non-blocking, bounded), reconnects on its own,
+ * waits for `batch` chunks (or the oldest one to be a batch late), optionally holds them
+ * until the last one's capture end (paced), applies the gain and sends them with one
+ * sendmsg().
+ *
+ * With tracing on (NativeSender.setTrace, the app's "trace" pref) the thread marks
+ * pwtx.connect and pwtx.send sections and a pwtx.queue counter (chunks waiting when a
+ * batch is taken) for Perfetto / systrace, next to the Java side's pw.* markers. ATrace
+ * is looked up in libandroid at run time (ATrace_setCounter is API 29, we run from 24);
+ * off, or on the host, a marker is one flag test.
+ */
+#define _GNU_SOURCE
+#include "nettx.h"
+
+#include <errno.h>
+#include <jni.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <time.h>
+#include <unistd.h>
+
+#ifdef __ANDROID__
+#include <android/log.h>
+#include <dlfcn.h>
+#define TXLOG(...) __android_log_print(ANDROID_LOG_INFO, "pw-tx", __VA_ARGS__)
+#else
+#define TXLOG(...) do { fprintf(stderr, "pw-tx: " __VA_ARGS__); fputc('\n', stderr); } while (0)
+#endif
+
+#define HDR        20
+#define MAGIC      0x5057
+#define T_AUDIO    1
+#define T_FORMAT   2
+#define ENC_S16LE  1
+#define GAIN_UNITY 65536
+#define MAX_SLOTS  64
+#define MAX_BATCH  16
+#define BACKOFF_MIN_NS   50000000LL
+#define BACKOFF_MAX_NS 1000000000LL
+
+enum { S_FREE, S_JAVA, S_QUEUED, S_SENDING };
+
+/* stats layout shared with NativeSender.java */
+enum { ST_BYTES, ST_CHUNKS, ST_SYSCALLS, ST_EVICTED, ST_DROPPED, ST_RECONNECTS, ST_SEND_NS,
+       ST_SEND_MAX_NS, ST_HOLD_NS, ST_QUEUE_MAX, ST_CPU_NS, ST_CONNECTED, ST_N };
+
+struct slot {
+	uint8_t *base;
+	int state;
+	int len;                /* PCM bytes after HDR */
+	int gain;               /* Q16 */
+	int64_t pts;            /* capture time of the first frame, CLOCK_MONOTONIC ns */
+	int64_t queued_at;
+};
+
+struct ptx {
+	pthread_mutex_t mu;
+	pthread_cond_t cv;
+	pthread_t th;
+	atomic_int run;
+	struct ntx_opts net;
+	char host[128];
+	int port, framed, rate, channels, batch, paced;
+	int64_t chunk_ns;
+	int cap;                /* PCM bytes a slot holds */
+	int nslots;
+	struct slot slots[MAX_SLOTS];
+	int q[MAX_SLOTS], qhead, qn;    /* QUEUED slots, oldest first */
+	int fd;                 /* current connection, -1 while down (for nRelink) */
+	int kick;               /* nRelink: cut the back-off short */
+	int64_t st[ST_N];
+	uint32_t seq;
+};
+
+/* trace markers: set per session, read by the thread; a section ends under the flag it
+ * began with */
+static atomic_int trace_on;
+static void (*at_begin)(const char *);
+static void (*at_end)(void);
+static void (*at_counter)(const char *, int64_t);
+
+static int trace_begin(const char *name)
+{
+	if (!atomic_load_explicit(&trace_on, memory_order_relaxed))
+		return 0;
+	at_begin(name);
+	return 1;
+}
+
+static void trace_end(int began)
+{
+	if (began)
+		at_end();
+}
+
+static void trace_counter(const char *name, int64_t v)
+{
+	if (atomic_load_explicit(&trace_on, memory_order_relaxed) && at_counter)
+		at_counter(name, v);
+}
+
+static int64_t mono_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static int64_t cpu_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_THREAD_CPUTIME_ID, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static struct timespec ts_of(int64_t t)
+{
+	struct timespec ts = { (time_t)(t / 1000000000LL), (long)(t % 1000000000LL) };
+	return ts;
+}
+
+static void sleep_until(int64_t t)
+{
+	struct timespec ts = ts_of(t);
+	while (clock_nanosleep(CLOCK_MONOTONIC, TIMER_ABSTIME, &ts, NULL) == EINTR)
+		;
+}
+
+/* sleep_until() that nClose and nRelink cut short: the reconnect backoff is up to a second */
+static void wait_until(struct ptx *t, int64_t until)
+{
+	struct timespec ts = ts_of(until);
+	pthread_mutex_lock(&t->mu);
+	while (atomic_load(&t->run) && !t->kick && mono_ns() < until)
+		if (pthread_cond_timedwait(&t->cv, &t->mu, &ts) == ETIMEDOUT)
+			break;
+	t->kick = 0;
+	pthread_mutex_unlock(&t->mu);
+}
+
+static void put32(uint8_t *b, uint32_t v)
+{
+	b[0] = v >> 24; b[1] = v >> 16; b[2] = v >> 8; b[3] = v;
+}
+
+static void put_hdr(uint8_t *b, int type, uint32_t len, uint32_t seq, int64_t pts)
+{
+	b[0] = MAGIC >> 8; b[1] = MAGIC & 0xFF; b[2] = type; b[3] = 0;
+	put32(b + 4, len);
+	put32(b + 8, seq);
+	put32(b + 12, (uint32_t)((uint64_t)pts >> 32));
+	put32(b + 16, (uint32_t)pts);
+}
+
+/* in-place s16le gain, Q16 */
+static void apply_gain(uint8_t *p, int len, int g)
+{
+	for (int i = 0; i + 1 < len; i += 2) {
+		int32_t v = (int16_t)(p[i] | p[i + 1] << 8);
+		v = (int32_t)(((int64_t)v * g + 32768) >> 16);
+		if (v > 32767)
+			v = 32767;
+		else if (v < -32768)
+			v = -32768;
+		p[i] = v;
+		p[i + 1] = v >> 8;
+	}
+}
+
+/* callers hold mu */
+static int q_pop(struct ptx *t)
+{
+	int i = t->q[t->qhead];
+	t->qhead = (t->qhead + 1) % t->nslots;
+	t->qn--;
+	return i;
+}
+
+static void drop_queued(struct ptx *t)
+{
+	while (t->qn > 0) {
+		t->slots[q_pop(t)].state = S_FREE;
+		t->st[ST_DROPPED]++;
+	}
+}
+
+/* Waits for a batch and moves it QUEUED -> SENDING; count, 0 when stopping. *depth: chunks
+ * queued when it was taken */
+static int take_batch(struct ptx *t, int *idx, int *depth)
+{
+	int n = 0;
+	pthread_mutex_lock(&t->mu);
+	while (atomic_load(&t->run)) {
+		if (t->qn >= t->batch)
+			break;
+		if (t->qn > 0) {
+			/* a partial batch (mute, stop, slow capture) goes once it is a batch late */
+			int64_t due = t->slots[t->q[t->qhead]].queued_at + t->batch * t->chunk_ns;
+			if (mono_ns() >= due)
+				break;
+			struct timespec ts = ts_of(due);
+			pthread_cond_timedwait(&t->cv, &t->mu, &ts);
+		} else {
+			pthread_cond_wait(&t->cv, &t->mu);
+		}
+	}
+	*depth = t->qn;
+	if (atomic_load(&t->run)) {
+		/* after a stall everything queued goes at once, up to MAX_BATCH */
+		while (t->qn > 0 && n < MAX_BATCH) {
+			idx[n] = q_pop(t);
+			t->slots[idx[n++]].state = S_SENDING;
+		}
+	}
+	pthread_mutex_unlock(&t->mu);
+	return n;
+}
+
+static void finish(struct ptx *t, const int *idx, int n, int sent)
+{
+	pthread_mutex_lock(&t->mu);
+	for (int k = 0; k < n; k++) {
+		t->slots[idx[k]].state = S_FREE;
+		if (!sent)
+			t->st[ST_DROPPED]++;
+	}
+	pthread_mutex_unlock(&t->mu);
+}
+
+static int send_format(struct ptx *t, int fd)
+{
+	uint8_t f[HDR + 8];
+	struct iovec v = { f, sizeof(f) };
+	put_hdr(f, T_FORMAT, 8, t->seq++, mono_ns());
+	f[HDR] = ENC_S16LE;
+	f[HDR + 1] = t->channels;
+	f[HDR + 2] = 0;
+	f[HDR + 3] = 0;
+	put32(f + HDR + 4, t->rate);
+	return ntx_send(fd, &v, 1, &t->net, &t->run);
+}
+
+static void *tx_main(void *arg)
+{
+	struct ptx *t = arg;
+	int idx[MAX_BATCH];
+	struct iovec v[MAX_BATCH];
+	int64_t backoff = BACKOFF_MIN_NS, lost = mono_ns(), cpu = cpu_ns();
+	char peer[64];
+
+	while (atomic_load(&t->run)) {
+		/* nRelink may move us to another network meanwhile */
+		struct ntx_opts o;
+		pthread_mutex_lock(&t->mu);
+		o = t->net;
+		pthread_mutex_unlock(&t->mu);
+		int tr = trace_begin("pwtx.connect");
+		int fd = ntx_connect(t->host, t->port, &o, peer, sizeof(peer));
+		trace_end(tr);
+		if (fd < 0) {
+			/* nothing queued survives an outage: it would only add latency */
+			pthread_mutex_lock(&t->mu);
+			drop_queued(t);
+			pthread_mutex_unlock(&t->mu);
+			int64_t now = mono_ns();
+			if (now - lost > 2000000000LL)
+				backoff = backoff * 2 < BACKOFF_MAX_NS ? backoff * 2 : BACKOFF_MAX_NS;
+			wait_until(t, now + backoff);
+			continue;
+		}
+		backoff = BACKOFF_MIN_NS;
+		TXLOG("connected to %s", peer);
+		pthread_mutex_lock(&t->mu);
+		drop_queued(t);
+		t->fd = fd;
+		t->kick = 0;
+		t->st[ST_CONNECTED] = 1;
+		pthread_mutex_unlock(&t->mu);
+		t->seq = 0;
+		if (t->framed && send_format(t, fd) < 0)
+			goto drop;
+
+		while (atomic_load(&t->run)) {
+			int depth;
+			int n = take_batch(t, idx, &depth);
+			if (n == 0)
+				break;
+			trace_counter("pwtx.queue", depth);
+			if (t->paced) {
+				/* due when the last frame of the batch was captured; a pts that far
+				 * ahead is not on our clock, send at once */
+				const struct slot *last = &t->slots[idx[n - 1]];
+				int64_t due = last->pts + (int64_t)last->len * 1000000000LL /
+					      (2LL * t->channels * t->rate);
+				int64_t now = mono_ns();
+				if (due > now && due - now < 4 * t->batch * t->chunk_ns)
+					sleep_until(due);
+			}
+			int64_t w = mono_ns(), hold = 0;
+			size_t bytes = 0;
+			for (int k = 0; k < n; k++) {
+				struct slot *s = &t->slots[idx[k]];
+				if (s->gain != GAIN_UNITY)
+					apply_gain(s->base + HDR, s->len, s->gain);
+				if (t->framed) {
+					put_hdr(s->base, T_AUDIO, s->len, t->seq++, s->pts);
+					v[k].iov_base = s->base;
+					v[k].iov_len = HDR + s->len;
+				} else {
+					v[k].iov_base = s->base + HDR;
+					v[k].iov_len = s->len;
+				}
+				bytes += v[k].iov_len;
+				hold += w - s->queued_at;
+			}
+			tr = trace_begin("pwtx.send");
+			int r = ntx_send(fd, v, n, &t->net, &t->run);
+			trace_end(tr);
+			if (r < 0) {
+				finish(t, idx, n, 0);
+				goto drop;
+			}
+			int64_t sn = mono_ns() - w, c = cpu_ns();
+			finish(t, idx, n, 1);
+			pthread_mutex_lock(&t->mu);
+			t->st[ST_BYTES] += bytes;
+			t->st[ST_CHUNKS] += n;
+			t->st[ST_SYSCALLS]++;
+			t->st[ST_SEND_NS] += sn;
+			if (sn > t->st[ST_SEND_MAX_NS])
+				t->st[ST_SEND_MAX_NS] = sn;
+			t->st[ST_HOLD_NS] += hold;
+			t->st[ST_CPU_NS] += c - cpu;
+			pthread_mutex_unlock(&t->mu);
+			cpu = c;
+		}
+drop:
+		lost = mono_ns();
+		pthread_mutex_lock(&t->mu);
+		t->fd = -1;
+		close(fd);
+		t->st[ST_CONNECTED] = 0;
+		if (atomic_load(&t->run))
+			t->st[ST_RECONNECTS]++;
+		pthread_mutex_unlock(&t->mu);
+		if (atomic_load(&t->run))
+			TXLOG("lost %s, reconnecting", peer);
+	}
+	return NULL;
+}
+
+static struct ptx *ptx_of(jlong h)
+{
+	return (struct ptx *)(intptr_t)h;
+}
+
+JNIEXPORT jlong JNICALL
+Java_org_example_mininative_NativeSender_nOpen(JNIEnv *env, jclass cls, jstring host, jint port,
+					       jboolean framed, jint rate, jint channels,
+					       jlong chunk_ns, jint batch, jboolean paced,
+					       jint sndbuf, jint lowat, jlong net, jobjectArray bufs)
+{
+	(void)cls;
+	struct ptx *t = calloc(1, sizeof(*t));
+	if (!t)
+		return 0;
+	int n = (*env)->GetArrayLength(env, bufs);
+	t->nslots = n < MAX_SLOTS ? n : MAX_SLOTS;
+	t->cap = -1;
+	for (int i = 0; i < t->nslots; i++) {
+		jobject b = (*env)->GetObjectArrayElement(env, bufs, i);
+		t->slots[i].base = (*env)->GetDirectBufferAddress(env, b);
+		int c = (int)(*env)->GetDirectBufferCapacity(env, b) - HDR;
+		if (t->cap < 0 || c < t->cap)
+			t->cap = c;
+		(*env)->DeleteLocalRef(env, b);
+		if (!t->slots[i].base) {
+			free(t);
+			return 0;
+		}
+	}
+	const char *h = (*env)->GetStringUTFChars(env, host, NULL);
+	snprintf(t->host, sizeof(t->host), "%s", h ? h : "");
+	if (h)
+		(*env)->ReleaseStringUTFChars(env, host, h);
+	t->port = port;
+	t->framed = framed;
+	t->rate = rate;
+	t->channels = channels;
+	t->chunk_ns = chunk_ns;
+	t->batch = batch < 1 ? 1 : batch > MAX_BATCH ? MAX_BATCH : batch;
+	t->paced = paced;
+	ntx_defaults(&t->net);
+	t->net.sndbuf = sndbuf;
+	t->net.notsent_lowat = lowat;
+	t->net.net = net;
+	if (t->nslots < 2 || t->cap <= 0 || rate <= 0 || channels <= 0 || chunk_ns <= 0) {
+		free(t);
+		return 0;
+	}
+
+	pthread_condattr_t ca;
+	pthread_condattr_init(&ca);
+	pthread_condattr_setclock(&ca, CLOCK_MONOTONIC);
+	pthread_cond_init(&t->cv, &ca);
+	pthread_condattr_destroy(&ca);
+	pthread_mutex_init(&t->mu, NULL);
+	atomic_init(&t->run, 1);
+	t->fd = -1;
+	TXLOG("open %s:%d %s %dHz %dch slots=%d x %dB batch=%d%s", t->host, port,
+	      framed ? "framed" : "raw", rate, channels, t->nslots, t->cap, t->batch,
+	      paced ? " paced" : "");
+	if (pthread_create(&t->th, NULL, tx_main, t) != 0) {
+		pthread_cond_destroy(&t->cv);
+		pthread_mutex_destroy(&t->mu);
+		free(t);
+		return 0;
+	}
+	return (jlong)(intptr_t)t;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_example_mininative_NativeSender_nAcquire(JNIEnv *env, jclass cls, jlong h)
+{
+	(void)env; (void)cls;
+	struct ptx *t = ptx_of(h);
+	int got = -1;
+	pthread_mutex_lock(&t->mu);
+	for (int i = 0; i < t->nslots && got < 0; i++)
+		if (t->slots[i].state == S_FREE)
+			got = i;
+	if (got < 0 && t->qn > 0) {
+		got = q_pop(t);
+		t->st[ST_EVICTED]++;
+	}
+	if (got >= 0)
+		t->slots[got].state = S_JAVA;
+	pthread_mutex_unlock(&t->mu);
+	return got;
+}
+
+/* 0, or -1 if the slot is not Java's or len does not fit */
+JNIEXPORT jint JNICALL
+Java_org_example_mininative_NativeSender_nSubmit(JNIEnv *env, jclass cls, jlong h, jint i,
+						 jint len, jlong pts, jint gain)
+{
+	(void)env; (void)cls;
+	struct ptx *t = ptx_of(h);
+	int r = -1;
+	pthread_mutex_lock(&t->mu);
+	if (i >= 0 && i < t->nslots && t->slots[i].state == S_JAVA && len > 0 && len <= t->cap) {
+		struct slot *s = &t->slots[i];
+		s->len = len;
+		s->pts = pts;
+		s->gain = gain;
+		s->queued_at = mono_ns();
+		s->state = S_QUEUED;
+		t->q[(t->qhead + t->qn++) % t->nslots] = i;
+		if (t->qn > t->st[ST_QUEUE_MAX])
+			t->st[ST_QUEUE_MAX] = t->qn;
+		pthread_cond_signal(&t->cv);
+		r = 0;
+	}
+	pthread_mutex_unlock(&t->mu);
+	return r;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_example_mininative_NativeSender_nRelease(JNIEnv *env, jclass cls, jlong h, jint i)
+{
+	(void)env; (void)cls;
+	struct ptx *t = ptx_of(h);
+	int r = -1;
+	pthread_mutex_lock(&t->mu);
+	if (i >= 0 && i < t->nslots && t->slots[i].state == S_JAVA) {
+		t->slots[i].state = S_FREE;
+		r = 0;
+	}
+	pthread_mutex_unlock(&t->mu);
+	return r;
+}
+
+/* network changed: drop the connection now instead of after the stall timeout, and
+ * reconnect over net without waiting out the back-off */
+JNIEXPORT void JNICALL
+Java_org_example_mininative_NativeSender_nRelink(JNIEnv *env, jclass cls, jlong h, jlong net)
+{
+	(void)env; (void)cls;
+	struct ptx *t = ptx_of(h);
+	pthread_mutex_lock(&t->mu);
+	t->net.net = net;
+	t->kick = 1;
+	if (t->fd >= 0)
+		shutdown(t->fd, SHUT_RDWR);   /* wakes poll()/sendmsg() in the thread */
+	pthread_cond_broadcast(&t->cv);
+	pthread_mutex_unlock(&t->mu);
+}
+
+/* process wide, like the trace itself; libandroid's ATrace is resolved on first use */
+JNIEXPORT void JNICALL
+Java_org_example_mininative_NativeSender_nTrace(JNIEnv *env, jclass cls, jboolean on)
+{
+	(void)env; (void)cls;
+#ifdef __ANDROID__
+	static void *lib;
+	if (on && !lib && (lib = dlopen("libandroid.so", RTLD_NOW))) {
+		at_begin = (void (*)(const char *))dlsym(lib, "ATrace_beginSection");
+		at_end = (void (*)(void))dlsym(lib, "ATrace_endSection");
+		at_counter = (void (*)(const char *, int64_t))dlsym(lib, "ATrace_setCounter");
+	}
+	atomic_store(&trace_on, on && at_begin && at_end);
+#else
+	(void)on;
+#endif
+}
+
+/* counters since the previous call into out (ST_N longs); QUEUE_MAX restarts at the
+ * current depth, CONNECTED is a level */
+JNIEXPORT void JNICALL
+Java_org_example_mininative_NativeSender_nStats(JNIEnv *env, jclass cls, jlong h, jlongArray out)
+{
+	(void)cls;
+	struct ptx *t = ptx_of(h);
+	jlong v[ST_N];
+	pthread_mutex_lock(&t->mu);
+	for (int i = 0; i < ST_N; i++)
+		v[i] = t->st[i];
+	memset(t->st, 0, sizeof(t->st));
+	t->st[ST_CONNECTED] = v[ST_CONNECTED];
+	t->st[ST_QUEUE_MAX] = t->qn;
+	pthread_mutex_unlock(&t->mu);
+	(*env)->SetLongArrayRegion(env, out, 0, ST_N, v);
+}
+
+JNIEXPORT void JNICALL
+Java_org_example_mininative_NativeSender_nClose(JNIEnv *env, jclass cls, jlong h)
+{
+	(void)env; (void)cls;
+	struct ptx *t = ptx_of(h);
+	atomic_store(&t->run, 0);
+	pthread_mutex_lock(&t->mu);
+	pthread_cond_broadcast(&t->cv);
+	pthread_mutex_unlock(&t->mu);
+	/* bounded: connect and a stalled send give up within their nettx timeouts */
+	pthread_join(t->th, NULL);
+	pthread_cond_destroy(&t->cv);
+	pthread_mutex_destroy(&t->mu);
+	free(t);
+}
@@ -0,0 +1,38 @@
+package org.example.mininative;
+
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import java.nio.ByteBuffer;
+
+// The live source: an AudioRecord already built and recording (playback capture).
+public final class AudioRecordSource implements CaptureSource {
+    private final AudioRecord rec;
+    private final AudioTimestamp ats = new AudioTimestamp();
+
+    public AudioRecordSource(AudioRecord rec) {
+        this.rec = rec;
+    }
+
+    @Override public int rate() { return rec.getSampleRate(); }
+
+    @Override public int channels() { return rec.getChannelCount(); }
+
+    @Override public int read(byte[] b, int off, int len) { return rec.read(b, off, len); }
+
+    @Override public int read(ByteBuffer b, int len) { return rec.read(b, len); }
+
+    @Override public boolean timestamp(CaptureClock clock) {
+        if (rec.getTimestamp(ats, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+            return false;
+        }
+        clock.onTimestamp(ats.framePosition, ats.nanoTime);
+        return true;
+    }
+
+    @Override public void close() {
+        try {
+            rec.stop();
+        } catch (IllegalStateException ignored) {}
+        rec.release();
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.mininative;
+
+// Maps capture frame positions to System.nanoTime() (CLOCK_MONOTONIC).
+//
+// Preferred source is AudioRecord.getTimestamp(TIMEBASE_MONOTONIC), fed in through
+// onTimestamp(). Without it, blocking reads give an upper bound for when their last frame
+// was captured; the earliest of those (allowed to creep for drift) is the anchor.
+// Non-blocking reads return already buffered, older data and say nothing about time.
+public final class CaptureClock {
+    private final int sr;
+    private long refFrame = -1, refNs;
+    private boolean fromHal;
+
+    public CaptureClock(int sr) {
+        this.sr = sr;
+    }
+
+    public void reset() {
+        refFrame = -1;
+        fromHal = false;
+    }
+
+    public void onTimestamp(long framePos, long nanoTime) {
+        refFrame = framePos;
+        refNs = nanoTime;
+        fromHal = true;
+    }
+
+    public void onBlockingRead(long frameEnd, long nowNs) {
+        if (fromHal) return;
+        if (refFrame < 0) {
+            refFrame = frameEnd;
+            refNs = nowNs;
+            return;
+        }
+        long late = nowNs - timeOf(frameEnd);
+        if (late < 0) {
+            // arrived earlier than predicted: the anchor was too late
+            refFrame = frameEnd;
+            refNs = nowNs;
+        } else {
+            // follow slowly, so clock drift is tracked but delivery delay is not
+            refNs += late >> 8;
+        }
+    }
+
+    public boolean valid() { return refFrame >= 0; }
+    public boolean fromHal() { return fromHal; }
+
+    public long timeOf(long frame) {
+        return refNs + (frame - refFrame) * 1000000000L / sr;
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.mininative;
+
+import java.nio.ByteBuffer;
+
+// Where the sender's PCM comes from: s16le interleaved in the format rate()/channels().
+// AudioRecordSource is the live playback capture, FileSource replays a file through the
+// same processing and transport, on a device or on a host (tests/replay-test.sh).
+//
+// read() behaves like AudioRecord's blocking read: it returns when len bytes (whole frames)
+// are there, or <= 0 at the end of the source or on error. A live source blocks for the
+// capture time, so how long reads take is what clocks the whole sender.
+public interface CaptureSource {
+    int rate();
+
+    int channels();
+
+    int read(byte[] b, int off, int len);
+
+    // into a direct buffer at index 0; its position and limit are untouched
+    int read(ByteBuffer b, int len);
+
+    // feeds the clock a (frame position, monotonic time) pair if the source has one now
+    boolean timestamp(CaptureClock clock);
+
+    void close();
+}
@@ -0,0 +1,120 @@
+package org.example.mininative;
+
+import java.util.Locale;
+
+// NTP-style estimate of one receiver's clock against ours (System.nanoTime()).
+//
+// Each exchange is SYNC (t1, our send time) -> SYNC_REPLY (t2 receiver rx, t3 receiver tx)
+// -> t4 (our rx). offset = ((t2 - t1) + (t3 - t4)) / 2, delay = (t4 - t1) - (t3 - t2).
+// A sample that sat in a queue is asymmetric and has a large delay, so only samples within
+// a margin of the minimum delay of the last RING exchanges are kept (outlier rejection).
+// The kept ones are fitted with a line, giving offset and rate (drift) of the receiver
+// clock; the RMS residual of the fit is the sync error figure.
+//
+// Exchanges run in a burst at start (BURST x BURST_GAP) and then every STEADY_GAP.
+// Called from the stream thread (due/toPeer) and the control reader (onReply).
+//
+// No Android dependencies.
+public final class ClockSync {
+    private static final int RING = 32;
+    private static final int BURST = 8;
+    private static final long BURST_GAP_NS = 100000000L, STEADY_GAP_NS = 1000000000L;
+    private static final long MARGIN_MIN_NS = 200000L;     // 200 us
+    private static final long MIN_SPAN_NS = 5000000000L;   // fit a rate only over >= 5 s
+
+    private final long[] tAt = new long[RING], tOff = new long[RING], tDly = new long[RING];
+    private int count, head, exchanges, rejected;
+    private long lastSendNs;
+
+    // model: peer = local + a + b * (local - ref)
+    private boolean valid;
+    private long ref;
+    private double a, b;
+    private long errNs = -1, minDelayNs = -1;
+
+    public synchronized boolean due(long nowNs) {
+        long gap = (exchanges < BURST) ? BURST_GAP_NS : STEADY_GAP_NS;
+        if (lastSendNs != 0 && nowNs - lastSendNs < gap) return false;
+        lastSendNs = nowNs;
+        exchanges++;
+        return true;
+    }
+
+    // t1, t4 ours, t2, t3 the receiver's
+    public synchronized void onReply(long t1, long t2, long t3, long t4) {
+        long delay = (t4 - t1) - (t3 - t2);
+        if (t4 < t1 || delay < 0 || t4 - t1 > 2000000000L) return; // stale or nonsense
+        long offset = ((t2 - t1) + (t3 - t4)) / 2;
+        tAt[head] = t1 + (t4 - t1) / 2;
+        tOff[head] = offset;
+        tDly[head] = delay;
+        head = (head + 1) % RING;
+        if (count < RING) count++;
+        fit();
+    }
+
+    private void fit() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) min = Math.min(min, tDly[i]);
+        minDelayNs = min;
+        long limit = min + Math.max(min / 2, MARGIN_MIN_NS);
+
+        // least squares over the kept samples, times relative to the newest one
+        int last = (head + RING - 1) % RING;
+        long newest = tAt[last];
+        long base = tOff[last];    // keeps the doubles small: clocks may be far apart
+        int n = 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (tDly[i] > limit) continue;
+            double x = (tAt[i] - newest) / 1e9, y = tOff[i] - base;
+            sx += x; sy += y; sxx += x * x; sxy += x * y;
+            first = Math.min(first, tAt[i]);
+            n++;
+        }
+        rejected = count - n;
+        if (n == 0) return;
+        double slope = 0, icpt = sy / n;
+        double det = n * sxx - sx * sx;
+        if (n >= 3 && newest - first >= MIN_SPAN_NS && det > 0) {
+            slope = (n * sxy - sx * sy) / det;       // ns per s
+            icpt = (sy - slope * sx) / n;
+        }
+        double ss = 0;
+        for (int i = 0; i < count; i++) {
+            if (tDly[i] > limit) continue;
+            double x = (tAt[i] - newest) / 1e9;
+            double r = (tOff[i] - base) - (icpt + slope * x);
+            ss += r * r;
+        }
+        ref = newest;
+        a = base + icpt;
+        b = slope / 1e9;
+        errNs = (long) Math.sqrt(ss / n);
+        valid = n >= 3;
+    }
+
+    public synchronized boolean valid() { return valid; }
+
+    // our time -> the receiver's clock
+    public synchronized long toPeer(long localNs) {
+        return localNs + (long) (a + b * (localNs - ref));
+    }
+
+    // the receiver's clock -> ours (first order inverse of toPeer, drift is ppm)
+    public synchronized long fromPeer(long peerNs) {
+        long l = peerNs - (long) a;
+        return l - (long) (b * (l - ref));
+    }
+
+    // RMS residual of the fit in us, -1 before the first fit
+    public synchronized int errUs() { return errNs < 0 ? -1 : (int) (errNs / 1000); }
+
+    @Override public synchronized String toString() {
+        if (!valid) return "sync pending (" + count + " samples)";
+        return String.format(Locale.US,
+                "sync off=%.3fms drift=%.1fppm err=%.3fms dmin=%.3fms kept=%d/%d",
+                a / 1e6, b * 1e6, errNs / 1e6, minDelayNs / 1e6, count - rejected, count);
+    }
+}
@@ -0,0 +1,213 @@
+package org.example.mininative;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+// Per-connection reader + watchdog.
+//
+// A Java socket write cannot time out and TCP keepalive defaults to hours, so a receiver
+// that vanished without a FIN can block out.write() for minutes. The reader thread wakes
+// every TICK_MS (SO_TIMEOUT) and closes the socket when
+//   - a write has been stuck for longer than the deadline, or
+//   - the peer has spoken the control protocol before and then went silent for longer
+//     than the deadline (heartbeat lost).
+// Closing makes the blocked write throw, and the stream loop reconnects.
+//
+// In framed mode it also parses PONG/REPORT/PING/SYNC_REPLY from the receiver: RTT, buffer
+// fill and arrival jitter, clock sync samples and pongs owed to the peer. All socket writes stay on the stream thread (pingDue/takePong).
+// ECHO frames go to the LatencyProbe, their times moved onto our clock by the ClockSync.
+public final class ControlChannel implements Runnable {
+    private static final int TICK_MS = 250;
+    public static final long PING_INTERVAL_MS = 500;
+
+    private final Socket sock;
+    private final boolean framed;
+    private final long deadlineNs;
+    private Thread th;
+    private volatile boolean closed;
+
+    private volatile long writeStartNs;        // 0 = no write in progress
+    private volatile long lastRxNs;            // last control frame from peer
+    private volatile boolean peerSpeaks;       // peer answered at least once
+    private volatile String deadReason;
+
+    private long lastPingNs;
+    private volatile long rttUs = -1;          // smoothed
+    private volatile long rttLastUs = -1;
+    private volatile int fillMs = -1;
+    private volatile int jitterUs = -1;
+    private volatile long pongOwed = Long.MIN_VALUE;
+    private volatile ClockSync sync;
+    private volatile LatencyProbe probe;
+
+    public ControlChannel(Socket sock, boolean framed, long deadlineMs) {
+        this.sock = sock;
+        this.framed = framed;
+        this.deadlineNs = deadlineMs * 1000000L;
+    }
+
+    public void start() {
+        try {
+            sock.setSoTimeout(TICK_MS);
+        } catch (IOException ignore) {}
+        th = new Thread(this, "pwnet-ctl");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    public void close() {
+        closed = true;
+        if (th != null) th.interrupt();
+    }
+
+    // SYNC_REPLY frames from the peer go here
+    public void setSync(ClockSync s) { sync = s; }
+
+    // ECHO frames from the peer go here (needs setSync: echo times are on the peer clock)
+    public void setProbe(LatencyProbe p) { probe = p; }
+
+    public void beginWrite() { writeStartNs = System.nanoTime(); }
+    public void endWrite() { writeStartNs = 0; }
+
+    // reason the watchdog killed the link, null if it did not
+    public String deadReason() { return deadReason; }
+    public long rttUs() { return rttUs; }
+    public long rttLastUs() { return rttLastUs; }
+    public int fillMs() { return fillMs; }
+    // inter-arrival jitter of our AUDIO frames as the receiver measures it, -1 = not reported
+    public int jitterUs() { return jitterUs; }
+
+    // stream thread: true when a PING should go out now
+    public boolean pingDue(long nowNs) {
+        if (!framed || nowNs - lastPingNs < PING_INTERVAL_MS * 1000000L) return false;
+        lastPingNs = nowNs;
+        return true;
+    }
+
+    // stream thread: pts of a peer PING we still have to answer, or Long.MIN_VALUE
+    public long takePong() {
+        long p = pongOwed;
+        if (p != Long.MIN_VALUE) pongOwed = Long.MIN_VALUE;
+        return p;
+    }
+
+    @Override public void run() {
+        byte[] hdr = new byte[Framing.HEADER];
+        byte[] scratch = new byte[256];
+        int have = 0;
+        try {
+            InputStream in = sock.getInputStream();
+            while (!closed) {
+                int n;
+                try {
+                    if (!framed) {
+                        // raw receivers are not expected to talk; drain whatever comes
+                        n = in.read(scratch, 0, scratch.length);
+                    } else {
+                        n = in.read(hdr, have, hdr.length - have);
+                    }
+                } catch (SocketTimeoutException te) {
+                    if (checkDeadlines()) return;
+                    continue;
+                }
+                if (n < 0) {
+                    // half-close (e.g. `nc -l < /dev/null`) is fine for a sink; a real
+                    // close shows up as a write error. Keep watching the deadlines.
+                    while (!closed && !checkDeadlines()) {
+                        try { Thread.sleep(TICK_MS); } catch (InterruptedException ie) { return; }
+                    }
+                    return;
+                }
+                if (!framed) continue;
+                have += n;
+                if (have < hdr.length) continue;
+                have = 0;
+
+                int magic = ((hdr[0] & 0xFF) << 8) | (hdr[1] & 0xFF);
+                if (magic != Framing.MAGIC) {
+                    kill("bad control frame");
+                    return;
+                }
+                int type = hdr[2] & 0xFF;
+                int len = Framing.getInt(hdr, 4);
+                long pts = Framing.getLong(hdr, 12);
+                if (len < 0 || len > 65536) {
+                    kill("bad control length " + len);
+                    return;
+                }
+                if (len > scratch.length) scratch = new byte[len]; // echo frames: grows once
+                readFully(in, scratch, len);
+                onFrame(type, pts, scratch, len);
+            }
+        } catch (IOException e) {
+            // socket closed under us: the stream loop sees it too
+        }
+    }
+
+    private void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len && !closed) {
+            try {
+                int n = in.read(b, off, len - off);
+                if (n < 0) throw new IOException("eof");
+                off += n;
+            } catch (SocketTimeoutException te) {
+                if (checkDeadlines()) throw new IOException("dead");
+            }
+        }
+    }
+
+    private void onFrame(int type, long pts, byte[] p, int len) {
+        long now = System.nanoTime();
+        lastRxNs = now;
+        peerSpeaks = true;
+        if (type == Framing.T_PONG) {
+            long rtt = (now - pts) / 1000;
+            if (rtt >= 0 && rtt < 60000000L) {
+                rttLastUs = rtt;
+                rttUs = (rttUs < 0) ? rtt : rttUs + (rtt - rttUs) / 8;
+            }
+            if (len >= 4) fillMs = Framing.getInt(p, 0);
+            if (len >= 8) jitterUs = Framing.getInt(p, 4);
+        } else if (type == Framing.T_REPORT) {
+            if (len >= 4) fillMs = Framing.getInt(p, 0);
+        } else if (type == Framing.T_PING) {
+            pongOwed = pts;
+        } else if (type == Framing.T_SYNC_REPLY) {
+            ClockSync cs = sync;
+            if (cs != null && len >= 16) {
+                cs.onReply(pts, Framing.getLong(p, 0), Framing.getLong(p, 8), now);
+            }
+        } else if (type == Framing.T_ECHO) {
+            LatencyProbe lp = probe;
+            ClockSync cs = sync;
+            if (lp != null && cs != null && cs.valid() && len > 4) {
+                lp.onEcho(p, 4, len - 4, Framing.getInt(p, 0), cs.fromPeer(pts));
+            }
+        }
+        // unknown types are skipped (payload already consumed)
+    }
+
+    // true when the link was declared dead
+    private boolean checkDeadlines() {
+        long now = System.nanoTime();
+        long ws = writeStartNs;
+        if (ws != 0 && now - ws > deadlineNs) {
+            kill("write stuck " + (now - ws) / 1000000L + "ms");
+            return true;
+        }
+        if (framed && peerSpeaks && now - lastRxNs > deadlineNs) {
+            kill("heartbeat lost " + (now - lastRxNs) / 1000000L + "ms");
+            return true;
+        }
+        return false;
+    }
+
+    private void kill(String why) {
+        if (closed) return;
+        deadReason = why;
+        try { sock.close(); } catch (IOException ignore) {}
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.mininative;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Ordered list of receivers to fall back to, as the user defined it.
+//
+// Entries are mDNS service names (address looked up in what the background browse has
+// seen) or literal host:port. A receiver is healthy when the browse saw it within
+// SEEN_TTL_MS (literals: always) and it did not fail us within FAIL_TTL_MS. next() walks
+// the group from the entry after the current receiver, wrapping around.
+//
+// No Android dependencies; all time is passed in.
+public final class FailoverGroup {
+    private static final long SEEN_TTL_MS = 180000;
+    private static final long FAIL_TTL_MS = 30000;
+
+    public static final class Target {
+        public final String name;   // group entry
+        public final String host;
+        public final int port;
+        public final String[] txt;  // TXT lines, empty for literals
+        Target(String name, String host, int port, String[] txt) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.txt = txt;
+        }
+        public String addr() { return host + ":" + port; }
+    }
+
+    private static final class Seen {
+        final String host;
+        final int port;
+        final String[] txt;
+        final long atMs;
+        Seen(String host, int port, String[] txt, long atMs) {
+            this.host = host;
+            this.port = port;
+            this.txt = txt;
+            this.atMs = atMs;
+        }
+    }
+
+    private final List<String> entries = new ArrayList<>();
+    private final Map<String, Seen> seen = new ConcurrentHashMap<>();
+    private final Map<String, Long> failed = new ConcurrentHashMap<>(); // host:port -> when
+
+    // pref value: one entry per line
+    public FailoverGroup(String pref) {
+        if (pref == null) return;
+        for (String e : pref.split("\n")) {
+            e = e.trim();
+            if (!e.isEmpty() && !entries.contains(e)) entries.add(e);
+        }
+    }
+
+    public boolean isEmpty() { return entries.isEmpty(); }
+    public int size() { return entries.size(); }
+
+    public void onSeen(String name, String host, int port, String[] txt, long nowMs) {
+        seen.put(name, new Seen(host, port, txt != null ? txt : new String[0], nowMs));
+    }
+
+    public void onFailed(String host, int port, long nowMs) {
+        failed.put(host + ":" + port, nowMs);
+    }
+
+    // true when a browse has not refreshed anything recently
+    public boolean stale(long nowMs) {
+        for (String e : entries) {
+            Seen s = seen.get(e);
+            if (s != null && nowMs - s.atMs < SEEN_TTL_MS / 2) return false;
+        }
+        return true;
+    }
+
+    // next healthy receiver after host:port in group order, null if there is none
+    public Target next(String host, int port, long nowMs) {
+        int n = entries.size();
+        if (n == 0) return null;
+        String cur = host + ":" + port;
+        int at = -1;
+        for (int i = 0; i < n; i++) {
+            Target t = resolve(entries.get(i), nowMs, true);
+            if (t != null && t.addr().equals(cur)) { at = i; break; }
+        }
+        for (int k = 1; k <= n; k++) {
+            int i = (at + k) % n;
+            if (i == at) break;
+            Target t = resolve(entries.get(i), nowMs, false);
+            if (t != null && !t.addr().equals(cur)) return t;
+        }
+        return null;
+    }
+
+    private Target resolve(String e, long nowMs, boolean any) {
+        Target t;
+        Seen s = seen.get(e);
+        if (s != null) {
+            if (!any && nowMs - s.atMs > SEEN_TTL_MS) return null;
+            t = new Target(e, s.host, s.port, s.txt);
+        } else {
+            t = literal(e);
+            if (t == null) return null;
+        }
+        if (any) return t;
+        Long f = failed.get(t.addr());
+        return (f != null && nowMs - f < FAIL_TTL_MS) ? null : t;
+    }
+
+    private static Target literal(String e) {
+        int c = e.lastIndexOf(':');
+        if (c <= 0 || c == e.length() - 1) return null;
+        try {
+            int p = Integer.parseInt(e.substring(c + 1));
+            if (p < 1 || p > 65535) return null;
+            return new Target(e, e.substring(0, c), p, new String[0]);
+        } catch (NumberFormatException ex) {
+            return null; // a service name we have not seen yet
+        }
+    }
+
+    @Override public String toString() {
+        return "failover " + entries + " seen=" + seen.keySet();
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.mininative;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Replay source: a WAV (PCM s16) or raw s16le file, mapped, played as if captured.
+//
+// Real time: read() blocks until the last frame it returns is "captured", start + frames /
+// rate, and timestamp() reports exactly that, so the sender sees a perfect HAL clock.
+// Fast: read() returns at once and there is no timestamp; the sender runs as fast as its
+// transport takes the data, which is what a throughput benchmark wants. With loop the file
+// starts over at its end, else read() returns 0 there.
+//
+// Reads are copies out of the mapping, no syscall and no allocation. No Android
+// dependencies.
+public final class FileSource implements CaptureSource {
+    private final MappedByteBuffer map;
+    private final int dataOff, dataLen;   // the PCM, whole frames
+    private final int rate, channels, frameBytes;
+    private final boolean realtime, loop;
+    private int pos;                      // next byte in the data
+    private boolean ended;                // played through once, not looping
+    private long frames;                  // frames delivered
+    private long startNs = -1;            // when frame 0 was "captured"
+    private volatile boolean closed;
+
+    // rawRate/rawChannels describe a file without a RIFF header; a WAV says for itself
+    public FileSource(File f, int rawRate, int rawChannels, boolean realtime, boolean loop)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) throw new IOException(f + ": too large to map");
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close(); // the mapping stays valid
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        int r = rawRate, ch = rawChannels, off = 0, len = map.capacity();
+        if (len >= 12 && map.getInt(0) == 0x46464952 && map.getInt(8) == 0x45564157) { // RIFF WAVE
+            int fmt = -1;
+            off = -1;
+            for (int at = 12; at + 8 <= map.capacity(); ) {
+                int id = map.getInt(at), sz = map.getInt(at + 4);
+                if (id == 0x20746d66) { // "fmt "
+                    fmt = at + 8;
+                } else if (id == 0x61746164) { // "data"
+                    off = at + 8;
+                    // a ring left open (or a stream) may say 0 or too much: take what is there
+                    len = (sz <= 0 || sz > map.capacity() - off) ? map.capacity() - off : sz;
+                    break;
+                }
+                if (sz < 0) break;
+                at += 8 + sz + (sz & 1);
+            }
+            if (fmt < 0 || off < 0) throw new IOException(f + ": no fmt/data chunk");
+            if (map.getShort(fmt) != 1 || map.getShort(fmt + 14) != 16) {
+                throw new IOException(f + ": not PCM s16");
+            }
+            ch = map.getShort(fmt + 2);
+            r = map.getInt(fmt + 4);
+        }
+        if (r <= 0 || ch <= 0) throw new IOException(f + ": bad format " + r + "/" + ch);
+        rate = r;
+        channels = ch;
+        frameBytes = ch * 2;
+        dataOff = off;
+        dataLen = len - len % frameBytes;
+        if (dataLen == 0) throw new IOException(f + ": no audio");
+        this.realtime = realtime;
+        this.loop = loop;
+    }
+
+    @Override public int rate() { return rate; }
+
+    @Override public int channels() { return channels; }
+
+    // seconds of audio in the file
+    public double seconds() { return dataLen / (double) (rate * frameBytes); }
+
+    public long frames() { return frames; }
+
+    @Override public int read(byte[] b, int off, int len) {
+        int n = due(len);
+        if (n <= 0) return n;
+        ByteBuffer src = map.duplicate();
+        for (int got = 0; got < n; ) {
+            int k = Math.min(n - got, dataLen - pos);
+            src.limit(dataOff + pos + k);
+            src.position(dataOff + pos);
+            src.get(b, off + got, k);
+            advance(k);
+            got += k;
+        }
+        return n;
+    }
+
+    @Override public int read(ByteBuffer b, int len) {
+        int n = due(len);
+        if (n <= 0) return n;
+        ByteBuffer dst = b.duplicate();
+        dst.clear();
+        ByteBuffer src = map.duplicate();
+        for (int got = 0; got < n; ) {
+            int k = Math.min(n - got, dataLen - pos);
+            src.limit(dataOff + pos + k);
+            src.position(dataOff + pos);
+            dst.put(src);
+            advance(k);
+            got += k;
+        }
+        return n;
+    }
+
+    // bytes the next read returns (whole frames, not past the end unless looping); in real
+    // time, waits until they are captured
+    private int due(int len) {
+        if (closed) return -1;
+        if (ended) return 0;
+        len -= len % frameBytes;
+        if (!loop) len = Math.min(len, dataLen - pos);
+        if (len <= 0) return 0;
+        if (realtime) {
+            long now = System.nanoTime();
+            if (startNs < 0) startNs = now;
+            long at = startNs + (frames + len / frameBytes) * 1000000000L / rate;
+            try {
+                for (long w = at - now; w > 0; w = at - System.nanoTime()) {
+                    Thread.sleep(w / 1000000L, (int) (w % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        return len;
+    }
+
+    private void advance(int k) {
+        pos += k;
+        if (pos == dataLen) {
+            pos = 0;
+            ended = !loop;
+        }
+        frames += k / frameBytes;
+    }
+
+    @Override public boolean timestamp(CaptureClock clock) {
+        if (!realtime || startNs < 0) return false;
+        clock.onTimestamp(frames, startNs + frames * 1000000000L / rate);
+        return true;
+    }
+
+    @Override public void close() {
+        closed = true; // the mapping goes with the last reference
+    }
+}
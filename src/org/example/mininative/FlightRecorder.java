@@ -0,0 +1,246 @@
+package org.example.mininative;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+// Flight recorder: one fixed-size record of stream statistics per second, in a memory
+// mapped ring file per session, so a session that went wrong hours ago can still be read
+// back once logcat has rolled over.
+//
+// As with WavTee the file is allocated once (zero-filled) and mapped; a record is a few
+// puts into the mapping, no syscall and no allocation on the stream thread, and the
+// kernel writes the pages back on its own, also after a crash.
+//
+// Layout (little-endian, 64 byte header, 64 byte records, record n in slot n % capacity):
+//   header   "PWFR" | u16 version | u16 record size | u32 capacity | u32 0 |
+//            i64 session start, wall ms | u64 records written | 32 byte tag, UTF-8
+//   record    0 i64 wall ms      8 u32 n           12 u32 bytes      16 u32 kbps
+//            20 u16 reconnects  22 u16 overruns   24 u32 drops
+//            28 u16 latency p50, p95, p99, max (0.1 ms, 0xFFFF none)
+//            36 u16 gain (1/10000)  38 u8 flags (F_*)  39 u8 format rung
+//            40 i32 uid   44 i32 jitter us   48 i32 rtt us   52 i32 fill ms
+//            56 i32 sync error us (link figures -1 none)   60 u32 n again
+// n is written first and last: a record whose two copies differ was torn by a crash, and
+// one whose n is not the one its slot should hold has been overwritten; export() skips
+// both. Counts are per record (second), latency is capture -> written per batch.
+//
+// No Android dependencies.
+public final class FlightRecorder {
+    public static final int F_MUTED = 1, F_UP = 2, F_NATIVE = 4, F_MCAST = 8, F_SERVE = 16;
+    private static final int VERSION = 1, HDR = 64, REC = 64;
+    private static final int OFF_TOTAL = 24, OFF_TAG = 32, TAG_LEN = 32;
+    private static final int LAT_BUCKETS = 4096; // 0.1 ms each: up to 409.5 ms, max exact
+    private static final int NONE = 0xFFFF;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private long written;
+
+    // this second (stream thread)
+    private long lastMs, bytes;
+    private int reconnects, overruns, drops;
+    private final int[] lat = new int[LAT_BUCKETS + 1];
+    private int latN;
+    private long latMaxNs;
+    private int jitterUs = -1, rttUs = -1, fillMs = -1, syncErrUs = -1;
+
+    // a new session file holding the last `seconds` records
+    public FlightRecorder(File file, int seconds, String tag, long startMs) throws IOException {
+        this.file = file;
+        this.capacity = Math.max(60, seconds);
+        long size = HDR + (long) capacity * REC;
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            ch = raf.getChannel();
+            raf.setLength(0);
+            ByteBuffer z = ByteBuffer.allocate(1 << 16);
+            for (long at = 0; at < size; ) {
+                z.clear();
+                if (size - at < z.capacity()) z.limit((int) (size - at));
+                at += ch.write(z, at);
+            }
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        map.put(0, (byte) 'P').put(1, (byte) 'W').put(2, (byte) 'F').put(3, (byte) 'R');
+        map.putShort(4, (short) VERSION).putShort(6, (short) REC);
+        map.putInt(8, capacity).putLong(16, startMs).putLong(OFF_TOTAL, 0);
+        byte[] t = tag.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(t.length, TAG_LEN); i++) map.put(OFF_TAG + i, t[i]);
+        lastMs = startMs;
+    }
+
+    public File file() { return file; }
+
+    public int capacity() { return capacity; }
+
+    // a batch written: bytes on the wire, capture -> written time, < 0 not known
+    public void onWrite(long n, long holdNs) {
+        bytes += n;
+        if (holdNs < 0) return;
+        lat[(int) Math.min(LAT_BUCKETS, holdNs / 100000L)]++;
+        latN++;
+        if (holdNs > latMaxNs) latMaxNs = holdNs;
+    }
+
+    public void onReconnect() { reconnects++; }
+
+    public void onOverruns(int n) { overruns += n; }
+
+    public void onDrops(long n) { drops += (int) n; }
+
+    // link figures as of the last stats interval, -1 = none
+    public void setLink(int jitterUs, int rttUs, int fillMs, int syncErrUs) {
+        this.jitterUs = jitterUs;
+        this.rttUs = rttUs;
+        this.fillMs = fillMs;
+        this.syncErrUs = syncErrUs;
+    }
+
+    // a second since the last record, or the wall clock was set back
+    public boolean due(long nowMs) { return nowMs - lastMs >= 1000 || nowMs < lastMs; }
+
+    // closes the second: one record, counters start over
+    public void commit(long nowMs, int flags, float gain, int uid, int rung) {
+        long dt = Math.max(1, nowMs - lastMs);
+        int at = HDR + (int) (written % capacity) * REC;
+        int n = (int) written;
+        map.putInt(at + 8, n);
+        map.putLong(at, nowMs);
+        map.putInt(at + 12, (int) Math.min(0xFFFFFFFFL, bytes));
+        map.putInt(at + 16, (int) (bytes * 8 / dt));
+        map.putShort(at + 20, (short) Math.min(0xFFFF, reconnects));
+        map.putShort(at + 22, (short) Math.min(0xFFFF, overruns));
+        map.putInt(at + 24, drops);
+        map.putShort(at + 28, (short) pct(0.50));
+        map.putShort(at + 30, (short) pct(0.95));
+        map.putShort(at + 32, (short) pct(0.99));
+        map.putShort(at + 34, (short) (latN > 0 ? Math.min(NONE - 1, latMaxNs / 100000L) : NONE));
+        map.putShort(at + 36, (short) Math.round(Math.max(0f, Math.min(1f, gain)) * 10000));
+        map.put(at + 38, (byte) flags);
+        map.put(at + 39, (byte) rung);
+        map.putInt(at + 40, uid);
+        map.putInt(at + 44, jitterUs);
+        map.putInt(at + 48, rttUs);
+        map.putInt(at + 52, fillMs);
+        map.putInt(at + 56, syncErrUs);
+        map.putInt(at + 60, n);
+        written++;
+        map.putLong(OFF_TOTAL, written);
+
+        lastMs = nowMs;
+        bytes = 0;
+        reconnects = overruns = drops = 0;
+        if (latN > 0) java.util.Arrays.fill(lat, 0);
+        latN = 0;
+        latMaxNs = 0;
+    }
+
+    // latency percentile in 0.1 ms from this second's histogram
+    private int pct(double p) {
+        if (latN == 0) return NONE;
+        long want = Math.max(1, (long) Math.ceil(latN * p)), seen = 0;
+        for (int i = 0; i <= LAT_BUCKETS; i++) {
+            seen += lat[i];
+            if (seen >= want) return (i < LAT_BUCKETS) ? i : (int) Math.min(NONE - 1, latMaxNs / 100000L);
+        }
+        return NONE;
+    }
+
+    public void close() {
+        map.force();
+        try {
+            raf.close();
+        } catch (IOException ignored) {}
+    }
+
+    // A recorder file, oldest record first, as CSV (header line, one row per record) or
+    // JSON ({"tag", "start_ms", "capacity", "records": [...]}); returns the records written.
+    // Reads a copy of the mapping, so it also works on the file of a running session.
+    public static int export(File in, Writer out, boolean json) throws IOException {
+        RandomAccessFile r = new RandomAccessFile(in, "r");
+        ByteBuffer b;
+        try {
+            FileChannel c = r.getChannel();
+            b = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, c.size()));
+            while (b.hasRemaining() && c.read(b) > 0) { }
+            b.flip();
+        } finally {
+            r.close();
+        }
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        if (b.limit() < HDR || b.get(0) != 'P' || b.get(1) != 'W' || b.get(2) != 'F'
+                || b.get(3) != 'R') {
+            throw new IOException(in + ": not a flight recorder file");
+        }
+        int rec = b.getShort(6), cap = b.getInt(8);
+        if (rec != REC || HDR + (long) cap * REC > b.limit()) throw new IOException(in + ": truncated");
+        long start = b.getLong(16), total = b.getLong(OFF_TOTAL);
+        int tl = 0;
+        while (tl < TAG_LEN && b.get(OFF_TAG + tl) != 0) tl++;
+        byte[] tb = new byte[tl];
+        for (int i = 0; i < tl; i++) tb[i] = b.get(OFF_TAG + i);
+        String tag = new String(tb, java.nio.charset.StandardCharsets.UTF_8);
+
+        if (json) {
+            out.write(String.format(Locale.US, "{\"tag\":\"%s\",\"start_ms\":%d,\"capacity\":%d,\"records\":[",
+                    tag.replace("\\", "\\\\").replace("\"", "\\\""), start, cap));
+        } else {
+            out.write("wall_ms,n,bytes,kbps,reconnects,overruns,drops,lat_p50_ms,lat_p95_ms,"
+                    + "lat_p99_ms,lat_max_ms,gain,muted,up,native,mcast,serve,rung,uid,jitter_us,"
+                    + "rtt_us,fill_ms,sync_err_us\n");
+        }
+        int count = 0;
+        for (long k = Math.max(0, total - cap); k < total; k++) {
+            int at = HDR + (int) (k % cap) * REC;
+            int n = b.getInt(at + 8);
+            if (n != (int) k || b.getInt(at + 60) != n) continue; // torn or overwritten
+            int flags = b.get(at + 38) & 0xFF;
+            Object[] v = {
+                b.getLong(at), n & 0xFFFFFFFFL, b.getInt(at + 12) & 0xFFFFFFFFL,
+                b.getInt(at + 16) & 0xFFFFFFFFL, b.getShort(at + 20) & 0xFFFF,
+                b.getShort(at + 22) & 0xFFFF, b.getInt(at + 24) & 0xFFFFFFFFL,
+                ms(b.getShort(at + 28)), ms(b.getShort(at + 30)), ms(b.getShort(at + 32)),
+                ms(b.getShort(at + 34)), String.format(Locale.US, "%.4f", (b.getShort(at + 36) & 0xFFFF) / 10000.0),
+                flags & F_MUTED, (flags & F_UP) >> 1, (flags & F_NATIVE) >> 2, (flags & F_MCAST) >> 3,
+                (flags & F_SERVE) >> 4, b.get(at + 39) & 0xFF, b.getInt(at + 40), b.getInt(at + 44),
+                b.getInt(at + 48), b.getInt(at + 52), b.getInt(at + 56)
+            };
+            if (json) {
+                out.write(count > 0 ? ",\n" : "\n");
+                out.write(String.format(Locale.US, "{\"wall_ms\":%s,\"n\":%s,\"bytes\":%s,\"kbps\":%s,"
+                        + "\"reconnects\":%s,\"overruns\":%s,\"drops\":%s,\"lat_p50_ms\":%s,"
+                        + "\"lat_p95_ms\":%s,\"lat_p99_ms\":%s,\"lat_max_ms\":%s,\"gain\":%s,"
+                        + "\"muted\":%s,\"up\":%s,\"native\":%s,\"mcast\":%s,\"serve\":%s,\"rung\":%s,"
+                        + "\"uid\":%s,\"jitter_us\":%s,\"rtt_us\":%s,\"fill_ms\":%s,\"sync_err_us\":%s}", v));
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < v.length; i++) sb.append(i > 0 ? "," : "").append(v[i] != null ? v[i] : "");
+                out.write(sb.append('\n').toString());
+            }
+            count++;
+        }
+        if (json) out.write("\n]}\n");
+        out.flush();
+        return count;
+    }
+
+    // 0.1 ms units to ms, null for none (empty in CSV, null in JSON)
+    private static String ms(short v) {
+        int u = v & 0xFFFF;
+        return (u == NONE) ? null : String.format(Locale.US, "%.1f", u / 10.0);
+    }
+}
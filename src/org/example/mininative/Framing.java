@@ -0,0 +1,122 @@
+package org.example.mininative;
+
+// Framed wire protocol (opt-in; the default stream is raw s16le with no framing).
+//
+// Every frame is a fixed 20 byte big-endian header followed by `len` payload bytes:
+//   u16 magic 'PW' | u8 type | u8 flags | u32 len | u32 seq | i64 pts (ns, sender clock)
+//
+// The first frame on every connection is a FORMAT frame, so a receiver always knows how
+// to interpret the AUDIO frames that follow. A new FORMAT frame may appear before any
+// AUDIO frame; it applies from that frame on.
+//
+// Control frames travel both ways on the same socket (see ControlChannel):
+//   PING   pts = sender clock of the pinging side, no payload, or padding the receiver
+//          reads and drops (ReceiverProber's throughput train)
+//   PONG   pts = echoed PING pts, payload i32 buffer fill in ms (-1 = unknown) | i32
+//          inter-arrival jitter of the AUDIO frames in us, RFC 3550 (-1 = unknown; older
+//          receivers send the fill only)
+//   REPORT pts = receiver clock, payload i32 buffer fill in ms (receiver -> sender)
+//   SYNC   pts = sender clock at send (t1), no payload (sender -> receiver)
+//   SYNC_REPLY pts = echoed t1, payload i64 t2 (receiver clock at SYNC arrival),
+//          i64 t3 (receiver clock at reply send)
+//   GAIN   pts/flags as the AUDIO frame it precedes, payload u32 gain (Q16, 65536 = 1.0) |
+//          u8 muted | 3 reserved (sender -> receiver, passthrough mode). The receiver
+//          applies it from the sample at pts on; the samples themselves are unscaled.
+//   ECHO   pts = receiver clock at which the first sample was played, payload u32 rate |
+//          s16le mono samples: what the receiver played (or heard), for LatencyProbe
+//          (receiver -> sender)
+//
+// AUDIO flags: F_PLAYOUT set means pts is the time the first sample of the frame is to be
+// played, on the receiver's own clock (see ClockSync); without it pts is the sender's
+// capture time.
+public final class Framing {
+    public static final int HEADER = 20;
+    public static final int MAGIC = 0x5057; // "PW"
+
+    public static final int T_AUDIO = 1;
+    public static final int T_FORMAT = 2;
+    public static final int T_PING = 3;
+    public static final int T_PONG = 4;
+    public static final int T_REPORT = 5;
+    public static final int T_SYNC = 6;
+    public static final int T_SYNC_REPLY = 7;
+    public static final int T_GAIN = 8;
+    public static final int T_ECHO = 9;
+
+    public static final int F_PLAYOUT = 0x01;
+
+    public static final int CONTROL_LEN = HEADER + 4; // largest control frame we send
+
+    // FORMAT payload: u8 encoding | u8 channels | u8 rung | u8 reserved | u32 rate
+    public static final int FORMAT_LEN = 8;
+
+    // GAIN payload: u32 gain Q16 | u8 muted | 3 reserved
+    public static final int GAIN_LEN = 8;
+    public static final int GAIN_UNITY = 65536;
+
+    public static final int ENC_S16LE = 1;
+    public static final int ENC_ULAW = 2;
+
+    private Framing() {}
+
+    public static void putHeader(byte[] b, int off, int type, int flags, int len, int seq, long pts) {
+        b[off]      = (byte) (MAGIC >>> 8);
+        b[off + 1]  = (byte) MAGIC;
+        b[off + 2]  = (byte) type;
+        b[off + 3]  = (byte) flags;
+        putInt(b, off + 4, len);
+        putInt(b, off + 8, seq);
+        putInt(b, off + 12, (int) (pts >>> 32));
+        putInt(b, off + 16, (int) pts);
+    }
+
+    // Builds a complete FORMAT frame into b (HEADER + FORMAT_LEN bytes), returns its size.
+    public static int format(byte[] b, int seq, long pts, int encoding, int channels, int rate,
+                             int rung) {
+        putHeader(b, 0, T_FORMAT, 0, FORMAT_LEN, seq, pts);
+        b[HEADER]     = (byte) encoding;
+        b[HEADER + 1] = (byte) channels;
+        b[HEADER + 2] = (byte) rung;
+        b[HEADER + 3] = 0;
+        putInt(b, HEADER + 4, rate);
+        return HEADER + FORMAT_LEN;
+    }
+
+    // Builds a complete GAIN frame into b (HEADER + GAIN_LEN bytes), returns its size.
+    public static int gain(byte[] b, int seq, long pts, int flags, int gainQ16, boolean muted) {
+        putHeader(b, 0, T_GAIN, flags, GAIN_LEN, seq, pts);
+        putInt(b, HEADER, gainQ16);
+        b[HEADER + 4] = (byte) (muted ? 1 : 0);
+        b[HEADER + 5] = 0;
+        b[HEADER + 6] = 0;
+        b[HEADER + 7] = 0;
+        return HEADER + GAIN_LEN;
+    }
+
+    // PING/SYNC (no payload) or PONG/REPORT (i32 value) into b, returns the frame size
+    public static int control(byte[] b, int type, int seq, long pts, int value) {
+        if (type == T_PING || type == T_SYNC) {
+            putHeader(b, 0, type, 0, 0, seq, pts);
+            return HEADER;
+        }
+        putHeader(b, 0, type, 0, 4, seq, pts);
+        putInt(b, HEADER, value);
+        return HEADER + 4;
+    }
+
+    public static void putInt(byte[] b, int off, int v) {
+        b[off]     = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    public static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+             | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    public static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,288 @@
+package org.example.mininative;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// End-to-end latency probe: the stream carries a known chirp instead of the capture, and
+// the receiver's echo of what it played is searched for it.
+//
+// Sender side, fill() (stream thread): each chunk is replaced by silence with a CHIRP_MS
+// linear chirp (F0..F1 Hz, Hann window) every period; the capture-clock time of each chirp's
+// first frame is kept as its injection time.
+//
+// Echo side, onEcho() (control reader): ECHO frames bring back mono PCM with the time its
+// first sample was played, already on our clock (ClockSync). The echo runs through a
+// normalized cross-correlation against the chirp, block-wise with an N point FFT
+// (overlap-save, so every lag is looked at once); a peak above THRESHOLD is a detection,
+// refined to a fraction of a sample, and matched to the latest injection before it:
+//   latency = played - captured
+// An injection with no detection two periods on counts as a miss. Latencies beyond the
+// period would alias, so the period is chosen longer than any playout delay.
+//
+// No Android dependencies.
+public final class LatencyProbe {
+    public static final int CHIRP_MS = 20;
+    private static final double F0 = 500, F1 = 6000; // survives u-law and the 24 kHz rung
+    private static final int N = 8192;               // FFT block
+    private static final double THRESHOLD = 0.5;
+    private static final int INJ = 16, LAT = 4096;
+
+    private final int rate, channels, periodFrames, periodMs;
+    private final short[] chirp;                     // the injected pattern, at rate
+    private long frame0 = -1;                        // first frame filled
+
+    // injections (stream thread) and results (control reader), under this
+    private final long[] injNs = new long[INJ];
+    private final boolean[] injDone = new boolean[INJ];
+    private int injHead, injCount;
+    private final double[] lat = new double[LAT];    // ms, ring over the session
+    private int latN, intervalFrom;
+    private long sent, found, missed, intervalMissed, intervalSent;
+    private double corrSum, intervalCorrSum;
+    private int corrN, intervalCorrN;
+
+    // correlator (control reader only)
+    private int corrRate;
+    private int m;                                   // template length at corrRate
+    private float[] tre, tim;                        // FFT of the template, conjugated
+    private double tEnergy;
+    private final float[] blk = new float[N];
+    private final float[] re = new float[N], im = new float[N];
+    private final double[] e2 = new double[N + 1];
+    private int fill;
+    private long blkT0;                              // our time of blk[0]
+    private long lastDetNs = Long.MIN_VALUE;
+    private float[] cos, sin;
+
+    public LatencyProbe(int rate, int channels, int periodMs) {
+        this.rate = rate;
+        this.channels = channels;
+        this.periodMs = periodMs;
+        this.periodFrames = (int) ((long) rate * periodMs / 1000);
+        this.chirp = new short[rate * CHIRP_MS / 1000];
+        float[] c = pattern(rate);
+        for (int i = 0; i < chirp.length; i++) chirp[i] = (short) Math.round(c[i] * 16384);
+    }
+
+    public int periodMs() { return periodMs; }
+
+    // Hann-windowed linear chirp F0..F1, unit amplitude
+    private static float[] pattern(int rate) {
+        int n = rate * CHIRP_MS / 1000;
+        float[] p = new float[n];
+        double k = (F1 - F0) / (CHIRP_MS / 1000.0);
+        for (int i = 0; i < n; i++) {
+            double t = i / (double) rate;
+            double w = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (n - 1));
+            p[i] = (float) (w * Math.sin(2 * Math.PI * (F0 * t + 0.5 * k * t * t)));
+        }
+        return p;
+    }
+
+    // stream thread: replaces len bytes of s16le at off, starting with capture frame
+    // `frame` which was captured at capNs
+    public void fill(byte[] b, int off, int len, long frame, long capNs) {
+        if (frame0 < 0) frame0 = frame;
+        int frameBytes = channels * 2, frames = len / frameBytes;
+        for (int i = 0; i < frames; i++) {
+            int ph = (int) ((frame + i - frame0) % periodFrames);
+            int v = (ph < chirp.length) ? chirp[ph] : 0;
+            if (ph == 0) inject(capNs + i * 1000000000L / rate);
+            for (int c = 0, at = off + i * frameBytes; c < channels; c++, at += 2) {
+                b[at] = (byte) v;
+                b[at + 1] = (byte) (v >> 8);
+            }
+        }
+    }
+
+    private synchronized void inject(long ns) {
+        if (injCount == INJ && !injDone[injHead]) onMiss(); // fell off unanswered
+        injNs[injHead] = ns;
+        injDone[injHead] = false;
+        injHead = (injHead + 1) % INJ;
+        if (injCount < INJ) injCount++;
+        sent++;
+        intervalSent++;
+    }
+
+    private void onMiss() {
+        missed++;
+        intervalMissed++;
+    }
+
+    // control reader: mono s16le echo at echoRate, b[off..off+len), its first sample
+    // played at t0Ns on our clock
+    public void onEcho(byte[] b, int off, int len, int echoRate, long t0Ns) {
+        if (echoRate <= 0) return;
+        if (echoRate != corrRate) setup(echoRate);
+        long expect = blkT0 + fill * 1000000000L / corrRate;
+        if (fill > 0 && Math.abs(t0Ns - expect) > 1000000L) fill = 0; // gap in the echo
+        if (fill == 0) blkT0 = t0Ns;
+        for (int i = off, end = off + len - 1; i < end; i += 2) {
+            blk[fill++] = (short) ((b[i] & 0xFF) | (b[i + 1] << 8)) / 32768f;
+            if (fill == N) {
+                correlate();
+                // keep the last m-1 samples: a chirp across the edge is whole in the next block
+                int keep = m - 1;
+                System.arraycopy(blk, N - keep, blk, 0, keep);
+                blkT0 += (long) (N - keep) * 1000000000L / corrRate;
+                fill = keep;
+            }
+        }
+    }
+
+    private void setup(int r) {
+        corrRate = r;
+        float[] p = pattern(r);
+        m = p.length;
+        tre = new float[N];
+        tim = new float[N];
+        tEnergy = 0;
+        for (int i = 0; i < m; i++) {
+            tre[i] = p[i];
+            tEnergy += (double) p[i] * p[i];
+        }
+        if (cos == null) {
+            cos = new float[N / 2];
+            sin = new float[N / 2];
+            for (int i = 0; i < N / 2; i++) {
+                cos[i] = (float) Math.cos(2 * Math.PI * i / N);
+                sin[i] = (float) Math.sin(2 * Math.PI * i / N);
+            }
+        }
+        fft(tre, tim);
+        for (int i = 0; i < N; i++) tim[i] = -tim[i];
+        fill = 0;
+    }
+
+    // c[k] = sum blk[k + j] * t[j], normalized by both energies; the best lag, if it
+    // clears the threshold, is a detection
+    private void correlate() {
+        System.arraycopy(blk, 0, re, 0, N);
+        Arrays.fill(im, 0f);
+        fft(re, im);
+        for (int i = 0; i < N; i++) {
+            float a = re[i], b = im[i], c = tre[i], d = tim[i];
+            re[i] = a * c - b * d;
+            im[i] = -(a * d + b * c); // conjugate: the inverse as a forward transform
+        }
+        fft(re, im);
+        e2[0] = 0;
+        for (int i = 0; i < N; i++) e2[i + 1] = e2[i] + (double) blk[i] * blk[i];
+        int best = -1;
+        double bestC = 0;
+        for (int k = 0; k <= N - m; k++) {
+            double e = e2[k + m] - e2[k];
+            if (e < 1e-9) continue;
+            double c = re[k] / N / Math.sqrt(tEnergy * e);
+            if (c > bestC) {
+                bestC = c;
+                best = k;
+            }
+        }
+        if (best < 0 || bestC < THRESHOLD) return;
+        double frac = 0;
+        if (best > 0 && best < N - m) {
+            // parabola through the raw peak and its neighbours
+            double y0 = re[best - 1], y1 = re[best], y2 = re[best + 1];
+            double den = y0 - 2 * y1 + y2;
+            if (den < 0) frac = 0.5 * (y0 - y2) / den;
+        }
+        long at = blkT0 + (long) ((best + frac) * 1e9 / corrRate);
+        if (lastDetNs != Long.MIN_VALUE && at - lastDetNs < CHIRP_MS * 1000000L) return; // again
+        lastDetNs = at;
+        onDetect(at, bestC);
+    }
+
+    private synchronized void onDetect(long playedNs, double corr) {
+        int pick = -1;
+        for (int j = 0; j < injCount; j++) {
+            int i = (injHead + INJ - 1 - j) % INJ; // newest first
+            long d = playedNs - injNs[i];
+            if (d < -1000000L) continue;           // injected after this was played
+            if (d < periodMs * 1000000L && !injDone[i]) pick = i;
+            break;
+        }
+        if (pick < 0) return;                       // stray match or a repeat
+        injDone[pick] = true;
+        lat[latN % LAT] = (playedNs - injNs[pick]) / 1e6;
+        latN++;
+        found++;
+        corrSum += corr;
+        corrN++;
+        intervalCorrSum += corr;
+        intervalCorrN++;
+    }
+
+    // injections old enough that their echo is overdue
+    private void sweep(long nowNs) {
+        for (int j = 0; j < injCount; j++) {
+            int i = (injHead + INJ - 1 - j) % INJ;
+            if (!injDone[i] && nowNs - injNs[i] > 2L * periodMs * 1000000L) {
+                injDone[i] = true;
+                onMiss();
+            }
+        }
+    }
+
+    // one log line for the interval since the last call
+    public synchronized String takeStats() {
+        sweep(System.nanoTime());
+        int from = Math.max(intervalFrom, latN - LAT);
+        String s = line("probe", from, intervalSent, intervalMissed, intervalCorrSum,
+                        intervalCorrN);
+        intervalFrom = latN;
+        intervalSent = 0;
+        intervalMissed = 0;
+        intervalCorrSum = 0;
+        intervalCorrN = 0;
+        return s;
+    }
+
+    // the whole session (last LAT results)
+    public synchronized String summary() {
+        sweep(System.nanoTime());
+        return line("probe summary", Math.max(0, latN - LAT), sent, missed, corrSum, corrN);
+    }
+
+    private String line(String what, int from, long nSent, long nMissed, double cSum, int cN) {
+        int n = latN - from;
+        if (n <= 0) {
+            return String.format(Locale.US, "%s sent=%d found=0 miss=%d", what, nSent, nMissed);
+        }
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) v[i] = lat[(from + i) % LAT];
+        Arrays.sort(v);
+        return String.format(Locale.US,
+                "%s sent=%d found=%d miss=%d lat_ms min=%.2f p50=%.2f p95=%.2f max=%.2f%s",
+                what, nSent, n, nMissed, v[0], v[n / 2], v[Math.min(n - 1, (int) (n * 0.95))],
+                v[n - 1], cN > 0 ? String.format(Locale.US, " corr=%.2f", cSum / cN) : "");
+    }
+
+    // in-place iterative radix-2 FFT, forward (e^-i)
+    private void fft(float[] xr, float[] xi) {
+        for (int i = 1, j = 0; i < N; i++) {
+            int bit = N >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                float t = xr[i]; xr[i] = xr[j]; xr[j] = t;
+                t = xi[i]; xi[i] = xi[j]; xi[j] = t;
+            }
+        }
+        for (int len = 2; len <= N; len <<= 1) {
+            int half = len >> 1, step = N / len;
+            for (int i = 0; i < N; i += len) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * step], wi = -sin[k * step];
+                    int a = i + k, b = a + half;
+                    float ur = xr[b] * wr - xi[b] * wi, ui = xr[b] * wi + xi[b] * wr;
+                    xr[b] = xr[a] - ur;
+                    xi[b] = xi[a] - ui;
+                    xr[a] += ur;
+                    xi[a] += ui;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.mininative;
+
+import java.util.Locale;
+
+// Named capture/transport sizing. Everything is derived from the mixer burst
+// (PROPERTY_OUTPUT_FRAMES_PER_BUFFER) so chunks line up with what the HAL delivers.
+public final class LatencyProfile {
+    public static final String ULTRA = "ultra";
+    public static final String BALANCED = "balanced";
+    public static final String BULK = "bulk";
+
+    public static final String[] NAMES = { ULTRA, BALANCED, BULK };
+
+    public final String name;
+    public final int chunkFrames;   // frames per AudioRecord read
+    public final int recBufBytes;   // AudioRecord buffer
+    public final int batchChunks;   // chunks coalesced per socket write
+    public final int sndBufBytes;   // SO_SNDBUF, 0 = leave system default
+    public final boolean noDelay;   // TCP_NODELAY
+    private final int frameBytes;
+    private final String socketName; // profile the socket options come from
+
+    private LatencyProfile(String name, int chunkFrames, int recBufBytes, int batchChunks,
+                           int frameBytes, String socketName) {
+        this.name = name;
+        this.chunkFrames = chunkFrames;
+        this.recBufBytes = recBufBytes;
+        this.batchChunks = batchChunks;
+        this.frameBytes = frameBytes;
+        this.socketName = socketName;
+        this.sndBufBytes = sndBufFor(socketName, chunkFrames * frameBytes);
+        this.noDelay = !BULK.equals(socketName);
+    }
+
+    public static String normalize(String name) {
+        if (ULTRA.equals(name) || BULK.equals(name)) return name;
+        return BALANCED;
+    }
+
+    public static String next(String name) {
+        name = normalize(name);
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return NAMES[(i + 1) % NAMES.length];
+        }
+        return BALANCED;
+    }
+
+    // sr: capture rate, fpb: mixer burst in frames (<= 0 if unknown),
+    // frameBytes: bytes per frame, minBuf: AudioRecord.getMinBufferSize()
+    public static LatencyProfile derive(String name, int sr, int fpb, int frameBytes, int minBuf) {
+        name = normalize(name);
+        if (fpb <= 0) fpb = sr / 200; // 5 ms when the mixer does not tell us
+        int ms = sr / 1000;
+
+        int chunk, batch, recChunks;
+        if (ULTRA.equals(name)) {
+            chunk = Math.max(fpb, 2 * ms);                     // one burst, >= 2 ms
+            batch = 1;
+            recChunks = 4;
+        } else if (BULK.equals(name)) {
+            chunk = fpb * Math.max(1, (20 * ms + fpb - 1) / fpb); // ~20 ms of bursts
+            batch = 4;                                         // ~80 ms per syscall
+            recChunks = 16;
+        } else {
+            chunk = fpb * Math.max(1, (10 * ms + fpb / 2) / fpb); // ~10 ms of bursts
+            batch = 1;
+            recChunks = 8;
+        }
+        // whole milliseconds keep every chunk divisible for rate/channel conversions
+        chunk = ((chunk + ms - 1) / ms) * ms;
+
+        int chunkBytes = chunk * frameBytes;
+        int recBuf = Math.max(chunkBytes * recChunks, Math.max(minBuf, 4096));
+        return new LatencyProfile(name, chunk, recBuf, batch, frameBytes, name);
+    }
+
+    // SO_SNDBUF per profile: ultra keeps the kernel queue short (a few chunks, never below
+    // one page pair), bulk gives it room, balanced leaves the system default
+    private static int sndBufFor(String name, int chunkBytes) {
+        if (ULTRA.equals(name)) return Math.max(8192, chunkBytes * 4);
+        if (BULK.equals(name)) return 256 * 1024;
+        return 0;
+    }
+
+    // The same capture sizing with another profile's socket options: a new receiver in a
+    // running session, whose AudioRecord and buffers stay as they were opened.
+    public LatencyProfile withSocketOf(String other) {
+        return new LatencyProfile(name, chunkFrames, recBufBytes, batchChunks, frameBytes,
+                                  normalize(other));
+    }
+
+    public String socketName() { return socketName; }
+
+    public float chunkMs(int sr) {
+        return chunkFrames * 1000f / sr;
+    }
+
+    @Override public String toString() {
+        return String.format(Locale.US, "%s%s chunk=%d batch=%d recBuf=%d sndBuf=%s nodelay=%d",
+                name, socketName.equals(name) ? "" : "/" + socketName, chunkFrames, batchChunks, recBufBytes,
+                (sndBufBytes > 0 ? String.valueOf(sndBufBytes) : "sys"), (noDelay ? 1 : 0));
+    }
+}
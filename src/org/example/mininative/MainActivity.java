@@ -21,6 +21,11 @@ import android.content.pm.PackageManager;
 import android.graphics.drawable.GradientDrawable;
 import android.util.Log;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
 import android.net.ConnectivityManager;
 import android.net.LinkAddress;
@@ -41,6 +46,7 @@ import android.content.ServiceConnection;
 import android.os.IBinder;
 
 import java.util.Map;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -66,17 +72,54 @@ import android.text.method.LinkMovementMethod;
 
 public class MainActivity extends Activity {
   private MdnsDiscoverer mdns;
+  private ReceiverProber prober;
+
+  // discovered receivers by service name, what a tap (or auto mode) selects
+  private static final class Cand {
+    final InetAddress host;
+    final int port;
+    final String[] txt;
+    final String line;
+    Cand(InetAddress host, int port, String[] txt, String line) {
+      this.host = host;
+      this.port = port;
+      this.txt = txt;
+      this.line = line;
+    }
+  }
+  private final Map<String, Cand> cands = new HashMap<>();
   private int mdnsEvents = 0;
 
   private static final String TAG = "pw-mainUI";
   private static final String PREFS="mn_prefs";
   private static final String KEY_HOST="host", KEY_PORT="port", KEY_GAIN="gain", KEY_MUTED="muted";
+  private static final String KEY_PROFILE="profile", KEY_FRAMED="framed", KEY_PACED="paced";
+  private static final String KEY_POWER="power_lock";
   private static final String KEY_SEL_UID = "sel_uid", KEY_SEL_PKG = "sel_pkg";
 
   private static final String ACT_STATE="org.example.mininative.STATE";
   private static final String ACT_STOP="org.example.mininative.STOP";
   private static final String ACT_SET_GAIN="org.example.mininative.SET_GAIN";
   private static final String ACT_SET_MUTED="org.example.mininative.SET_MUTED";
+  private static final String ACT_RETARGET="org.example.mininative.RETARGET";
+  private static final String ACT_NET_CHANGED="org.example.mininative.NET_CHANGED";
+  private static final String ACT_RETARGET_DONE="org.example.mininative.RETARGET_DONE";
+  private static final String KEY_RX_CAPS="rx_caps", KEY_RX_ADDR="rx_addr";
+  private static final String KEY_AUTO_RX="auto_rx";
+  private static final String KEY_FAILOVER="failover";
+  private static final String KEY_SYNC="sync";
+  private static final String KEY_MCAST_TTL="mcast_ttl";
+  private static final String KEY_PASSTHRU="passthru";
+  private static final String KEY_NATIVE_TX="native_tx";
+  private static final String KEY_TEE_MIN="tee_min";
+  private static final String KEY_DEADLINE="deadline_ms";
+  private static final String KEY_PROBE="probe";
+  private static final String KEY_TRACE="trace";
+  private static final String KEY_FLIGHT="flight";
+  private static final String ACT_TEE_SAVE="org.example.mininative.TEE_SAVE";
+  private static final int[] TEE_STEPS = { 0, 2, 5, 15 };
+  private static final int[] DEADLINE_STEPS = { 1000, 1500, 3000, 5000 }; // ms, service clamps 500..5000
+  private static final int OPT_COLUMNS = 4;
   private static final String ACT_SET_SOURCE_UID = "ACT_SET_SOURCE_UID"; // match StreamService action
 
   private static final int REQ_MIC=1001, REQ_PROJ=1002, REQ_POST=1003;
@@ -93,7 +136,7 @@ public class MainActivity extends Activity {
 
   private EditText hostEt, portEt;
   private SeekBar gainSb;
-  private TextView gainTv, topTv, botTv;
+  private TextView gainTv, topTv, botTv, profileTv, wireTv, paceTv, lockTv, autoTv, syncTv, ttlTv, passTv, nativeTv, teeTv, deadTv, probeTv, traceTv, flightTv;
   private Button stateBtn, muteBtn, applyBtn, exitBtn;
 
   private SharedPreferences prefs;
@@ -149,11 +192,54 @@ private CharSequence buildHelpHtml() {
 
   String html =
       "<h3><font color='#0AA4FF'>Quick Help</font></h3>"
-    + "<p><b><font color='#FFD60A'>Receivers</font></b>: discovered via mDNS " + esc(Config.MDNS_SRV_NAME) + ". Tap to copy host:port.</p>"
+    + "<p><b><font color='#FFD60A'>Receivers</font></b>: discovered via mDNS " + esc(Config.MDNS_SRV_NAME) + ". Tap to copy host:port, long-press to add/remove it "
+    + "in the ordered failover group (used when the receiver dies mid-stream); "
+    + "shown with the interface and latency of the best path. TXT keys <i>fmt rate ch tr lat</i> pick the format "
+    + "and transport sent to that receiver.</p>"
     + "<p><b><font color='#FFD60A'>Audio Source</font></b>: pick an <i>app</i> or "
     + "<i>Wide System / All Sounds</i>.</p>"
     + "<p><b><font color='#FFD60A'>Gain / Mute</font></b>: gain applies live; mute silences TX.</p>"
+    + "<p><b><font color='#FFD60A'>Profile</font></b>: tap to cycle <i>ultra</i> (smallest chunks, TCP_NODELAY), "
+    + "<i>balanced</i> (~10 ms) or <i>bulk</i> (batched writes, fewer wakeups). Applies on next Start.</p>"
+    + "<p><b><font color='#FFD60A'>raw / framed</font></b>: raw sends plain s16 PCM. Framed adds a small header per chunk "
+    + "and steps the format down (u-law, mono, 24 kHz) when the link backs up; the receiver must speak it.</p>"
+    + "<p><b><font color='#FFD60A'>paced / burst</font></b>: paced releases chunks on the capture clock so the receiver "
+    + "sees steady arrivals (<i>wjit</i> is our write-time jitter, <i>jit</i> what the receiver reports) and can run a smaller jitter buffer; costs one chunk (min 10 ms) of latency.</p>"
+    + "<p><b><font color='#FFD60A'>lock / nolock</font></b>: hold a low-latency Wi-Fi lock and wake lock while audio plays, "
+    + "avoiding Wi-Fi power-save spikes with the screen off; released after 10 s of silence. Costs battery.</p>"
+    + "<p><b><font color='#FFD60A'>auto / manual</font></b>: receivers are probed in the background while not streaming "
+    + "(connect time, RTT, burst throughput) and listed best first; <i>auto</i> starts on the best one.</p>"
+    + "<p><b><font color='#FFD60A'>sync / free</font></b>: framed only. The receiver's clock is measured "
+    + "(NTP-style) and every frame carries the moment to play it, so several rooms play in step; "
+    + "<i>sync</i> shows the clock estimate error.</p>"
+    + "<p><b><font color='#FFD60A'>pass / dsp</font></b>: framed or multicast only. <i>pass</i> forwards samples "
+    + "bit-exact and sends gain and mute as timestamped frames the receiver applies from that sample on; "
+    + "<i>dsp</i> scales on the phone. Mute in <i>pass</i> keeps the stream running, so it is not mistaken for a stall.</p>"
+    + "<p><b><font color='#FFD60A'>native / java</font></b>: unicast only. <i>native</i> reads capture into "
+    + "direct buffers handed to a native sender thread that paces, batches and writes them, off the Java heap "
+    + "and its GC pauses. No control channel there: no format ladder, sync or failover.</p>"
+    + "<p><b><font color='#FFD60A'>tee</font></b>: tap to cycle off / 2 / 5 / 15 min. While streaming, the audio "
+    + "sent (capture format, before any format step down) is kept in a ring file; long press saves the last minutes "
+    + "as <i>pwnet-&lt;time&gt;.wav</i> in the app's files folder (Android/data/org.example.mininative/files).</p>"
+    + "<p><b><font color='#FFD60A'>probe / audio</font></b>: framed unicast, java path. <i>probe</i> sends a short "
+    + "chirp about once a second instead of the captured audio; a receiver that echoes what it plays lets the "
+    + "phone find each chirp and log the real capture-to-playout latency (min, median, p95, max) per setting.</p>"
+    + "<p><b><font color='#FFD60A'>trace / notrace</font></b>: <i>trace</i> marks capture reads, gain, writes, "
+    + "reconnects and state broadcasts as Perfetto/systrace slices, with kb/s and queue depth counters, so a stutter "
+    + "can be lined up against the scheduler and the Wi-Fi driver in one trace. Record with the app category on "
+    + "(e.g. <i>atrace -a org.example.mininative</i>). Costs nothing while off.</p>"
+    + "<p><b><font color='#FFD60A'>flight / noflight</font></b>: <i>flight</i> keeps one record a second per "
+    + "session (kb/s, reconnects, overruns, drops, latency percentiles, gain, mute, source) in a ring file of the "
+    + "last 12 hours, the last 8 sessions kept, in the <i>flight</i> folder next to the tee. Long press exports "
+    + "every session as CSV and JSON beside its ring, also after a crash.</p>"
+    + "<p><b><font color='#FFD60A'>Multicast</font></b>: a group address as host (e.g. 239.255.42.1) sends one framed "
+    + "UDP stream every receiver on the LAN can join; fixed format, no retransmit. <i>ttl</i> sets how many router hops "
+    + "it may cross (1 = this subnet).</p>"
+    + "<p><b><font color='#FFD60A'>Serve</font></b>: host <i>*</i> makes the phone listen on the port and announce itself "
+    + "as <i>_pwnet-src</i>. Any number of clients pull the same capture: <i>http://phone:port/</i> gives WAV, a client "
+    + "sending <i>PW</i> gets framed, anything else raw s16. A client that falls 0.5 s behind is dropped.</p>"
     + "<p><b><font color='#FFD60A'>Start</font></b>: asks for permissions and begins streaming.</p>"
+    + "<p><b><font color='#FFD60A'>Apply</font></b> while streaming with a new host:port switches receiver live, no new consent.</p>"
     + "<p>Status shows TX bytes / kbps / attempts; tap to copy local IPs.</p>"
     + "<p>Docs: <a href='https://github.com/hyphop/pw-net-android'>Read full help</a></p>"
     + "<p>Homepage: <a href='https://example.com/anything'>project page</a></p>"
@@ -427,17 +513,58 @@ private static java.util.List<String> getLocalWifiIPs(Context ctx) {
 
   private final BroadcastReceiver br = new BroadcastReceiver() {
     @Override public void onReceive(Context c, Intent i) {
+      if (ACT_RETARGET_DONE.equals(i.getAction())) {
+        String h = i.getStringExtra("host");
+        int p = i.getIntExtra("port", 0);
+        if (i.getBooleanExtra("ok", false)) {
+          Toast.makeText(MainActivity.this, "Switched to " + h + ":" + p, Toast.LENGTH_SHORT).show();
+          return;
+        }
+        // still on the old receiver: show that one again, unless something else was typed since
+        if (h != null && h.equals(hostEt.getText().toString().trim())) {
+          hostEt.setText(prefs.getString(KEY_HOST, Config.HOST));
+          portEt.setText(String.valueOf(prefs.getInt(KEY_PORT, Config.PORT)));
+        }
+        Toast.makeText(MainActivity.this, "Switch to " + h + ":" + p + " failed", Toast.LENGTH_SHORT).show();
+        return;
+      }
+      if (ACT_NET_CHANGED.equals(i.getAction())) {
+        // service moved to another Wi-Fi / address: old candidates may be stale
+        Log.i(TAG, "network " + i.getStringExtra("why") + ", rediscovering");
+        if (mdns != null) {
+          mdns.stop();
+          if (candidatesLayout != null) candidatesLayout.removeAllViews();
+          cands.clear();
+          if (prober != null) prober.clear();
+          mdnsEvents = 0;
+          updateMdnsLabel();
+          mdns.start();
+        }
+        return;
+      }
       if (!ACT_STATE.equals(i.getAction())) return;
       status   = i.getStringExtra("status");
       long tx  = i.getLongExtra("tx", 0L);
       int kbps = i.getIntExtra("kbps", 0);
       int attempts = i.getIntExtra("attempts", 0);
+      int jitterUs = i.getIntExtra("jitter", -1);
+      int wjitUs = i.getIntExtra("wjitter", 0);
+      long rttUs = i.getLongExtra("rtt", -1L);
+      int fillMs = i.getIntExtra("fill", -1);
+      int syncUs = i.getIntExtra("sync", -1);
       muted = i.getBooleanExtra("muted", false);
       float g = i.getFloatExtra("gain", prefs.getFloat(KEY_GAIN, 1f));
 
       setStateButtonFor(status);
-      topTv.setText("TX " + tx + " B  " + kbps + " kb/s  attempts " + attempts);
-      botTv.setText(status);
+      if (prober != null) prober.setPaused(!"DISCONNECTED".equals(status));
+      topTv.setText("TX " + tx + " B  " + kbps + " kb/s  attempts " + attempts
+          + (jitterUs >= 0 ? String.format(Locale.US, "  jit %.1f ms", jitterUs / 1000f) : "")
+          + String.format(Locale.US, "  wjit %.1f ms", wjitUs / 1000f)
+          + (rttUs >= 0 ? String.format(Locale.US, "  rtt %.1f ms", rttUs / 1000f) : "")
+          + (fillMs >= 0 ? "  fill " + fillMs + " ms" : "")
+          + (syncUs >= 0 ? String.format(Locale.US, "  sync %.2f ms", syncUs / 1000f) : ""));
+      String peer = i.getStringExtra("peer");
+      botTv.setText(peer != null && !"DISCONNECTED".equals(status) ? status + "  " + peer : status);
       gainTv.setText("gain " + Math.round(g * 100f) + "%");
       muteBtn.setText(muted ? "Unmute" : "Mute");
     }
@@ -452,22 +579,13 @@ private static java.util.List<String> getLocalWifiIPs(Context ctx) {
   private void updateMdnsLabel2Zero() {
     if ( candidatesLayout != null ) {
         candidatesLayout.removeAllViews();
+        cands.clear();
+        if (prober != null) prober.clear();
         mdnsEvents=0;
         updateMdnsLabel();
     }
   }
 
-    private boolean hasItemWithText(LinearLayout layout, String text) {
-    for (int i = 0; i < layout.getChildCount(); i++) {
-        View v = layout.getChildAt(i);
-        if (v instanceof TextView) {
-            CharSequence existing = ((TextView) v).getText();
-            if (text.equals(existing)) return true;
-        }
-    }
-    return false;
-    }
-
 private void updateAudioLabel(){
     int c = 0;
     int u = prefs.getInt(KEY_SEL_UID, -1);
@@ -587,9 +705,23 @@ private static View.OnTouchListener makePressHighlightListener() {
     LinearLayout gainHead = new LinearLayout(this);
     gainHead.setOrientation(LinearLayout.HORIZONTAL);
     gainHead.setPadding(0, dp(8), 0, dp(4));
-    TextView spacer = new TextView(this);
-    SpacerParams(spacer);
-    gainHead.addView(spacer, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+    // latency profile (left), tap to cycle; takes effect on next Start
+    profileTv = t("");
+    profileTv.setClickable(true);
+    profileTv.setText("profile " + LatencyProfile.normalize(
+        prefs.getString(KEY_PROFILE, LatencyProfile.BALANCED)));
+    profileTv.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View v) {
+        String next = LatencyProfile.next(prefs.getString(KEY_PROFILE, LatencyProfile.BALANCED));
+        prefs.edit().putString(KEY_PROFILE, next).apply();
+        profileTv.setText("profile " + next);
+        if ("CONNECTED".equals(status) || "CONNECTING".equals(status)) {
+          Toast.makeText(MainActivity.this, "Profile applies on next Start", Toast.LENGTH_SHORT).show();
+        }
+      }
+    });
+    gainHead.addView(profileTv, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+
     gainTv = t("");
     gainTv.setTextColor(CYAN);
     gainTv.setGravity(Gravity.END);
@@ -605,6 +737,107 @@ private static View.OnTouchListener makePressHighlightListener() {
     styleSeek(gainSb);
     root.addView(gainSb);
 
+    // Stream options: tap to toggle, each applies on next Start; laid out as a grid below
+    List<View> opts = new ArrayList<>();
+    // raw s16 or framed (adaptive format, needs a framed receiver)
+    wireTv = prefToggle(KEY_FRAMED, false, "framed", "raw", "Wire mode");
+    opts.add(wireTv);
+    // release chunks on the media clock (steady) or as soon as read (bursty)
+    paceTv = prefToggle(KEY_PACED, false, "paced", "burst", "Pacing");
+    opts.add(paceTv);
+    // Wi-Fi low-latency + wake lock while audible
+    lockTv = prefToggle(KEY_POWER, true, "lock", "nolock", "Power lock");
+    opts.add(lockTv);
+    // connect to the best probed receiver instead of the one typed in
+    autoTv = prefToggle(KEY_AUTO_RX, false, "auto", "manual", "Receiver pick");
+    opts.add(autoTv);
+    // framed: stamp each frame with its playout time on the receiver clock
+    syncTv = prefToggle(KEY_SYNC, false, "sync", "free", "Playout sync");
+    opts.add(syncTv);
+    // framed: samples go out untouched, the receiver applies gain and mute
+    passTv = prefToggle(KEY_PASSTHRU, false, "pass", "dsp", "Passthrough");
+    opts.add(passTv);
+    // unicast: capture into direct buffers, a native thread paces and writes
+    nativeTv = prefToggle(KEY_NATIVE_TX, false, "native", "java", "TX path");
+    opts.add(nativeTv);
+    // multicast hops, used when host is a group address (224.x-239.x)
+    ttlTv = t("ttl " + prefs.getInt(KEY_MCAST_TTL, 1));
+    ttlTv.setClickable(true);
+    ttlTv.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View v) {
+        int ttl = prefs.getInt(KEY_MCAST_TTL, 1) * 2;
+        if (ttl > 32) ttl = 1;
+        prefs.edit().putInt(KEY_MCAST_TTL, ttl).apply();
+        ttlTv.setText("ttl " + ttl);
+        if ("CONNECTED".equals(status) || "CONNECTING".equals(status)) {
+          Toast.makeText(MainActivity.this, "Multicast TTL applies on next Start", Toast.LENGTH_SHORT).show();
+        }
+      }
+    });
+    opts.add(ttlTv);
+    // tee: keep the last N minutes of what is sent; long press saves them to a file
+    teeTv = t(teeLabel(prefs.getInt(KEY_TEE_MIN, 0)));
+    teeTv.setClickable(true);
+    teeTv.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View v) {
+        int cur = prefs.getInt(KEY_TEE_MIN, 0), next = TEE_STEPS[0];
+        for (int k = 0; k < TEE_STEPS.length; k++) {
+          if (TEE_STEPS[k] == cur) next = TEE_STEPS[(k + 1) % TEE_STEPS.length];
+        }
+        prefs.edit().putInt(KEY_TEE_MIN, next).apply();
+        teeTv.setText(teeLabel(next));
+        if ("CONNECTED".equals(status) || "CONNECTING".equals(status)) {
+          Toast.makeText(MainActivity.this, "Tee length applies on next Start", Toast.LENGTH_SHORT).show();
+        }
+      }
+    });
+    teeTv.setOnLongClickListener(new View.OnLongClickListener() {
+      @Override public boolean onLongClick(View v) {
+        int min = prefs.getInt(KEY_TEE_MIN, 0);
+        if (min == 0 || !("CONNECTED".equals(status) || "CONNECTING".equals(status))) {
+          Toast.makeText(MainActivity.this, "No tee running", Toast.LENGTH_SHORT).show();
+          return true;
+        }
+        sendTeeSave(min);
+        Toast.makeText(MainActivity.this, "Saving last " + min + " min", Toast.LENGTH_SHORT).show();
+        return true;
+      }
+    });
+    opts.add(teeTv);
+    // stuck write / lost heartbeat this long: the link is dead, reconnect or fail over
+    deadTv = t(deadLabel(prefs.getInt(KEY_DEADLINE, 1500)));
+    deadTv.setClickable(true);
+    deadTv.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View v) {
+        int cur = prefs.getInt(KEY_DEADLINE, 1500), next = DEADLINE_STEPS[0];
+        for (int k = 0; k < DEADLINE_STEPS.length; k++) {
+          if (DEADLINE_STEPS[k] == cur) next = DEADLINE_STEPS[(k + 1) % DEADLINE_STEPS.length];
+        }
+        prefs.edit().putInt(KEY_DEADLINE, next).apply();
+        deadTv.setText(deadLabel(next));
+        if ("CONNECTED".equals(status) || "CONNECTING".equals(status)) {
+          Toast.makeText(MainActivity.this, "Deadline applies on next Start", Toast.LENGTH_SHORT).show();
+        }
+      }
+    });
+    opts.add(deadTv);
+    // framed unicast: chirps instead of the capture, latency from the receiver's echo
+    probeTv = prefToggle(KEY_PROBE, false, "probe", "audio", "Latency probe");
+    opts.add(probeTv);
+    // Perfetto/systrace markers around capture, DSP, writes and reconnects
+    traceTv = prefToggle(KEY_TRACE, false, "trace", "notrace", "Tracing");
+    opts.add(traceTv);
+    // per-second stats of each session in a ring file; long press exports them
+    flightTv = prefToggle(KEY_FLIGHT, true, "flight", "noflight", "Flight recorder");
+    flightTv.setOnLongClickListener(new View.OnLongClickListener() {
+      @Override public boolean onLongClick(View v) {
+        exportFlights();
+        return true;
+      }
+    });
+    opts.add(flightTv);
+    root.addView(optionGrid(opts));
+
     // Buttons row
     LinearLayout btns = new LinearLayout(this);
     btns.setOrientation(LinearLayout.HORIZONTAL);
@@ -641,6 +874,8 @@ private static View.OnTouchListener makePressHighlightListener() {
     applyBtn = strokeButton("Apply");
     applyBtn.setOnClickListener(new View.OnClickListener() {
       @Override public void onClick(View v) {
+        String oldHost = prefs.getString(KEY_HOST, Config.HOST);
+        int oldPort = prefs.getInt(KEY_PORT, Config.PORT);
         savePrefs();
         logPrefs("Apply", prefs);
         float val = clamp01(gainSb.getProgress()/100f);
@@ -649,6 +884,18 @@ private static View.OnTouchListener makePressHighlightListener() {
               .setAction(ACT_SET_GAIN).putExtra("value", val);
           if (Build.VERSION.SDK_INT >= 26) startForegroundService(i); else startService(i);
         }
+        String newHost = prefs.getString(KEY_HOST, Config.HOST);
+        int newPort = prefs.getInt(KEY_PORT, Config.PORT);
+        if (("CONNECTED".equals(status) || "CONNECTING".equals(status))
+            && (!newHost.equals(oldHost) || newPort != oldPort)) {
+          // switch receiver live, capture keeps running (no new consent); the service
+          // saves the new receiver once it has cut over (RETARGET_DONE)
+          prefs.edit().putString(KEY_HOST, oldHost).putInt(KEY_PORT, oldPort).apply();
+          sendRetarget(newHost, newPort);
+          Toast.makeText(MainActivity.this, "Switching to " + newHost + ":" + newPort,
+              Toast.LENGTH_SHORT).show();
+          return;
+        }
         Toast.makeText(MainActivity.this, "Saved", Toast.LENGTH_SHORT).show();
       }
     });
@@ -839,11 +1086,12 @@ showTab(1);
     mdns = new MdnsDiscoverer(getApplicationContext(), Config.MDNS_SRV_NAME,
       new MdnsDiscoverer.Callback() {
         @Override
-        public void onService(final InetAddress host, final int port, final String[] txt) {
+        public void onService(final String name, final InetAddress host, final int port,
+                              final String[] txt, final String iface, final int latencyMs) {
           runOnUiThread(new Runnable() {
             @Override public void run() {
               if ( txt != null ) {
-                addCandidate(host, port, txt);
+                addCandidate(name, host, port, txt, iface, latencyMs);
               } else {
                 mdnsEvents++;
                 updateMdnsLabel();
@@ -856,7 +1104,8 @@ showTab(1);
     Log.i(TAG, "mdns init...");
   }
 
-private void addCandidate(final InetAddress host, final int port, final String[] txt) {
+private void addCandidate(final String name, final InetAddress host, final int port,
+                          final String[] txt, final String iface, final int latencyMs) {
     if (candidatesLayout == null) return;
 
     // Default to host if no TXT or first TXT empty
@@ -875,18 +1124,33 @@ private void addCandidate(final InetAddress host, final int port, final String[]
         displayTxt = ""; // no TXT records
     }
 
-    // Always show IP:PORT, then optional TXT
-    String line = host.getHostAddress() + ":" + port;
+    // Always show IP:PORT and the path it was found on, then optional TXT
+    String line = host.getHostAddress() + ":" + port + " [" + iface
+        + (latencyMs >= 0 ? " " + latencyMs + "ms" : "") + "]";
     if (!displayTxt.isEmpty()) {
         line += " " + displayTxt;
     }
 
-    if (hasItemWithText(candidatesLayout, line)) {
+    Cand seen = cands.get(name);
+    if (seen != null && seen.line.equals(line)) {
         return; // no need dub list
     }
+    cands.put(name, new Cand(host, port, txt, line));
+    if (prober != null) {
+        prober.offer(new ReceiverProber.Target(name, host, port,
+            ReceiverCaps.parse(txt).transports.contains(ReceiverCaps.TR_FRAMED)));
+    }
+
+    // same receiver seen before over a slower path: replace that entry in place
+    int at = -1;
+    for (int i = 0; i < candidatesLayout.getChildCount(); i++) {
+        if (name.equals(candidatesLayout.getChildAt(i).getTag())) { at = i; break; }
+    }
+    if (at >= 0) candidatesLayout.removeViewAt(at);
 
     TextView item = new TextView(this);
-    item.setText(line);
+    item.setTag(name);
+    item.setText(candText(name));
     item.setTextColor(CYAN_DIM);
     item.setPadding(dp(8), dp(4), dp(8), dp(4));
     item.setTextSize(16);
@@ -896,30 +1160,130 @@ private void addCandidate(final InetAddress host, final int port, final String[]
     item.setOnClickListener(new View.OnClickListener() {
         @Override
         public void onClick(View v) {
-            hostEt.setText(host.getHostAddress());
-            portEt.setText(String.valueOf(port));
+            selectCandidate(name);
             Toast.makeText(MainActivity.this,
                 "Selected " + host.getHostAddress() + ":" + port,
                 Toast.LENGTH_SHORT).show();
         }
     });
 
+    item.setOnLongClickListener(new View.OnLongClickListener() {
+        @Override
+        public boolean onLongClick(View v) {
+            toggleFailover(name);
+            return true;
+        }
+    });
+
     LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
     ViewGroup.LayoutParams.MATCH_PARENT,
     ViewGroup.LayoutParams.WRAP_CONTENT
     );
 
     lp.setMargins(dp(0), dp(4), dp(0), dp(0));
-    candidatesLayout.addView(item, lp);
+    if (at >= 0) candidatesLayout.addView(item, at, lp);
+    else candidatesLayout.addView(item, lp);
 
     mdnsEvents++;
     updateMdnsLabel();
   }
 
+  private String candText(String name) {
+    Cand c = cands.get(name);
+    if (c == null) return name;
+    ReceiverProber.Result r = (prober != null) ? prober.result(name) : null;
+    int fo = failoverGroup().indexOf(name);
+    String head = (fo >= 0) ? "[fo#" + (fo + 1) + "] " : "";
+    return (r != null) ? head + c.line + "\n  " + r : head + c.line;
+  }
+
+  private List<String> failoverGroup() {
+    List<String> g = new ArrayList<>();
+    for (String e : prefs.getString(KEY_FAILOVER, "").split("\n")) {
+      if (!e.trim().isEmpty()) g.add(e.trim());
+    }
+    return g;
+  }
+
+  // long-press: add a receiver to the end of the failover group, or take it out
+  private void toggleFailover(String name) {
+    List<String> g = failoverGroup();
+    boolean add = !g.remove(name);
+    if (add) g.add(name);
+    prefs.edit().putString(KEY_FAILOVER, TextUtils.join("\n", g)).apply();
+    Toast.makeText(this, (add ? "Failover #" + g.size() + ": " : "Removed from failover: ") + name
+        + ("CONNECTED".equals(status) || "CONNECTING".equals(status) ? " (next Start)" : ""),
+        Toast.LENGTH_SHORT).show();
+    rankCandidates();
+  }
+
+  // copy a receiver into the inputs; the service picks format/transport from its TXT
+  // when streaming to this address
+  private void selectCandidate(String name) {
+    Cand c = cands.get(name);
+    if (c == null) return;
+    hostEt.setText(c.host.getHostAddress());
+    portEt.setText(String.valueOf(c.port));
+    prefs.edit()
+        .putString(KEY_RX_ADDR, c.host.getHostAddress() + ":" + c.port)
+        .putString(KEY_RX_CAPS, TextUtils.join("\n", c.txt))
+        .apply();
+  }
+
+  // order the list by probe results, best on top; auto mode takes the best one
+  private void rankCandidates() {
+    if (candidatesLayout == null || prober == null) return;
+    int pos = 0;
+    for (String name : prober.ranked()) {
+      for (int i = pos; i < candidatesLayout.getChildCount(); i++) {
+        View v = candidatesLayout.getChildAt(i);
+        if (!name.equals(v.getTag())) continue;
+        if (i != pos) {
+          ViewGroup.LayoutParams lp = v.getLayoutParams();
+          candidatesLayout.removeViewAt(i);
+          candidatesLayout.addView(v, pos, lp);
+        }
+        ((TextView) v).setText(candText(name));
+        pos++;
+        break;
+      }
+    }
+    autoPick();
+  }
+
+  private void autoPick() {
+    if (!prefs.getBoolean(KEY_AUTO_RX, false) || prober == null) return;
+    if (!"DISCONNECTED".equals(status)) return; // never pull the rug while streaming
+    String typed = hostEt.getText().toString().trim();
+    if (StreamServer.isListen(typed) || MulticastSender.isGroup(typed)) return; // no single receiver
+    String best = prober.best();
+    Cand c = (best != null) ? cands.get(best) : null;
+    if (c == null) return;
+    String addr = c.host.getHostAddress() + ":" + c.port;
+    if (addr.equals(prefs.getString(KEY_RX_ADDR, ""))
+        && hostEt.getText().toString().trim().equals(c.host.getHostAddress())) return;
+    Log.i(TAG, "auto receiver " + best + " " + addr + " " + prober.result(best));
+    selectCandidate(best);
+  }
+
   @Override protected void onStart() {
     super.onStart();
     Log.i(TAG, "onStart");
     mdns_setup();
+    if (prober == null) {
+      prober = new ReceiverProber(new ReceiverProber.Listener() {
+        @Override public void onProbed(final String name, final ReceiverProber.Result r) {
+          Log.i(TAG, "probe " + name + " " + r);
+          runOnUiThread(new Runnable() {
+            @Override public void run() { rankCandidates(); }
+          });
+        }
+      });
+    }
+    prober.clear();
+    prober.setPaused(!"DISCONNECTED".equals(status));
+    prober.start();
+    cands.clear();
     if (candidatesLayout != null) candidatesLayout.removeAllViews(); // fresh list
     mdnsEvents = 0;                      // reset total events
     updateMdnsLabel();                   // shows [0/0]
@@ -931,7 +1295,10 @@ private void addCandidate(final InetAddress host, final int port, final String[]
   @Override protected void onResume() {
     super.onResume();
     Log.i(TAG, "resume");
-    registerReceiver(br, new IntentFilter(ACT_STATE));
+    IntentFilter f = new IntentFilter(ACT_STATE);
+    f.addAction(ACT_NET_CHANGED);
+    f.addAction(ACT_RETARGET_DONE);
+    registerReceiver(br, f);
     setStateButtonFor(status);
   }
 
@@ -947,12 +1314,14 @@ private void addCandidate(final InetAddress host, final int port, final String[]
       Log.i(TAG, "mDNS discovery stopping...");
       mdns.stop();
     }
+    if (prober != null) prober.stop();
     super.onStop();
   }
 
   @Override protected void onDestroy() {
     super.onDestroy();
-    try { if (mdns != null) mdns.stop(); } catch (Throwable ignore) {}
+    try { if (mdns != null) mdns.close(); } catch (Throwable ignore) {}
+    mdns = null;
     Log.i(TAG, "onDestroy");
   }
 
@@ -962,6 +1331,63 @@ private void addCandidate(final InetAddress host, final int port, final String[]
     if (Build.VERSION.SDK_INT >= 26) startForegroundService(i); else startService(i);
   }
 
+  private void sendTeeSave(int minutes) {
+    Intent i = new Intent(this, StreamService.class).setAction(ACT_TEE_SAVE)
+        .putExtra("minutes", minutes);
+    if (Build.VERSION.SDK_INT >= 26) startForegroundService(i); else startService(i);
+  }
+
+  // every flight recorder ring as .csv and .json next to it, off the UI thread; reads a copy,
+  // so the ring of a running session can be exported too
+  private void exportFlights() {
+    File d = getExternalFilesDir(null);
+    final File dir = new File((d != null) ? d : getFilesDir(), "flight");
+    final File[] rings = dir.listFiles(new java.io.FilenameFilter() {
+      @Override public boolean accept(File f, String name) { return name.endsWith(".pwfr"); }
+    });
+    if (rings == null || rings.length == 0) {
+      Toast.makeText(this, "No flight records yet", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    new Thread(new Runnable() {
+      @Override public void run() {
+        int files = 0, recs = 0;
+        for (File f : rings) {
+          String base = f.getPath().substring(0, f.getPath().length() - 5);
+          try {
+            for (int k = 0; k < 2; k++) {
+              Writer w = new BufferedWriter(new FileWriter(base + (k == 0 ? ".csv" : ".json")));
+              try {
+                recs = FlightRecorder.export(f, w, k == 1);
+              } finally {
+                w.close();
+              }
+            }
+            files++;
+            Log.i(TAG, "flight export " + base + " (" + recs + " records)");
+          } catch (IOException e) {
+            Log.w(TAG, "flight export " + f + ": " + e.getMessage());
+          }
+        }
+        final String msg = "Exported " + files + "/" + rings.length + " sessions to " + dir;
+        runOnUiThread(new Runnable() {
+          @Override public void run() {
+            Toast.makeText(MainActivity.this, msg, Toast.LENGTH_LONG).show();
+          }
+        });
+      }
+    }, "pwnet-flight").start();
+  }
+
+  private static String teeLabel(int min) { return min > 0 ? "tee " + min + "m" : "tee off"; }
+  private static String deadLabel(int ms) { return "dead " + ms + "ms"; }
+
+  private void sendRetarget(String host, int port) {
+    Intent i = new Intent(this, StreamService.class).setAction(ACT_RETARGET)
+        .putExtra("host", host).putExtra("port", port);
+    if (Build.VERSION.SDK_INT >= 26) startForegroundService(i); else startService(i);
+  }
+
   private float clamp01(float f){ if (f<0f) return 0f; if (f>1f) return 1f; return f; }
   private int dp(int v){ float d=getResources().getDisplayMetrics().density; return Math.round(v*d); }
   private TextView t(String s){ TextView x=new TextView(this); x.setText(s); x.setTextColor(CYAN); x.setTextSize(16); return x; }
@@ -989,6 +1415,47 @@ private void addCandidate(final InetAddress host, final int port, final String[]
   }
   private void SpacerParams(TextView t){ t.setText(""); }
 
+  // on/off pref shown as a tappable word; stream settings apply on next Start
+  // equal columns, OPT_COLUMNS to a row: every option stays on screen, however many
+  private LinearLayout optionGrid(List<View> opts) {
+    LinearLayout grid = new LinearLayout(this);
+    grid.setOrientation(LinearLayout.VERTICAL);
+    grid.setPadding(0, dp(8), 0, 0);
+    LinearLayout row = null;
+    for (int k = 0; k < opts.size(); k++) {
+      if (k % OPT_COLUMNS == 0) {
+        row = new LinearLayout(this);
+        row.setOrientation(LinearLayout.HORIZONTAL);
+        row.setPadding(0, dp(4), 0, dp(4));
+        grid.addView(row);
+      }
+      row.addView(opts.get(k), new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1f));
+    }
+    // pad the last row so its cells line up with the columns above
+    for (int k = opts.size(); k % OPT_COLUMNS != 0; k++) {
+      row.addView(new View(this), new LinearLayout.LayoutParams(0, 1, 1f));
+    }
+    return grid;
+  }
+
+  private TextView prefToggle(final String key, final boolean def, final String on,
+                              final String off, final String what) {
+    final TextView tv = t(prefs.getBoolean(key, def) ? on : off);
+    tv.setClickable(true);
+    tv.setPadding(0, 0, dp(16), 0);
+    tv.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View v) {
+        boolean val = !prefs.getBoolean(key, def);
+        prefs.edit().putBoolean(key, val).apply();
+        tv.setText(val ? on : off);
+        if ("CONNECTED".equals(status) || "CONNECTING".equals(status)) {
+          Toast.makeText(MainActivity.this, what + " applies on next Start", Toast.LENGTH_SHORT).show();
+        }
+      }
+    });
+    return tv;
+  }
+
   private Button strokeButton(String label){
     Button b = new Button(this);
     b.setText(label);
@@ -1066,6 +1533,7 @@ private void savePrefs() {
 }
 
   private void startFlow() {
+    autoPick();
     savePrefs();
     Log.i(TAG, "start");
     if (Build.VERSION.SDK_INT >= 33 &&
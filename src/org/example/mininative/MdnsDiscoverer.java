@@ -2,6 +2,7 @@ package org.example.mininative;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import javax.jmdns.JmDNS;
@@ -14,29 +15,63 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.ArrayList;
 import java.util.List;
 
+// mDNS browse on every up, multicast-capable IPv4 interface at once (Wi-Fi, Ethernet,
+// USB tether, own hotspot): one JmDNS per interface. Results are merged per service name;
+// of several paths to the same receiver the one with the lowest latency wins (reachability
+// probe RTT over that interface, interface kind as tie-break).
 public final class MdnsDiscoverer {
     private static final String TAG = "pw-mdns";
+    private static final int PROBE_TIMEOUT_MS = 300;
 
-    // Simple callback: give host, port, and raw TXT[] lines (arrival order preserved)
+    // host, port, raw TXT[] lines (arrival order preserved), interface the best path is on,
+    // and its latency in ms (-1 unknown). Called again when a better path shows up.
     public interface Callback {
-        void onService(InetAddress host, int port, String[] txt);
+        void onService(String name, InetAddress host, int port, String[] txt,
+                       String iface, int latencyMs);
     }
 
     private final Context appCtx;
     private final String serviceType;
     private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
     private final Callback cb;
 
     private WifiManager.MulticastLock mlock;
-    private JmDNS jmdns;
-    private final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private volatile int gen = 0;               // bumped by stop(): late creates close again
+    private volatile boolean closed;
+
+    // merged view: service name -> best path so far
+    private static final class Path {
+        final String iface;
+        final InetAddress host;
+        final int port;
+        final int latencyMs;
+        final int rank;
+        Path(String iface, InetAddress host, int port, int latencyMs) {
+            this.iface = iface;
+            this.host = host;
+            this.port = port;
+            this.latencyMs = latencyMs;
+            this.rank = ifaceRank(iface);
+        }
+        boolean betterThan(Path o) {
+            if (o == null) return true;
+            if (latencyMs >= 0 && o.latencyMs < 0) return true;
+            if (latencyMs < 0 || o.latencyMs < 0) return latencyMs < 0 && o.latencyMs < 0 && rank < o.rank;
+            if (Math.abs(latencyMs - o.latencyMs) <= 1) return rank < o.rank;
+            return latencyMs < o.latencyMs;
+        }
+    }
+    private final Map<String, Path> best = new HashMap<>();
 
     public MdnsDiscoverer(Context ctx, String serviceType, Callback cb) {
         this.appCtx = ctx.getApplicationContext();
@@ -45,60 +80,108 @@ public final class MdnsDiscoverer {
     }
 
     public void start() {
+        if (closed) return;
         io.execute(new Runnable() {
             @Override public void run() {
-                if (jmdns != null) return;
-                try {
-                    acquireMulticastLockSafe();
-                    InetAddress bind = chooseWifiIPv4();
-                    if (bind != null) {
-                        Log.i(TAG, "JmDNS.create(bind=" + bind.getHostAddress() + ")");
-                        jmdns = JmDNS.create(bind);
-                    } else {
-                        Log.w(TAG, "No Wi-Fi IPv4 found, falling back to default bind");
-                        jmdns = JmDNS.create();
-                    }
-                    jmdns.addServiceListener(serviceType, listener);
-                    Log.i(TAG, "mDNS start ok type=" + serviceType);
-                } catch (Throwable t) {
-                    Log.e(TAG, "mDNS start failed", t);
-                    safeClose();
-                    releaseMulticastLockSafe();
+                if (!sessions.isEmpty()) return;
+                acquireMulticastLockSafe();
+                final int g = gen;
+                Map<String, InetAddress> ifs = multicastIPv4();
+                if (ifs.isEmpty()) Log.w(TAG, "no multicast IPv4 interface up");
+                for (final Map.Entry<String, InetAddress> e : ifs.entrySet()) {
+                    final Session ss = new Session(e.getKey(), e.getValue());
+                    sessions.put(ss.iface, ss);
+                    // JmDNS.create blocks for a while per interface: bring them up in parallel
+                    pool.execute(new Runnable() {
+                        @Override public void run() { ss.open(g); }
+                    });
                 }
             }
         });
     }
 
     public void stop() {
+        if (closed) return;
         io.execute(new Runnable() {
             @Override public void run() {
-                safeClose();
+                gen++;
+                for (Session ss : sessions.values()) ss.close();
+                sessions.clear();
+                synchronized (best) { best.clear(); }
                 releaseMulticastLockSafe();
                 Log.i(TAG, "mDNS stopped");
             }
         });
     }
 
-    private void safeClose() {
-        try { if (jmdns != null) jmdns.close(); } catch (Throwable ignore) {}
-        jmdns = null;
-        seen.clear();
+    // stop(), then both executors go once it has run: their threads end, start()/stop() are
+    // no-ops from here on. For owners that create a discoverer per session.
+    public void close() {
+        if (closed) return;
+        stop();
+        closed = true;
+        io.execute(new Runnable() {
+            @Override public void run() { pool.shutdown(); } // after any queued start()
+        });
+        io.shutdown();
     }
 
-    private final ServiceListener listener = new ServiceListener() {
+    // one JmDNS bound to one interface address
+    private final class Session implements ServiceListener {
+        final String iface;
+        final InetAddress bind;
+        private volatile JmDNS jmdns;
+
+        Session(String iface, InetAddress bind) {
+            this.iface = iface;
+            this.bind = bind;
+        }
+
+        void open(int g) {
+            JmDNS j = null;
+            try {
+                Log.i(TAG, "JmDNS.create(" + iface + " bind=" + bind.getHostAddress() + ")");
+                j = JmDNS.create(bind, "pwnet-" + iface);
+                synchronized (this) {
+                    if (g != gen) {
+                        // stopped while we were starting
+                        try { j.close(); } catch (Throwable ignore) {}
+                        return;
+                    }
+                    jmdns = j;
+                }
+                j.addServiceListener(serviceType, this);
+                Log.i(TAG, "mDNS start ok " + iface + " type=" + serviceType);
+            } catch (Throwable t) {
+                Log.e(TAG, "mDNS start failed on " + iface, t);
+                if (j != null) try { j.close(); } catch (Throwable ignore) {}
+            }
+        }
+
+        synchronized void close() {
+            try { if (jmdns != null) jmdns.close(); } catch (Throwable ignore) {}
+            jmdns = null;
+        }
+
         @Override public void serviceAdded(ServiceEvent e) {
-            try { if (jmdns != null) jmdns.requestServiceInfo(e.getType(), e.getName(), true); }
+            JmDNS j = jmdns;
+            try { if (j != null) j.requestServiceInfo(e.getType(), e.getName(), true); }
             catch (Throwable t) { Log.w(TAG, "req resolve fail", t); }
-            Log.i(TAG, "add: " + e.getName());
+            Log.i(TAG, "add: " + e.getName() + " @" + iface);
         }
 
         @Override public void serviceRemoved(ServiceEvent e) {
-            Log.i(TAG, "rm : " + e.getName());
+            Log.i(TAG, "rm : " + e.getName() + " @" + iface);
+            // the path through here is gone: any other interface may offer one again
+            synchronized (best) {
+                Path cur = best.get(e.getName());
+                if (cur != null && cur.iface.equals(iface)) best.remove(e.getName());
+            }
         }
 
         @Override public void serviceResolved(ServiceEvent e) {
             try {
-                ServiceInfo info = e.getInfo();
+                final ServiceInfo info = e.getInfo();
                 if (info == null) return;
 
                 // prefer IPv4
@@ -111,35 +194,72 @@ public final class MdnsDiscoverer {
                         if (a instanceof Inet4Address) { host4 = a; break; }
                     }
                 }
-                InetAddress host = (host4 != null) ? host4 : hostAny;
+                final InetAddress host = (host4 != null) ? host4 : hostAny;
 
                 if (host == null) return;
 
-                /*
-                String key = info.getName() + "|" + info.getPort() + "|" + host.getHostAddress();
-                Log.i(TAG, "< " + key);
-
-                if (!seen.add(key)) {
-                    // notify update (no TXT on dup to keep it lightweight)
-                     if (cb != null) cb.onService(host, info.getPort(), null);
-                    return;
-                }
-                */
-
                 // === TXT in arrival order (raw RDATA parse) ===
-                String[] txt = parseTxtInOrder(info);
+                final String[] txt = parseTxtInOrder(info);
 
                 Log.i(TAG, "ok : name=" + info.getName()
                         + " host=" + host.getHostAddress()
                         + " port=" + info.getPort()
+                        + " if=" + iface
                         + " txt=" + java.util.Arrays.toString(txt));
 
-                if (cb != null) cb.onService(host, info.getPort(), txt);
+                // the probe blocks up to PROBE_TIMEOUT_MS, keep it off the JmDNS thread
+                pool.execute(new Runnable() {
+                    @Override public void run() {
+                        int lat = probe(host, iface);
+                        offer(info.getName(), new Path(iface, host, info.getPort(), lat), txt);
+                    }
+                });
             } catch (Throwable t) {
                 Log.w(TAG, "resolve fail", t);
             }
         }
-    };
+    }
+
+    private void offer(String name, Path p, String[] txt) {
+        synchronized (best) {
+            Path cur = best.get(name);
+            // same path again (re-announce, TXT change) or a better one
+            boolean same = cur != null && cur.iface.equals(p.iface) && cur.host.equals(p.host);
+            if (!same && !p.betterThan(cur)) {
+                Log.i(TAG, "path " + name + " via " + p.iface + " " + p.latencyMs + "ms, keep "
+                        + cur.iface + " " + cur.latencyMs + "ms");
+                return;
+            }
+            best.put(name, p);
+        }
+        Log.i(TAG, "path " + name + " via " + p.iface + " " + p.host.getHostAddress()
+                + " " + p.latencyMs + "ms");
+        if (cb != null) cb.onService(name, p.host, p.port, txt, p.iface, p.latencyMs);
+    }
+
+    // Round trip to host leaving through iface, in ms, -1 if no answer. isReachable uses
+    // ICMP where allowed, otherwise a TCP connect to the echo port: a RST is an answer too,
+    // and the receiver's own service port is left alone.
+    private static int probe(InetAddress host, String iface) {
+        try {
+            NetworkInterface nif = NetworkInterface.getByName(iface);
+            long t0 = SystemClock.elapsedRealtimeNanos();
+            boolean ok = host.isReachable(nif, 0, PROBE_TIMEOUT_MS);
+            long dt = SystemClock.elapsedRealtimeNanos() - t0;
+            return ok ? (int) (dt / 1000000L) : -1;
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    // wired < tether < Wi-Fi < own hotspot < other, for equal latency
+    private static int ifaceRank(String n) {
+        if (n.startsWith("eth")) return 0;
+        if (n.startsWith("rndis") || n.startsWith("usb") || n.startsWith("ncm")) return 1;
+        if (n.startsWith("wlan") || n.contains("wifi")) return 2;
+        if (n.startsWith("ap") || n.startsWith("swlan") || n.startsWith("softap")) return 3;
+        return 4;
+    }
 
     // Parse ServiceInfo.getTextBytes() as a sequence of <len><bytes> strings, preserving order.
     private static String[] parseTxtInOrder(ServiceInfo info) {
@@ -169,6 +289,7 @@ public final class MdnsDiscoverer {
     }
 
     private void acquireMulticastLockSafe() {
+        if (mlock != null) return;
         try {
             WifiManager wm = (WifiManager) appCtx.getSystemService(Context.WIFI_SERVICE);
             if (wm != null) {
@@ -187,27 +308,27 @@ public final class MdnsDiscoverer {
         mlock = null;
     }
 
-    private static InetAddress chooseWifiIPv4() {
+    // name -> first IPv4 of every interface that can carry mDNS. Mobile data interfaces
+    // are skipped: we never want to browse (or stream) over cellular.
+    private static Map<String, InetAddress> multicastIPv4() {
+        Map<String, InetAddress> out = new HashMap<>();
         try {
             for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
                 if (nif == null || !nif.isUp() || nif.isLoopback() || nif.isVirtual()) continue;
+                if (!nif.supportsMulticast() || nif.isPointToPoint()) continue;
                 String ln = (nif.getName() != null) ? nif.getName().toLowerCase() : "";
-                boolean isWifi = ln.startsWith("wlan") || ln.contains("wifi");
-                if (!isWifi) continue;
-                for (InetAddress a : Collections.list(nif.getInetAddresses())) {
-                    if (a instanceof Inet4Address && !a.isLoopbackAddress()) return a;
-                }
-            }
-            // fallback: any IPv4
-            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
-                if (nif == null || !nif.isUp() || nif.isLoopback() || nif.isVirtual()) continue;
+                if (ln.startsWith("rmnet") || ln.startsWith("ccmni") || ln.startsWith("tun")
+                        || ln.startsWith("dummy")) continue;
                 for (InetAddress a : Collections.list(nif.getInetAddresses())) {
-                    if (a instanceof Inet4Address && !a.isLoopbackAddress()) return a;
+                    if (a instanceof Inet4Address && !a.isLoopbackAddress()) {
+                        out.put(nif.getName(), a);
+                        break;
+                    }
                 }
             }
         } catch (Throwable t) {
-            Log.w(TAG, "chooseWifiIPv4 failed", t);
+            Log.w(TAG, "interface scan failed", t);
         }
-        return null;
+        return out;
     }
 }
@@ -0,0 +1,155 @@
+package org.example.mininative;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.Locale;
+
+// One-to-many transport: framed datagrams to a multicast group.
+//
+// Every datagram is one Framing frame (header + payload) and stays below MAX_DATAGRAM so
+// it is never IP fragmented; a batch larger than that goes out as several equal AUDIO
+// frames, each with its own seq and the pts of its first sample. seq runs over all
+// frames, so a receiver counts gaps as loss. A FORMAT frame goes out at start, on a format
+// change and every BEACON_NS, so a receiver joining mid-stream knows what it hears within
+// that time. In passthrough mode a GAIN frame goes with each beacon and on every change.
+//
+// pts is the sender's capture clock; receivers run their own playout delay (there is no
+// back channel to map it onto each receiver's clock as the TCP sync mode does).
+//
+// One packet and one buffer, allocated up front: send() does not allocate.
+// No Android dependencies.
+public final class MulticastSender {
+    public static final int MAX_DATAGRAM = 1400;       // stays under a 1500 MTU with headers
+    private static final long BEACON_NS = 500000000L;
+
+    private final MulticastSocket sock;
+    private final byte[] pkt = new byte[MAX_DATAGRAM];
+    private final DatagramPacket dp;
+    private final String group;
+
+    private int seq;
+    private int rung = -1;
+    private RateController.Rung fmt;
+    private long lastBeaconNs;
+    private boolean pass;            // passthrough: gain/mute travel as GAIN frames
+    private int gainQ16 = Framing.GAIN_UNITY;
+    private boolean muted;
+
+    // stats since takeStats()
+    private long packets, bytes, sendNs, sendMaxNs;
+
+    // iface: interface to send on (the Wi-Fi one), null for the system default
+    public MulticastSender(String group, int port, int ttl, String iface) throws IOException {
+        InetAddress g = InetAddress.getByName(group);
+        if (!g.isMulticastAddress()) throw new IOException(group + " is not a multicast group");
+        this.group = group + ":" + port;
+        sock = new MulticastSocket();
+        try {
+            sock.setTimeToLive(Math.max(1, Math.min(255, ttl)));
+            sock.setLoopbackMode(false); // false = loopback enabled (local test receivers)
+            if (iface != null) {
+                NetworkInterface nif = NetworkInterface.getByName(iface);
+                if (nif != null) sock.setNetworkInterface(nif);
+            }
+        } catch (IOException e) {
+            sock.close();
+            throw e;
+        }
+        dp = new DatagramPacket(pkt, 0, new InetSocketAddress(g, port));
+    }
+
+    public String group() { return group; }
+
+    // format of the audio that follows; announced right away when it changed
+    public void format(int rungIdx, long pts) throws IOException {
+        if (rungIdx == rung) return;
+        rung = rungIdx;
+        fmt = RateController.LADDER[rungIdx];
+        beacon(pts);
+    }
+
+    // passthrough gain/mute from the next sample on (at pts); announced right away on change
+    public void gain(int q16, boolean mute, long pts) throws IOException {
+        if (pass && q16 == gainQ16 && mute == muted) return;
+        pass = true;
+        gainQ16 = q16;
+        muted = mute;
+        emit(Framing.gain(pkt, seq++, pts, 0, gainQ16, muted));
+    }
+
+    // audio b[off, off+len) captured at pts; returns datagrams sent
+    public int send(byte[] b, int off, int len, long pts, long nowNs) throws IOException {
+        if (fmt == null) throw new IllegalStateException("format not set");
+        if (nowNs - lastBeaconNs >= BEACON_NS) beacon(pts);
+
+        // equal frame-aligned parts rather than full ones and a runt
+        int frameBytes = fmt.channels * fmt.bytesPerSample();
+        int max = (MAX_DATAGRAM - Framing.HEADER) / frameBytes;
+        int frames = len / frameBytes;
+        int parts = (frames + max - 1) / max;
+        int step = (parts > 0) ? (frames + parts - 1) / parts * frameBytes : len;
+        int n = 0;
+        while (len > 0) {
+            int part = Math.min(len, step);
+            Framing.putHeader(pkt, 0, Framing.T_AUDIO, 0, part, seq++, pts);
+            System.arraycopy(b, off, pkt, Framing.HEADER, part);
+            emit(Framing.HEADER + part);
+            pts += (long) (part / frameBytes) * 1000000000L / fmt.rate;
+            off += part;
+            len -= part;
+            n++;
+        }
+        return n;
+    }
+
+    private void beacon(long pts) throws IOException {
+        int n = Framing.format(pkt, seq++, pts, fmt.encoding, fmt.channels, fmt.rate, rung);
+        emit(n);
+        if (pass) emit(Framing.gain(pkt, seq++, pts, 0, gainQ16, muted));
+        lastBeaconNs = System.nanoTime();
+    }
+
+    private void emit(int n) throws IOException {
+        dp.setData(pkt, 0, n);
+        long t0 = System.nanoTime();
+        sock.send(dp);
+        long dt = System.nanoTime() - t0;
+        sendNs += dt;
+        if (dt > sendMaxNs) sendMaxNs = dt;
+        packets++;
+        bytes += n;
+    }
+
+    public String takeStats() {
+        String s = String.format(Locale.US, "mcast %s pkts=%d bytes=%d send=%d/%dus seq=%d",
+                group, packets, bytes, packets > 0 ? sendNs / packets / 1000 : 0,
+                sendMaxNs / 1000, seq);
+        packets = bytes = sendNs = sendMaxNs = 0;
+        return s;
+    }
+
+    public void close() {
+        sock.close();
+    }
+
+    // dotted IPv4 literal in 224.0.0.0/4, without a DNS lookup
+    public static boolean isGroup(String host) {
+        if (host == null) return false;
+        String[] p = host.trim().split("\\.");
+        if (p.length != 4) return false;
+        try {
+            int a = Integer.parseInt(p[0]);
+            for (String x : p) {
+                int v = Integer.parseInt(x);
+                if (v < 0 || v > 255) return false;
+            }
+            return a >= 224 && a <= 239;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.mininative;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+// Zero-copy unicast transport: capture reads straight into pooled direct buffers and a
+// native thread (jni/pwtx.c, libpwtx.so) paces, batches and writes them. The socket, its
+// reconnects and every byte of audio stay off the ART heap, so a GC pause stalls neither.
+//
+// Chunk ownership is explicit and checked on the native side:
+//   int slot = acquire();        // Java owns the slot: read into pcm(slot)
+//   submit(slot, len, pts, gq);  // the native thread owns it until sent, then it is free
+//   release(slot);               // give it back unsent (nothing to send, read failed)
+// Touching pcm(slot) after submit() is a bug. When every slot is queued (link stalled),
+// acquire() evicts the oldest unsent chunk rather than stalling capture.
+//
+// s16 only, no back channel: the receiver sees a FORMAT frame then AUDIO (framed) or plain
+// PCM (raw), gain is applied natively. No Android dependencies besides the library.
+public final class NativeSender {
+    public static final int POOL = 32;   // > pwtx MAX_BATCH: a stalled send never starves capture
+    private static final int HDR = Framing.HEADER;
+
+    // stats layout, the same enum as in pwtx.c
+    private static final int ST_BYTES = 0, ST_CHUNKS = 1, ST_SYSCALLS = 2, ST_EVICTED = 3,
+            ST_DROPPED = 4, ST_RECONNECTS = 5, ST_SEND_NS = 6, ST_SEND_MAX_NS = 7,
+            ST_HOLD_NS = 8, ST_QUEUE_MAX = 9, ST_CPU_NS = 10, ST_CONNECTED = 11, ST_N = 12;
+
+    private static final boolean LOADED;
+    static {
+        boolean ok;
+        try {
+            System.loadLibrary("pwtx");
+            ok = true;
+        } catch (Throwable t) {
+            ok = false;
+        }
+        LOADED = ok;
+    }
+
+    private final ByteBuffer[] bufs; // native holds their addresses: must stay reachable
+    private final ByteBuffer[] pcm;
+    private final long[] st = new long[ST_N];
+    private final String peer;
+    // handle of the native sender, 0 once closed. The stream thread uses it lock-free (it
+    // also closes); relink() comes from the network callback thread and must not reach a
+    // freed sender: it and the swap in close() hold the lock
+    private long h;
+    private long statsAt = System.nanoTime();
+    private volatile boolean connected;
+
+    public static boolean available() { return LOADED; }
+
+    // pwtx.* trace markers from the sender threads, see Tracer
+    public static void setTrace(boolean on) {
+        if (LOADED) nTrace(on);
+    }
+
+    // chunkBytes: the largest chunk submitted; sndbuf/lowat: socket tuning, 0 = kernel;
+    // net: network to connect over (WifiNetwork.handle()), 0 = default route
+    public NativeSender(String host, int port, boolean framed, int rate, int channels,
+                        int chunkBytes, long chunkNs, int batch, boolean paced, int sndbuf,
+                        int lowat, long net) {
+        if (!LOADED) throw new IllegalStateException("libpwtx not loaded");
+        bufs = new ByteBuffer[POOL];
+        pcm = new ByteBuffer[POOL];
+        for (int i = 0; i < POOL; i++) {
+            bufs[i] = ByteBuffer.allocateDirect(HDR + chunkBytes);
+            bufs[i].position(HDR);
+            pcm[i] = bufs[i].slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        peer = host + ":" + port;
+        h = nOpen(host, port, framed, rate, channels, chunkNs, batch, paced, sndbuf, lowat, net,
+                  bufs);
+        if (h == 0) throw new IllegalStateException("native sender open failed");
+    }
+
+    // a slot Java may fill, -1 if none (all in flight)
+    public int acquire() { return nAcquire(h); }
+
+    // direct view of the slot's PCM area, chunkBytes long
+    public ByteBuffer pcm(int slot) { return pcm[slot]; }
+
+    // hands the first len bytes of pcm(slot) to the native thread; pts is the capture time
+    // of its first frame (System.nanoTime), gainQ16 is applied before sending
+    public void submit(int slot, int len, long pts, int gainQ16) {
+        if (nSubmit(h, slot, len, pts, gainQ16) != 0) {
+            throw new IllegalStateException("submit: slot " + slot + " not owned or len " + len);
+        }
+    }
+
+    public void release(int slot) {
+        if (nRelease(h, slot) != 0) throw new IllegalStateException("release: slot " + slot + " not owned");
+    }
+
+    // network changed: reconnect over net now rather than after a stalled write times out
+    // or the back-off runs out
+    public synchronized void relink(long net) {
+        if (h != 0) nRelink(h, net);
+    }
+
+    public boolean connected() { return connected; }
+
+    public String peer() { return peer; }
+
+    // one log line for the interval since the last call; also refreshes connected()
+    public String takeStats() {
+        nStats(h, st);
+        long now = System.nanoTime(), dt = Math.max(1, now - statsAt);
+        statsAt = now;
+        connected = st[ST_CONNECTED] != 0;
+        long calls = Math.max(1, st[ST_SYSCALLS]), chunks = Math.max(1, st[ST_CHUNKS]);
+        return String.format(Locale.US,
+                "ntx %s %s %.0fkb/s chunks=%d sendmsg=%d wr=%d/%dus hold=%.1fms q=%d/%d "
+                + "evict=%d drop=%d reconn=%d cpu=%.2f%%",
+                peer, connected ? "up" : "down", st[ST_BYTES] * 8e6 / dt, st[ST_CHUNKS],
+                st[ST_SYSCALLS], st[ST_SEND_NS] / calls / 1000, st[ST_SEND_MAX_NS] / 1000,
+                st[ST_HOLD_NS] / chunks / 1e6, st[ST_QUEUE_MAX], POOL, st[ST_EVICTED],
+                st[ST_DROPPED], st[ST_RECONNECTS], st[ST_CPU_NS] * 100.0 / dt);
+    }
+
+    // bytes sent in the interval the last takeStats() covered
+    public long lastBytes() { return st[ST_BYTES]; }
+
+    // chunks evicted or dropped, reconnects, mean capture -> sent hold (-1 none), same interval
+    public long lastDrops() { return st[ST_EVICTED] + st[ST_DROPPED]; }
+
+    public long lastReconnects() { return st[ST_RECONNECTS]; }
+
+    public long lastHoldNs() { return (st[ST_CHUNKS] > 0) ? st[ST_HOLD_NS] / st[ST_CHUNKS] : -1; }
+
+    // stops the thread (bounded by the connect and stall timeouts), buffers go with us
+    public void close() {
+        long c;
+        synchronized (this) {
+            c = h;
+            h = 0;
+        }
+        if (c != 0) nClose(c); // outside the lock: joins the thread, up to the timeouts
+    }
+
+    private static native long nOpen(String host, int port, boolean framed, int rate,
+                                     int channels, long chunkNs, int batch, boolean paced,
+                                     int sndbuf, int lowat, long net, ByteBuffer[] bufs);
+    private static native int nAcquire(long h);
+    private static native int nSubmit(long h, int slot, int len, long pts, int gainQ16);
+    private static native int nRelease(long h, int slot);
+    private static native void nRelink(long h, long net);
+    private static native void nStats(long h, long[] out);
+    private static native void nTrace(boolean on);
+    private static native void nClose(long h);
+}
@@ -0,0 +1,104 @@
+package org.example.mininative;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Releases chunks on a steady media-clock schedule instead of whenever AudioRecord
+// hands them over (it tends to deliver in bursts). Same idea as tx_thread in jni/main.c:
+// pace against CLOCK_MONOTONIC (System.nanoTime) by frame count, not by read timing.
+//
+// Batch k is due at base + k * period + cushion, where base follows the capture time of
+// the batch (CaptureClock) through a servo. Latency stays at one cushion whatever the
+// audio vs monotonic drift, and the burstiness of reads is absorbed by the cushion.
+public final class Pacer {
+
+    // RFC 3550 style inter-arrival jitter: J += (|D| - J) / 16, D = interval - nominal
+    public static final class Jitter {
+        private long last = -1;
+        private double j;
+
+        public void onEvent(long tNs, long nominalNs) {
+            if (last >= 0) {
+                long d = Math.abs((tNs - last) - nominalNs);
+                j += (d - j) / 16.0;
+            }
+            last = tNs;
+        }
+
+        public void reset() { last = -1; j = 0; }
+        public int us() { return (int) (j / 1000); }
+    }
+
+    private static final int SERVO_SHIFT = 4;  // follow 1/16 of each capture time error
+    private static final int MAX_LATE_PERIODS = 4;
+
+    private final long periodNs;
+    private final long cushionNs;
+
+    private long base = -1;   // nominal capture time of batch 0
+    private long k;
+
+    private final Jitter outJit = new Jitter();
+    private long errSumNs, errMaxNs;
+    private int errN, late, rebases;
+
+    public Pacer(long periodNs, long cushionNs) {
+        this.periodNs = periodNs;
+        this.cushionNs = cushionNs;
+    }
+
+    public void reset() {
+        base = -1;
+        k = 0;
+        outJit.reset();
+    }
+
+    // Blocks until the batch whose last frame was captured at captureNs is due (pass -1
+    // when the capture time is unknown), returns the release time. Returns early
+    // (unpaced) if the thread is interrupted.
+    public long release(long captureNs) {
+        long now = System.nanoTime();
+        if (captureNs < 0) captureNs = (base < 0) ? now : base + (k + 1) * periodNs;
+        if (base < 0) {
+            base = captureNs;
+            k = 0;
+        } else {
+            k++;
+        }
+        long nominal = base + k * periodNs;
+        base += (captureNs - nominal) >> SERVO_SHIFT;
+
+        long due = nominal + cushionNs;
+        if (now - due > MAX_LATE_PERIODS * periodNs) {
+            // stalled capture (or a long write): start a new schedule rather than burst
+            rebases++;
+            base = now - cushionNs;
+            k = 0;
+            due = now;
+        }
+        while ((now = System.nanoTime()) < due) {
+            if (Thread.currentThread().isInterrupted()) return now;
+            LockSupport.parkNanos(due - now);
+        }
+        long err = now - due;
+        if (err > periodNs) late++;
+        errSumNs += err;
+        if (err > errMaxNs) errMaxNs = err;
+        errN++;
+        outJit.onEvent(now, periodNs);
+        return now;
+    }
+
+    public int jitterUs() { return outJit.us(); }
+
+    // per stats interval: release error, then cleared
+    public String takeStats() {
+        String r = String.format(Locale.US,
+                "pace jit=%dus err=%d/%dus late=%d rebase=%d",
+                outJit.us(),
+                (errN > 0 ? errSumNs / errN / 1000 : 0), errMaxNs / 1000, late, rebases);
+        errSumNs = errMaxNs = 0;
+        errN = late = 0;
+        return r;
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.mininative;
+
+// In-place conversions from captured s16le to a ladder rung. Every step only shrinks
+// the data, so it can run forward over the same buffer without a scratch copy.
+public final class PcmConvert {
+    private PcmConvert() {}
+
+    // G.711 mu-law segment lookup for (biased sample >> 7)
+    private static final byte[] ULAW_EXP = new byte[256];
+    static {
+        for (int i = 0, e = 0; i < 256; i++) {
+            if (i >= (2 << e) && e < 7) e++;
+            ULAW_EXP[i] = (byte) (i < 2 ? 0 : e);
+        }
+    }
+
+    // s16le interleaved -> rung format, returns the new byte length
+    public static int convert(byte[] b, int off, int len, int srcChannels, int srcRate,
+                              RateController.Rung r) {
+        int ch = srcChannels;
+        if (r.channels == 1 && ch == 2) {
+            len = downmix(b, off, len);
+            ch = 1;
+        }
+        if (r.rate * 2 == srcRate) len = halfRate(b, off, len, ch);
+        if (r.encoding == Framing.ENC_ULAW) len = ulaw(b, off, len);
+        return len;
+    }
+
+    // soft volume: s16le scaled by gain (0..1) in place, rounded and clamped
+    public static void gain(byte[] b, int off, int len, float gain) {
+        for (int i = off, end = off + len - 1; i < end; i += 2) {
+            int s16 = (b[i + 1] << 8) | (b[i] & 0xFF);
+            int v = Math.round(s16 * gain);
+            if (v > 32767) v = 32767;
+            else if (v < -32768) v = -32768;
+            b[i] = (byte) v;
+            b[i + 1] = (byte) (v >> 8);
+        }
+    }
+
+    // stereo -> mono, (L+R)/2
+    public static int downmix(byte[] b, int off, int len) {
+        int o = off;
+        for (int i = off, end = off + len - 3; i < end; i += 4) {
+            int l = (short) ((b[i] & 0xFF) | (b[i + 1] << 8));
+            int r = (short) ((b[i + 2] & 0xFF) | (b[i + 3] << 8));
+            int m = (l + r) >> 1;
+            b[o++] = (byte) m;
+            b[o++] = (byte) (m >> 8);
+        }
+        return o - off;
+    }
+
+    // 2:1 decimation with a pair average as the (cheap) anti-alias filter
+    public static int halfRate(byte[] b, int off, int len, int channels) {
+        int frame = 2 * channels;
+        int o = off;
+        for (int i = off, end = off + len - 2 * frame + 1; i < end; i += 2 * frame) {
+            for (int c = 0; c < channels; c++) {
+                int p = i + 2 * c, q = p + frame;
+                int a = (short) ((b[p] & 0xFF) | (b[p + 1] << 8));
+                int z = (short) ((b[q] & 0xFF) | (b[q + 1] << 8));
+                int m = (a + z) >> 1;
+                b[o++] = (byte) m;
+                b[o++] = (byte) (m >> 8);
+            }
+        }
+        return o - off;
+    }
+
+    // s16le -> 8 bit mu-law
+    public static int ulaw(byte[] b, int off, int len) {
+        int o = off;
+        for (int i = off, end = off + len - 1; i < end; i += 2) {
+            int s = (short) ((b[i] & 0xFF) | (b[i + 1] << 8));
+            b[o++] = ulawByte(s);
+        }
+        return o - off;
+    }
+
+    public static byte ulawByte(int s) {
+        int sign = (s >> 8) & 0x80;
+        if (sign != 0) s = -s;
+        if (s > 32635) s = 32635;
+        s += 0x84;
+        int exp = ULAW_EXP[(s >> 7) & 0xFF];
+        int mant = (s >> (exp + 3)) & 0x0F;
+        return (byte) ~(sign | (exp << 4) | mant);
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.mininative;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.util.Locale;
+
+// Wi-Fi + CPU locks while we actually stream audio.
+//
+// With the screen off, Wi-Fi power save batches our packets (100-300 ms spikes). While
+// connected and audible we hold a Wi-Fi lock (LOW_LATENCY on API 29+, which only works
+// with the screen on, plus HIGH_PERF which also covers screen off) and a partial wake
+// lock. After GRACE_MS of silence (muted / nothing playing) or no connection they are
+// released again so an idle session costs no battery.
+//
+// Jitter samples are split by lock state so a session shows what the lock buys.
+public final class PowerPolicy {
+    private static final String TAG = "pw-power";
+    private static final long GRACE_MS = 10000;
+
+    private final boolean enabled;
+    private WifiManager.WifiLock wifiLL, wifiHP;
+    private PowerManager.WakeLock wake;
+    private boolean held;
+    private long unwantedSinceMs = -1;
+
+    // per session: jitter (us) weighted by time, with and without the lock
+    private long heldMs, freeMs;
+    private double heldJit, freeJit;
+
+    public PowerPolicy(Context ctx, boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) return;
+        Context app = ctx.getApplicationContext();
+        try {
+            WifiManager wm = (WifiManager) app.getSystemService(Context.WIFI_SERVICE);
+            if (wm != null) {
+                if (Build.VERSION.SDK_INT >= 29) {
+                    wifiLL = wm.createWifiLock(WifiManager.WIFI_MODE_FULL_LOW_LATENCY, "pwnet:ll");
+                    wifiLL.setReferenceCounted(false);
+                }
+                wifiHP = wm.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, "pwnet:hp");
+                wifiHP.setReferenceCounted(false);
+            }
+            PowerManager pm = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+            if (pm != null) {
+                wake = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "pwnet:stream");
+                wake.setReferenceCounted(false);
+            }
+        } catch (Throwable t) {
+            Log.w(TAG, "lock setup failed", t);
+        }
+    }
+
+    public boolean held() { return held; }
+
+    // connected: a socket is up, audible: not muted and something is playing
+    public void update(boolean connected, boolean audible, long nowMs) {
+        if (!enabled) return;
+        boolean want = connected && audible;
+        if (want) {
+            unwantedSinceMs = -1;
+            if (!held) acquire();
+        } else {
+            if (unwantedSinceMs < 0) unwantedSinceMs = nowMs;
+            if (held && nowMs - unwantedSinceMs >= GRACE_MS) {
+                Log.i(TAG, "idle/silent " + (nowMs - unwantedSinceMs) + "ms, releasing");
+                release();
+            }
+        }
+    }
+
+    // inter-arrival jitter the receiver reported for the last dtMs
+    public void onJitter(int jitterUs, long dtMs) {
+        if (held) {
+            heldMs += dtMs;
+            heldJit += (double) jitterUs * dtMs;
+        } else {
+            freeMs += dtMs;
+            freeJit += (double) jitterUs * dtMs;
+        }
+    }
+
+    public String summary() {
+        return String.format(Locale.US,
+                "power lock=%s jitter held=%.1fms (%ds) free=%.1fms (%ds)",
+                (enabled ? (held ? "held" : "free") : "off"),
+                (heldMs > 0 ? heldJit / heldMs / 1000.0 : 0.0), heldMs / 1000,
+                (freeMs > 0 ? freeJit / freeMs / 1000.0 : 0.0), freeMs / 1000);
+    }
+
+    private void acquire() {
+        try {
+            if (wifiLL != null) wifiLL.acquire();
+            if (wifiHP != null) wifiHP.acquire();
+            if (wake != null) wake.acquire();
+            held = true;
+            Log.i(TAG, "locks acquired (wifi " + (wifiLL != null ? "low-latency+" : "")
+                           + "high-perf, partial wake)");
+        } catch (Throwable t) {
+            Log.w(TAG, "lock acquire failed", t);
+        }
+    }
+
+    public void release() {
+        try { if (wifiLL != null && wifiLL.isHeld()) wifiLL.release(); } catch (Throwable ignore) {}
+        try { if (wifiHP != null && wifiHP.isHeld()) wifiHP.release(); } catch (Throwable ignore) {}
+        try { if (wake != null && wake.isHeld()) wake.release(); } catch (Throwable ignore) {}
+        if (held) Log.i(TAG, "locks released");
+        held = false;
+        unwantedSinceMs = -1;
+    }
+}
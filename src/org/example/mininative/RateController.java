@@ -0,0 +1,227 @@
+package org.example.mininative;
+
+import java.util.Locale;
+
+// Backpressure driven output format ladder. Fed with every socket write and every
+// capture read; evaluated once per window. Steps down fast on congestion, steps back up
+// only after a clean hold period that doubles each time an up-step fails (hysteresis).
+//
+// No Android dependencies and all time is passed in, so it can be driven by a simulated
+// link as well as by the live stream loop.
+public final class RateController {
+
+    public static final class Rung {
+        public final int encoding;  // Framing.ENC_*
+        public final int channels;
+        public final int rate;
+
+        Rung(int encoding, int channels, int rate) {
+            this.encoding = encoding;
+            this.channels = channels;
+            this.rate = rate;
+        }
+
+        public int bytesPerSample() {
+            return encoding == Framing.ENC_ULAW ? 1 : 2;
+        }
+
+        public int kbps() {
+            return rate * channels * bytesPerSample() * 8 / 1000;
+        }
+
+        @Override public String toString() {
+            return (encoding == Framing.ENC_ULAW ? "ulaw" : "s16") + "/" + channels + "ch/"
+                    + rate;
+        }
+    }
+
+    // best first; every rung at most halves the previous one
+    public static final Rung[] LADDER = {
+        new Rung(Framing.ENC_S16LE, 2, 48000), // 1536 kb/s
+        new Rung(Framing.ENC_ULAW,  2, 48000), //  768 kb/s, compressed
+        new Rung(Framing.ENC_ULAW,  1, 48000), //  384 kb/s, mono
+        new Rung(Framing.ENC_ULAW,  1, 24000), //  192 kb/s, lower rate
+    };
+
+    private static final long WINDOW_MS = 500;
+    private static final long UP_HOLD_MIN_MS = 8000, UP_HOLD_MAX_MS = 64000;
+    private static final long PROBE_FAIL_MS = 5000;   // down again this soon = failed up-step
+    private static final float BUSY_HIGH = 0.60f, BUSY_LOW = 0.20f;
+    private static final int BACKLOG_HIGH_MS = 120, BACKLOG_LOW_MS = 30;
+
+    private int rung = 0;
+    private int minRung = 0, maxRung = LADDER.length - 1;
+    private int allowed = (1 << LADDER.length) - 1;   // rungs the receiver takes
+
+    // current window
+    private long winStartMs;
+    private long winWriteNs, winMaxWriteNs, winBytes;
+
+    // capture backlog: frames the sender is behind wall clock, above the best seen
+    private long capStartNs = -1, capFrames;
+    private double lagBase = Double.MAX_VALUE;
+    private int backlogMs;
+    private int capBufFrames;   // what the capture buffer holds, 0 = not known
+    private int overruns;
+
+    // hysteresis
+    private long cleanSinceMs = -1, lastUpMs = -1, holdUntilMs;
+    private long upHoldMs = UP_HOLD_MIN_MS;
+    private int switches;
+
+    // last window, for logging
+    private float busy;
+    private int kbps, maxWriteMs;
+
+    public RateController(long nowMs) {
+        winStartMs = nowMs;
+        holdUntilMs = nowMs;
+    }
+
+    public int rung() { return rung; }
+    public Rung current() { return LADDER[rung]; }
+    public int switches() { return switches; }
+    public int backlogMs() { return backlogMs; }
+    public int overruns() { return overruns; }
+
+    // The capture buffer (AudioRecord) size. The sender can never be further behind than
+    // it holds: a larger lag means frames were overwritten, not that they are still queued.
+    public void setCaptureBuffer(int frames) {
+        capBufFrames = Math.max(0, frames);
+    }
+
+    // Restrict the ladder to a range, e.g. a single rung for raw receivers. Clamps the
+    // current rung.
+    public void setRange(int min, int max) {
+        minRung = Math.max(0, Math.min(min, LADDER.length - 1));
+        maxRung = Math.max(minRung, Math.min(max, LADDER.length - 1));
+        clampRung();
+    }
+
+    // Restrict the ladder to the rungs a receiver advertises (bit r = LADDER[r]); steps skip
+    // the others. An empty mask leaves the full ladder.
+    public void setAllowed(int mask) {
+        mask &= (1 << LADDER.length) - 1;
+        allowed = (mask != 0) ? mask : (1 << LADDER.length) - 1;
+        clampRung();
+    }
+
+    // cheapest usable rung: the first one, no conversion work beyond what is needed
+    public int firstAllowed() {
+        int r = usable(minRung) ? minRung : step(minRung, +1);
+        return (r >= 0) ? r : minRung;
+    }
+
+    private boolean usable(int r) {
+        return r >= minRung && r <= maxRung && ((allowed >> r) & 1) != 0;
+    }
+
+    // next usable rung from `from` in direction dir (+1 = down the ladder), -1 if none
+    private int step(int from, int dir) {
+        for (int r = from + dir; r >= minRung && r <= maxRung; r += dir) {
+            if (((allowed >> r) & 1) != 0) return r;
+        }
+        return -1;
+    }
+
+    private void clampRung() {
+        rung = Math.max(minRung, Math.min(rung, maxRung));
+        if (usable(rung)) return;
+        int r = step(rung, +1);
+        if (r < 0) r = step(rung, -1);
+        rung = (r >= 0) ? r : minRung;
+    }
+
+    // new link: forget the capture baseline, keep the learned hold time
+    public void reset(long nowMs) {
+        winStartMs = nowMs;
+        winWriteNs = winMaxWriteNs = winBytes = 0;
+        capStartNs = -1;
+        capFrames = 0;
+        lagBase = Double.MAX_VALUE;
+        backlogMs = 0;
+        cleanSinceMs = -1;
+        holdUntilMs = nowMs + WINDOW_MS;
+    }
+
+    public void onCapture(long nowNs, int frames, int sr) {
+        if (capStartNs < 0) capStartNs = nowNs;
+        capFrames += frames;
+        double lag = (nowNs - capStartNs) * (sr / 1e9) - capFrames;
+        // allow the baseline to creep ~200 ppm so audio vs monotonic clock drift is not backlog
+        lagBase = Math.min(lag, lagBase + frames * 0.0002);
+        if (capBufFrames > 0 && lag - lagBase > capBufFrames) {
+            // overrun: the lost frames would count as backlog for good; what is really
+            // queued is one full buffer, rebase on that
+            lagBase = lag - capBufFrames;
+            overruns++;
+        }
+        backlogMs = (int) ((lag - lagBase) * 1000.0 / sr);
+    }
+
+    public void onWrite(int bytes, long writeNs) {
+        winWriteNs += writeNs;
+        if (writeNs > winMaxWriteNs) winMaxWriteNs = writeNs;
+        winBytes += bytes;
+    }
+
+    // queueMs: any extra sender-side queue on top of the capture backlog,
+    // batchNs: media duration carried by one write.
+    // Returns true when the rung changed; the caller switches format at the next chunk.
+    public boolean update(long nowMs, int queueMs, long batchNs) {
+        long dt = nowMs - winStartMs;
+        if (dt < WINDOW_MS) return false;
+
+        busy = winWriteNs / (dt * 1e6f);
+        kbps = (int) (winBytes * 8 / dt);
+        maxWriteMs = (int) (winMaxWriteNs / 1000000L);
+        int queue = backlogMs + Math.max(0, queueMs);
+
+        boolean congested = busy > BUSY_HIGH || queue > BACKLOG_HIGH_MS
+                || winMaxWriteNs > 4 * batchNs;
+        boolean clean = busy < BUSY_LOW && queue < BACKLOG_LOW_MS
+                && winMaxWriteNs < batchNs;
+
+        winStartMs = nowMs;
+        winWriteNs = winMaxWriteNs = winBytes = 0;
+
+        if (lastUpMs >= 0 && nowMs - lastUpMs > PROBE_FAIL_MS) {
+            // the last up-step held: relax the hold time again
+            upHoldMs = Math.max(UP_HOLD_MIN_MS, upHoldMs / 2);
+            lastUpMs = -1;
+        }
+
+        if (!clean) cleanSinceMs = -1;
+        else if (cleanSinceMs < 0) cleanSinceMs = nowMs;
+
+        if (nowMs < holdUntilMs) return false; // let the previous switch take effect
+
+        int down = step(rung, +1), up = step(rung, -1);
+        if (congested && down >= 0) {
+            if (lastUpMs >= 0 && nowMs - lastUpMs <= PROBE_FAIL_MS) {
+                upHoldMs = Math.min(UP_HOLD_MAX_MS, upHoldMs * 2);
+                lastUpMs = -1;
+            }
+            rung = down;
+            switches++;
+            cleanSinceMs = -1;
+            holdUntilMs = nowMs + 2 * WINDOW_MS;
+            return true;
+        }
+        if (clean && up >= 0 && nowMs - cleanSinceMs >= upHoldMs) {
+            rung = up;
+            switches++;
+            lastUpMs = nowMs;
+            cleanSinceMs = -1;
+            holdUntilMs = nowMs + 2 * WINDOW_MS;
+            return true;
+        }
+        return false;
+    }
+
+    @Override public String toString() {
+        return String.format(Locale.US, "abr %s busy=%.0f%% q=%dms wmax=%dms %dkb/s hold=%ds sw=%d ovr=%d",
+                LADDER[rung], busy * 100, backlogMs, maxWriteMs, kbps, upHoldMs / 1000, switches,
+                overruns);
+    }
+}
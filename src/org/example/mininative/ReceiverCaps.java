@@ -0,0 +1,143 @@
+package org.example.mininative;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// What a receiver can take, parsed from its mDNS TXT strings.
+//
+// Keys (case-insensitive, list values comma separated in the receiver's preference order):
+//   fmt=s16le,ulaw     sample formats        codec=pcm         codecs (only pcm is ours)
+//   rate=48000,24000   sample rates          ch=2,1            channel counts
+//   tr=framed,raw      transports            lat=20            preferred latency in ms
+// As for any DNS-SD TXT record the first occurrence of a key wins, later ones are ignored.
+// A missing key means "not advertised": no restriction, we behave as before caps existed.
+//
+// No Android dependencies; the stream service keeps the TXT lines in prefs next to the
+// receiver address they came with.
+public final class ReceiverCaps {
+    public static final String TR_RAW = "raw", TR_FRAMED = "framed";
+
+    public final List<Integer> encodings = new ArrayList<>(); // Framing.ENC_*
+    public final List<Integer> rates = new ArrayList<>();
+    public final List<Integer> channels = new ArrayList<>();
+    public final List<String> transports = new ArrayList<>();
+    public boolean pcm = true;      // false: advertises codecs, none of which is plain pcm
+    public int latencyMs = -1;
+
+    private ReceiverCaps() {}
+
+    public static ReceiverCaps parse(String[] txt) {
+        ReceiverCaps c = new ReceiverCaps();
+        if (txt == null) return c;
+        List<String> seen = new ArrayList<>();
+        for (String line : txt) {
+            if (line == null) continue;
+            int eq = line.indexOf('=');
+            String k = (eq < 0 ? line : line.substring(0, eq)).trim().toLowerCase(Locale.US);
+            String v = (eq < 0 ? "" : line.substring(eq + 1)).trim().toLowerCase(Locale.US);
+            if (k.isEmpty() || seen.contains(k)) continue;
+            seen.add(k);
+            switch (k) {
+            case "fmt":
+                for (String f : v.split(",")) {
+                    int e = encodingOf(f.trim());
+                    if (e > 0 && !c.encodings.contains(e)) c.encodings.add(e);
+                }
+                break;
+            case "codec":
+                c.pcm = false;
+                for (String f : v.split(",")) {
+                    String s = f.trim();
+                    if (s.equals("pcm") || s.equals("lpcm") || s.equals("pcmu")) c.pcm = true;
+                }
+                break;
+            case "rate":
+                for (String f : v.split(",")) {
+                    int r = intOf(f, -1);
+                    if (r > 0 && !c.rates.contains(r)) c.rates.add(r);
+                }
+                break;
+            case "ch":
+                for (String f : v.split(",")) {
+                    int n = intOf(f, -1);
+                    if (n > 0 && !c.channels.contains(n)) c.channels.add(n);
+                }
+                break;
+            case "tr":
+                for (String f : v.split(",")) {
+                    String s = f.trim();
+                    if ((s.equals(TR_RAW) || s.equals(TR_FRAMED)) && !c.transports.contains(s)) {
+                        c.transports.add(s);
+                    }
+                }
+                break;
+            case "lat":
+                c.latencyMs = intOf(v, -1);
+                break;
+            default:
+                break;
+            }
+        }
+        return c;
+    }
+
+    // TXT lines as kept in prefs: one per line
+    public static ReceiverCaps parse(String joined) {
+        return parse(joined == null || joined.isEmpty() ? null : joined.split("\n"));
+    }
+
+    private static int encodingOf(String f) {
+        switch (f) {
+        case "s16": case "s16le": case "pcm16": return Framing.ENC_S16LE;
+        case "ulaw": case "mulaw": case "pcmu": return Framing.ENC_ULAW;
+        default: return -1;
+        }
+    }
+
+    private static int intOf(String s, int def) {
+        try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
+    public boolean advertised() {
+        return !encodings.isEmpty() || !rates.isEmpty() || !channels.isEmpty()
+                || !transports.isEmpty() || !pcm || latencyMs >= 0;
+    }
+
+    // bit r set: RateController.LADDER[r] is something the receiver takes as is
+    public int rungMask() {
+        if (!pcm) return 0;
+        int m = 0;
+        for (int r = 0; r < RateController.LADDER.length; r++) {
+            RateController.Rung g = RateController.LADDER[r];
+            if (!encodings.isEmpty() && !encodings.contains(g.encoding)) continue;
+            if (!channels.isEmpty() && !channels.contains(g.channels)) continue;
+            if (!rates.isEmpty() && !rates.contains(g.rate)) continue;
+            m |= 1 << r;
+        }
+        return m;
+    }
+
+    // Transport for this receiver. Raw costs nothing per packet but cannot announce a format
+    // switch; framed costs a header per batch. The user's choice stands when both are taken.
+    public boolean framed(boolean preferFramed) {
+        if (transports.isEmpty()) return preferFramed;
+        if (transports.size() == 1) return transports.get(0).equals(TR_FRAMED);
+        return preferFramed;
+    }
+
+    // latency profile matching "lat", null if not advertised
+    public String profile() {
+        if (latencyMs < 0) return null;
+        if (latencyMs <= 10) return LatencyProfile.ULTRA;
+        if (latencyMs <= 60) return LatencyProfile.BALANCED;
+        return LatencyProfile.BULK;
+    }
+
+    @Override public String toString() {
+        if (!advertised()) return "caps none";
+        return "caps fmt=" + encodings + " rate=" + rates + " ch=" + channels + " tr=" + transports
+                + " pcm=" + (pcm ? 1 : 0) + " lat=" + latencyMs + " rungs=0x"
+                + Integer.toHexString(rungMask());
+    }
+}
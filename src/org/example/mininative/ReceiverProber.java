@@ -0,0 +1,290 @@
+package org.example.mininative;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Background measurement of discovered receivers, one at a time.
+//
+// Per receiver: TCP connect time, RTT (PING/PONG for framed receivers, the connect
+// handshake otherwise) and, for framed receivers, throughput: a train of PINGs padded to
+// TRAIN_BYTES, timed from the first write to the PONG of the last one, so it counts what
+// the receiver read, not what our socket buffer took. Nothing in it is audio, so an idle
+// receiver plays nothing; a raw receiver would play any byte sent, it gets no throughput
+// figure (kbps -1). Results are cached (TTL_OK_MS, failures only TTL_FAIL_MS so a
+// receiver that comes back is seen soon, on elapsedRealtime so a phone asleep ages them
+// too) and probes are spaced GAP_MS apart. While the app streams the prober is paused: a
+// train competes with the audio for the same air time.
+//
+// The listener is called on the prober thread.
+public final class ReceiverProber implements Runnable {
+    private static final long GAP_MS = 2000;
+    private static final long TTL_OK_MS = 60000, TTL_FAIL_MS = 15000;
+    private static final int CONNECT_TIMEOUT_MS = 1000, PONG_TIMEOUT_MS = 300;
+    private static final int TRAIN_BYTES = 128 * 1024, TRAIN_PAD = 4096, TRAIN_TIMEOUT_MS = 2000;
+    // what a stream needs: s16 stereo 48 kHz
+    private static final int NEED_KBPS = 48000 * 2 * 2 * 8 / 1000;
+
+    public interface Listener {
+        void onProbed(String name, Result r);
+    }
+
+    public static final class Target {
+        final String name;
+        final InetAddress host;
+        final int port;
+        final boolean framed;   // receiver speaks the framed protocol: real PING/PONG RTT
+        public Target(String name, InetAddress host, int port, boolean framed) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.framed = framed;
+        }
+    }
+
+    public static final class Result {
+        public final boolean ok;
+        public final int connectUs, rttUs, kbps; // kbps -1: not measured (raw receiver)
+        final long atMs;
+        Result(boolean ok, int connectUs, int rttUs, int kbps, long atMs) {
+            this.ok = ok;
+            this.connectUs = connectUs;
+            this.rttUs = rttUs;
+            this.kbps = kbps;
+            this.atMs = atMs;
+        }
+
+        // lower is better: RTT, plus a heavy penalty when a stream would not fit
+        public long score() {
+            if (!ok) return Long.MAX_VALUE;
+            long s = rttUs + connectUs / 4;
+            if (kbps >= 0 && kbps < NEED_KBPS * 3 / 2) s += 1000000L;
+            return s;
+        }
+
+        @Override public String toString() {
+            if (!ok) return "unreachable";
+            return String.format(Locale.US, "rtt %.1fms conn %.1fms%s",
+                    rttUs / 1000f, connectUs / 1000f,
+                    kbps < 0 ? "" : kbps >= 1000 ? " " + (kbps / 1000) + "Mb/s" : " " + kbps + "kb/s");
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    private final Map<String, Result> cache = new ConcurrentHashMap<>();
+    private volatile boolean paused;
+    private volatile boolean running;
+    private volatile Thread th;
+
+    public ReceiverProber(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        th = new Thread(this, "pwnet-probe");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (th != null) th.interrupt();
+        th = null;
+    }
+
+    // streaming: no probes until resumed
+    public void setPaused(boolean p) {
+        if (paused == p) return;
+        paused = p;
+        synchronized (targets) { targets.notifyAll(); }
+    }
+
+    public void offer(Target t) {
+        synchronized (targets) {
+            Target old = targets.put(t.name, t);
+            // a different address invalidates what we measured
+            if (old != null && (!old.host.equals(t.host) || old.port != t.port)) cache.remove(t.name);
+            targets.notifyAll();
+        }
+    }
+
+    public void clear() {
+        synchronized (targets) { targets.clear(); }
+        cache.clear();
+    }
+
+    public Result result(String name) { return cache.get(name); }
+
+    // names ordered best first; unprobed ones after the probed, in discovery order
+    public List<String> ranked() {
+        List<String> names;
+        synchronized (targets) { names = new ArrayList<>(targets.keySet()); }
+        final List<String> order = new ArrayList<>(names);
+        Collections.sort(names, new Comparator<String>() {
+            @Override public int compare(String a, String b) {
+                long sa = scoreOf(a), sb = scoreOf(b);
+                if (sa != sb) return sa < sb ? -1 : 1;
+                return order.indexOf(a) - order.indexOf(b);
+            }
+        });
+        return names;
+    }
+
+    private long scoreOf(String name) {
+        Result r = cache.get(name);
+        return (r == null) ? Long.MAX_VALUE - 1 : r.score();
+    }
+
+    // best reachable receiver, null if none measured yet
+    public String best() {
+        List<String> r = ranked();
+        if (r.isEmpty()) return null;
+        Result b = cache.get(r.get(0));
+        return (b != null && b.ok) ? r.get(0) : null;
+    }
+
+    @Override public void run() {
+        try {
+            // give the caller a moment to learn whether a stream is already running
+            Thread.sleep(GAP_MS);
+            // a stop()/start() pair may leave this thread behind a newer one
+            while (running && th == Thread.currentThread()) {
+                Target t;
+                synchronized (targets) {
+                    t = paused ? null : due();
+                    if (t == null) {
+                        targets.wait(GAP_MS);
+                        continue;
+                    }
+                }
+                Result r = probe(t);
+                cache.put(t.name, r);
+                if (running && listener != null) listener.onProbed(t.name, r);
+                Thread.sleep(GAP_MS);
+            }
+        } catch (InterruptedException ie) {
+            // stopped
+        }
+    }
+
+    // stalest receiver whose result expired (or never had one)
+    private Target due() {
+        long now = SystemClock.elapsedRealtime();
+        Target pick = null;
+        long pickAt = Long.MAX_VALUE;
+        for (Target t : targets.values()) {
+            Result r = cache.get(t.name);
+            long at = (r == null) ? Long.MIN_VALUE : r.atMs;
+            if (r != null && now - r.atMs < (r.ok ? TTL_OK_MS : TTL_FAIL_MS)) continue;
+            if (at < pickAt) {
+                pick = t;
+                pickAt = at;
+            }
+        }
+        return pick;
+    }
+
+    private Result probe(Target t) {
+        long now = SystemClock.elapsedRealtime();
+        Socket s = new Socket();
+        try {
+            long t0 = System.nanoTime();
+            s.connect(new InetSocketAddress(t.host, t.port), CONNECT_TIMEOUT_MS);
+            int connectUs = (int) ((System.nanoTime() - t0) / 1000);
+            s.setTcpNoDelay(true);
+            if (!t.framed) return new Result(true, connectUs, connectUs, -1, now); // SYN / SYN-ACK
+
+            OutputStream out = s.getOutputStream();
+            byte[] b = new byte[Framing.HEADER + TRAIN_PAD];
+            int seq = 0;
+            int n = Framing.format(b, seq++, t0, Framing.ENC_S16LE, 2, 48000, 0);
+            out.write(b, 0, n);
+            int rttUs = pingPong(s, out, b, seq++);
+            // no PONG: no train either, it would only time out
+            if (rttUs < 0) return new Result(true, connectUs, connectUs, -1, now);
+            if (paused) return new Result(true, connectUs, rttUs, -1, now);
+
+            // PING train: padding the receiver reads and drops, one PONG each
+            java.util.Arrays.fill(b, (byte) 0);
+            long b0 = System.nanoTime(), last = 0;
+            int sent = 0;
+            while (sent < TRAIN_BYTES) {
+                last = System.nanoTime();
+                Framing.putHeader(b, 0, Framing.T_PING, 0, TRAIN_PAD, seq++, last);
+                out.write(b, 0, Framing.HEADER + TRAIN_PAD);
+                sent += Framing.HEADER + TRAIN_PAD;
+            }
+            long dtUs = awaitPong(s, last, TRAIN_TIMEOUT_MS);
+            if (dtUs < 0) return new Result(true, connectUs, rttUs, 0, now);
+            // the last PONG comes one round trip after the last byte was read
+            dtUs = Math.max(1, (System.nanoTime() - b0) / 1000 - rttUs);
+            int kbps = (int) ((long) sent * 8 * 1000 / dtUs);
+            return new Result(true, connectUs, rttUs, kbps, now);
+        } catch (IOException e) {
+            return new Result(false, -1, -1, 0, now);
+        } finally {
+            try { s.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    // PING, wait for the matching PONG; RTT in us or -1
+    private static int pingPong(Socket s, OutputStream out, byte[] b, int seq) throws IOException {
+        long t0 = System.nanoTime();
+        int n = Framing.control(b, Framing.T_PING, seq, t0, 0);
+        out.write(b, 0, n);
+        return (int) awaitPong(s, t0, PONG_TIMEOUT_MS);
+    }
+
+    // frames until the PONG echoing pts (other PONGs, REPORTs ... skipped); us since pts,
+    // -1 on timeout
+    private static long awaitPong(Socket s, long pts, int timeoutMs) throws IOException {
+        s.setSoTimeout(timeoutMs);
+        InputStream in = s.getInputStream();
+        byte[] h = new byte[Framing.HEADER];
+        try {
+            while (System.nanoTime() - pts < timeoutMs * 1000000L) {
+                readFully(in, h, Framing.HEADER);
+                int len = Framing.getInt(h, 4);
+                if (len < 0 || len > 65536) return -1;
+                long skip = len;
+                while (skip > 0) {
+                    long k = in.skip(skip);
+                    if (k <= 0) break;
+                    skip -= k;
+                }
+                if ((h[2] & 0xFF) == Framing.T_PONG && Framing.getLong(h, 12) == pts) {
+                    return (System.nanoTime() - pts) / 1000;
+                }
+            }
+        } catch (SocketTimeoutException te) {
+            // receiver does not answer pings
+        }
+        return -1;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = in.read(b, off, len - off);
+            if (n < 0) throw new IOException("eof");
+            off += n;
+        }
+    }
+}
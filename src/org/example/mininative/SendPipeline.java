@@ -0,0 +1,316 @@
+package org.example.mininative;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// The sender's stages between a CaptureSource and the wire, chunk by chunk and batch by
+// batch: media clock, latency probe, soft gain / mute (or passthrough), tee, batching,
+// pacing, format rung, framing and the write, with the rate controller fed on both ends.
+// StreamService runs it on the stream thread with AudioRecord, ReplayBench (tests/) on a
+// FileSource, so what the bench measures is the code that ships.
+//
+// Java path, per chunk:  read() -> level() -> add(); per full batch: pace() -> prepare()
+// -> write() (unicast; multicast and serve take buf()/len()/pts() to their own sender)
+// -> written(). Native path: feed() per chunk, libpwtx does the rest on its thread.
+// Tracing, logging and the link itself (connect, control channel, failover) stay with
+// the caller, between the stages.
+//
+// Audio lives at buf()[HDR..], the frame header is written in front of it. No Android
+// dependencies; not thread-safe, one stream thread.
+public final class SendPipeline {
+    public static final int HDR = Framing.HEADER;
+    // what feed() did with the chunk
+    public static final int SENT = 0, MUTED = 1, SPILLED = 2;
+
+    private final int rate, channels, frameBytes, chunkBytes, batchChunks;
+    private final long chunkNs, batchNs;
+    private final RateController rc;   // native path: capture accounting only, or null
+    private final Pacer pacer;         // null: unpaced
+    private final CaptureClock clock;
+    private final Pacer.Jitter txJit = new Pacer.Jitter(); // unpaced: jitter of write times
+    private final byte[] buf;
+    private final byte[] fmtBuf = new byte[Framing.HEADER + Framing.FORMAT_LEN];
+    private final byte[] ctlBuf = new byte[Framing.CONTROL_LEN];
+    private final byte[] gainBuf = new byte[Framing.HEADER + Framing.GAIN_LEN];
+    private LatencyProbe probe;
+    private long playoutNs = -1;
+
+    // capture, across links
+    private long framesRead, tsAt;
+    private int fill, chunksIn;
+    private long batchT0, batchF0;
+
+    // the batch on its way out
+    private int rung, len, aflags;
+    private long pts;
+
+    // the link
+    private OutputStream out;          // null: multicast or serve
+    private ControlChannel cc;
+    private ClockSync cs;
+    private boolean framed, pass, clocked;
+    private int seq, announced = -1, sentGain = -1;
+    private boolean sentMuted;
+
+    // native path
+    private ByteBuffer spill;
+    private long spilled;
+    private int fed;
+
+    // per stats interval
+    private long bytes, writeNs, writeMaxNs, holdNs, lastHoldNs;
+    private int writes;
+
+    public SendPipeline(int rate, int channels, int chunkFrames, int batchChunks,
+                        RateController rc, Pacer pacer) {
+        this.rate = rate;
+        this.channels = channels;
+        this.frameBytes = channels * 2;
+        this.chunkBytes = chunkFrames * frameBytes;
+        this.batchChunks = Math.max(1, batchChunks);
+        this.chunkNs = chunkFrames * 1000000000L / rate;
+        this.batchNs = chunkNs * this.batchChunks;
+        this.rc = rc;
+        this.pacer = pacer;
+        this.clock = new CaptureClock(rate);
+        this.buf = new byte[HDR + chunkBytes * this.batchChunks];
+    }
+
+    public byte[] buf() { return buf; }
+
+    // chirps in place of the capture on framed links, see LatencyProbe
+    public void setProbe(LatencyProbe p) { probe = p; }
+
+    // playout sync: with a valid ClockSync, batches carry the peer time they play at,
+    // capture time + delayNs; < 0 off (capture pts)
+    public void setPlayout(long delayNs) { playoutNs = delayNs; }
+
+    // A new link: unicast with its stream and control channel (cs: sync or probe, may be
+    // null), or out == null for multicast and serve. Framing starts over: seq 0, FORMAT
+    // and GAIN go out again before the next audio. Also on a retarget cut-over, where
+    // the batch being built carries over.
+    public void link(OutputStream out, ControlChannel cc, ClockSync cs, boolean framed,
+                     boolean pass) {
+        this.out = out;
+        this.cc = cc;
+        this.cs = cs;
+        this.framed = framed;
+        this.pass = pass;
+        // media clock: needed for pacing, sync and the datagram/serve pts
+        this.clocked = pacer != null || cs != null || out == null;
+        seq = 0;
+        announced = -1;
+        sentGain = -1;
+        sentMuted = false;
+    }
+
+    // a new session on a link: rate controller, pacer and write jitter start over, and so
+    // does the batch
+    public void start(long nowMs) {
+        if (rc != null) rc.reset(nowMs);
+        if (pacer != null) pacer.reset();
+        txJit.reset();
+        fill = 0;
+        chunksIn = 0;
+        resetStats();
+    }
+
+    // The next chunk, behind the batch so far; <= 0 at the end of the source.
+    public int read(CaptureSource src) {
+        long r0 = System.nanoTime();
+        int n = src.read(buf, HDR + fill, chunkBytes);
+        if (n <= 0) return n;
+        long r1 = System.nanoTime();
+        if (chunksIn == 0) {
+            batchT0 = r1;
+            batchF0 = framesRead;
+        }
+        if (rc != null) rc.onCapture(r1, n / frameBytes, rate);
+        framesRead += n / frameBytes;
+        if (clocked) tick(src, r0, r1);
+        if (probe != null && framed) {
+            long f0 = framesRead - n / frameBytes;
+            probe.fill(buf, HDR + fill, n, f0, clock.valid() ? clock.timeOf(f0) : r1 - chunkNs);
+        }
+        return n;
+    }
+
+    // HAL timestamp about once a second, else blocking reads; framesRead counts this read
+    private void tick(CaptureSource src, long r0, long r1) {
+        if (r1 - tsAt > 1000000000L) {
+            tsAt = r1;
+            src.timestamp(clock);
+        }
+        if (r1 - r0 > 1000000L) clock.onBlockingRead(framesRead, r1);
+    }
+
+    // Soft volume on the chunk just read: in place s16 gain, or 0 bytes to send when muted
+    // (a gap, not silence). Passthrough leaves every sample as is, the receiver scales.
+    public int level(int n, float gain, boolean muted) {
+        if (pass) return n;
+        if (muted) return 0;
+        if (gain != 1.0f) PcmConvert.gain(buf, HDR + fill, n, gain);
+        return n;
+    }
+
+    // The chunk joins the batch (the tee gets it in the capture format, before any rung
+    // step); true once the batch is full.
+    public boolean add(int n, WavTee tee) {
+        if (tee != null && n > 0) tee.write(buf, HDR + fill, n);
+        fill += n;
+        return ++chunksIn >= batchChunks;
+    }
+
+    // holds the full batch until it is due on the media clock schedule
+    public void pace() {
+        if (pacer != null) pacer.release(clock.valid() ? clock.timeOf(framesRead) : -1);
+    }
+
+    // Output format and pts of the full batch; converts it in place. Returns the rung.
+    public int prepare() {
+        rung = (rc != null) ? rc.rung() : 0;
+        len = fill;
+        pts = batchT0 - chunkNs;
+        aflags = 0;
+        if (out == null) {
+            // no back channel: pts stays on our capture clock, receivers add their delay
+            if (clock.valid()) pts = clock.timeOf(batchF0);
+        } else if (playoutNs >= 0 && cs != null && cs.valid()) {
+            // every receiver plays this batch at capture time + delay, each on its own clock
+            long capNs = clock.valid() ? clock.timeOf(batchF0) : pts;
+            pts = cs.toPeer(capNs + playoutNs);
+            aflags = Framing.F_PLAYOUT;
+        }
+        if (rung != 0 && len > 0) {
+            len = PcmConvert.convert(buf, HDR, len, channels, rate, RateController.LADDER[rung]);
+        }
+        return rung;
+    }
+
+    public int rung() { return rung; }
+    public int len() { return len; }
+    public long pts() { return pts; }
+
+    // Unicast write of the prepared batch. Framed: a FORMAT on a rung switch (announced
+    // right before its audio), GAIN on passthrough when it changed, PONG/SYNC/PING as
+    // due, then AUDIO; raw: the PCM only. The control channel's watchdog runs over all of
+    // it. Returns true if a rung switch was announced (not the link's first FORMAT).
+    public boolean write(int gainQ16, boolean muted) throws IOException {
+        boolean switched = false;
+        long w0 = System.nanoTime();
+        cc.beginWrite(); // a write stuck past the deadline kills the link
+        try {
+            if (framed) {
+                if (rung != announced) {
+                    RateController.Rung fr = RateController.LADDER[rung];
+                    out.write(fmtBuf, 0, Framing.format(fmtBuf, seq++, pts, fr.encoding,
+                                                        fr.channels, fr.rate, rung));
+                    switched = announced >= 0;
+                    announced = rung;
+                }
+                if (pass && (gainQ16 != sentGain || muted != sentMuted)) {
+                    // from the first sample of this batch on: a volume step lands on it
+                    out.write(gainBuf, 0, Framing.gain(gainBuf, seq++, pts, aflags, gainQ16, muted));
+                    sentGain = gainQ16;
+                    sentMuted = muted;
+                }
+                long pp = cc.takePong();
+                if (pp != Long.MIN_VALUE) {
+                    out.write(ctlBuf, 0, Framing.control(ctlBuf, Framing.T_PONG, seq++, pp, -1));
+                }
+                if (cs != null && cs.due(w0)) {
+                    long t1 = System.nanoTime();
+                    out.write(ctlBuf, 0, Framing.control(ctlBuf, Framing.T_SYNC, seq++, t1, 0));
+                }
+                if (cc.pingDue(w0)) {
+                    out.write(ctlBuf, 0, Framing.control(ctlBuf, Framing.T_PING, seq++, w0, 0));
+                }
+            }
+            if (len > 0) {
+                if (framed) {
+                    Framing.putHeader(buf, 0, Framing.T_AUDIO, aflags, len, seq++, pts);
+                    out.write(buf, 0, HDR + len);
+                } else {
+                    out.write(buf, HDR, len);
+                }
+            }
+        } finally {
+            cc.endWrite();
+        }
+        return switched;
+    }
+
+    // After the batch went out by whatever sender, w0..w1 around the write: rate
+    // controller feedback and the interval figures; the next batch starts empty.
+    public void written(long w0, long w1, long nowMs) {
+        if (pacer == null) txJit.onEvent(w0, batchNs);
+        writeNs += w1 - w0;
+        if (w1 - w0 > writeMaxNs) writeMaxNs = w1 - w0;
+        lastHoldNs = w1 - batchT0;
+        holdNs += lastHoldNs;
+        writes++;
+        bytes += len;
+        if (rc != null) {
+            rc.onWrite(len, w1 - w0);
+            rc.update(nowMs, 0, batchNs);
+        }
+        fill = 0;
+        chunksIn = 0;
+    }
+
+    // Native path, one chunk: read straight into a pool slot (every slot in flight: into a
+    // spill buffer and dropped, capture never waits), pts from the media clock, submitted
+    // with the gain for libpwtx to apply; muted, the slot goes back (a gap). The tee gets
+    // the chunk before the native gain step. fed() tells which; <= 0 at the end.
+    public int feed(CaptureSource src, NativeSender ns, boolean muted, int gainQ16, WavTee tee) {
+        if (spill == null) spill = ByteBuffer.allocateDirect(chunkBytes);
+        int slot = ns.acquire();
+        ByteBuffer b = (slot >= 0) ? ns.pcm(slot) : spill;
+        long r0 = System.nanoTime();
+        int n = src.read(b, chunkBytes);
+        long r1 = System.nanoTime();
+        if (n <= 0) {
+            if (slot >= 0) ns.release(slot);
+            return n;
+        }
+        framesRead += n / frameBytes;
+        if (rc != null) rc.onCapture(r1, n / frameBytes, rate);
+        tick(src, r0, r1);
+        long pts = clock.valid() ? clock.timeOf(framesRead - n / frameBytes) : r1 - chunkNs;
+        if (slot < 0) {
+            spilled++;
+            fed = SPILLED;
+        } else if (muted) {
+            ns.release(slot);
+            fed = MUTED;
+        } else {
+            if (tee != null) tee.write(b, n);
+            ns.submit(slot, n, pts, gainQ16);
+            fed = SENT;
+        }
+        return n;
+    }
+
+    public int fed() { return fed; }
+    public long spilled() { return spilled; }
+
+    // jitter of our own write times (the pacer's release times when paced), which is not
+    // what the receiver sees: the network adds its own (ControlChannel.jitterUs)
+    public int writeJitterUs() { return (pacer != null) ? pacer.jitterUs() : txJit.us(); }
+
+    public long framesRead() { return framesRead; }
+    public long bytes() { return bytes; }
+    public int writes() { return writes; }
+    public long writeAvgUs() { return (writes > 0) ? writeNs / writes / 1000 : 0; }
+    public long writeMaxUs() { return writeMaxNs / 1000; }
+    public double holdAvgMs() { return (writes > 0) ? holdNs / writes / 1e6 : 0.0; }
+    // capture of the last batch's first chunk -> written
+    public long lastHoldNs() { return lastHoldNs; }
+
+    public void resetStats() {
+        bytes = writeNs = writeMaxNs = holdNs = 0;
+        writes = 0;
+        spilled = 0;
+    }
+}
@@ -0,0 +1,392 @@
+package org.example.mininative;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.jmdns.JmDNS;
+import javax.jmdns.ServiceInfo;
+
+// Pull mode: the phone listens and every client gets the same capture.
+//
+// One thread runs a Selector over the listening socket and all clients. The stream thread
+// hands each batch to publish(): it is copied once into a Chunk holding the frame header
+// and the PCM, and every client queues views of that one array, so N listeners cost one
+// capture, one copy and N socket writes. Clients pick what they get with their first bytes:
+//   "GET ..."   HTTP, audio/wav: chunked for HTTP/1.1, plain until close for HTTP/1.0
+//   "PW"        framed protocol (Framing.java), FORMAT first
+//   nothing for KIND_WAIT_MS: raw s16 (nc phone 9999 > out.raw)
+// A client whose queue passes maxQueueBytes cannot keep up with the stream and is evicted;
+// nothing is dropped from the middle of a stream and nobody waits for a slow client.
+//
+// No Android dependencies.
+public final class StreamServer {
+    public static final String SRC_TYPE = "_pwnet-src._tcp.local.";
+    private static final long KIND_WAIT_MS = 300;
+    private static final int K_PENDING = 0, K_RAW = 1, K_HTTP = 2, K_FRAMED = 3;
+    private static final String[] KIND = { "pending", "raw", "http", "framed" };
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final class Chunk {
+        final byte[] data;      // frame header + PCM
+        final int len;          // PCM bytes
+        final byte[] head;      // HTTP chunk size line
+        Chunk(byte[] data, int len) {
+            this.data = data;
+            this.len = len;
+            this.head = (Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel ch;
+        final String who;
+        final long since;
+        final ArrayDeque<ByteBuffer> q = new ArrayDeque<>();
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        int kind = K_PENDING;
+        boolean chunked;
+        long queued, sent;
+        Client(SocketChannel ch, String who, long since) {
+            this.ch = ch;
+            this.who = who;
+            this.since = since;
+        }
+    }
+
+    private final int port, rate, channels, maxQueueBytes;
+    private final ConcurrentLinkedQueue<Chunk> inbox = new ConcurrentLinkedQueue<>();
+    private final List<Client> clients = new ArrayList<>();
+    private ServerSocketChannel ssc;
+    private Selector sel;
+    private volatile Thread th;
+    private JmDNS jmdns;
+    private int seq;
+
+    // running totals, written by the server thread only; takeStats() reports the deltas
+    private volatile int nClients;
+    private volatile String mix = "", lastEvict = "-";
+    private volatile long accepted, evicted, bytesOut, queuePeak;
+    private long lastAccepted, lastEvicted, lastBytesOut;
+
+    // PCM is s16le at rate/channels; maxQueueBytes bounds what one client may lag behind
+    public StreamServer(int port, int rate, int channels, int maxQueueBytes) {
+        this.port = port;
+        this.rate = rate;
+        this.channels = channels;
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    // binds right away so a busy port fails the caller, then serves on its own thread
+    public void start() throws IOException {
+        sel = Selector.open();
+        ssc = ServerSocketChannel.open();
+        try {
+            ssc.socket().setReuseAddress(true);
+            ssc.bind(new InetSocketAddress(port), 16);
+            ssc.configureBlocking(false);
+            ssc.register(sel, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override public void run() { loop(); }
+        }, "pwnet-serve");
+        t.setDaemon(true);
+        th = t;
+        t.start();
+    }
+
+    // "*" or 0.0.0.0 as host: listen instead of connecting
+    public static boolean isListen(String host) {
+        if (host == null) return false;
+        String h = host.trim();
+        return h.equals("*") || h.equals("0.0.0.0");
+    }
+
+    public int port() { return port; }
+    public int clients() { return nClients; }
+
+    // one batch of PCM, called from the stream thread; never blocks on clients
+    public void publish(byte[] b, int off, int len, long pts) {
+        if (len <= 0 || nClients == 0) return;
+        byte[] d = new byte[Framing.HEADER + len];
+        Framing.putHeader(d, 0, Framing.T_AUDIO, 0, len, seq++, pts);
+        System.arraycopy(b, off, d, Framing.HEADER, len);
+        inbox.add(new Chunk(d, len));
+        Selector s = sel;
+        if (s != null) s.wakeup();
+    }
+
+    // register the phone as a source on the interface that has bind; replaces an earlier
+    // registration (address change). Blocks for a while in JmDNS.create.
+    public synchronized void advertise(InetAddress bind, String name) {
+        unadvertise();
+        if (th == null) return; // closed meanwhile
+        try {
+            Map<String, String> txt = new HashMap<>();
+            txt.put("fmt", "s16le");
+            txt.put("rate", String.valueOf(rate));
+            txt.put("ch", String.valueOf(channels));
+            txt.put("tr", "raw,framed,http");
+            txt.put("path", "/stream.wav");
+            jmdns = JmDNS.create(bind, name);
+            jmdns.registerService(ServiceInfo.create(SRC_TYPE, name, port, 0, 0, txt));
+        } catch (IOException e) {
+            unadvertise();
+        }
+    }
+
+    public synchronized void unadvertise() {
+        if (jmdns == null) return;
+        try { jmdns.unregisterAllServices(); jmdns.close(); } catch (Throwable ignore) {}
+        jmdns = null;
+    }
+
+    public synchronized boolean advertised() { return jmdns != null; }
+
+    public void close() {
+        Thread t = th;
+        th = null;
+        Selector s = sel;
+        if (s != null) s.wakeup();
+        if (t != null) {
+            try { t.join(1000); } catch (InterruptedException ignore) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        unadvertise();
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        for (Client c : clients) {
+            try { c.ch.close(); } catch (IOException ignore) {}
+        }
+        clients.clear();
+        counted();
+        try { if (ssc != null) ssc.close(); } catch (IOException ignore) {}
+        try { if (sel != null) sel.close(); } catch (IOException ignore) {}
+    }
+
+    private void loop() {
+        while (th == Thread.currentThread()) {
+            try {
+                sel.select(KIND_WAIT_MS / 3);
+            } catch (IOException e) {
+                break;
+            }
+            Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey k = it.next();
+                it.remove();
+                if (!k.isValid()) continue;
+                if (k.isAcceptable()) accept();
+                else {
+                    Client c = (Client) k.attachment();
+                    if (k.isReadable()) read(c);
+                    if (k.isValid() && k.isWritable()) flush(c);
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                Client c = clients.get(i);
+                if (c.kind == K_PENDING && now - c.since >= KIND_WAIT_MS) begin(c, K_RAW);
+            }
+            Chunk ch;
+            while ((ch = inbox.poll()) != null) fanOut(ch);
+        }
+    }
+
+    private void accept() {
+        SocketChannel sc;
+        try {
+            sc = ssc.accept();
+            if (sc == null) return;
+            sc.configureBlocking(false);
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // keep the backlog in our queue, where it is counted, not in the kernel's
+            sc.setOption(StandardSocketOptions.SO_SNDBUF, Math.max(16384, maxQueueBytes / 2));
+            InetSocketAddress ra = (InetSocketAddress) sc.getRemoteAddress();
+            Client c = new Client(sc, ra.getAddress().getHostAddress() + ":" + ra.getPort(),
+                    System.currentTimeMillis());
+            sc.register(sel, SelectionKey.OP_READ, c);
+            clients.add(c);
+            counted();
+            accepted++;
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void read(Client c) {
+        int n;
+        try {
+            if (c.kind != K_PENDING) c.in.clear(); // past the request: discard what they send
+            n = c.ch.read(c.in);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            drop(c);
+            return;
+        }
+        if (c.kind != K_PENDING) return;
+        ByteBuffer in = c.in;
+        int len = in.position();
+        byte[] a = in.array();
+        if (len >= 2 && a[0] == 'P' && a[1] == 'W') {
+            begin(c, K_FRAMED);
+        } else if (len >= 4 && a[0] == 'G' && a[1] == 'E' && a[2] == 'T' && a[3] == ' ') {
+            String req = new String(a, 0, len, StandardCharsets.ISO_8859_1);
+            if (req.contains("\r\n\r\n") || req.contains("\n\n")) {
+                c.chunked = req.substring(0, req.indexOf('\n')).contains("HTTP/1.1");
+                begin(c, K_HTTP);
+            } else if (!in.hasRemaining()) {
+                drop(c); // no end of headers in 1 KiB
+            }
+        } else if (len >= 4 || (len >= 1 && a[0] != 'P' && a[0] != 'G')) {
+            begin(c, K_RAW);
+        }
+    }
+
+    // kind known: send what comes before the audio, then the client is fed from fanOut
+    private void begin(Client c, int kind) {
+        c.kind = kind;
+        counted();
+        if (kind == K_HTTP) {
+            String h = "HTTP/1." + (c.chunked ? "1" : "0") + " 200 OK\r\n"
+                    + "Content-Type: audio/wav\r\n"
+                    + "Cache-Control: no-cache\r\n"
+                    + (c.chunked ? "Transfer-Encoding: chunked\r\n" : "")
+                    + "Connection: close\r\n\r\n";
+            enqueue(c, ByteBuffer.wrap(h.getBytes(StandardCharsets.US_ASCII)));
+            byte[] w = wavHeader();
+            if (c.chunked) {
+                enqueue(c, ByteBuffer.wrap((Integer.toHexString(w.length) + "\r\n")
+                        .getBytes(StandardCharsets.US_ASCII)));
+                enqueue(c, ByteBuffer.wrap(w));
+                enqueue(c, ByteBuffer.wrap(CRLF));
+            } else {
+                enqueue(c, ByteBuffer.wrap(w));
+            }
+        } else if (kind == K_FRAMED) {
+            byte[] f = new byte[Framing.HEADER + Framing.FORMAT_LEN];
+            int n = Framing.format(f, seq, System.nanoTime(), Framing.ENC_S16LE, channels, rate, 0);
+            enqueue(c, ByteBuffer.wrap(f, 0, n));
+        }
+        flush(c);
+    }
+
+    private void fanOut(Chunk ch) {
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client c = clients.get(i);
+            switch (c.kind) {
+                case K_RAW:
+                    enqueue(c, ByteBuffer.wrap(ch.data, Framing.HEADER, ch.len));
+                    break;
+                case K_FRAMED:
+                    enqueue(c, ByteBuffer.wrap(ch.data, 0, Framing.HEADER + ch.len));
+                    break;
+                case K_HTTP:
+                    if (c.chunked) enqueue(c, ByteBuffer.wrap(ch.head));
+                    enqueue(c, ByteBuffer.wrap(ch.data, Framing.HEADER, ch.len));
+                    if (c.chunked) enqueue(c, ByteBuffer.wrap(CRLF));
+                    break;
+                default:
+                    continue;
+            }
+            if (c.queued > maxQueueBytes) {
+                evicted++;
+                lastEvict = c.who + "/" + KIND[c.kind] + " after " + c.sent + "B";
+                drop(c);
+                continue;
+            }
+            flush(c);
+        }
+    }
+
+    private void enqueue(Client c, ByteBuffer b) {
+        c.q.add(b);
+        c.queued += b.remaining();
+        if (c.queued > queuePeak) queuePeak = c.queued;
+    }
+
+    // write as much as the socket takes; the rest waits for OP_WRITE
+    private void flush(Client c) {
+        try {
+            while (!c.q.isEmpty()) {
+                ByteBuffer b = c.q.peek();
+                int n = c.ch.write(b);
+                c.queued -= n;
+                c.sent += n;
+                bytesOut += n;
+                if (b.hasRemaining()) break;
+                c.q.poll();
+            }
+            SelectionKey k = c.ch.keyFor(sel);
+            if (k != null && k.isValid()) {
+                k.interestOps(c.q.isEmpty() ? SelectionKey.OP_READ
+                                            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            drop(c);
+        }
+    }
+
+    private void drop(Client c) {
+        try { c.ch.close(); } catch (IOException ignore) {}
+        clients.remove(c);
+        counted();
+    }
+
+    private void counted() {
+        int[] k = new int[KIND.length];
+        for (Client c : clients) k[c.kind]++;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < KIND.length; i++) {
+            if (k[i] > 0) sb.append(' ').append(KIND[i]).append('=').append(k[i]);
+        }
+        mix = sb.toString();
+        nClients = clients.size();
+    }
+
+    // 44-byte canonical header with "unknown" lengths: the stream has no end
+    private byte[] wavHeader() {
+        ByteBuffer b = ByteBuffer.allocate(44).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        b.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(-1);
+        b.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+        b.putShort((short) 1).putShort((short) channels).putInt(rate)
+         .putInt(rate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        b.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(-1);
+        return b.array();
+    }
+
+    // called from the stream thread for its periodic log line
+    public String takeStats() {
+        long a = accepted, e = evicted, o = bytesOut;
+        String s = String.format(Locale.US,
+                "serve :%d clients=%d%s accepted=%d evicted=%d (%s) out=%dB qpeak=%dB adv=%d",
+                port, nClients, mix, a - lastAccepted, e - lastEvicted, lastEvict,
+                o - lastBytesOut, queuePeak, advertised() ? 1 : 0);
+        lastAccepted = a;
+        lastEvicted = e;
+        lastBytesOut = o;
+        return s;
+    }
+}
@@ -19,14 +19,21 @@ import android.media.AudioPlaybackCaptureConfiguration;
 import android.media.AudioRecord;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
+import android.net.Network;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.SystemClock;
 import android.util.Log;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
 import android.media.AudioManager;
 import java.util.Locale;
 import android.text.TextUtils;
@@ -45,11 +52,40 @@ public class StreamService extends Service implements Runnable {
   private static final String ACT_STOP = "org.example.mininative.STOP";
   private static final String ACT_SET_GAIN = "org.example.mininative.SET_GAIN";
   private static final String ACT_SET_MUTED = "org.example.mininative.SET_MUTED";
+  private static final String ACT_RETARGET = "org.example.mininative.RETARGET";
+  private static final String ACT_NET_CHANGED = "org.example.mininative.NET_CHANGED";
+  private static final String ACT_TEE_SAVE = "org.example.mininative.TEE_SAVE";
+  private static final String ACT_RETARGET_DONE = "org.example.mininative.RETARGET_DONE";
 
   // prefs keys
   private static final String PREFS = "mn_prefs";
   private static final String KEY_HOST = "host", KEY_PORT = "port", KEY_GAIN = "gain",
-                              KEY_MUTED = "muted";
+                              KEY_MUTED = "muted", KEY_PROFILE = "profile";
+  private static final String KEY_FRAMED = "framed", KEY_ADAPTIVE = "adaptive";
+  private static final String KEY_PACED = "paced", KEY_DEADLINE = "deadline_ms";
+  private static final String KEY_POWER = "power_lock";
+  private static final String KEY_SYNC = "sync", KEY_SYNC_DELAY = "sync_delay_ms";
+  private static final String KEY_MCAST_TTL = "mcast_ttl";
+  private static final String KEY_PASSTHRU = "passthru";
+  private static final String KEY_NATIVE_TX = "native_tx";
+  private static final String KEY_TEE_MIN = "tee_min"; // tee ring length, 0 = off
+  private static final String KEY_PROBE = "probe";
+  private static final String KEY_TRACE = "trace";
+  private static final String KEY_FLIGHT = "flight";
+  // TXT lines of the receiver last picked from the list, and the host:port they belong to
+  private static final String KEY_RX_CAPS = "rx_caps", KEY_RX_ADDR = "rx_addr";
+  private static final String KEY_FAILOVER = "failover"; // ordered group, one entry per line
+
+  // failover: reconnects to the same receiver before moving on, and the background browse
+  // that keeps the group's addresses fresh (BROWSE_ON_MS out of every BROWSE_EVERY_MS)
+  private static final int FAILOVER_BUDGET = 3;
+  private static final long BROWSE_ON_MS = 8000, BROWSE_EVERY_MS = 60000;
+  // serve: a pull client this far behind the capture is evicted
+  private static final int SERVE_QUEUE_MS = 500;
+  // native tx: unsent bytes the kernel may hold (TCP_NOTSENT_LOWAT), the rest waits in the pool
+  private static final int NATIVE_LOWAT = 16384;
+  // flight recorder: one record a second, FLIGHT_HOURS per session, the last FLIGHT_KEEP kept
+  private static final int FLIGHT_HOURS = 12, FLIGHT_KEEP = 8;
 
   private static final String K_SEL_UID = "sel_uid";
   private static final String K_SEL_PKG = "sel_pkg";
@@ -64,11 +100,70 @@ public class StreamService extends Service implements Runnable {
   private volatile float gain = 1.0f; // 0..1
   private volatile int appUid = -1;
   private volatile String appPkg = "";
-  private String host;
-  private int port;
+  private volatile String host;
+  private volatile int port;
+  private String profileName = LatencyProfile.BALANCED;
+  private boolean profileAuto;      // no profile pref: the receiver's "lat" picks it
+  private volatile LatencyProfile profile;
+  private boolean framedPref = false;
+  private boolean framed = false;   // Framing protocol instead of raw s16le, per receiver
+  private boolean adaptive = true;  // format ladder, framed mode only
+  private boolean paced = false;    // release chunks on the media clock, not on read return
+  private volatile int jitterUs = -1; // receiver's inter-arrival jitter (PONG), -1 = unknown
+  private volatile int writeJitUs = 0; // jitter of our own write times, what paced smooths
+  private long deadlineMs = 1500;   // stuck write / lost heartbeat => link dead
+  private volatile long rttUs = -1;
+  private volatile int fillMs = -1;  // receiver buffer fill as reported over the control channel
+  private boolean powerLock = true; // Wi-Fi/wake locks while streaming audibly
+  private boolean sync = false;     // framed only: pts = playout time on the receiver clock
+  private long syncDelayMs = 200;   // capture -> playout, the same for every receiver
+  private volatile int syncErrUs = -1;
+  private boolean mcast = false;    // host is a multicast group: UDP to all its members
+  private boolean serve = false;    // host is "*": listen on port, clients pull the stream
+  private boolean passthru = false; // framed/multicast: samples untouched, GAIN frames instead
+  private boolean nativeTx = false; // unicast: direct buffers to the libpwtx sender thread
+  private volatile NativeSender nlink;
+  private int teeMin = 0;
+  private volatile WavTee tee;      // last teeMin minutes of what we sent, see WavTee
+  private int teeSeq;               // sessions' tees, guarded by this
+  private final Object teeFile = new Object(); // one ring file: an open (may truncate) or a save
+  private boolean probe = false;    // framed unicast: chirps instead of audio, see LatencyProbe
+  private boolean trace = false;    // Perfetto/systrace markers for the session, see Tracer
+  private boolean flightOn = true;
+  private FlightRecorder flight;    // per-second stats of this session, see FlightRecorder
+  private volatile StreamServer slink;
+  private WifiManager.MulticastLock advLock;
+  private int mcastTtl = 1;
+  private ReceiverCaps caps;        // what the current receiver advertised, if anything
+  private FailoverGroup failover = new FailoverGroup(null);
+  private volatile Thread browseTh;
+
+  // live retarget: connected socket waiting to be swapped in at the next chunk boundary
+  private static final class PendingLink {
+    final Socket sock;
+    final String host;
+    final int port;
+    final ReceiverCaps caps;
+    PendingLink(Socket sock, String host, int port, ReceiverCaps caps) {
+      this.sock = sock;
+      this.host = host;
+      this.port = port;
+      this.caps = caps;
+    }
+  }
+  private final AtomicReference<PendingLink> pending = new AtomicReference<>();
+  private volatile int retargetSeq = 0;
+
+  // Wi-Fi the stream sockets are bound to; a change drops the link right away
+  private WifiNetwork wifi;
+  private volatile Socket link;       // socket the stream loop currently writes to
+  private volatile MulticastSender mlink; // or the multicast sender
+  private volatile boolean netKick;   // network changed: reconnect without the back-off
 
   private Intent data;
   private int resultCode;
+  private String replay;       // start extra: capture from this WAV/raw file instead, see FileSource
+  private boolean replayLoop;
   private Thread th;
   private AudioManager am;
 
@@ -125,13 +220,53 @@ public class StreamService extends Service implements Runnable {
         updateNotif(running ? "CONNECTED" : (stopping ? "STOPPING" : "DISCONNECTED"));
         return START_STICKY;
       }
+      if (ACT_TEE_SAVE.equals(act)) {
+        saveTee(i.getIntExtra("minutes", 0));
+        return START_STICKY;
+      }
+      if (ACT_RETARGET.equals(act)) {
+        String h = i.getStringExtra("host");
+        int p = i.getIntExtra("port", port);
+        if (h == null || h.trim().isEmpty() || p < 1 || p > 65535) {
+          Log.w(TAG, "retarget: bad target " + h + ":" + p);
+          return START_STICKY;
+        }
+        h = h.trim();
+        if (!running || stopping) {
+          // nothing to switch; next start picks it up from prefs
+          prefs.edit().putString(KEY_HOST, h).putInt(KEY_PORT, p).apply();
+          host = h;
+          port = p;
+          return START_STICKY;
+        }
+        if (mcast || serve || MulticastSender.isGroup(h) || StreamServer.isListen(h)) {
+          // unicast <-> multicast / listen is a different transport, not a new peer
+          prefs.edit().putString(KEY_HOST, h).putInt(KEY_PORT, p).apply();
+          Log.i(TAG, "retarget " + h + ":" + p + " applies on next start (transport)");
+          return START_STICKY;
+        }
+        if (nlink != null) {
+          // the native sender is opened for one peer per session
+          prefs.edit().putString(KEY_HOST, h).putInt(KEY_PORT, p).apply();
+          Log.i(TAG, "retarget " + h + ":" + p + " applies on next start (native tx)");
+          return START_STICKY;
+        }
+        // live: prefs follow only once the stream has cut over, see retargetDone()
+        retarget(h, p);
+        return START_STICKY;
+      }
     }
 
     // normal start
     resultCode = (i != null) ? i.getIntExtra("code", Activity.RESULT_CANCELED)
                              : Activity.RESULT_CANCELED;
     data = (i != null) ? i.getParcelableExtra("data") : null;
-    if (resultCode != Activity.RESULT_OK || data == null) {
+    // replay: a file stands in for the playback capture, no projection needed
+    //   am start-foreground-service -n org.example.mininative/.StreamService \
+    //       --es replay /sdcard/Android/data/org.example.mininative/files/x.wav [--ez replay_loop false]
+    replay = (i != null) ? i.getStringExtra("replay") : null;
+    replayLoop = (i != null) && i.getBooleanExtra("replay_loop", true);
+    if (replay == null && (resultCode != Activity.RESULT_OK || data == null)) {
       Log.e(TAG, "start: projection data missing");
       stopSelf();
       return START_NOT_STICKY;
@@ -143,6 +278,29 @@ public class StreamService extends Service implements Runnable {
     muted = prefs.getBoolean(KEY_MUTED, false);
     appUid = prefs.getInt("sel_uid", -1);
     appPkg = prefs.getString("sel_pkg", "System");
+    profileName = LatencyProfile.normalize(prefs.getString(KEY_PROFILE, LatencyProfile.BALANCED));
+    framedPref = prefs.getBoolean(KEY_FRAMED, false);
+    adaptive = prefs.getBoolean(KEY_ADAPTIVE, true);
+    paced = prefs.getBoolean(KEY_PACED, false);
+    deadlineMs = Math.max(500, Math.min(5000, prefs.getInt(KEY_DEADLINE, 1500)));
+    powerLock = prefs.getBoolean(KEY_POWER, true);
+    sync = prefs.getBoolean(KEY_SYNC, false);
+    mcast = MulticastSender.isGroup(host);
+    serve = StreamServer.isListen(host);
+    passthru = prefs.getBoolean(KEY_PASSTHRU, false);
+    nativeTx = prefs.getBoolean(KEY_NATIVE_TX, false);
+    teeMin = Math.max(0, Math.min(60, prefs.getInt(KEY_TEE_MIN, 0)));
+    probe = prefs.getBoolean(KEY_PROBE, false);
+    trace = prefs.getBoolean(KEY_TRACE, false);
+    flightOn = prefs.getBoolean(KEY_FLIGHT, true);
+    mcastTtl = Math.max(1, Math.min(32, prefs.getInt(KEY_MCAST_TTL, 1)));
+    syncDelayMs = Math.max(50, Math.min(2000, prefs.getInt(KEY_SYNC_DELAY, 200)));
+    caps = capsFor(prefs, host, port);
+    failover = new FailoverGroup(prefs.getString(KEY_FAILOVER, ""));
+    framed = caps.framed(framedPref);
+    profileAuto = !prefs.contains(KEY_PROFILE);
+    if (profileAuto && caps.profile() != null) profileName = caps.profile();
+    Log.i(TAG, host + ":" + port + " " + caps);
 
     ensureChannel();
 
@@ -152,7 +310,13 @@ public class StreamService extends Service implements Runnable {
       nm.cancelAll();
     } catch (Throwable ignore) {}
 
-    startForeground(NID, buildNotif("CONNECTING"));
+    try {
+      startForeground(NID, buildNotif("CONNECTING"));
+    } catch (SecurityException e) {
+      if (replay == null) throw e;
+      // Android 14+: a mediaProjection service may not go foreground without the consent
+      Log.w(TAG, "replay: not foreground (" + e.getMessage() + ")");
+    }
 
     if (th == null || !running) {
       stopping = false;
@@ -281,16 +445,255 @@ private int smallIconRes() {
   }
 
   private void sendState(String status, long txBytes, int kbps, int attempts) {
+    Tracer.begin("pw.state");
     Intent s = new Intent(ACT_STATE)
                    .putExtra("status", status)
                    .putExtra("tx", txBytes)
                    .putExtra("kbps", kbps)
                    .putExtra("attempts", attempts)
                    .putExtra("muted", muted)
-                   .putExtra("gain", gain);
+                   .putExtra("gain", gain)
+                   .putExtra("jitter", jitterUs)
+                   .putExtra("wjitter", writeJitUs)
+                   .putExtra("rtt", rttUs)
+                   .putExtra("fill", fillMs)
+                   .putExtra("peer", serve ? "serve :" + port + " (" + serveClients() + ")"
+                                           : host + ":" + port)
+                   .putExtra("sync", syncErrUs);
     sendBroadcast(s);
+    Tracer.end();
+  }
+
+  private int gainQ16() {
+    return Math.round(clamp01(gain) * Framing.GAIN_UNITY);
+  }
+
+  private int serveClients() {
+    StreamServer sv = slink;
+    return (sv != null) ? sv.clients() : 0;
+  }
+
+  // (re)register this phone as a source on the Wi-Fi address; JmDNS.create blocks, so
+  // off the calling thread. The multicast lock lets mDNS queries in while we answer them.
+  private void advertise(final StreamServer sv) {
+    new Thread(new Runnable() {
+      @Override public void run() {
+        InetAddress a = (wifi != null) ? wifi.address() : null;
+        if (a == null) {
+          Log.w(TAG, "serve: no Wi-Fi address, not advertised");
+          sv.unadvertise();
+          return;
+        }
+        synchronized (StreamService.this) {
+          if (advLock == null) {
+            WifiManager wm = (WifiManager) getApplicationContext().getSystemService(WIFI_SERVICE);
+            if (wm != null) {
+              advLock = wm.createMulticastLock("pwnet-adv");
+              advLock.setReferenceCounted(false);
+              advLock.acquire();
+            }
+          }
+        }
+        String name = "pwnet-" + Build.MODEL.replace(' ', '-');
+        sv.advertise(a, name);
+        Log.i(TAG, "serve: " + (sv.advertised() ? "advertised " : "advertise failed ")
+                       + name + " " + StreamServer.SRC_TYPE + " @" + a.getHostAddress());
+      }
+    }, "pwnet-adv").start();
+  }
+
+  private synchronized void releaseAdvLock() {
+    try { if (advLock != null && advLock.isHeld()) advLock.release(); } catch (Throwable ignore) {}
+    advLock = null;
+  }
+
+  private Socket openSocket(String h, int p, LatencyProfile lp) throws IOException {
+    Socket s = new Socket();
+    try {
+      // SO_SNDBUF must be set before connect to affect the window
+      if (lp != null && lp.sndBufBytes > 0) s.setSendBufferSize(lp.sndBufBytes);
+      // keep the stream on Wi-Fi instead of whatever the default route is; no Wi-Fi, no
+      // connect: the loop backs off in CONNECTING until it is back
+      WifiNetwork w = wifi;
+      if (w != null) w.bind(s);
+      // resolve + connect with short timeout to be responsive to STOP
+      InetAddress addr = (w != null) ? w.resolve(h) : InetAddress.getByName(h);
+      s.connect(new InetSocketAddress(addr, p), 1500);
+      s.setTcpNoDelay(lp == null || lp.noDelay);
+      s.setKeepAlive(true);
+      return s;
+    } catch (IOException e) {
+      closeQuietly(s);
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(Socket s) {
+    try { if (s != null) s.close(); } catch (Throwable ignore) {}
+  }
+
+  // caps are only trusted for the address they were advertised with
+  private static ReceiverCaps capsFor(SharedPreferences prefs, String h, int p) {
+    String at = prefs.getString(KEY_RX_ADDR, "");
+    if (!(h + ":" + p).equals(at)) return ReceiverCaps.parse((String) null);
+    return ReceiverCaps.parse(prefs.getString(KEY_RX_CAPS, ""));
+  }
+
+  // Formats this receiver takes as is, cheapest first. The transport is fixed for the
+  // session; raw links (or adaptive off) cannot announce a switch and stay on one rung.
+  private void applyCaps(RateController rc, ReceiverCaps c) {
+    int mask = c.rungMask();
+    if (mask == 0 && c.advertised()) Log.w(TAG, "receiver advertises nothing we send, trying s16le");
+    // every new receiver gets a new socket: its transport and latency class apply at once
+    boolean f = c.framed(framedPref);
+    if (f != framed) {
+      Log.i(TAG, "receiver takes " + (f ? "framed" : "raw") + " only, wire follows");
+      framed = f;
+    }
+    LatencyProfile p = profile;
+    if (profileAuto && p != null && c.profile() != null && !c.profile().equals(p.socketName())) {
+      profile = p.withSocketOf(c.profile());
+      Log.i(TAG, "receiver lat class " + c.profile() + ": " + profile);
+    }
+    rc.setRange(0, RateController.LADDER.length - 1);
+    rc.setAllowed(mask);
+    if (!framed || !adaptive) {
+      int r = rc.firstAllowed();
+      rc.setRange(r, r);
+    }
+    Log.i(TAG, "rungs 0x" + Integer.toHexString(mask) + " start " + rc.current());
+  }
+
+  // Low duty cycle mDNS browse while streaming, only to know where the failover group's
+  // receivers are. kickBrowse() cuts the idle phase short.
+  private void startBrowse() {
+    if (failover.isEmpty() || browseTh != null) return;
+    final FailoverGroup g = failover;
+    Thread t = new Thread(new Runnable() {
+      @Override public void run() {
+        MdnsDiscoverer d = new MdnsDiscoverer(StreamService.this, Config.MDNS_SRV_NAME,
+            new MdnsDiscoverer.Callback() {
+              @Override public void onService(String name, InetAddress h, int p, String[] txt,
+                                              String iface, int latencyMs) {
+                g.onSeen(name, h.getHostAddress(), p, txt, SystemClock.elapsedRealtime());
+              }
+            });
+        Log.i(TAG, g + ", browsing " + BROWSE_ON_MS + "/" + BROWSE_EVERY_MS + "ms");
+        while (browseTh == Thread.currentThread()) {
+          d.start();
+          long until = SystemClock.elapsedRealtime() + BROWSE_ON_MS;
+          while (browseTh == Thread.currentThread()) {
+            long left = until - SystemClock.elapsedRealtime();
+            if (left <= 0) break;
+            try { Thread.sleep(left); } catch (InterruptedException ie) { /* stop, or kick: already on */ }
+          }
+          d.stop();
+          if (browseTh != Thread.currentThread()) break;
+          try {
+            Thread.sleep(BROWSE_EVERY_MS - BROWSE_ON_MS);
+          } catch (InterruptedException ie) {
+            Log.i(TAG, "browse now");
+          }
+        }
+        d.close();
+      }
+    }, "pwnet-browse");
+    t.setDaemon(true);
+    browseTh = t;
+    t.start();
+  }
+
+  private void kickBrowse() {
+    Thread t = browseTh;
+    if (t != null) t.interrupt();
+  }
+
+  private void stopBrowse() {
+    Thread t = browseTh;
+    browseTh = null;
+    if (t != null) t.interrupt();
+  }
+
+  // make-before-break: connect to the new receiver off the audio thread, the stream loop
+  // swaps it in between two chunks and only then closes the old socket
+  private void retarget(final String h, final int p) {
+    final int seq = ++retargetSeq;
+    Log.i(TAG, "retarget -> " + h + ":" + p + " (#" + seq + ")");
+    Thread t = new Thread(new Runnable() {
+      @Override public void run() {
+        long t0 = SystemClock.elapsedRealtime();
+        ReceiverCaps c = capsFor(getSharedPreferences(PREFS, MODE_PRIVATE), h, p);
+        LatencyProfile lp = profile;
+        if (profileAuto && lp != null && c.profile() != null) lp = lp.withSocketOf(c.profile());
+        Socket s;
+        try {
+          s = openSocket(h, p, lp);
+        } catch (Exception e) {
+          Log.w(TAG, "retarget #" + seq + " connect error: " + e.getMessage());
+          if (seq == retargetSeq) retargetFailed(h, p);
+          return;
+        }
+        if (seq != retargetSeq || !running || stopping) {
+          // superseded by a newer retarget or the stream went away meanwhile
+          closeQuietly(s);
+          return;
+        }
+        Log.i(TAG, "retarget #" + seq + " connected in "
+                       + (SystemClock.elapsedRealtime() - t0) + "ms");
+        PendingLink old = pending.getAndSet(new PendingLink(s, h, p, c));
+        if (old != null) closeQuietly(old.sock);
+      }
+    }, "pwnet-retarget");
+    t.start();
   }
 
+  // stream thread, the pending link swapped in: now it is the receiver to come back to
+  private void retargetDone(PendingLink nl) {
+    getSharedPreferences(PREFS, MODE_PRIVATE).edit()
+        .putString(KEY_HOST, nl.host).putInt(KEY_PORT, nl.port).apply();
+    sendBroadcast(new Intent(ACT_RETARGET_DONE).putExtra("ok", true)
+                      .putExtra("host", nl.host).putExtra("port", nl.port));
+  }
+
+  // the stream stays on the old receiver, and so do prefs
+  private void retargetFailed(String h, int p) {
+    sendBroadcast(new Intent(ACT_RETARGET_DONE).putExtra("ok", false)
+                      .putExtra("host", h).putExtra("port", p));
+  }
+
+  // NetworkCallback thread. A new Wi-Fi network or a new address (AP roam with DHCP) leaves
+  // the current socket talking over a dead path; it would only fail after the write
+  // deadline. Close it now so the stream loop reconnects, bound to the new network.
+  // "available" (Wi-Fi after none, including the first report of a session) tears nothing
+  // down: nothing could connect without Wi-Fi, and a link made since is already on it.
+  private final WifiNetwork.Listener wifiListener = new WifiNetwork.Listener() {
+    @Override public void onWifiChanged(Network now, String why) {
+      boolean fresh = "available".equals(why);
+      Log.i(TAG, "network " + why + (now != null ? " " + now : "")
+                     + (fresh ? ", connecting" : ", relinking"));
+      netKick = true;
+      NativeSender nx = nlink;
+      WifiNetwork w = wifi;
+      if (nx != null && w != null) nx.relink(w.handle());
+      StreamServer sv = slink;
+      if (sv != null) advertise(sv); // listening on any address, only the record moves
+      if (fresh) {
+        sendBroadcast(new Intent(ACT_NET_CHANGED).putExtra("why", why));
+        return;
+      }
+      closeQuietly(link);
+      MulticastSender m = mlink;
+      if (m != null) m.close(); // the group is joined per interface: reopen on the new one
+      PendingLink nl = pending.getAndSet(null);
+      if (nl != null) {
+        closeQuietly(nl.sock);
+        retargetFailed(nl.host, nl.port);
+      }
+      // the receiver may have a new address too: UI re-runs discovery
+      sendBroadcast(new Intent(ACT_NET_CHANGED).putExtra("why", why));
+    }
+  };
+
   @Override
   public IBinder onBind(Intent i) {
     Log.i(TAG, "onBind");
@@ -412,11 +815,15 @@ private void logAudioRecordConfig(AudioRecord rec) {
 
     final int SR = 48000, CHN = 2, BYTES = 2;
 
-    AudioRecord rec = null;
-    MediaProjection mp = null;
+    Tracer.enable(trace);
+    CaptureSource src = null;
+    PowerPolicy power = new PowerPolicy(this, powerLock);
+    wifi = new WifiNetwork(this, wifiListener);
+    wifi.start();
+    startBrowse();
+    int fails = 0; // consecutive failed links to the current receiver
     int attempts = 0;
     boolean muted_state = !muted;
-    int soft_volume = 0;
     boolean anyMusic = false;
     if (am == null) am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
     int mixSR = 0;
@@ -429,127 +836,306 @@ private void logAudioRecordConfig(AudioRecord rec) {
     Log.i(TAG, "mixSR " + mixSR);
 
     try {
-      MediaProjectionManager mpm =
-          (MediaProjectionManager)getSystemService(Context.MEDIA_PROJECTION_SERVICE);
-      mp = mpm.getMediaProjection(resultCode, data);
-
-      AudioPlaybackCaptureConfiguration.Builder b =
-          new AudioPlaybackCaptureConfiguration.Builder(mp)
-              .addMatchingUsage(AudioAttributes.USAGE_MEDIA);
-
-      if (appUid > 0) {
-        Log.i(TAG, "Capture filter by appUID " + appUid + " " + appPkg);
-        b.addMatchingUid(appUid);
-      } else {
-        Log.i(TAG, "Whide system capture mode");
-      }
-
-      AudioPlaybackCaptureConfiguration cfg = b.build();
-
-      AudioFormat fmt = new AudioFormat.Builder()
-                            .setSampleRate(SR)
-                            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-                            .setChannelMask(AudioFormat.CHANNEL_IN_STEREO)
-                            .build();
+      int mixFPB = 0;
+      try {
+        String prop = am.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+        if (prop != null) mixFPB = Integer.parseInt(prop);
+      } catch (Exception ignored) {}
 
       int frameBytes = CHN * BYTES;
-      int chunkFrames = SR / 50 ; // 10 ms
-      int bufBytes = chunkFrames * frameBytes;
       int minBuf = AudioRecord.getMinBufferSize(SR, AudioFormat.CHANNEL_IN_STEREO,
                                                 AudioFormat.ENCODING_PCM_16BIT);
-      int recBuf = Math.max(bufBytes * 8, Math.max(minBuf, 4096));
+      LatencyProfile prof = LatencyProfile.derive(profileName, SR, mixFPB, frameBytes, minBuf);
+      profile = prof;
+      int chunkFrames = prof.chunkFrames;
+      int bufBytes = chunkFrames * frameBytes;
+      int recBuf = prof.recBufBytes;
       String fmt_audio = "s16";
       Log.i(TAG, "AudioRecord cfg sr=" + SR
               + " fmt=" + fmt_audio
               + " ch=" + CHN
               + " minBuf=" + minBuf
+              + " fpb=" + mixFPB
               + " frames=" + chunkFrames
               + " recBuf=" + recBuf
-              + " chunk=" + bufBytes + "B");
-
-      rec = new AudioRecord.Builder()
-                .setAudioPlaybackCaptureConfig(cfg)
-                .setAudioFormat(fmt)
-                .setBufferSizeInBytes(recBuf)
-                .build();
-      rec.startRecording();
+              + " chunk=" + bufBytes + "B"
+              + " profile=" + prof);
 
-      logAudioRecordConfig(rec);
-
-      byte[] buf = new byte[bufBytes];
+      // the recorder ring is zero-filled on open: before capture runs, not behind it
+      if (flightOn) flight = openFlight();
+      if (replay != null) {
+        src = openReplay(SR, CHN);
+      } else {
+        src = openCapture(SR, recBuf);
+      }
+      if (teeMin > 0) openTee(SR, CHN);
+      final FlightRecorder frec = flight;
+
+      final long chunkNs = chunkFrames * 1000000000L / SR;
+      RateController rc = new RateController(SystemClock.elapsedRealtime());
+      rc.setCaptureBuffer(recBuf / frameBytes);
+      int ovSeen = 0; // rc.overruns() already in the flight recorder
+      applyCaps(rc, caps);
+      if (serve) {
+        // clients of all kinds share one capture: native s16, no per-client format
+        rc.setAllowed(1);
+        rc.setRange(0, 0);
+        Log.i(TAG, "wire serve :" + port + " " + rc.current());
+      } else if (mcast) {
+        // no back channel, no backpressure: one format, always framed datagrams
+        int r0 = rc.firstAllowed();
+        rc.setRange(r0, r0);
+        Log.i(TAG, "wire multicast " + host + ":" + port + " ttl=" + mcastTtl + " " + rc.current());
+      } else {
+        Log.i(TAG, "wire " + (framed ? "framed" : "raw") + " adaptive=" + (framed && adaptive ? 1 : 0));
+      }
+      // gain/mute need a frame to travel in: raw and served streams keep the phone-side DSP
+      boolean pass = passthru && (framed || mcast) && !serve;
+      if (passthru && !pass) Log.i(TAG, "passthrough needs framed or multicast, gain stays local");
+      final long batchNs = chunkNs * prof.batchChunks;
+      Pacer pacer = paced ? new Pacer(batchNs, Math.max(batchNs, 10000000L)) : null;
+      // capture -> wire stages, shared with tests/ReplayBench
+      SendPipeline sp = new SendPipeline(SR, CHN, chunkFrames, prof.batchChunks, rc, pacer);
+      final int HDR = SendPipeline.HDR;
+      final byte[] buf = sp.buf();
+      sp.setPlayout(sync ? syncDelayMs * 1000000L : -1);
+      Log.i(TAG, "paced=" + (paced ? 1 : 0));
+      boolean useNative = nativeTx && !serve && !mcast;
+      if (useNative && !NativeSender.available()) {
+        Log.w(TAG, "native tx: libpwtx not loaded, using the Java sender");
+        useNative = false;
+      }
+      // probe: needs the back channel (echo) and a clock for its times, sync or not
+      LatencyProbe lp = null;
+      if (probe && framed && !serve && !mcast && !useNative) {
+        lp = new LatencyProbe(SR, CHN, (int) (syncDelayMs + 1000));
+        Log.i(TAG, "probe on: chirp every " + lp.periodMs() + "ms, the capture is not sent");
+        sp.setProbe(lp);
+      } else if (probe) {
+        Log.i(TAG, "probe needs framed unicast on the java path, off");
+      }
+      boolean wantSync = framed && (sync || lp != null);
+      if (useNative) streamNative(src, prof, SR, CHN, power);
       long t0 = SystemClock.elapsedRealtime();
-      long bytesOut = 0;
+      long cpu0 = 0; // per-interval profile figures come from sp, thread CPU from here
+      int downAt = 0; // attempt the link went down at: cookie of the open pw.down slice
       sendState("CONNECTING", 0, 0, attempts);
       notifyStatus("CONNECTING");
 
     outer:
-      while (running && !stopping) {
+      while (!useNative && running && !stopping) {
         attempts++;
-        sendState("CONNECTING", bytesOut, 0, attempts);
+        sendState("CONNECTING", sp.bytes(), 0, attempts);
         notifyStatus("CONNECTING");
         if (!running || stopping) break;
 
-        try (Socket s = new Socket()) {
-          // resolve + connect with short timeout to be responsive to STOP
-          InetAddress addr = InetAddress.getByName(host);
-          s.connect(new InetSocketAddress(addr, port), 1500);
-          s.setTcpNoDelay(true);
-          s.setKeepAlive(true);
-          OutputStream out = s.getOutputStream();
-          Log.i(TAG, "connect ok peer=" + addr.getHostAddress() + ":" + port);
+        Socket s = null;
+        ControlChannel cc = null;
+        MulticastSender mc = null;
+        StreamServer srv = null;
+        netKick = false;
+        try {
+          PendingLink nl = (mcast || serve) ? null : pending.getAndSet(null);
+          if (serve) {
+            srv = new StreamServer(port, SR, CHN, SR * frameBytes * SERVE_QUEUE_MS / 1000);
+            srv.start();
+            slink = srv;
+            advertise(srv);
+          } else if (mcast) {
+            wifi.require();
+            mc = new MulticastSender(host, port, mcastTtl, wifi.ifaceName());
+            mlink = mc;
+          } else if (nl != null) {
+            // a retarget finished while we were reconnecting, take it as is
+            s = nl.sock;
+            host = nl.host;
+            port = nl.port;
+            caps = nl.caps;
+            applyCaps(rc, caps);
+            retargetDone(nl);
+          } else {
+            Tracer.begin("pw.connect");
+            try {
+              s = openSocket(host, port, profile);
+            } finally {
+              Tracer.end();
+            }
+          }
+          link = s;
+          fails = 0;
+          // failover and retarget may have moved us to a receiver with another transport
+          pass = passthru && (framed || mcast) && !serve;
+          wantSync = framed && (sync || lp != null);
+          OutputStream out = null;
+          ClockSync cs = null;
+          if (srv != null) {
+            Log.i(TAG, "serve listening on :" + port);
+          } else if (mc != null) {
+            Log.i(TAG, "multicast open " + mc.group() + " if=" + wifi.ifaceName());
+          } else {
+            out = s.getOutputStream();
+            Log.i(TAG, "connect ok peer=" + s.getInetAddress().getHostAddress() + ":" + port
+                           + " net=" + wifi.current());
+            cc = new ControlChannel(s, framed, deadlineMs);
+            cs = wantSync ? new ClockSync() : null;
+            cc.setSync(cs);
+            cc.setProbe(lp);
+            cc.start();
+          }
+          syncErrUs = -1;
+          rttUs = -1;
+          fillMs = -1;
+          power.update(true, !muted, SystemClock.elapsedRealtime());
 
           sendState("CONNECTED", 0, 0, attempts);
           notifyStatus("CONNECTED");
+          if (downAt != 0) {
+            Tracer.endAsync("pw.down", downAt);
+            downAt = 0;
+            if (frec != null) frec.onReconnect();
+          }
+
+          sp.link(out, cc, cs, framed, pass); // seq 0, FORMAT (and GAIN) again
+          sp.start(SystemClock.elapsedRealtime());
 
           t0 = SystemClock.elapsedRealtime();
-          bytesOut = 0;
+          cpu0 = SystemClock.currentThreadTimeMillis();
           while (running && !stopping) {
-            int n = rec.read(buf, 0, buf.length);
-            if (n <= 0) break;
+            Tracer.begin("pw.read");
+            int n = sp.read(src);
+            Tracer.end();
+            if (n <= 0) {
+              if (n == 0 && replay != null) endReplay();
+              break;
+            }
 
-            if (muted) {
+            if (pass) {
+              // passthrough: not a single sample touched, the receiver scales (GAIN frames)
+              if (muted_state != muted) {
+                muted_state = muted;
+                Log.i(TAG, "muted " + (muted ? "1" : "0") + " (receiver side)");
+              }
+            } else if (muted) {
               if (muted_state != muted) {
               muted_state = muted;
               Log.i(TAG, "muted " + (muted ? "1" : "0") );
               }
-              //for (int i = 0; i < n; i++) buf[i] = 0; // zero data silent
-              n = 0; // no send data silent gap
-              soft_volume = 0;
-            } else if (gain != 1.0f ) { // Soft Volume - in-place S16 gain 0..1
-              for (int i = 0; i < n; i += 2) {
-                int lo = buf[i] & 0xFF, hi = buf[i + 1];
-                int s16 = (hi << 8) | lo;
-                int v = (int)Math.round(s16 * gain);
-                if (v > 32767)
-                  v = 32767;
-                else if (v < -32768)
-                  v = -32768;
-                buf[i] = (byte)(v & 0xFF);
-                buf[i + 1] = (byte)((v >>> 8) & 0xFF);
-              }
-              soft_volume = 1;
-            } else {
-              soft_volume = 0;
+            }
+            Tracer.begin("pw.gain");
+            n = sp.level(n, gain, muted);
+            Tracer.end();
+
+            // tee: the processed capture format, before any format ladder step;
+            // bulk profile: coalesce several chunks into one syscall
+            if (!sp.add(n, tee)) continue;
+
+            // hold the batch until it is due on the media clock schedule
+            sp.pace();
+
+            // cut over to a retargeted receiver on the chunk boundary
+            nl = (mc == null && srv == null) ? pending.getAndSet(null) : null;
+            if (nl != null) {
+              Socket old = s;
+              s = nl.sock;
+              link = s;
+              out = s.getOutputStream();
+              host = nl.host;
+              port = nl.port;
+              caps = nl.caps;
+              applyCaps(rc, caps);
+              pass = passthru && framed;
+              wantSync = framed && (sync || lp != null);
+              cc.close();
+              closeQuietly(old);
+              cc = new ControlChannel(s, framed, deadlineMs);
+              cs = wantSync ? new ClockSync() : null; // new receiver, new clock
+              cc.setSync(cs);
+              cc.setProbe(lp);
+              cc.start();
+              sp.link(out, cc, cs, framed, pass); // the batch so far goes to the new receiver
+              Log.i(TAG, "retarget cut-over peer=" + s.getInetAddress().getHostAddress()
+                             + ":" + port);
+              retargetDone(nl);
+              updateNotif("CONNECTED");
             }
 
-            out.write(buf, 0, n);
-            bytesOut += n;
+            // output format for this batch; a switch is announced right before its audio
+            Tracer.begin("pw.convert");
+            int r = sp.prepare();
+            Tracer.end();
+            int len = sp.len();
+            long pts = sp.pts();
+
+            long w0 = System.nanoTime();
+            Tracer.begin("pw.write");
+            try {
+              if (srv != null) {
+                srv.publish(buf, HDR, len, pts);
+              } else if (mc != null) {
+                mc.format(r, pts);
+                if (pass) mc.gain(gainQ16(), muted, pts);
+                if (len > 0) mc.send(buf, HDR, len, pts, w0);
+              } else if (sp.write(gainQ16(), muted)) {
+                Log.i(TAG, "abr switch -> " + RateController.LADDER[r] + " (" + rc + ")");
+              }
+            } finally {
+              Tracer.end();
+            }
+            long w1 = System.nanoTime();
+            sp.written(w0, w1, SystemClock.elapsedRealtime());
+            Tracer.counter("pw.backlog_ms", rc.backlogMs());
+            if (frec != null) {
+              frec.onWrite(len, sp.lastHoldNs());
+              frec.onOverruns(rc.overruns() - ovSeen);
+              ovSeen = rc.overruns();
+              flightTick(frec, true, false, r);
+            }
 
             long dt = SystemClock.elapsedRealtime() - t0;
             if (dt >= 2000) {
+              long bytesOut = sp.bytes();
               int kbps = (int)((bytesOut * 8L) / dt);
+              Tracer.counter("pw.kbps", kbps);
               anyMusic = am.isMusicActive();
+              long cpu1 = SystemClock.currentThreadTimeMillis();
 
               Log.i(TAG, "tx ~" + kbps + " kb/s (" + bytesOut + "B/" + dt +
                              "ms) gain=" + gain
                              + " muted=" + (muted ? 1 : 0 )
                              + " music=" + (anyMusic ? 1 : 0)
-                             + " uid=" + appUid
-                             //+ " soft=" + soft_volume
-                             );
+                             + " uid=" + appUid);
+              // profile benchmark line: what this profile costs and adds
+              Log.i(TAG, String.format(Locale.US,
+                  "prof %s chunk=%.1fms x%d wr=%d/%dus hold=%.1fms cpu=%.1f%% writes=%d lock=%d",
+                  prof.name, prof.chunkMs(SR), prof.batchChunks, sp.writeAvgUs(), sp.writeMaxUs(),
+                  sp.holdAvgMs(), (cpu1 - cpu0) * 100.0 / dt, sp.writes(), (power.held() ? 1 : 0)));
+              if (framed) Log.i(TAG, rc.toString());
+              if (mc != null) Log.i(TAG, mc.takeStats());
+              if (srv != null) Log.i(TAG, srv.takeStats());
+              rttUs = (cc != null) ? cc.rttUs() : -1;
+              fillMs = (cc != null) ? cc.fillMs() : -1;
+              if (cc != null && framed) {
+                Log.i(TAG, "ctl rtt=" + (rttUs >= 0 ? (rttUs / 1000f) + "ms" : "n/a")
+                               + " fill=" + (fillMs >= 0 ? fillMs + "ms" : "n/a")
+                               + " deadline=" + deadlineMs + "ms");
+              }
+              if (cs != null) {
+                Log.i(TAG, cs + " peer=" + host + ":" + port + " delay=" + syncDelayMs + "ms");
+                syncErrUs = cs.errUs();
+              }
+              if (lp != null) Log.i(TAG, lp.takeStats());
+              if (pacer != null) Log.i(TAG, pacer.takeStats());
+              jitterUs = (cc != null) ? cc.jitterUs() : -1;
+              writeJitUs = sp.writeJitterUs();
+              // what the lock buys shows at the receiver; no report (older receiver,
+              // multicast, serve), no sample
+              if (jitterUs >= 0) power.onJitter(jitterUs, dt);
+              power.update(true, !muted && anyMusic, SystemClock.elapsedRealtime());
+              if (frec != null) frec.setLink(jitterUs, (int) rttUs, fillMs, syncErrUs);
               sendState("CONNECTED", bytesOut, kbps, attempts);
               t0 = SystemClock.elapsedRealtime();
-              bytesOut = 0;
+              cpu0 = cpu1;
+              sp.resetStats();
             }
 
             if (!running || stopping) break;
@@ -558,22 +1144,83 @@ private void logAudioRecordConfig(AudioRecord rec) {
           Log.i(TAG, "socket closed");
         } catch (Exception e) {
           if (!running || stopping) break;
+          if (cc != null && cc.deadReason() != null) {
+            Log.w(TAG, "link dead: " + cc.deadReason() + ", reconnecting");
+          }
           Log.w(TAG, "connect error: " + e.getMessage());
+          power.update(false, false, SystemClock.elapsedRealtime());
+          if (downAt == 0) {
+            downAt = attempts;
+            Tracer.beginAsync("pw.down", downAt);
+          }
+
+          // heartbeat lost or reconnect budget spent: next healthy receiver of the group.
+          // Capture keeps running, only the link moves.
+          String dead = (cc != null) ? cc.deadReason() : null;
+          boolean hbLost = dead != null && dead.startsWith("heartbeat");
+          // no Wi-Fi says nothing about the receiver: wait for it, don't fail over
+          boolean noWifi = wifi != null && wifi.missing();
+          if (!mcast && !serve && !noWifi && (++fails >= FAILOVER_BUDGET || hbLost)) {
+            long now = SystemClock.elapsedRealtime();
+            FailoverGroup.Target ft = null;
+            if (!failover.isEmpty()) {
+              failover.onFailed(host, port, now);
+              ft = failover.next(host, port, now);
+              if (ft == null && failover.stale(now)) kickBrowse();
+            }
+            if (ft != null) {
+              Log.w(TAG, "failover " + host + ":" + port + " -> " + ft.name + " " + ft.addr()
+                             + (hbLost ? " (heartbeat)" : " (" + fails + " fails)"));
+              host = ft.host;
+              port = ft.port;
+              caps = (ft.txt.length > 0) ? ReceiverCaps.parse(ft.txt)
+                   : capsFor(getSharedPreferences(PREFS, MODE_PRIVATE), host, port);
+              applyCaps(rc, caps);
+              fails = 0;
+              continue;
+            }
+          }
+          Tracer.begin("pw.backoff");
           try {
-            Thread.sleep(500);
-          } catch (InterruptedException ie) { break; }
+            // back off, unless the network just changed under us: then go again at once
+            for (int i = 0; i < 10 && !netKick; i++) Thread.sleep(50);
+          } catch (InterruptedException ie) {
+            break;
+          } finally {
+            Tracer.end();
+          }
+          if (frec != null) {
+            frec.setLink(-1, -1, -1, -1);
+            flightTick(frec, false, false, rc.rung());
+          }
           continue;
+        } finally {
+          link = null;
+          mlink = null;
+          slink = null;
+          if (cc != null) cc.close();
+          if (mc != null) mc.close();
+          if (srv != null) srv.close();
+          closeQuietly(s);
         }
       }
 
+      if (downAt != 0) Tracer.endAsync("pw.down", downAt);
       Log.i(TAG, "stream loop exit; running=" + running + " stopping=" + stopping);
+      if (lp != null) Log.i(TAG, lp.summary());
 
     } catch (Throwable t) { Log.e(TAG, "fatal", t); } finally {
+      PendingLink nl = pending.getAndSet(null);
+      if (nl != null) closeQuietly(nl.sock);
+      wifi.stop();
+      stopBrowse();
+      releaseAdvLock();
+      closeTee();
+      closeFlight();
+      Log.i(TAG, "session " + power.summary());
+      power.release();
       try {
-        if (rec != null) {
-          rec.stop();
-          rec.release();
-        }
+        if (src != null) src.close();
       } catch (Throwable ignore) {}
       try {
         if (data != null) {
@@ -584,6 +1231,7 @@ private void logAudioRecordConfig(AudioRecord rec) {
         }
       } catch (Throwable ignore) {}
       sendState("DISCONNECTED", 0, 0, 0);
+      Tracer.enable(false);
       //notifyStatus("DISCONNECTED");
       stopForeground(true);
       cancelStatusNotification();
@@ -593,6 +1241,276 @@ private void logAudioRecordConfig(AudioRecord rec) {
     }
   }
 
+  // the live source: playback capture through the MediaProjection the user consented to
+  private CaptureSource openCapture(int sr, int recBuf) {
+    MediaProjectionManager mpm =
+        (MediaProjectionManager)getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+    MediaProjection mp = mpm.getMediaProjection(resultCode, data);
+
+    AudioPlaybackCaptureConfiguration.Builder b =
+        new AudioPlaybackCaptureConfiguration.Builder(mp)
+            .addMatchingUsage(AudioAttributes.USAGE_MEDIA);
+
+    if (appUid > 0) {
+      Log.i(TAG, "Capture filter by appUID " + appUid + " " + appPkg);
+      b.addMatchingUid(appUid);
+    } else {
+      Log.i(TAG, "Whide system capture mode");
+    }
+
+    AudioPlaybackCaptureConfiguration cfg = b.build();
+
+    AudioFormat fmt = new AudioFormat.Builder()
+                          .setSampleRate(sr)
+                          .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                          .setChannelMask(AudioFormat.CHANNEL_IN_STEREO)
+                          .build();
+
+    AudioRecord rec = new AudioRecord.Builder()
+              .setAudioPlaybackCaptureConfig(cfg)
+              .setAudioFormat(fmt)
+              .setBufferSizeInBytes(recBuf)
+              .build();
+    CaptureSource src = new AudioRecordSource(rec);
+    try {
+      rec.startRecording();
+    } catch (RuntimeException e) {
+      src.close();
+      throw e;
+    }
+
+    logAudioRecordConfig(rec);
+    return src;
+  }
+
+  // replay: the file must be in the capture format, the rest of the session is unchanged
+  private CaptureSource openReplay(int sr, int chn) throws IOException {
+    FileSource fs = new FileSource(new File(replay), sr, chn, true, replayLoop);
+    if (fs.rate() != sr || fs.channels() != chn) {
+      fs.close();
+      throw new IOException("replay " + replay + ": " + fs.rate() + "Hz/" + fs.channels()
+                            + "ch, capture format is " + sr + "Hz/" + chn + "ch s16");
+    }
+    Log.i(TAG, "replay " + replay + " " + String.format(Locale.US, "%.1fs", fs.seconds())
+                   + (replayLoop ? " loop" : " once"));
+    return fs;
+  }
+
+  // a replay played through once ends the session, as a stop would
+  private void endReplay() {
+    Log.i(TAG, "replay: end of file");
+    running = false;
+  }
+
+  private File teeDir() {
+    File d = getExternalFilesDir(null);
+    return (d != null) ? d : getFilesDir();
+  }
+
+  // one ring file, reused across sessions (allocated once); a failure only loses the tee.
+  // A new or resized ring is zero-filled, up to ~170 MB: that runs on its own thread, the
+  // session streams meanwhile and the tee starts with the first chunk after it is ready.
+  private void openTee(final int sr, final int chn) {
+    final int seq;
+    synchronized (this) {
+      seq = teeSeq;
+    }
+    final int secs = teeMin * 60;
+    new Thread(new Runnable() {
+      @Override public void run() {
+        long t0 = SystemClock.elapsedRealtime();
+        WavTee t;
+        try {
+          synchronized (teeFile) {
+            t = new WavTee(new File(teeDir(), "tee-ring.wav"), sr, chn, secs);
+          }
+        } catch (IOException e) {
+          Log.w(TAG, "tee off: " + e.getMessage());
+          return;
+        }
+        if (!attachTee(t, seq)) {
+          t.close(); // the session ended while the ring was allocated
+          return;
+        }
+        Log.i(TAG, "tee " + t.file() + " ring=" + t.ringSeconds() + "s ready in "
+                       + (SystemClock.elapsedRealtime() - t0) + "ms");
+      }
+    }, "pwnet-tee").start();
+  }
+
+  private synchronized boolean attachTee(WavTee t, int seq) {
+    if (seq != teeSeq) return false;
+    tee = t;
+    return true;
+  }
+
+  private void closeTee() {
+    WavTee t;
+    synchronized (this) {
+      teeSeq++;
+      t = tee;
+      tee = null;
+    }
+    if (t != null) t.close();
+  }
+
+  // "save last N minutes" (0 = all the ring holds): a chronological WAV next to the ring,
+  // written off the audio thread while the tee keeps recording
+  private void saveTee(final int minutes) {
+    final WavTee t = tee;
+    if (t == null) {
+      Log.i(TAG, "tee save: no tee running (set a tee length and start)");
+      return;
+    }
+    new Thread(new Runnable() {
+      @Override public void run() {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File out = new File(teeDir(), "pwnet-" + stamp + ".wav");
+        int secs = (minutes > 0) ? minutes * 60 : t.ringSeconds();
+        try {
+          // the tee may close meanwhile (save works on its mapping), the next session's
+          // open may not truncate the file under it
+          synchronized (teeFile) {
+            int got = t.save(out, secs);
+            Log.i(TAG, "tee saved " + out + " (" + got + "s)");
+          }
+        } catch (IOException e) {
+          Log.w(TAG, "tee save failed: " + e.getMessage());
+        }
+      }
+    }, "pwnet-tee").start();
+  }
+
+  // a new ring file per session under flight/, older sessions beyond FLIGHT_KEEP removed;
+  // a failure only loses the recorder
+  private FlightRecorder openFlight() {
+    File dir = new File(teeDir(), "flight");
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      Log.w(TAG, "flight off: no " + dir);
+      return null;
+    }
+    File[] old = dir.listFiles(new java.io.FilenameFilter() {
+      @Override public boolean accept(File d, String name) { return name.endsWith(".pwfr"); }
+    });
+    if (old != null) {
+      java.util.Arrays.sort(old); // names sort by start time
+      for (int i = 0; i <= old.length - FLIGHT_KEEP; i++) {
+        String base = old[i].getPath().substring(0, old[i].getPath().length() - 5);
+        old[i].delete();
+        new File(base + ".csv").delete();
+        new File(base + ".json").delete();
+      }
+    }
+    long now = System.currentTimeMillis();
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(now));
+    String tag = serve ? "serve:" + port : host + ":" + port;
+    try {
+      FlightRecorder f = new FlightRecorder(new File(dir, "flight-" + stamp + ".pwfr"),
+                                            FLIGHT_HOURS * 3600, tag, now);
+      Log.i(TAG, "flight " + f.file() + " ring=" + f.capacity() + "s");
+      return f;
+    } catch (IOException e) {
+      Log.w(TAG, "flight off: " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void closeFlight() {
+    FlightRecorder f = flight;
+    flight = null;
+    if (f != null) f.close();
+  }
+
+  // closes the flight recorder's second once it is up, with the state as it is now
+  private void flightTick(FlightRecorder frec, boolean up, boolean nat, int rung) {
+    long now = System.currentTimeMillis();
+    if (!frec.due(now)) return;
+    int f = (muted ? FlightRecorder.F_MUTED : 0) | (up ? FlightRecorder.F_UP : 0)
+          | (nat ? FlightRecorder.F_NATIVE : 0) | (mcast ? FlightRecorder.F_MCAST : 0)
+          | (serve ? FlightRecorder.F_SERVE : 0);
+    frec.commit(now, f, gain, appUid, rung);
+  }
+
+  // Native tx session: AudioRecord reads straight into the NativeSender pool, the libpwtx
+  // thread paces (media clock pts), batches (profile batchChunks) and writes. It owns the
+  // link and reconnects by itself, so there is one sender for the whole session; no
+  // control channel, format ladder or failover on this path. Gain is applied natively,
+  // mute leaves a gap as on the Java path.
+  private void streamNative(CaptureSource src, LatencyProfile prof, int sr, int chn,
+                            PowerPolicy power) {
+    final int frameBytes = chn * 2;
+    final int bufBytes = prof.chunkFrames * frameBytes;
+    final long chunkNs = prof.chunkFrames * 1000000000L / sr;
+    if (sync) Log.i(TAG, "native tx: no control channel, sync off");
+    if (passthru) Log.i(TAG, "native tx: gain applied natively, passthrough off");
+    NativeSender ns = new NativeSender(host, port, framed, sr, chn, bufBytes, chunkNs,
+                                       prof.batchChunks, paced, 0, NATIVE_LOWAT,
+                                       (wifi != null) ? wifi.handle() : 0);
+    nlink = ns;
+    Log.i(TAG, "wire native " + (framed ? "framed" : "raw") + " " + ns.peer()
+                   + " x" + prof.batchChunks + " pool=" + NativeSender.POOL);
+    // capture -> pool slot stage, shared with tests/ReplayBench; the rate controller only
+    // tracks capture lag here, for the flight recorder's overruns
+    RateController cap = new RateController(SystemClock.elapsedRealtime());
+    cap.setCaptureBuffer(prof.recBufBytes / frameBytes);
+    int ovSeen = 0;
+    SendPipeline sp = new SendPipeline(sr, chn, prof.chunkFrames, prof.batchChunks, cap, null);
+    long bytesOut = 0;
+    long t0 = SystemClock.elapsedRealtime();
+    final FlightRecorder frec = flight;
+    String state = "CONNECTING";
+    sendState(state, 0, 0, 1);
+    notifyStatus(state);
+    try {
+      while (running && !stopping) {
+        Tracer.begin("pw.read");
+        int n = sp.feed(src, ns, muted, gainQ16(), tee); // muted: no send data silent gap
+        Tracer.end();
+        if (n <= 0) {
+          if (n == 0 && replay != null) endReplay();
+          break;
+        }
+        if (frec != null && sp.fed() == SendPipeline.SPILLED) frec.onDrops(1);
+        if (frec != null && sp.fed() == SendPipeline.SENT) frec.onWrite(n, -1);
+        if (frec != null) {
+          frec.onOverruns(cap.overruns() - ovSeen);
+          ovSeen = cap.overruns();
+        }
+
+        long dt = SystemClock.elapsedRealtime() - t0;
+        if (dt >= 2000) {
+          long spilled = sp.spilled();
+          Log.i(TAG, ns.takeStats() + (spilled > 0 ? " spill=" + spilled : ""));
+          bytesOut = ns.lastBytes();
+          int kbps = (int) (bytesOut * 8L / dt);
+          Tracer.counter("pw.kbps", kbps);
+          boolean up = ns.connected();
+          boolean anyMusic = am.isMusicActive();
+          power.update(up, up && !muted && anyMusic, SystemClock.elapsedRealtime());
+          String now = up ? "CONNECTED" : "CONNECTING";
+          if (!now.equals(state)) {
+            state = now;
+            notifyStatus(state);
+          }
+          sendState(state, bytesOut, kbps, 1);
+          t0 = SystemClock.elapsedRealtime();
+          sp.resetStats();
+          if (frec != null) {
+            // the sender thread's figures come per stats interval: into the second closing next
+            frec.onDrops(ns.lastDrops());
+            for (long k = ns.lastReconnects(); k > 0; k--) frec.onReconnect();
+            frec.onWrite(0, ns.lastHoldNs());
+          }
+        }
+        if (frec != null) flightTick(frec, ns.connected(), true, 0);
+      }
+    } finally {
+      nlink = null;
+      ns.close();
+      Log.i(TAG, "native tx closed");
+    }
+  }
+
   private static float clamp01(float f) {
     if (f < 0f) return 0f;
     if (f > 1f) return 1f;
@@ -0,0 +1,52 @@
+package org.example.mininative;
+
+import android.os.Build;
+import android.os.Trace;
+
+// Perfetto / systrace markers for the stream pipeline, behind the "trace" pref.
+//
+// Sections on the stream thread: pw.read (capture), pw.gain and pw.convert (DSP), pw.write
+// (socket, multicast or serve), pw.connect, pw.backoff, and pw.state around sendState().
+// Async slice pw.down runs from a lost link to the next CONNECTED. Counters: pw.kbps
+// every stats interval, pw.backlog_ms (capture behind wall clock) per write on the Java
+// path. The libpwtx thread adds pwtx.connect, pwtx.send and pwtx.queue (slots waiting)
+// on the native path, see pwtx.c.
+//
+// Off, a hook is one static boolean test: no string building, no JNI. The flag is set at
+// session start, before the stream thread begins a section, so begin/end always pair.
+// Async slices and counters need API 29; below that only the sections are there. The
+// capture must include the app (atrace -a org.example.mininative, or the package in
+// Perfetto's android.apps / atrace_apps).
+public final class Tracer {
+    private static boolean on, full;
+
+    private Tracer() {}
+
+    public static void enable(boolean v) {
+        on = v;
+        full = v && Build.VERSION.SDK_INT >= 29;
+        NativeSender.setTrace(v);
+    }
+
+    public static boolean on() { return on; }
+
+    public static void begin(String name) {
+        if (on) Trace.beginSection(name);
+    }
+
+    public static void end() {
+        if (on) Trace.endSection();
+    }
+
+    public static void beginAsync(String name, int cookie) {
+        if (full) Trace.beginAsyncSection(name, cookie);
+    }
+
+    public static void endAsync(String name, int cookie) {
+        if (full) Trace.endAsyncSection(name, cookie);
+    }
+
+    public static void counter(String name, long v) {
+        if (full) Trace.setCounter(name, v);
+    }
+}
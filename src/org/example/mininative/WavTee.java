@@ -0,0 +1,181 @@
+package org.example.mininative;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Tee recorder: the PCM we send, kept in a fixed-size WAV file used as a ring.
+//
+// The file is allocated once (zero-filled, so no page of the mapping can fault on a full
+// disk later) and mapped; write() is a memcpy into the mapping, no syscall and no heap
+// allocation on the audio thread. The kernel writes dirty pages back in its own time.
+//
+// Layout (little-endian, 68 byte header):
+//   RIFF size WAVE | fmt  16: PCM s16 | pwrg 16: u32 ring write offset, u32 0, u64 bytes
+//   written | data size | ring
+// The "pwrg" chunk is updated with every write, so a ring left behind by a crash still
+// says where its newest byte is. RIFF and data sizes are patched on close(); the file
+// then plays as is, but once wrapped it starts mid-ring. save() writes the last N seconds
+// as a chronological WAV, from any thread, while writing goes on: the copy runs oldest
+// byte first, ahead of the writer. It also works after close(), which leaves the mapping
+// to the collector: a save never waits for the writer or for close(), nor they for it.
+// Truncating the file (another WavTee of a new size) under a save is not safe.
+//
+// No Android dependencies.
+public final class WavTee {
+    private static final int HDR = 68;
+    private static final int OFF_RIFF = 4, OFF_WPOS = 44, OFF_TOTAL = 52, OFF_DATA = 64;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final MappedByteBuffer map;
+    private final int rate, channels, frameBytes;
+    private final int ring;              // ring bytes, whole frames
+    private int wpos;                    // next write offset in the ring (writer thread)
+    private volatile long total;         // bytes ever written
+
+    public WavTee(File file, int rate, int channels, int seconds) throws IOException {
+        this.file = file;
+        this.rate = rate;
+        this.channels = channels;
+        this.frameBytes = channels * 2;
+        this.ring = (int) Math.min(Integer.MAX_VALUE - HDR,
+                                   (long) rate * frameBytes * Math.max(1, seconds));
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            ch = raf.getChannel();
+            preallocate(HDR + (long) ring);
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0, HDR + (long) ring);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            header(map, ring, 0);
+            map.put(36, (byte) 'p').put(37, (byte) 'w').put(38, (byte) 'r').put(39, (byte) 'g');
+            map.putInt(40, 16);
+            map.putInt(OFF_WPOS, 0).putInt(OFF_WPOS + 4, 0).putLong(OFF_TOTAL, 0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // reuses a file of the right size as it is, else writes zeros up to size
+    private void preallocate(long size) throws IOException {
+        if (raf.length() == size) return;
+        raf.setLength(0);
+        ByteBuffer z = ByteBuffer.allocate(1 << 20);
+        for (long at = 0; at < size; ) {
+            z.clear();
+            if (size - at < z.capacity()) z.limit((int) (size - at));
+            at += ch.write(z, at);
+        }
+    }
+
+    // RIFF + fmt + data headers for dataLen bytes; the pwrg chunk sits between fmt and data
+    private void header(ByteBuffer b, int dataLen, int base) {
+        b.put(base, (byte) 'R').put(base + 1, (byte) 'I').put(base + 2, (byte) 'F').put(base + 3, (byte) 'F');
+        b.putInt(base + OFF_RIFF, HDR - 8 + dataLen);
+        b.put(base + 8, (byte) 'W').put(base + 9, (byte) 'A').put(base + 10, (byte) 'V').put(base + 11, (byte) 'E');
+        b.put(base + 12, (byte) 'f').put(base + 13, (byte) 'm').put(base + 14, (byte) 't').put(base + 15, (byte) ' ');
+        b.putInt(base + 16, 16);
+        b.putShort(base + 20, (short) 1);
+        b.putShort(base + 22, (short) channels);
+        b.putInt(base + 24, rate);
+        b.putInt(base + 28, rate * frameBytes);
+        b.putShort(base + 32, (short) frameBytes);
+        b.putShort(base + 34, (short) 16);
+        b.put(base + 60, (byte) 'd').put(base + 61, (byte) 'a').put(base + 62, (byte) 't').put(base + 63, (byte) 'a');
+        b.putInt(base + OFF_DATA, dataLen);
+    }
+
+    // audio thread: s16 PCM in the format given at open
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, ring - wpos);
+            map.position(HDR + wpos);
+            map.put(b, off, n);
+            advance(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // the same from a direct buffer (native TX pool); src position and limit are untouched
+    public void write(ByteBuffer src, int len) {
+        ByteBuffer s = src.duplicate();
+        s.position(0);
+        while (len > 0) {
+            int n = Math.min(len, ring - wpos);
+            s.limit(s.position() + n);
+            map.position(HDR + wpos);
+            map.put(s);
+            advance(n);
+            len -= n;
+        }
+    }
+
+    private void advance(int n) {
+        wpos += n;
+        if (wpos == ring) wpos = 0;
+        map.putInt(OFF_WPOS, wpos);
+        map.putLong(OFF_TOTAL, total + n);
+        total += n;
+    }
+
+    public File file() { return file; }
+
+    public int ringSeconds() { return ring / (rate * frameBytes); }
+
+    // seconds of audio in the ring now
+    public int seconds() { return (int) (Math.min(total, ring) / (rate * frameBytes)); }
+
+    // The last `seconds` (or all there is) as a chronological WAV; returns its length in
+    // seconds. Slower than real time it could lose the oldest bytes to the writer: a local
+    // file copy is far faster.
+    public int save(File out, int seconds) throws IOException {
+        long end = total;
+        long want = Math.min(Math.min(end, ring), (long) seconds * rate * frameBytes);
+        want -= want % frameBytes;
+        int start = (int) ((end - want) % ring);
+        ByteBuffer hdr = ByteBuffer.allocate(HDR).order(ByteOrder.LITTLE_ENDIAN);
+        header(hdr, (int) want, 0);
+        hdr.put(36, (byte) 'p').put(37, (byte) 'w').put(38, (byte) 'r').put(39, (byte) 'g');
+        hdr.putInt(40, 16);
+        hdr.putLong(OFF_TOTAL, want);
+        FileOutputStream fo = new FileOutputStream(out);
+        try {
+            FileChannel oc = fo.getChannel();
+            oc.write(hdr);
+            ByteBuffer src = map.duplicate();
+            int first = (int) Math.min(want, ring - start);
+            writeRange(oc, src, start, first);
+            writeRange(oc, src, 0, (int) (want - first));
+        } finally {
+            fo.close();
+        }
+        return (int) (want / (rate * frameBytes));
+    }
+
+    private static void writeRange(FileChannel oc, ByteBuffer src, int at, int len)
+            throws IOException {
+        if (len <= 0) return;
+        src.limit(HDR + at + len);
+        src.position(HDR + at);
+        while (src.hasRemaining()) oc.write(src);
+    }
+
+    // patches RIFF/data sizes for what the ring holds and flushes the mapping
+    public void close() {
+        int data = (int) Math.min(total, ring);
+        map.putInt(OFF_RIFF, HDR - 8 + data);
+        map.putInt(OFF_DATA, data);
+        map.force();
+        try {
+            raf.close();
+        } catch (IOException ignored) {}
+    }
+}
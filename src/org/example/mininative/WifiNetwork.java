@@ -0,0 +1,160 @@
+package org.example.mininative;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+// Tracks the Wi-Fi Network and pins stream sockets to it.
+//
+// Unbound sockets follow the default route, which may be cellular, and the stream thread
+// only noticed Wi-Fi changes when a write failed or the connect timed out. Here a
+// NetworkCallback reports a new/lost Wi-Fi network and address changes (DHCP after an AP
+// roam) right away, so the caller can drop the socket and reconnect immediately. While
+// Wi-Fi is tracked but absent nothing connects (bind() refuses, handle() is NO_NET): the
+// stream waits for Wi-Fi rather than leaving on cellular.
+public final class WifiNetwork {
+    private static final String TAG = "pw-net";
+
+    // handle() while Wi-Fi is missing: native connects fail at once (nettx NTX_NET_NONE)
+    public static final long NO_NET = -1;
+
+    public interface Listener {
+        // now == null: Wi-Fi lost
+        void onWifiChanged(Network now, String why);
+    }
+
+    private final ConnectivityManager cm;
+    private final Listener listener;
+    private volatile Network net;
+    private volatile String addrs = "";
+    private volatile boolean registered;
+
+    public WifiNetwork(Context ctx, Listener listener) {
+        this.cm = (ConnectivityManager) ctx.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (cm == null || registered) return;
+        NetworkRequest req = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                // receivers live on LANs without internet access too
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        try {
+            cm.registerNetworkCallback(req, cb);
+            registered = true;
+        } catch (Throwable t) {
+            Log.w(TAG, "registerNetworkCallback failed", t);
+        }
+    }
+
+    public void stop() {
+        if (cm == null || !registered) return;
+        try { cm.unregisterNetworkCallback(cb); } catch (Throwable ignore) {}
+        registered = false;
+        net = null;
+        addrs = "";
+    }
+
+    public Network current() { return net; }
+
+    // tracking Wi-Fi and there is none right now. Without the callback (no
+    // ConnectivityManager, registration failed) we cannot tell: never missing
+    public boolean missing() { return registered && net == null; }
+
+    public void require() throws IOException {
+        if (missing()) throw new IOException("no Wi-Fi");
+    }
+
+    // pin s to Wi-Fi; refuses while it is missing, the default route may be cellular
+    public void bind(Socket s) throws IOException {
+        Network n = net;
+        if (n != null) n.bindSocket(s);
+        else require();
+    }
+
+    // for native sockets (android_setsocknetwork): NO_NET while missing, 0 = default route
+    public long handle() {
+        Network n = net;
+        if (n != null) return n.getNetworkHandle();
+        return registered ? NO_NET : 0;
+    }
+
+    // kernel name of the Wi-Fi interface (wlan0, ...), null if there is none
+    public String ifaceName() {
+        Network n = net;
+        if (n == null || cm == null) return null;
+        LinkProperties lp = cm.getLinkProperties(n);
+        return (lp != null) ? lp.getInterfaceName() : null;
+    }
+
+    // first IPv4 address on Wi-Fi, null if there is none
+    public InetAddress address() {
+        Network n = net;
+        if (n == null || cm == null) return null;
+        LinkProperties lp = cm.getLinkProperties(n);
+        if (lp == null) return null;
+        for (LinkAddress la : lp.getLinkAddresses()) {
+            if (la.getAddress() instanceof Inet4Address) return la.getAddress();
+        }
+        return null;
+    }
+
+    public InetAddress resolve(String host) throws UnknownHostException {
+        Network n = net;
+        return (n != null) ? n.getByName(host) : InetAddress.getByName(host);
+    }
+
+    private static String ipv4Of(LinkProperties lp) {
+        if (lp == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for (LinkAddress la : lp.getLinkAddresses()) {
+            if (!(la.getAddress() instanceof Inet4Address)) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(la.getAddress().getHostAddress());
+        }
+        return sb.toString();
+    }
+
+    private final ConnectivityManager.NetworkCallback cb = new ConnectivityManager.NetworkCallback() {
+        @Override public void onAvailable(Network n) {
+            if (n.equals(net)) return;
+            Network old = net;
+            net = n;
+            addrs = ipv4Of(cm.getLinkProperties(n));
+            Log.i(TAG, "wifi available " + n + " [" + addrs + "]");
+            listener.onWifiChanged(n, old == null ? "available" : "switch");
+        }
+
+        @Override public void onLost(Network n) {
+            if (!n.equals(net)) return;
+            net = null;
+            addrs = "";
+            Log.i(TAG, "wifi lost " + n);
+            listener.onWifiChanged(null, "lost");
+        }
+
+        @Override public void onLinkPropertiesChanged(Network n, LinkProperties lp) {
+            if (!n.equals(net)) return;
+            String a = ipv4Of(lp);
+            String was = addrs;
+            addrs = a;
+            if (was.isEmpty() || a.equals(was)) return; // first report / no change
+            Log.i(TAG, "wifi address " + was + " -> " + a);
+            listener.onWifiChanged(n, "address");
+        }
+    };
+}
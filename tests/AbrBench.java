@@ -0,0 +1,105 @@
+import java.util.Locale;
+import org.example.mininative.RateController;
+
+// Host driver for abr-test.sh: RateController in the Java send loop's place, against a
+// simulated bandwidth-capped socket, on a virtual clock (no sleeping).
+//
+// Capture: 10 ms chunks in real time into an 80 ms buffer (balanced profile); the reader
+// is behind while a write blocks, and frames older than the buffer are overwritten
+// (AudioRecord overrun). Socket: 64 kB of send buffer drained at the cap; a write blocks
+// until its bytes fit. Schedule: 3000 kb/s, capped to CAP kb/s from 20 s to 60 s, 3000
+// again until the end.
+//
+// Checks: no switch while clean; a down-step within 2 s of the cap to a rung that fits;
+// after it, no time at a rung below that (over-stepped on stale backlog); back on the top
+// rung within 90 s of the cap lifting. `nobuf` runs without setCaptureBuffer(), where
+// lost frames count as backlog for good: reported, not checked.
+//
+//   java AbrBench [capKbps] [nobuf]
+public class AbrBench {
+    static final int SR = 48000, CHUNK = 480, REC_BUF = 8 * CHUNK;
+    static final long CHUNK_NS = CHUNK * 1000000000L / SR;
+    static final long SNDBUF = 64 * 1024;
+    static final long CAP_ON = 20000, CAP_OFF = 60000, END = 150000; // ms
+
+    public static void main(String[] a) {
+        int capKbps = a.length > 0 ? Integer.parseInt(a[0]) : 500;
+        boolean nobuf = a.length > 1 && a[1].equals("nobuf");
+
+        RateController rc = new RateController(0);
+        if (!nobuf) rc.setCaptureBuffer(REC_BUF);
+        long now = 0;            // ns
+        long framesRead = 0, lost = 0;
+        double queued = 0;       // bytes in the socket buffer
+        long drainedAt = 0;
+        long downAt = -1, upAt = -1, badMs = 0;
+        int fit = -1;
+        boolean ok = true;
+        int lastRung = 0;
+
+        while (now / 1000000L < END) {
+            long ms = now / 1000000L;
+            double kbps = (ms >= CAP_ON && ms < CAP_OFF) ? capKbps : 3000;
+
+            // read: wait for a chunk, or find the buffer overrun
+            long avail = now * SR / 1000000000L - framesRead - lost;
+            if (avail > REC_BUF) {
+                lost += avail - REC_BUF;
+                avail = REC_BUF;
+            }
+            if (avail < CHUNK) {
+                now += (CHUNK - avail) * 1000000000L / SR + 1;
+                continue;
+            }
+            framesRead += CHUNK;
+            rc.onCapture(now, CHUNK, SR);
+
+            // write one chunk in the current rung's format
+            RateController.Rung r = rc.current();
+            int bytes = (int) ((long) CHUNK * r.channels * r.bytesPerSample() * r.rate / SR);
+            double rate = kbps * 1000 / 8 / 1e9; // bytes per ns
+            queued = Math.max(0, queued - (now - drainedAt) * rate);
+            drainedAt = now;
+            long wait = 0;
+            if (queued + bytes > SNDBUF) wait = (long) ((queued + bytes - SNDBUF) / rate);
+            now += wait;
+            queued = Math.max(0, queued - wait * rate) + bytes;
+            drainedAt = now;
+            rc.onWrite(bytes, wait);
+            rc.update(now / 1000000L, 0, CHUNK_NS);
+
+            int rung = rc.rung();
+            ms = now / 1000000L;
+            if (rung != lastRung) {
+                System.out.println(String.format(Locale.US, "abr t=%.1fs cap=%.0f %s -> %s (%s)",
+                        ms / 1000.0, kbps, RateController.LADDER[lastRung],
+                        RateController.LADDER[rung], rc));
+                if (ms < CAP_ON) ok &= fail("switch while clean");
+                if (ms >= CAP_ON && ms < CAP_OFF && downAt < 0 && rung > lastRung) {
+                    downAt = ms - CAP_ON;
+                    fit = rung;
+                    while (RateController.LADDER[fit].kbps() > capKbps && fit + 1 < RateController.LADDER.length) fit++;
+                }
+                if (ms >= CAP_OFF && rung == 0 && upAt < 0) upAt = ms - CAP_OFF;
+            }
+            // time spent below the rung that fits, once the first down-step is through
+            if (fit >= 0 && rung > fit && ms > CAP_ON + downAt + 5000) badMs += CHUNK_NS / 1000000L;
+            lastRung = rung;
+        }
+        System.out.println(String.format(Locale.US,
+                "bench cap=%d%s down_ms=%d fit=%s below_fit_ms=%d up_ms=%d overruns=%d lost_ms=%d %s",
+                capKbps, nobuf ? " nobuf" : "", downAt, fit >= 0 ? RateController.LADDER[fit].toString() : "-",
+                badMs, upAt, rc.overruns(), lost * 1000 / SR, rc));
+        if (nobuf) return;
+        if (downAt < 0 || downAt > 2000) ok &= fail("no down-step within 2 s of the cap");
+        if (badMs > 0) ok &= fail(badMs + " ms below the rung that fits the cap");
+        if (upAt < 0 || upAt > 90000) ok &= fail("not back on the top rung within 90 s");
+        System.out.println(ok ? "PASS" : "FAIL");
+        if (!ok) System.exit(1);
+    }
+
+    static boolean fail(String why) {
+        System.out.println("fail: " + why);
+        return false;
+    }
+}
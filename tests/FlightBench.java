@@ -0,0 +1,64 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Locale;
+import org.example.mininative.FlightRecorder;
+
+// Host driver for flight-test.sh: a synthetic session through FlightRecorder on a virtual
+// clock (one record per simulated second, no sleeping), then the exporter.
+//
+// Per second: 100 writes with holds of 0.1 .. 10 ms (p50 5.0, p95 9.5, p99 9.9, max 10.0),
+// 1600 kb/s worth of bytes, an overrun every 7th second, a reconnect and 3 drops every
+// 60th, muted and down every 100th. `crash` ends without close(), as a killed process.
+//
+//   java FlightBench write file seconds capacity close|crash
+//   java FlightBench export file out.csv out.json
+public class FlightBench {
+    public static void main(String[] a) throws Exception {
+        File f = new File(a[1]);
+        if (a[0].equals("export")) {
+            int n = 0;
+            for (int k = 0; k < 2; k++) {
+                Writer w = new BufferedWriter(new FileWriter(a[2 + k]));
+                try {
+                    n = FlightRecorder.export(f, w, k == 1);
+                } finally {
+                    w.close();
+                }
+            }
+            System.out.println("export records=" + n);
+            return;
+        }
+        int secs = Integer.parseInt(a[2]), cap = Integer.parseInt(a[3]);
+        boolean crash = a[4].equals("crash");
+        long start = 1700000000000L;
+        FlightRecorder fr = new FlightRecorder(f, cap, "127.0.0.1:4010", start);
+        long wrNs = 0, cmNs = 0;
+        for (int s = 0; s < secs; s++) {
+            long t0 = System.nanoTime();
+            for (int j = 0; j < 100; j++) fr.onWrite(2000, (j + 1) * 100000L);
+            long t1 = System.nanoTime();
+            if (s % 7 == 0) fr.onOverruns(1);
+            if (s % 60 == 59) {
+                fr.onReconnect();
+                fr.onDrops(3);
+            }
+            fr.setLink(1500, 4200, 180, -1);
+            boolean odd = s % 100 == 99;
+            int flags = (odd ? FlightRecorder.F_MUTED : FlightRecorder.F_UP);
+            long now = start + (s + 1) * 1000L;
+            if (!fr.due(now)) throw new IllegalStateException("not due at " + s);
+            fr.commit(now, flags, 0.75f, 10123, s % 4);
+            long t2 = System.nanoTime();
+            wrNs += t1 - t0;
+            cmNs += t2 - t1;
+        }
+        System.out.println(String.format(Locale.US,
+                "write seconds=%d capacity=%d onWrite=%.0fns commit=%.0fns %s",
+                secs, fr.capacity(), wrNs / (secs * 100.0), cmNs / (double) secs,
+                crash ? "crash" : "close"));
+        if (crash) Runtime.getRuntime().halt(0);
+        fr.close();
+    }
+}
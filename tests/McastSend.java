@@ -0,0 +1,50 @@
+import java.io.File;
+import org.example.mininative.FileSource;
+import org.example.mininative.MulticastSender;
+import org.example.mininative.RateController;
+import org.example.mininative.SendPipeline;
+
+// Host-side sender for mcast-test.sh: StreamService's multicast link, a FileSource replayed
+// in real time (10 ms chunks like the balanced profile) through SendPipeline, each batch
+// handed to MulticastSender with its media clock pts. The rung is pinned to 0.
+//
+//   java McastSend group:port file seconds [iface]
+public class McastSend {
+    static final int CHUNK_MS = 10;
+
+    public static void main(String[] a) throws Exception {
+        String[] gp = a[0].split(":");
+        FileSource src = new FileSource(new File(a[1]), 48000, 2, true, true);
+        long secs = Long.parseLong(a[2]);
+        String iface = (a.length > 3 && a[3].length() > 0) ? a[3] : null;
+        final int SR = src.rate();
+
+        RateController rc = new RateController(System.nanoTime() / 1000000L);
+        rc.setRange(0, 0);
+        SendPipeline sp = new SendPipeline(SR, src.channels(), SR * CHUNK_MS / 1000, 1, rc, null);
+        MulticastSender mc = new MulticastSender(gp[0], Integer.parseInt(gp[1]), 1, iface);
+        sp.link(null, null, null, true, false);
+        byte[] buf = sp.buf();
+        long start = System.nanoTime(), end = start + secs * 1000000000L, lastLog = start;
+        sp.start(start / 1000000L);
+        for (;;) {
+            int n = sp.read(src);
+            if (n <= 0) break;
+            sp.add(sp.level(n, 1.0f, false), null);
+            int r = sp.prepare();
+            long w0 = System.nanoTime();
+            mc.format(r, sp.pts());
+            if (sp.len() > 0) mc.send(buf, SendPipeline.HDR, sp.len(), sp.pts(), w0);
+            long w1 = System.nanoTime();
+            sp.written(w0, w1, w1 / 1000000L);
+            if (w1 - lastLog >= 2000000000L) {
+                lastLog = w1;
+                System.out.println(mc.takeStats());
+            }
+            if (w1 > end) break;
+        }
+        System.out.println(mc.takeStats());
+        mc.close();
+        src.close();
+    }
+}
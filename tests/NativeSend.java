@@ -0,0 +1,67 @@
+import java.io.File;
+import org.example.mininative.FileSource;
+import org.example.mininative.Framing;
+import org.example.mininative.NativeSender;
+import org.example.mininative.SendPipeline;
+
+// Host-side driver for native-test.sh and impair-test.sh: NativeSender (libpwtx built for
+// the host) fed by SendPipeline.feed() as StreamService feeds it, a FileSource replayed in
+// real time in 10 ms chunks, each read straight into an acquired pool slot.
+//
+// Before streaming, the ownership rules are checked: a slot submitted twice or released
+// after submit must be refused.
+//
+//   java -Djava.library.path=DIR NativeSend host:port file seconds [batch] [paced]
+public class NativeSend {
+    static final int CHUNK_MS = 10;
+
+    public static void main(String[] a) throws Exception {
+        String[] hp = a[0].split(":");
+        FileSource src = new FileSource(new File(a[1]), 48000, 2, true, true);
+        long secs = Long.parseLong(a[2]);
+        int batch = a.length > 3 ? Integer.parseInt(a[3]) : 1;
+        boolean paced = a.length > 4 && a[4].equals("paced");
+        final int SR = src.rate(), CHN = src.channels(), frames = SR * CHUNK_MS / 1000;
+        long chunkNs = frames * 1000000000L / SR;
+
+        NativeSender ns = new NativeSender(hp[0], Integer.parseInt(hp[1]), true, SR, CHN,
+                                           frames * CHN * 2, chunkNs, batch, paced, 0, 16384, 0);
+        checkOwnership(ns);
+        SendPipeline sp = new SendPipeline(SR, CHN, frames, batch, null, null);
+
+        long start = System.nanoTime(), end = start + secs * 1000000000L, lastLog = start;
+        for (;;) {
+            if (sp.feed(src, ns, false, Framing.GAIN_UNITY, null) <= 0) break;
+            long now = System.nanoTime();
+            if (now - lastLog >= 2000000000L) {
+                lastLog = now;
+                System.out.println(ns.takeStats() + " spill=" + sp.spilled());
+            }
+            if (now > end) break;
+        }
+        Thread.sleep(100); // let the last partial batch go
+        System.out.println(ns.takeStats() + " spill=" + sp.spilled());
+        long c0 = System.nanoTime();
+        ns.close();
+        System.out.println("closed in " + (System.nanoTime() - c0) / 1000000L + "ms");
+        src.close();
+    }
+
+    static void checkOwnership(NativeSender ns) {
+        int s = ns.acquire();
+        ns.release(s);
+        boolean refused = false;
+        try {
+            ns.release(s); // already free
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        try {
+            ns.submit(s, 4, 0, 65536); // not acquired
+            refused = false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        System.out.println("ownership " + (refused ? "ok" : "NOT ENFORCED"));
+    }
+}
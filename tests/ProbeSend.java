@@ -0,0 +1,71 @@
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.example.mininative.ClockSync;
+import org.example.mininative.ControlChannel;
+import org.example.mininative.FileSource;
+import org.example.mininative.Framing;
+import org.example.mininative.LatencyProbe;
+import org.example.mininative.RateController;
+import org.example.mininative.SendPipeline;
+
+// Host-side sender for probe-test.sh: StreamService's framed unicast link in probe mode,
+// through the same SendPipeline. A FileSource in real time stands in for AudioRecord (10 ms
+// chunks), LatencyProbe replaces each chunk with its chirps, the rate controller is pinned
+// to the rung; SYNC/PING/PONG go out as the app sends them. With a delay, frames carry
+// F_PLAYOUT pts once the clock is synced (playout sync), "free" sends capture pts.
+// The probe's latency lines come from pwrecv -e echoes.
+//
+//   java ProbeSend host:port file seconds delay_ms|free [rung]
+public class ProbeSend {
+    static final int CHUNK_MS = 10;
+
+    public static void main(String[] a) throws Exception {
+        String[] hp = a[0].split(":");
+        FileSource src = new FileSource(new File(a[1]), 48000, 2, true, true);
+        long secs = Long.parseLong(a[2]);
+        boolean sync = !a[3].equals("free");
+        long delayMs = sync ? Long.parseLong(a[3]) : 0;
+        int rung = a.length > 4 ? Integer.parseInt(a[4]) : 0;
+        final int SR = src.rate(), CHN = src.channels();
+
+        RateController rc = new RateController(System.nanoTime() / 1000000L);
+        rc.setRange(rung, rung);
+        SendPipeline sp = new SendPipeline(SR, CHN, SR * CHUNK_MS / 1000, 1, rc, null);
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress(hp[0], Integer.parseInt(hp[1])), 1500);
+        s.setTcpNoDelay(true);
+        ClockSync cs = new ClockSync();
+        LatencyProbe lp = new LatencyProbe(SR, CHN, (int) (delayMs + 1000));
+        ControlChannel cc = new ControlChannel(s, true, 3000);
+        cc.setSync(cs);
+        cc.setProbe(lp);
+        cc.start();
+        sp.setPlayout(sync ? delayMs * 1000000L : -1);
+        sp.setProbe(lp);
+        sp.link(s.getOutputStream(), cc, cs, true, false);
+
+        long start = System.nanoTime(), end = start + secs * 1000000000L, lastLog = start;
+        sp.start(start / 1000000L);
+        for (;;) {
+            int n = sp.read(src);
+            if (n <= 0) break;
+            sp.add(sp.level(n, 1.0f, false), null);
+            sp.prepare();
+            long w0 = System.nanoTime();
+            sp.write(Framing.GAIN_UNITY, false);
+            long w1 = System.nanoTime();
+            sp.written(w0, w1, w1 / 1000000L);
+            if (w1 - lastLog >= 2000000000L) {
+                lastLog = w1;
+                System.out.println(lp.takeStats() + " | " + cs);
+            }
+            if (w1 > end) break;
+        }
+        Thread.sleep(delayMs + 200); // the last echoes
+        System.out.println(lp.summary());
+        cc.close();
+        s.close();
+        src.close();
+    }
+}
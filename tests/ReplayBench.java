@@ -0,0 +1,226 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import org.example.mininative.CaptureSource;
+import org.example.mininative.ControlChannel;
+import org.example.mininative.FileSource;
+import org.example.mininative.Framing;
+import org.example.mininative.LatencyProfile;
+import org.example.mininative.NativeSender;
+import org.example.mininative.Pacer;
+import org.example.mininative.RateController;
+import org.example.mininative.SendPipeline;
+
+// Host benchmark for replay-test.sh and the Java path of impair-test.sh: a FileSource
+// through SendPipeline, the stages StreamService runs for a framed unicast link (media
+// clock, soft gain or passthrough, chunk batching, pacer, rate controller and format
+// rung, framing with the control frames, one write per batch under a ControlChannel), or
+// through SendPipeline.feed() into NativeSender as its native path does, to a local
+// receiver. 10 ms chunks, as the balanced profile; with a profile name for the batch,
+// chunk, batch, SO_SNDBUF and TCP_NODELAY are what LatencyProfile.derive() gives on a
+// device (5 ms mixer burst).
+//
+//   rt    the file plays in real time: per-batch hold (capture -> written) and CPU
+//   fast  reads return at once: how fast the whole sender can go, as x real time
+// The native path only runs in real time: its pool evicts rather than blocks.
+// opts, comma separated: paced (Pacer on the Java path, paced pool on the native one),
+// abr (the ladder from rung down, else pinned to rung), pass (passthrough: GAIN frames,
+// samples untouched). A link the control channel's watchdog kills (stuck write or lost
+// heartbeat, DEADLINE_MS) ends a Java run with a "link dead" line.
+//
+//   java ReplayBench gen file.wav seconds
+//   java [-Djava.library.path=DIR] ReplayBench host:port file seconds rt|fast [java|native]
+//        [batch|ultra|balanced|bulk] [gain] [rung] [opts]
+public class ReplayBench {
+    static final int CHUNK_MS = 10;
+    static final int HOLD_BUCKETS = 20000; // 10 us each, up to 200 ms
+    static final long DEADLINE_MS = 1500;  // StreamService's deadline_ms default
+
+    public static void main(String[] a) throws Exception {
+        if (a[0].equals("gen")) {
+            gen(new File(a[1]), Integer.parseInt(a[2]));
+            return;
+        }
+        String[] hp = a[0].split(":");
+        File f = new File(a[1]);
+        long secs = Long.parseLong(a[2]);
+        boolean rt = a[3].equals("rt");
+        boolean nat = a.length > 4 && a[4].equals("native");
+        String b = a.length > 5 ? a[5] : "1";
+        float gain = a.length > 6 ? Float.parseFloat(a[6]) : 1.0f;
+        int rung = a.length > 7 ? Integer.parseInt(a[7]) : 0;
+        String opts = a.length > 8 ? "," + a[8] + "," : "";
+
+        FileSource src = new FileSource(f, 48000, 2, rt, true);
+        LatencyProfile prof = null;
+        int chunkFrames = src.rate() * CHUNK_MS / 1000, batch;
+        if (Character.isDigit(b.charAt(0))) {
+            batch = Integer.parseInt(b);
+        } else {
+            prof = LatencyProfile.derive(b, src.rate(), 0, src.channels() * 2, 0);
+            chunkFrames = prof.chunkFrames;
+            batch = prof.batchChunks;
+        }
+        System.out.println(String.format(Locale.US, "replay %s %dHz/%dch %.1fs %s %s chunk=%dms x%d gain=%.2f rung=%d opts=%s%s",
+                f.getName(), src.rate(), src.channels(), src.seconds(), rt ? "rt" : "fast",
+                nat ? "native" : "java", chunkFrames * 1000 / src.rate(), batch, gain, rung,
+                a.length > 8 ? a[8] : "-", prof != null ? " profile=" + prof : ""));
+        boolean paced = opts.contains(",paced,");
+        if (nat) {
+            runNative(src, hp[0], Integer.parseInt(hp[1]), secs, chunkFrames, batch, gain, paced);
+        } else {
+            runJava(src, hp[0], Integer.parseInt(hp[1]), secs, rt, chunkFrames, batch, gain, rung,
+                    paced, opts.contains(",abr,"), opts.contains(",pass,"),
+                    prof != null ? prof.sndBufBytes : 0, prof == null || prof.noDelay);
+        }
+        src.close();
+    }
+
+    static void runJava(CaptureSource src, String host, int port, long secs, boolean rt,
+                        int chunkFrames, int batch, float gain, int rung, boolean paced,
+                        boolean abr, boolean pass, int sndBuf, boolean noDelay) throws Exception {
+        final int SR = src.rate(), CHN = src.channels(), frameBytes = CHN * 2;
+        final long batchNs = chunkFrames * 1000000000L / SR * batch;
+        RateController rc = new RateController(System.nanoTime() / 1000000L);
+        rc.setRange(rung, abr ? RateController.LADDER.length - 1 : rung);
+        Pacer pacer = paced ? new Pacer(batchNs, Math.max(batchNs, 10000000L)) : null;
+        SendPipeline sp = new SendPipeline(SR, CHN, chunkFrames, batch, rc, pacer);
+        int gq = Math.round(gain * Framing.GAIN_UNITY);
+
+        Socket s = new Socket();
+        if (sndBuf > 0) s.setSendBufferSize(sndBuf); // before connect, as openSocket()
+        s.connect(new InetSocketAddress(host, port), 3000);
+        s.setTcpNoDelay(noDelay);
+        ControlChannel cc = new ControlChannel(s, true, DEADLINE_MS);
+        cc.start();
+        sp.link(s.getOutputStream(), cc, null, true, pass);
+        ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+        int[] hold = new int[HOLD_BUCKETS + 1];
+        long audioBytes = 0;
+        long start = System.nanoTime(), cpu0 = tmx.getCurrentThreadCpuTime();
+        long end = start + secs * 1000000000L;
+        long lastLog = start, logBytes = 0;
+        sp.start(start / 1000000L);
+
+        for (;;) {
+            int n = sp.read(src);
+            if (n <= 0) break;
+            audioBytes += n;
+            n = sp.level(n, gain, false);
+            if (!sp.add(n, null)) continue;
+            sp.pace();
+            int r = sp.prepare();
+            long w0 = System.nanoTime();
+            try {
+                if (sp.write(gq, false)) System.out.println("abr switch -> " + RateController.LADDER[r] + " (" + rc + ")");
+            } catch (IOException e) {
+                // the watchdog closed the socket under a stuck write or a silent peer; the
+                // app would reconnect here, the bench stops (t on CLOCK_MONOTONIC)
+                System.out.println("link dead t=" + System.nanoTime() + " "
+                        + (cc.deadReason() != null ? cc.deadReason() : e.getMessage()));
+                break;
+            }
+            long w1 = System.nanoTime();
+            sp.written(w0, w1, w1 / 1000000L);
+            hold[(int) Math.min(HOLD_BUCKETS, sp.lastHoldNs() / 10000)]++;
+
+            if (w1 - lastLog >= 2000000000L) {
+                System.out.println(String.format(Locale.US, "tx %.0fkb/s writes=%d %s",
+                        (sp.bytes() - logBytes) * 8e6 / (w1 - lastLog), sp.writes(), rc));
+                lastLog = w1;
+                logBytes = sp.bytes();
+            }
+            if (w1 > end) break;
+        }
+        long wall = System.nanoTime() - start, cpu = tmx.getCurrentThreadCpuTime() - cpu0;
+        long rttUs = cc.rttUs();
+        int jitUs = cc.jitterUs();
+        cc.close();
+        s.close();
+        int writes = sp.writes();
+        double audioSecs = audioBytes / (double) (SR * frameBytes);
+        System.out.println(String.format(Locale.US,
+                "bench java %s audio=%.1fs wall=%.2fs x%.1f %.1fMB/s writes=%d wr=%d/%dus "
+                + "hold_ms p50=%.2f p99=%.2f max=%.2f cpu=%.2fs (%.1f%%) rtt=%s jitter=%dus wjitter=%dus sw=%d",
+                rt ? "rt" : "fast", audioSecs, wall / 1e9, audioSecs / (wall / 1e9),
+                sp.bytes() / (wall / 1e3), writes, sp.writeAvgUs(), sp.writeMaxUs(),
+                pct(hold, writes, 0.5), pct(hold, writes, 0.99), pct(hold, writes, 1.0),
+                cpu / 1e9, cpu * 100.0 / wall, rttUs >= 0 ? (rttUs / 1000.0) + "ms" : "n/a",
+                jitUs, sp.writeJitterUs(), rc.switches()));
+    }
+
+    // StreamService.streamNative with the file in place of the AudioRecord
+    static void runNative(CaptureSource src, String host, int port, long secs, int chunkFrames,
+                          int batch, float gain, boolean paced) throws Exception {
+        final int SR = src.rate(), CHN = src.channels(), frameBytes = CHN * 2;
+        final int bufBytes = chunkFrames * frameBytes;
+        final long chunkNs = chunkFrames * 1000000000L / SR;
+        NativeSender ns = new NativeSender(host, port, true, SR, CHN, bufBytes, chunkNs, batch,
+                                           paced, 0, 16384, 0);
+        SendPipeline sp = new SendPipeline(SR, CHN, chunkFrames, batch, null, null);
+        ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+        int gq = Math.round(gain * Framing.GAIN_UNITY);
+        long audioBytes = 0;
+        long start = System.nanoTime(), cpu0 = tmx.getCurrentThreadCpuTime();
+        long end = start + secs * 1000000000L, lastLog = start;
+        for (;;) {
+            int n = sp.feed(src, ns, false, gq, null);
+            if (n <= 0) break;
+            audioBytes += n;
+            long now = System.nanoTime();
+            if (now - lastLog >= 2000000000L) {
+                lastLog = now;
+                System.out.println(ns.takeStats() + " spill=" + sp.spilled());
+            }
+            if (now > end) break;
+        }
+        Thread.sleep(100); // let the last partial batch go
+        long wall = System.nanoTime() - start, cpu = tmx.getCurrentThreadCpuTime() - cpu0;
+        System.out.println(ns.takeStats() + " spill=" + sp.spilled());
+        ns.close();
+        double audioSecs = audioBytes / (double) (SR * frameBytes);
+        System.out.println(String.format(Locale.US,
+                "bench native rt audio=%.1fs wall=%.2fs java_cpu=%.2fs (%.1f%%) spill=%d",
+                audioSecs, wall / 1e9, cpu / 1e9, cpu * 100.0 / wall, sp.spilled()));
+    }
+
+    // hold percentile in ms from the 10 us histogram
+    static double pct(int[] h, int n, double p) {
+        long want = Math.max(1, (long) Math.ceil(n * p)), seen = 0;
+        for (int i = 0; i < h.length; i++) {
+            seen += h[i];
+            if (seen >= want) return (i + 1) * 0.01;
+        }
+        return 0;
+    }
+
+    // 48 kHz s16 stereo: a 440/660 Hz pair under a little noise, so gain and mu-law have
+    // something to chew on
+    static void gen(File f, int secs) throws Exception {
+        final int SR = 48000, CH = 2, n = SR * secs;
+        ByteBuffer b = ByteBuffer.allocate(44 + n * CH * 2).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x46464952).putInt(36 + n * CH * 2).putInt(0x45564157);
+        b.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) CH).putInt(SR)
+         .putInt(SR * CH * 2).putShort((short) (CH * 2)).putShort((short) 16);
+        b.putInt(0x61746164).putInt(n * CH * 2);
+        java.util.Random r = new java.util.Random(1);
+        for (int i = 0; i < n; i++) {
+            double t = i / (double) SR, w = r.nextGaussian() * 300;
+            b.putShort((short) (9000 * Math.sin(2 * Math.PI * 440 * t) + w));
+            b.putShort((short) (9000 * Math.sin(2 * Math.PI * 660 * t) + w));
+        }
+        FileOutputStream fo = new FileOutputStream(f);
+        try {
+            fo.write(b.array());
+        } finally {
+            fo.close();
+        }
+    }
+}
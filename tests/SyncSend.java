@@ -0,0 +1,89 @@
+import org.example.mininative.CaptureClock;
+import org.example.mininative.ClockSync;
+import org.example.mininative.ControlChannel;
+import org.example.mininative.FileSource;
+import org.example.mininative.Framing;
+import org.example.mininative.SendPipeline;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// Host-side sender for sync-test.sh: one SendPipeline per receiver in playout sync, as
+// StreamService runs it, each on a FileSource replayed in real time (10 ms chunks like the
+// balanced profile), so every receiver gets the same audio clock. AUDIO frames carry
+// F_PLAYOUT pts from that receiver's ClockSync once it is valid and, in their first 8
+// payload bytes, the intended playout time on our clock so pwrecv -t can measure.
+//
+//   java SyncSend host:port[,host:port...] file seconds delay_ms
+public class SyncSend {
+    static final int CHUNK_MS = 10;
+
+    public static void main(String[] a) throws Exception {
+        String[] to = a[0].split(",");
+        File f = new File(a[1]);
+        long secs = Long.parseLong(a[2]);
+        long delayNs = Long.parseLong(a[3]) * 1000000L;
+
+        int n = to.length;
+        Socket[] s = new Socket[n];
+        ControlChannel[] cc = new ControlChannel[n];
+        ClockSync[] cs = new ClockSync[n];
+        FileSource[] src = new FileSource[n];
+        SendPipeline[] sp = new SendPipeline[n];
+        CaptureClock[] clock = new CaptureClock[n];
+
+        for (int i = 0; i < n; i++) {
+            String[] hp = to[i].split(":");
+            src[i] = new FileSource(f, 48000, 2, true, true);
+            int sr = src[i].rate();
+            clock[i] = new CaptureClock(sr);
+            sp[i] = new SendPipeline(sr, src[i].channels(), sr * CHUNK_MS / 1000, 1, null, null);
+            s[i] = new Socket();
+            s[i].connect(new InetSocketAddress(hp[0], Integer.parseInt(hp[1])), 1500);
+            s[i].setTcpNoDelay(true);
+            cs[i] = new ClockSync();
+            cc[i] = new ControlChannel(s[i], true, 3000);
+            cc[i].setSync(cs[i]);
+            cc[i].start();
+            sp[i].setPlayout(delayNs);
+            sp[i].link(s[i].getOutputStream(), cc[i], cs[i], true, false);
+        }
+
+        long start = System.nanoTime(), end = start + secs * 1000000000L, lastLog = start;
+        for (int i = 0; i < n; i++) sp[i].start(start / 1000000L);
+        for (boolean run = true; run; ) {
+            for (int i = 0; i < n; i++) {
+                int got = sp[i].read(src[i]);
+                if (got <= 0) {
+                    run = false;
+                    break;
+                }
+                // what the pipeline stamps as capture time: the source's clock
+                src[i].timestamp(clock[i]);
+                long capNs = clock[i].timeOf(sp[i].framesRead() - got / (src[i].channels() * 2));
+                byte[] b = sp[i].buf();
+                Framing.putInt(b, SendPipeline.HDR, (int) ((capNs + delayNs) >>> 32));
+                Framing.putInt(b, SendPipeline.HDR + 4, (int) (capNs + delayNs));
+                sp[i].add(sp[i].level(got, 1.0f, false), null);
+                sp[i].prepare();
+                long w0 = System.nanoTime();
+                sp[i].write(Framing.GAIN_UNITY, false);
+                long w1 = System.nanoTime();
+                sp[i].written(w0, w1, w1 / 1000000L);
+            }
+            long now = System.nanoTime();
+            if (now - lastLog >= 2000000000L) {
+                lastLog = now;
+                for (int i = 0; i < n; i++) System.out.println(to[i] + " " + cs[i]);
+            }
+            if (now > end) break;
+        }
+        for (int i = 0; i < n; i++) {
+            System.out.println(to[i] + " final " + cs[i]);
+            cc[i].close();
+            s[i].close();
+            src[i].close();
+        }
+    }
+}
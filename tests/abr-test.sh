@@ -0,0 +1,28 @@
+#!/bin/sh
+
+## hyphop ##
+
+## format ladder against a bandwidth-capped link on a Linux host: RateController driven by
+## tests/AbrBench.java, capture and socket simulated on a virtual clock (the whole
+## schedule takes well under a second). Per cap: the link is capped from 20 s to 60 s;
+## the controller must step down within 2 s to a rung that fits, not below it, and be
+## back on the top rung within 90 s of the cap lifting. The same run without the capture
+## buffer size (lost frames taken as backlog) is shown for reference.
+##
+##   CAPS="300 500 1000" ./abr-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-abr}
+CAPS=${CAPS:-"250 500 1000"}
+SRC=../src/org/example/mininative
+
+mkdir -p "$OUT/classes"
+javac -d "$OUT/classes" $SRC/Framing.java $SRC/RateController.java AbrBench.java
+
+for c in $CAPS; do
+	java -cp "$OUT/classes" AbrBench "$c" nobuf | tail -n 1
+	java -cp "$OUT/classes" AbrBench "$c" > "$OUT/cap$c.log" || { cat "$OUT/cap$c.log"; exit 1; }
+	tail -n 2 "$OUT/cap$c.log"
+done
@@ -0,0 +1,71 @@
+#!/bin/sh
+
+## hyphop ##
+
+## flight recorder ring and exporter on a Linux host (tests/FlightBench.java): a synthetic
+## session of SECS simulated seconds into a CAP record ring, killed without close(), then
+## exported to CSV and JSON. Checks: the last CAP records survive, oldest first with no
+## hole, wall clock and per-second figures as written (kb/s, latency percentiles, counts,
+## flags); a record torn by hand (its trailing copy of n zeroed) is skipped, not exported
+## as garbage; a short closed session keeps everything. Prints the cost per record.
+##
+##   SECS=5000 CAP=600 ./flight-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-flight}
+SECS=${SECS:-1000}
+CAP=${CAP:-300}
+SRC=../src/org/example/mininative
+
+mkdir -p "$OUT/classes"
+javac -d "$OUT/classes" $SRC/FlightRecorder.java FlightBench.java
+fb() { java -cp "$OUT/classes" FlightBench "$@"; }
+
+fail() { echo "FAIL: $*"; exit 1; }
+
+# per row: consecutive n from $1, 1 s apart, the figures FlightBench writes
+check() {
+	awk -F, -v first="$1" -v skip="${2:--1}" '
+	NR == 1 { next }
+	{
+		want = first + NR - 2 + (skip >= 0 && first + NR - 2 >= skip)
+		if ($2 != want) { print "n " $2 " want " want; bad++ }
+		if ($1 != 1700000000000 + ($2 + 1) * 1000) { print "wall " $1 " at " $2; bad++ }
+		if ($4 != 1600 || $8 != "5.0" || $9 != "9.5" || $10 != "9.9" || $11 != "10.0") { print "figures at " $2 ": " $0; bad++ }
+		if ($6 != ($2 % 7 == 0) || $5 != ($2 % 60 == 59) || $7 != 3 * ($2 % 60 == 59)) { print "counts at " $2 ": " $0; bad++ }
+		if ($13 != ($2 % 100 == 99) || $14 != ($2 % 100 != 99) || $18 != $2 % 4 || $12 != "0.7500" || $19 != 10123) { print "state at " $2 ": " $0; bad++ }
+		rows++
+	}
+	END { if (bad) exit 1; print rows }' "$OUT/crash.csv"
+}
+
+# killed mid-session: the mapping is all there is
+rm -f "$OUT/crash.pwfr"
+fb write "$OUT/crash.pwfr" "$SECS" "$CAP" crash
+fb export "$OUT/crash.pwfr" "$OUT/crash.csv" "$OUT/crash.json"
+ROWS=$(check $((SECS - CAP))) || fail "ring after crash"
+[ "$ROWS" = "$CAP" ] || fail "rows $ROWS, want $CAP"
+if command -v python3 > /dev/null; then
+	N=$(python3 -c "import json,sys; d=json.load(open(sys.argv[1])); print(len(d['records']), d['records'][-1]['n'], d['tag'])" "$OUT/crash.json")
+	[ "$N" = "$CAP $((SECS - 1)) 127.0.0.1:4010" ] || fail "json: $N"
+fi
+echo "crash: $ROWS records, n $((SECS - CAP))..$((SECS - 1))"
+
+# tear one record: its trailing copy of n no longer matches
+TORN=$((SECS - CAP / 2))
+printf '\377\377\377\377' | dd of="$OUT/crash.pwfr" bs=1 seek=$((64 + (TORN % CAP) * 64 + 60)) conv=notrunc 2> /dev/null
+fb export "$OUT/crash.pwfr" "$OUT/crash.csv" "$OUT/crash.json"
+ROWS=$(check $((SECS - CAP)) "$TORN") || fail "ring with a torn record"
+[ "$ROWS" = "$((CAP - 1))" ] || fail "torn: rows $ROWS, want $((CAP - 1))"
+echo "torn: record $TORN skipped, $ROWS records"
+
+# short session, closed: nothing wrapped, nothing lost
+fb write "$OUT/short.pwfr" 45 60 close
+fb export "$OUT/short.pwfr" "$OUT/short.csv" "$OUT/short.json"
+ROWS=$(($(wc -l < "$OUT/short.csv") - 1))
+[ "$ROWS" = 45 ] || fail "short: rows $ROWS, want 45"
+echo "short: $ROWS records"
+
+echo "PASS ($(du -k "$OUT/crash.pwfr" | cut -f1) kB ring for $CAP s)"
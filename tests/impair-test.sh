@@ -0,0 +1,218 @@
+#!/bin/sh
+
+## hyphop ##
+
+## transport under a bad link on a Linux host: pwproxy between sender and pwrecv runs a
+## schedule of impairments, pwrecv -a traces every AUDIO frame (arrival, seq, capture pts).
+## TCP scenarios drive the native path (libpwtx via NativeSend: reconnect/backoff, pool
+## eviction as backpressure), java_* ones the Java path (ReplayBench: SendPipeline with the
+## RateController ladder, writes under the ControlChannel watchdog at the app's 1500 ms
+## deadline), UDP ones MulticastSender (McastSend), group to group.
+## Each impairment is on from its first schedule entry to its last:
+##   clean   nothing, the baseline
+##   delay   +40 ms delay, 30 ms jitter          loss    3% loss (200 ms HOL stalls)
+##   bwcap   1000 kb/s for a 1.6 Mb/s stream      reset   RST both sides once
+##   outage  RST, connections refused for 2 s     udp_*   the same on multicast
+##   java_bwcap  bwcap with abr: must also step down the ladder (switches > 0)
+##   java_stall  16 kb/s from 3 s on: the watchdog must call the link dead, within
+##               DEAD_MAX_MS of the cap (dead_ms); the bench stops there, no reconnect
+## Per scenario, from the trace and the proxy's event log:
+##   frames, seq_gaps      frames received, seq jumps (pwrecv, lost inside a connection)
+##   audio_gaps, lost_ms   capture pts that never arrived (evicted, dropped, lost), total
+##   stall_ms              longest the receiver heard nothing
+##   age_*_ms              arrival - capture: before the impairment (base), worst, last 1 s,
+##                         99th percentile after the first second (p99)
+##   recover_ms            impairment end -> the first frame from which on every frame is
+##                         in time again, within base + one batch + TOL_MS (-1: never)
+##   reconnects            accepted connections - 1
+## A clean run passes with no gaps and 99% of its frames in time once the first second is
+## through (a host scheduling hiccup holds a few frames back now and then, worst shows it),
+## an impaired one when it recovers within RECOVER_MAX_MS and its last second averages
+## within base + TOL_MS.
+## Everything goes to $OUT/results.json, one object per scenario, for comparing runs; the
+## exit status is non-zero if any scenario failed.
+##
+##   SECS=12 BATCH=4 ONLY="reset outage" ./impair-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-impair}
+SECS=${SECS:-12}
+BATCH=${BATCH:-4}
+ONLY=${ONLY:-}
+PORT=${PORT:-47700}
+GROUP_IN=${GROUP_IN:-239.255.42.3}
+GROUP_OUT=${GROUP_OUT:-239.255.42.4}
+TOL_MS=${TOL_MS:-20}
+RECOVER_MAX_MS=${RECOVER_MAX_MS:-3000}
+DEAD_MAX_MS=${DEAD_MAX_MS:-3000}
+JAVA_HOME=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v javac)")")")}
+SRC=../src/org/example/mininative
+J=../jni
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+cc -O2 -Wall -o "$OUT/pwproxy" pwproxy.c
+cc -O2 -Wall -shared -fPIC -pthread -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+    -I$J -o "$OUT/libpwtx.so" $J/pwtx.c $J/nettx.c
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java $SRC/MulticastSender.java \
+    ReplayBench.java NativeSend.java McastSend.java
+[ -f "$OUT/tone.wav" ] || java -cp "$OUT/classes" ReplayBench gen "$OUT/tone.wav" 10
+
+# metrics of one run as a JSON object: trace, proxy log, receiver log, and for a Java run
+# with $5 (abr: ladder switches, dead: watchdog) the sender's log
+analyze() {
+	# audio that never came: holes in pts order (datagrams may have come reordered). Java
+	# unicast pts are read return times, not a media clock, so holes there are scheduling;
+	# that path blocks rather than drops, a loss would be a seq gap
+	G=$(sort -n -k3 "$OUT/$1.trace" | awk -v java="$([ "$2" = java ] && echo 1)" '
+		!java && NR > 1 && $3 > end + 1e6 { gaps++; lost += $3 - end }
+		$3 + $4 > end { end = $3 + $4 }
+		END { printf "%d %d", gaps, lost }')
+	awk -v gaps="${G% *}" -v lost="${G#* }" -v batch="$4" -v name="$1" -v proto="$2" -v spec="$3" -v tol="$TOL_MS" -v rmax="$RECOVER_MAX_MS" -v expect="$5" -v dmax_ms="$DEAD_MAX_MS" '
+	FILENAME == ARGV[1] {
+		n++; t[n] = $1; pts[n] = $3; dur[n] = $4
+		next
+	}
+	FILENAME == ARGV[2] {
+		sub(/^t=/, "", $2)
+		if ($3 == "apply") { if (!on) on = $2; off = $2 }
+		if ($3 == "accept") acc++
+		next
+	}
+	FILENAME == ARGV[4] {
+		if ($1 == "link" && $2 == "dead") { sub(/^t=/, "", $3); dead = $3 }
+		if ($1 == "bench") for (i = 1; i <= NF; i++) if ($i ~ /^sw=/) { split($i, g, "="); sw = g[2] }
+		next
+	}
+	/seq frames=/ { split($4, g, "="); sg += g[2] }
+	/ summary / && / lost=/ { for (i = 1; i <= NF; i++) if ($i ~ /^lost=/) { split($i, g, "="); sg += g[2] } }
+	END {
+		if (!n) { printf "{\"scenario\":\"%s\",\"proto\":\"%s\",\"frames\":0,\"pass\":false}\n", name, proto; exit }
+		if (!on) on = off = t[1] + 3e9
+		bn = 0; bs = 0; amax = -1e18; stall = 0; dmax = 0
+		for (i = 1; i <= n; i++) {
+			a = (t[i] - pts[i]) / 1e6
+			if (dur[i] / 1e6 > dmax) dmax = dur[i] / 1e6
+			if (t[i] < on && t[i] > t[1] + 5e8) { bs += a; bn++ }
+			if (a > amax) amax = a
+			if (i > 1 && t[i] - t[i - 1] > stall) stall = t[i] - t[i - 1]
+		}
+		base = bn ? bs / bn : (t[1] - pts[1]) / 1e6
+		# the first chunk of a batch waits for the rest: in time is within base + a batch + tol
+		ok = base + batch * dmax + tol
+		# p99 from a 0.1 ms histogram, start-up (connect, JIT) left out
+		p99 = 0; seen = 0
+		hn = 0; hlo = 1e18; hhi = -1e18
+		for (i = 1; i <= n; i++) {
+			if (t[i] <= t[1] + 1e9) continue
+			k = int((t[i] - pts[i]) / 1e5); h[k]++; hn++
+			if (k < hlo) hlo = k
+			if (k > hhi) hhi = k
+		}
+		for (k = hlo; k <= hhi && seen < hn * 0.99; k++) if (k in h) { seen += h[k]; p99 = k / 10 }
+		en = 0; es = 0
+		for (i = 1; i <= n; i++) if (t[i] > t[n] - 1e9) { es += (t[i] - pts[i]) / 1e6; en++ }
+		# recovered from the first frame after off that is in time, with all after it
+		rec = -1
+		for (i = 1; i <= n; i++) {
+			if (t[i] < off) continue
+			if ((t[i] - pts[i]) / 1e6 > ok) rec = -1
+			else if (rec < 0) rec = (t[i] - off) / 1e6
+		}
+		impaired = spec != ""
+		pass = impaired ? (rec >= 0 && rec <= rmax && es / en <= base + tol) : (gaps == 0 && sg == 0 && hn > 0 && p99 <= ok)
+		dms = dead ? (dead - on) / 1e6 : -1
+		if (expect == "abr") pass = pass && sw > 0
+		if (expect == "dead") pass = dead && dms <= dmax_ms
+		printf "{\"scenario\":\"%s\",\"proto\":\"%s\",\"impair\":\"%s\",\"frames\":%d,\"seq_gaps\":%d,", name, proto, spec, n, sg
+		printf "\"audio_gaps\":%d,\"lost_ms\":%.1f,\"stall_ms\":%.1f,", gaps, lost / 1e6, stall / 1e6
+		printf "\"age_base_ms\":%.2f,\"age_max_ms\":%.2f,\"age_end_ms\":%.2f,\"age_p99_ms\":%.1f,", base, amax, es / en, p99
+		if (proto == "java") printf "\"switches\":%d,\"dead_ms\":%.1f,", sw, dms
+		printf "\"recover_ms\":%.1f,\"reconnects\":%d,\"pass\":%s}\n", (impaired && expect != "dead" ? rec : 0), (acc > 0 ? acc - 1 : 0), (pass ? "true" : "false")
+	}' "$OUT/$1.trace" "$OUT/$1.px" "$OUT/$1.rx" ${5:+"$OUT/$1.tx"}
+}
+
+want() {
+	[ -z "$ONLY" ] && return 0
+	for w in $ONLY; do [ "$w" = "$1" ] && return 0; done
+	return 1
+}
+
+tcp() {
+	want "$1" || return 0
+	"$OUT/pwrecv" -p "$((PORT + 1))" -n "$1" -a "$OUT/$1.trace" > "$OUT/$1.rx" &
+	R=$!
+	"$OUT/pwproxy" -l "$PORT" -t "127.0.0.1:$((PORT + 1))" -n "$1" -s "$((SECS + 1))" \
+	    ${2:+-e "$2"} > "$OUT/$1.px" &
+	P=$!
+	sleep 0.3
+	java -Djava.library.path="$OUT" -cp "$OUT/classes" NativeSend "127.0.0.1:$PORT" \
+	    "$OUT/tone.wav" "$SECS" "$BATCH" > "$OUT/$1.tx" 2>&1
+	wait $P
+	kill $R; wait $R 2>/dev/null || true
+	analyze "$1" tcp "$2" "$BATCH" >> "$OUT/results.tmp"
+	tail -n 1 "$OUT/results.tmp"
+}
+
+# Java path: ReplayBench in real time with the ultra profile, whose small SO_SNDBUF lets
+# a slow link block the writes as on a device; $3 its opts, $4 what analyze checks besides
+jtcp() {
+	want "$1" || return 0
+	"$OUT/pwrecv" -p "$((PORT + 1))" -n "$1" -a "$OUT/$1.trace" > "$OUT/$1.rx" &
+	R=$!
+	"$OUT/pwproxy" -l "$PORT" -t "127.0.0.1:$((PORT + 1))" -n "$1" -s "$((SECS + 1))" \
+	    ${2:+-e "$2"} > "$OUT/$1.px" &
+	P=$!
+	sleep 0.3
+	java -cp "$OUT/classes" ReplayBench "127.0.0.1:$PORT" "$OUT/tone.wav" "$SECS" rt java \
+	    ultra 1.0 0 "$3" > "$OUT/$1.tx" 2>&1
+	wait $P
+	kill $R; wait $R 2>/dev/null || true
+	analyze "$1" java "$2" 1 "$4" >> "$OUT/results.tmp"
+	tail -n 1 "$OUT/results.tmp"
+}
+
+udp() {
+	want "$1" || return 0
+	"$OUT/pwrecv" -m "$GROUP_OUT" -p "$((PORT + 3))" -s "$((SECS + 2))" -n "$1" \
+	    -a "$OUT/$1.trace" > "$OUT/$1.rx" &
+	R=$!
+	"$OUT/pwproxy" -u -l "$GROUP_IN:$((PORT + 2))" -t "$GROUP_OUT:$((PORT + 3))" -n "$1" \
+	    -s "$((SECS + 1))" ${2:+-e "$2"} > "$OUT/$1.px" &
+	P=$!
+	sleep 0.3
+	java -cp "$OUT/classes" McastSend "$GROUP_IN:$((PORT + 2))" "$OUT/tone.wav" "$SECS" > "$OUT/$1.tx"
+	wait $P $R
+	analyze "$1" udp "$2" 1 >> "$OUT/results.tmp"
+	tail -n 1 "$OUT/results.tmp"
+}
+
+: > "$OUT/results.tmp"
+tcp clean ""
+tcp delay "3000:delay=40,jitter=30;8000:delay=0,jitter=0"
+tcp loss "3000:loss=3;8000:loss=0"
+tcp bwcap "3000:kbps=1000;8000:kbps=0"
+tcp reset "5000:reset=1"
+tcp outage "4000:down=1;6000:down=0"
+jtcp java_clean "" abr ""
+jtcp java_bwcap "3000:kbps=1000;8000:kbps=0" abr abr
+jtcp java_stall "3000:kbps=16" - dead
+udp udp_clean ""
+udp udp_jitter "3000:delay=20,jitter=15;8000:delay=0,jitter=0"
+udp udp_loss "3000:loss=5;8000:loss=0"
+udp udp_bwcap "3000:kbps=1000;8000:kbps=0"
+
+{
+	printf '{"secs":%d,"batch":%d,"tol_ms":%d,"recover_max_ms":%d,"scenarios":[\n' \
+	    "$SECS" "$BATCH" "$TOL_MS" "$RECOVER_MAX_MS"
+	sed '$!s/$/,/' "$OUT/results.tmp"
+	printf ']}\n'
+} > "$OUT/results.json"
+rm -f "$OUT/results.tmp"
+echo "results: $OUT/results.json"
+! grep -q '"pass":false' "$OUT/results.json"
@@ -0,0 +1,88 @@
+#!/bin/sh
+
+## hyphop ##
+
+## native sender transport on a Linux host: pwload against local pwrecv listeners.
+##
+##   steady     STREAMS streams for SECS seconds with batch=1 and batch=BATCH; process CPU
+##              (getrusage) and sendmsg() calls per second of each run
+##   reconnect  one stream, its listener killed at 2 s and back GAP ms later; downtime
+##              beyond GAP is what the sender itself takes to notice and reconnect
+##
+## BEFORE=/path/to/old/pwload runs the same scenarios on an older build for comparison
+## (its downtime comes from the chunk count, it has no down= stat).
+##
+##   SECS=10 STREAMS=4 BATCH=4 ./loadgen-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-load}
+SECS=${SECS:-10}
+STREAMS=${STREAMS:-4}
+BATCH=${BATCH:-4}
+GAP=${GAP:-500}
+PORT=${PORT:-47100}
+BEFORE=${BEFORE:-}
+J=../jni
+
+mkdir -p "$OUT"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+cc -O2 -Wall -pthread -o "$OUT/pwload" $J/loadgen.c $J/nettx.c $J/loadgen_host.c -lm
+
+PIDS=
+listen() { # port
+    "$OUT/pwrecv" -p "$1" -n "$1" > /dev/null 2>&1 &
+    PIDS="$PIDS $!"
+}
+stop_all() {
+    [ -n "$PIDS" ] && kill $PIDS 2>/dev/null; wait 2>/dev/null; PIDS=
+}
+trap stop_all EXIT
+
+# chunks sent vs. wall time: ms of audio not sent
+missing() { # log secs
+    awk -v secs="$2" '/total/ { for (i = 1; i <= NF; i++) if ($i ~ /^chunks=/) {
+        split($i, a, "="); n += a[2] } }
+        END { printf "%.0f", secs * 1000 - n * 10 }' "$1"
+}
+
+steady() { # name bin batch
+    stop_all
+    i=0; while [ $i -lt "$STREAMS" ]; do listen $((PORT + i)); i=$((i + 1)); done
+    sleep 0.3
+    b=; [ "$3" -gt 1 ] && b="batch=$3"
+    # the subshell's children times: the same measure for builds without "pwload cpu"
+    ( "$2" -s "$SECS" host=127.0.0.1 port=$PORT port_step=1 streams=$STREAMS framed=1 $b; \
+      times ) > "$OUT/$1.log" 2>&1
+    cpu=$(tail -1 "$OUT/$1.log" | awk -v secs="$SECS" '{ gsub(/[ms]/, " "); split($0, t, " ");
+        c = t[1] * 60 + t[2] + t[3] * 60 + t[4]; printf "user+sys=%.3fs (%.2f%%)", c, c * 100 / secs }')
+    sys=$(awk -v secs="$SECS" '/total/ { for (i = 1; i <= NF; i++) if ($i ~ /^sys=/) {
+        split($i, a, "="); n += a[2] } } END { if (n) printf "%.0f/s", n / secs; else print "-" }' \
+        "$OUT/$1.log")
+    echo "steady $1: $cpu sendmsg=$sys late=$(grep -c 'late=[1-9]' "$OUT/$1.log" || true)"
+}
+
+reconnect() { # name bin
+    stop_all
+    "$OUT/pwrecv" -p "$PORT" -n r > /dev/null 2>&1 &
+    R=$!
+    sleep 0.3
+    "$2" -s "$SECS" host=127.0.0.1 port=$PORT framed=1 > "$OUT/$1.log" 2>&1 &
+    L=$!
+    sleep 2
+    kill $R; wait $R 2>/dev/null || true
+    sleep "$(awk -v g="$GAP" 'BEGIN { print g / 1000 }')"
+    listen "$PORT"
+    wait $L
+    echo "reconnect $1: audio not sent $(missing "$OUT/$1.log" "$SECS")ms for a ${GAP}ms outage," \
+        "$(grep 'total' "$OUT/$1.log" | grep -o 'down=[0-9]*ms' || echo 'down=n/a')"
+}
+
+steady after-b1 "$OUT/pwload" 1
+steady after-b$BATCH "$OUT/pwload" "$BATCH"
+reconnect after-reconn "$OUT/pwload"
+if [ -n "$BEFORE" ]; then
+    steady before-b1 "$BEFORE" 1
+    reconnect before-reconn "$BEFORE"
+fi
@@ -0,0 +1,40 @@
+#!/bin/sh
+
+## hyphop ##
+
+## multicast one-to-many on a Linux host: one sender, two receivers joined to the same
+## group on this host (multicast loopback). Each receiver reports loss (seq gaps) and
+## RFC 3550 jitter; a 10 ms batch goes out as two datagrams with pts 5 ms apart, so
+## about 5 ms of that is the batching itself. IFACE=eth0 picks the sending interface.
+##
+##   SECS=30 GROUP=239.255.42.1 ./mcast-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-mcast}
+SECS=${SECS:-10}
+GROUP=${GROUP:-239.255.42.1}
+PORT=${PORT:-47010}
+IFACE=${IFACE:-}
+SRC=../src/org/example/mininative
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java $SRC/MulticastSender.java \
+    ReplayBench.java McastSend.java
+[ -f "$OUT/tone.wav" ] || java -cp "$OUT/classes" ReplayBench gen "$OUT/tone.wav" 10
+
+"$OUT/pwrecv" -m "$GROUP" -p "$PORT" -s $((SECS + 2)) -n A > "$OUT/a.log" &
+A=$!
+"$OUT/pwrecv" -m "$GROUP" -p "$PORT" -s $((SECS + 2)) -n B > "$OUT/b.log" &
+B=$!
+sleep 0.5
+
+java -cp "$OUT/classes" McastSend "$GROUP:$PORT" "$OUT/tone.wav" "$SECS" "$IFACE"
+wait $A $B
+
+grep -h summary "$OUT/a.log" "$OUT/b.log"
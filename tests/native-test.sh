@@ -0,0 +1,60 @@
+#!/bin/sh
+
+## hyphop ##
+
+## native TX path on a Linux host: libpwtx.so built against the host JDK, NativeSender
+## fed through SendPipeline like StreamService feeds it (a replayed WAV), pwrecv as the receiver. The receiver is killed
+## at 3 s and back 0.5 s later, so the summary also shows the native reconnect; pwrecv
+## reports seq gaps per connection (frames lost inside a connection). Then a sender with
+## no receiver at all is closed mid-backoff: close() must not wait the backoff out.
+##
+##   SECS=10 BATCH=4 PACED=paced ./native-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-native}
+SECS=${SECS:-10}
+BATCH=${BATCH:-4}
+PACED=${PACED:-}
+PORT=${PORT:-47300}
+JAVA_HOME=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v javac)")")")}
+SRC=../src/org/example/mininative
+J=../jni
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+cc -O2 -Wall -shared -fPIC -pthread -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+    -I$J -o "$OUT/libpwtx.so" $J/pwtx.c $J/nettx.c
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java ReplayBench.java \
+    NativeSend.java
+[ -f "$OUT/tone.wav" ] || java -cp "$OUT/classes" ReplayBench gen "$OUT/tone.wav" 10
+
+"$OUT/pwrecv" -p "$PORT" -n A > "$OUT/a1.log" &
+R=$!
+sleep 0.3
+
+java -Djava.library.path="$OUT" -cp "$OUT/classes" NativeSend "127.0.0.1:$PORT" "$OUT/tone.wav" \
+    "$SECS" "$BATCH" $PACED > "$OUT/tx.log" 2>&1 &
+T=$!
+sleep 3
+kill $R; wait $R 2>/dev/null || true
+sleep 0.5
+"$OUT/pwrecv" -p "$PORT" -n B > "$OUT/a2.log" &
+R=$!
+wait $T
+sleep 0.3
+kill $R; wait $R 2>/dev/null || true
+
+cat "$OUT/tx.log"
+grep -h "format\|summary\|seq" "$OUT/a1.log" "$OUT/a2.log"
+
+# 4 s refused: the backoff is at its 1 s maximum when the sender closes
+java -Djava.library.path="$OUT" -cp "$OUT/classes" NativeSend "127.0.0.1:$((PORT + 1))" \
+    "$OUT/tone.wav" 4 "$BATCH" > "$OUT/down.log" 2>&1
+MS=$(sed -n 's/^closed in \([0-9]*\)ms$/\1/p' "$OUT/down.log")
+echo "close during backoff: ${MS}ms"
+[ -n "$MS" ] && [ "$MS" -lt 200 ]
@@ -0,0 +1,47 @@
+#!/bin/sh
+
+## hyphop ##
+
+## end-to-end latency probe on a Linux host: ProbeSend runs the app's SendPipeline in probe
+## mode (chirps instead of the replayed audio), pwrecv -e plays it on a simulated clock (offset, drift)
+## and echoes it back with the play time, plus OUT_MS of simulated output path. What the
+## probe finds should be the truth:
+##   sync  DELAY_MS + OUT_MS (playout at capture + delay on the receiver clock)
+##   free  played back to back from the first arrival: OUT_MS + the 10 ms chunk at
+##         least, and every late frame adds to it for good (no jitter buffer)
+## The u-law run (rung 2, mono) checks the chirp survives a format step down.
+##
+##   SECS=20 DELAY_MS=150 OUT_MS=35 ./probe-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-probe}
+SECS=${SECS:-15}
+DELAY_MS=${DELAY_MS:-150}
+OUT_MS=${OUT_MS:-35}
+PORT=${PORT:-47500}
+SRC=../src/org/example/mininative
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java ReplayBench.java \
+    ProbeSend.java
+[ -f "$OUT/tone.wav" ] || java -cp "$OUT/classes" ReplayBench gen "$OUT/tone.wav" 10
+
+probe() {
+	"$OUT/pwrecv" -1 -p "$PORT" -n "$1" -o 5432.1 -d 60 -e "$OUT_MS" > "$OUT/$1.log" &
+	R=$!
+	sleep 0.3
+	java -cp "$OUT/classes" ProbeSend "127.0.0.1:$PORT" "$OUT/tone.wav" "$SECS" "$2" "$3" > "$OUT/$1.tx"
+	wait $R || true
+	echo "$1 (expect $4 ms):"
+	tail -n 1 "$OUT/$1.tx"
+}
+
+probe sync "$DELAY_MS" 0 "$((DELAY_MS + OUT_MS))"
+probe free free 0 ">= $((OUT_MS + 10))"
+probe ulaw "$DELAY_MS" 2 "$((DELAY_MS + OUT_MS))"
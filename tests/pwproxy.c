@@ -0,0 +1,565 @@
+/*
+ * pwproxy - network impairment proxy for pw-net transport tests on a Linux host
+ *
+ * Sits between a sender and a receiver (pwrecv) and makes the path behave like a bad
+ * Wi-Fi link: one-way delay, jitter, loss, a bandwidth cap and, for TCP, connection
+ * resets and outages. The impairments apply sender -> receiver; the back channel (PONG,
+ * SYNC_REPLY, ECHO) only gets the delay.
+ *
+ * TCP (default): one connection at a time, accepted on -l and connected on to -t. Bytes
+ * are forwarded in the chunks they were read in, each due at read time + delay + a
+ * uniform 0..jitter, never before the chunk ahead of it (TCP keeps order). Loss cannot
+ * drop bytes from a stream; a lost segment shows up as head-of-line blocking, so a
+ * "lost" chunk is held for RTO_MS more. The cap is a token bucket; what it cannot pass
+ * waits, and past -q kB queued the proxy stops reading, so the sender's socket fills
+ * (backpressure) as behind a slow link.
+ *   reset  both sides are closed with RST (SO_LINGER 0)
+ *   down   reset, then new connections are refused with RST until down=0
+ *
+ * UDP (-u): datagrams to -l (a multicast group is joined) go on to -t (a group address
+ * works, with loopback), each delayed and jittered independently (they may reorder),
+ * lost with the given probability, dropped when the capped queue is over -q kB.
+ *
+ * -e runs a schedule, "ms:key=val,key=val;ms:..." relative to start, keys delay, jitter
+ * (ms), loss (%), kbps (0 = no cap), reset (1) and down (0/1); e.g.
+ *   -e "3000:kbps=800;7000:kbps=0"     a 4 s bandwidth dip
+ * Every event is logged with its CLOCK_MONOTONIC time, so a test on the same host can
+ * line it up against the receiver:
+ *   pwproxy[name] t=<ns> apply kbps=800
+ *   pwproxy[name] t=<ns> reset|accept|refuse|close
+ *
+ *   cc -O2 -Wall -o pwproxy pwproxy.c
+ *   pwproxy [-u] -l [addr:]port -t host:port [-d delay_ms] [-j jitter_ms] [-p loss_pct]
+ *           [-b kbps] [-q queue_kb] [-e schedule] [-s secs] [-n name]
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <arpa/inet.h>
+#include <netdb.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <poll.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <time.h>
+#include <unistd.h>
+
+#define CHUNK     4096
+#define QN        1024          /* chunks per direction */
+#define RTO_MS    200           /* what a lost TCP segment costs: Linux min RTO */
+#define MAX_EVENTS 32
+
+struct chunk {
+	int64_t due;
+	uint32_t len, off;
+	uint8_t data[CHUNK];
+};
+
+struct queue {
+	struct chunk c[QN];
+	int head, n;
+	size_t bytes;
+	int64_t last_due;
+	int blocked;            /* the last send would block: wait for POLLOUT */
+};
+
+struct event {
+	int64_t at;             /* ns after start */
+	char spec[96];
+};
+
+static const char *opt_name = "px";
+static int opt_udp, opt_secs;
+static int64_t delay_ns, jitter_ns;
+static double loss;             /* fraction */
+static int64_t kbps;            /* 0 = no cap */
+static size_t qlimit = 32 * 1024;  /* an AP's queue, not a router's bufferbloat */
+static int down;
+
+static struct event events[MAX_EVENTS];
+static int n_events, next_event;
+static int64_t t_start;
+
+static struct queue up, dn;     /* sender -> receiver, receiver -> sender */
+static double tokens;           /* bytes the cap lets through now */
+static int64_t t_tokens;
+
+static struct {
+	int64_t bytes, chunks, lost, dropped, resets, refused, conns;
+	int64_t q_max;
+} st;
+
+static int64_t mono_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static void logev(const char *what, const char *arg)
+{
+	printf("pwproxy[%s] t=%lld %s%s%s\n", opt_name, (long long)mono_ns(), what,
+	       arg ? " " : "", arg ? arg : "");
+	fflush(stdout);
+}
+
+static int parse_hostport(const char *s, struct sockaddr_in *a)
+{
+	char host[128];
+	const char *c = strrchr(s, ':');
+	memset(a, 0, sizeof(*a));
+	a->sin_family = AF_INET;
+	if (!c) {
+		a->sin_addr.s_addr = htonl(INADDR_ANY);
+		a->sin_port = htons(atoi(s));
+		return 0;
+	}
+	snprintf(host, sizeof(host), "%.*s", (int)(c - s), s);
+	a->sin_port = htons(atoi(c + 1));
+	if (!host[0]) {
+		a->sin_addr.s_addr = htonl(INADDR_ANY);
+		return 0;
+	}
+	struct addrinfo hints = { .ai_family = AF_INET }, *ai;
+	if (getaddrinfo(host, NULL, &hints, &ai) != 0)
+		return -1;
+	a->sin_addr = ((struct sockaddr_in *)ai->ai_addr)->sin_addr;
+	freeaddrinfo(ai);
+	return 0;
+}
+
+/* "key=val,key=val"; reset/down act on the sockets, so they come back as flags */
+static void apply(const char *spec, int *do_reset)
+{
+	char buf[96], *save, *kv;
+	snprintf(buf, sizeof(buf), "%s", spec);
+	for (kv = strtok_r(buf, ",", &save); kv; kv = strtok_r(NULL, ",", &save)) {
+		char *eq = strchr(kv, '=');
+		if (!eq)
+			continue;
+		*eq = 0;
+		double v = atof(eq + 1);
+		if (!strcmp(kv, "delay"))
+			delay_ns = (int64_t)(v * 1e6);
+		else if (!strcmp(kv, "jitter"))
+			jitter_ns = (int64_t)(v * 1e6);
+		else if (!strcmp(kv, "loss"))
+			loss = v / 100.0;
+		else if (!strcmp(kv, "kbps"))
+			kbps = (int64_t)v;
+		else if (!strcmp(kv, "reset"))
+			*do_reset = v != 0;
+		else if (!strcmp(kv, "down")) {
+			down = v != 0;
+			if (down)
+				*do_reset = 1;
+		}
+	}
+	logev("apply", spec);
+}
+
+static void parse_schedule(char *s)
+{
+	char *save, *ev;
+	for (ev = strtok_r(s, ";", &save); ev && n_events < MAX_EVENTS; ev = strtok_r(NULL, ";", &save)) {
+		char *c = strchr(ev, ':');
+		if (!c)
+			continue;
+		events[n_events].at = (int64_t)(atof(ev) * 1e6);
+		snprintf(events[n_events].spec, sizeof(events[0].spec), "%s", c + 1);
+		n_events++;
+	}
+}
+
+/* due time for a chunk read now: delay + jitter, loss as a retransmit stall */
+static int64_t due_of(struct queue *q, int64_t now, int ordered, int *lost)
+{
+	int64_t d = now + delay_ns;
+	if (jitter_ns > 0)
+		d += (int64_t)((double)rand() / RAND_MAX * jitter_ns);
+	*lost = loss > 0 && (double)rand() / RAND_MAX < loss;
+	if (*lost && ordered)
+		d += RTO_MS * 1000000LL;
+	if (ordered && d < q->last_due)
+		d = q->last_due;
+	q->last_due = d;
+	return d;
+}
+
+static struct chunk *q_tail(struct queue *q)
+{
+	return q->n < QN ? &q->c[(q->head + q->n) % QN] : NULL;
+}
+
+static void q_push(struct queue *q)
+{
+	q->bytes += q->c[(q->head + q->n) % QN].len;
+	q->n++;
+	if ((int64_t)q->bytes > st.q_max && q == &up)
+		st.q_max = q->bytes;
+}
+
+static void q_pop(struct queue *q)
+{
+	q->bytes -= q->c[q->head].len - q->c[q->head].off;
+	q->head = (q->head + 1) % QN;
+	q->n--;
+}
+
+static void q_clear(struct queue *q)
+{
+	q->head = q->n = 0;
+	q->bytes = 0;
+	q->last_due = 0;
+	q->blocked = 0;
+}
+
+static void refill(int64_t now)
+{
+	if (!kbps) {
+		tokens = 0;
+		t_tokens = now;
+		return;
+	}
+	double rate = kbps * 1000.0 / 8 / 1e9;  /* bytes per ns */
+	double burst = rate * 10e6 > 1500 ? rate * 10e6 : 1500; /* 10 ms, one MTU at least */
+	tokens += (now - t_tokens) * rate;
+	if (tokens > burst)
+		tokens = burst;
+	t_tokens = now;
+}
+
+/* bytes the cap allows now, -1 = no cap */
+static long allowance(void)
+{
+	return kbps ? (long)tokens : -1;
+}
+
+static void hard_close(int fd)
+{
+	struct linger l = { 1, 0 };
+	if (fd < 0)
+		return;
+	setsockopt(fd, SOL_SOCKET, SO_LINGER, &l, sizeof(l));
+	close(fd);
+}
+
+/* next time something is due: a chunk, a schedule event, the end */
+static int poll_ms(int64_t now)
+{
+	int64_t next = now + 1000000000LL;
+	if (up.n && !up.blocked) {
+		int64_t d = up.c[up.head].due;
+		if (kbps && tokens < 1)
+			d = now + 1000000LL;
+		if (d < next)
+			next = d;
+	}
+	if (dn.n && !dn.blocked && dn.c[dn.head].due < next)
+		next = dn.c[dn.head].due;
+	if (next_event < n_events && t_start + events[next_event].at < next)
+		next = t_start + events[next_event].at;
+	int64_t ms = (next - now + 999999) / 1000000;
+	return ms < 0 ? 0 : (int)ms;
+}
+
+/* writes what is due from q to fd; <0 when fd is gone */
+static int flush(struct queue *q, int fd, int capped, int64_t now)
+{
+	q->blocked = 0;
+	while (q->n) {
+		struct chunk *c = &q->c[q->head];
+		if (c->due > now)
+			break;
+		long n = c->len - c->off, a = capped ? allowance() : -1;
+		if (a == 0)
+			break;
+		if (a > 0 && n > a)
+			n = a;
+		ssize_t w = send(fd, c->data + c->off, n, MSG_DONTWAIT | MSG_NOSIGNAL);
+		if (w < 0 && (errno == EAGAIN || errno == EWOULDBLOCK)) {
+			q->blocked = 1;
+			return 0;
+		}
+		if (w < 0)
+			return -1;
+		c->off += w;
+		q->bytes -= w;
+		if (capped) {
+			tokens -= w;
+			st.bytes += w;
+		}
+		if (c->off < c->len)
+			return 0;
+		q_pop(q);
+	}
+	return 0;
+}
+
+static int listen_on(struct sockaddr_in *a, int type)
+{
+	int fd = socket(AF_INET, type, 0), one = 1, rcv = 16 * 1024;
+	setsockopt(fd, SOL_SOCKET, SO_REUSEADDR, &one, sizeof(one));
+	/* accepted sockets inherit it: loopback's multi-MB window would hide the cap from
+	 * the sender for seconds, a phone's path has far less in flight */
+	if (type == SOCK_STREAM)
+		setsockopt(fd, SOL_SOCKET, SO_RCVBUF, &rcv, sizeof(rcv));
+	if (bind(fd, (struct sockaddr *)a, sizeof(*a)) < 0) {
+		perror("pwproxy: bind");
+		exit(1);
+	}
+	if (type == SOCK_STREAM && listen(fd, 4) < 0) {
+		perror("pwproxy: listen");
+		exit(1);
+	}
+	return fd;
+}
+
+static void run_events(int64_t now, int *do_reset)
+{
+	while (next_event < n_events && now >= t_start + events[next_event].at)
+		apply(events[next_event++].spec, do_reset);
+}
+
+static int proxy_tcp(struct sockaddr_in *la, struct sockaddr_in *ta)
+{
+	int ls = listen_on(la, SOCK_STREAM), cfd = -1, ufd = -1, one = 1;
+
+	for (;;) {
+		int64_t now = mono_ns();
+		int rst = 0;
+		if (opt_secs && now - t_start >= opt_secs * 1000000000LL)
+			break;
+		run_events(now, &rst);
+		if (rst && cfd >= 0) {
+			hard_close(cfd);
+			hard_close(ufd);
+			cfd = ufd = -1;
+			q_clear(&up);
+			q_clear(&dn);
+			st.resets++;
+			logev("reset", NULL);
+		}
+
+		struct pollfd p[3];
+		int np = 0, ic = -1, iu = -1;
+		p[np].fd = ls;
+		p[np++].events = POLLIN;
+		if (cfd >= 0) {
+			ic = np;
+			p[np].fd = cfd;
+			p[np].events = (up.bytes < qlimit && q_tail(&up) ? POLLIN : 0) | (dn.blocked ? POLLOUT : 0);
+			np++;
+			iu = np;
+			p[np].fd = ufd;
+			p[np].events = (q_tail(&dn) ? POLLIN : 0) | (up.blocked ? POLLOUT : 0);
+			np++;
+		}
+		refill(now);
+		if (poll(p, np, poll_ms(now)) < 0 && errno != EINTR) {
+			perror("pwproxy: poll");
+			return 1;
+		}
+		now = mono_ns();
+		refill(now);
+
+		if (p[0].revents & POLLIN) {
+			int fd = accept(ls, NULL, NULL);
+			if (fd >= 0 && (down || cfd >= 0)) {
+				hard_close(fd);
+				st.refused++;
+				logev("refuse", down ? "down" : "busy");
+			} else if (fd >= 0) {
+				int u = socket(AF_INET, SOCK_STREAM, 0);
+				if (connect(u, (struct sockaddr *)ta, sizeof(*ta)) < 0) {
+					logev("refuse", "upstream");
+					hard_close(fd);
+					close(u);
+				} else {
+					setsockopt(fd, IPPROTO_TCP, TCP_NODELAY, &one, sizeof(one));
+					setsockopt(u, IPPROTO_TCP, TCP_NODELAY, &one, sizeof(one));
+					cfd = fd;
+					ufd = u;
+					q_clear(&up);
+					q_clear(&dn);
+					st.conns++;
+					logev("accept", NULL);
+				}
+			}
+		}
+		if (cfd < 0)
+			continue;
+
+		int gone = 0;
+		struct chunk *c;
+		if ((p[ic].revents & (POLLIN | POLLHUP | POLLERR)) && (c = q_tail(&up))) {
+			ssize_t r = recv(cfd, c->data, CHUNK, MSG_DONTWAIT);
+			if (r > 0) {
+				int lost;
+				c->len = r;
+				c->off = 0;
+				c->due = due_of(&up, now, 1, &lost);
+				st.lost += lost;
+				st.chunks++;
+				q_push(&up);
+			} else if (r == 0 || (errno != EAGAIN && errno != EINTR)) {
+				gone = 1;
+			}
+		}
+		if ((p[iu].revents & (POLLIN | POLLHUP | POLLERR)) && (c = q_tail(&dn))) {
+			ssize_t r = recv(ufd, c->data, CHUNK, MSG_DONTWAIT);
+			if (r > 0) {
+				c->len = r;
+				c->off = 0;
+				c->due = now + delay_ns;
+				q_push(&dn);
+			} else if (r == 0 || (errno != EAGAIN && errno != EINTR)) {
+				gone = 1;
+			}
+		}
+		if (flush(&up, ufd, 1, now) < 0 || flush(&dn, cfd, 0, now) < 0)
+			gone = 1;
+		if (gone) {
+			hard_close(cfd);
+			hard_close(ufd);
+			cfd = ufd = -1;
+			logev("close", NULL);
+		}
+	}
+	return 0;
+}
+
+static int proxy_udp(struct sockaddr_in *la, struct sockaddr_in *ta)
+{
+	int in = listen_on(la, SOCK_DGRAM), out = socket(AF_INET, SOCK_DGRAM, 0), one = 1;
+	unsigned char ttl = 1;
+
+	if (IN_MULTICAST(ntohl(la->sin_addr.s_addr))) {
+		struct ip_mreq mr = { .imr_multiaddr = la->sin_addr };
+		mr.imr_interface.s_addr = htonl(INADDR_ANY);
+		if (setsockopt(in, IPPROTO_IP, IP_ADD_MEMBERSHIP, &mr, sizeof(mr)) < 0) {
+			perror("pwproxy: join");
+			return 1;
+		}
+	}
+	setsockopt(out, IPPROTO_IP, IP_MULTICAST_LOOP, &one, sizeof(one));
+	setsockopt(out, IPPROTO_IP, IP_MULTICAST_TTL, &ttl, sizeof(ttl));
+
+	for (;;) {
+		int64_t now = mono_ns();
+		int rst = 0;
+		if (opt_secs && now - t_start >= opt_secs * 1000000000LL)
+			break;
+		run_events(now, &rst);
+		refill(now);
+		struct pollfd p = { .fd = in, .events = POLLIN };
+		if (poll(&p, 1, poll_ms(now)) < 0 && errno != EINTR) {
+			perror("pwproxy: poll");
+			return 1;
+		}
+		now = mono_ns();
+		refill(now);
+		struct chunk *c;
+		while ((c = q_tail(&up))) {
+			ssize_t r = recv(in, c->data, CHUNK, MSG_DONTWAIT);
+			if (r <= 0)
+				break;
+			int lost;
+			c->len = r;
+			c->off = 0;
+			c->due = due_of(&up, now, 0, &lost);
+			st.chunks++;
+			if (lost) {
+				st.lost++;
+				continue;
+			}
+			if (up.bytes + r > qlimit) {
+				st.dropped++;
+				continue;
+			}
+			q_push(&up);
+		}
+		if (!q_tail(&up)) {
+			char sink[CHUNK];
+			while (recv(in, sink, sizeof(sink), MSG_DONTWAIT) > 0)
+				st.dropped++;
+		}
+		/* datagrams leave whole, earliest due first: jitter may reorder them */
+		for (;;) {
+			int best = -1;
+			for (int i = 0; i < up.n; i++) {
+				int k = (up.head + i) % QN;
+				if (up.c[k].due <= now && (best < 0 || up.c[k].due < up.c[best].due))
+					best = k;
+			}
+			if (best < 0 || (kbps && tokens < up.c[best].len))
+				break;
+			sendto(out, up.c[best].data, up.c[best].len, 0, (struct sockaddr *)ta, sizeof(*ta));
+			if (kbps)
+				tokens -= up.c[best].len;
+			st.bytes += up.c[best].len;
+			/* swap the head into the hole, then pop it */
+			if (best != up.head) {
+				struct chunk tmp = up.c[best];
+				up.c[best] = up.c[up.head];
+				up.c[up.head] = tmp;
+			}
+			q_pop(&up);
+		}
+	}
+	return 0;
+}
+
+int main(int argc, char **argv)
+{
+	struct sockaddr_in la, ta;
+	const char *l = NULL, *t = NULL;
+	char *sched = NULL;
+	int c;
+
+	while ((c = getopt(argc, argv, "ul:t:d:j:p:b:q:e:s:n:")) != -1) {
+		switch (c) {
+		case 'u': opt_udp = 1; break;
+		case 'l': l = optarg; break;
+		case 't': t = optarg; break;
+		case 'd': delay_ns = (int64_t)(atof(optarg) * 1e6); break;
+		case 'j': jitter_ns = (int64_t)(atof(optarg) * 1e6); break;
+		case 'p': loss = atof(optarg) / 100.0; break;
+		case 'b': kbps = atoll(optarg); break;
+		case 'q': qlimit = (size_t)atoi(optarg) * 1024; break;
+		case 'e': sched = optarg; break;
+		case 's': opt_secs = atoi(optarg); break;
+		case 'n': opt_name = optarg; break;
+		default:
+			l = NULL;
+			break;
+		}
+	}
+	if (!l || !t || parse_hostport(l, &la) < 0 || parse_hostport(t, &ta) < 0) {
+		fprintf(stderr, "usage: %s [-u] -l [addr:]port -t host:port [-d delay_ms] "
+			"[-j jitter_ms] [-p loss_pct] [-b kbps] [-q queue_kb] [-e schedule] "
+			"[-s secs] [-n name]\n", argv[0]);
+		return 2;
+	}
+	if (qlimit > (size_t)(QN - 1) * CHUNK)
+		qlimit = (size_t)(QN - 1) * CHUNK;
+	if (sched)
+		parse_schedule(sched);
+	t_start = t_tokens = mono_ns();
+	srand((unsigned)t_start);
+	printf("pwproxy[%s] %s %s -> %s delay=%.1fms jitter=%.1fms loss=%.2f%% kbps=%lld "
+	       "queue=%zukB events=%d\n", opt_name, opt_udp ? "udp" : "tcp", l, t, delay_ns / 1e6,
+	       jitter_ns / 1e6, loss * 100, (long long)kbps, qlimit / 1024, n_events);
+	fflush(stdout);
+
+	int r = opt_udp ? proxy_udp(&la, &ta) : proxy_tcp(&la, &ta);
+	printf("pwproxy[%s] summary bytes=%lld chunks=%lld lost=%lld dropped=%lld conns=%lld "
+	       "resets=%lld refused=%lld qmax=%lldkB\n", opt_name, (long long)st.bytes,
+	       (long long)st.chunks, (long long)st.lost, (long long)st.dropped,
+	       (long long)st.conns, (long long)st.resets, (long long)st.refused,
+	       (long long)st.q_max / 1024);
+	return r;
+}
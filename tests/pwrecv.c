@@ -0,0 +1,583 @@
+/*
+ * pwrecv - reference receiver for pw-net streams, for tests on a Linux host
+ *
+ * Accepts one sender at a time on a TCP port. Raw streams are only counted. Framed
+ * streams (see Framing.java) are parsed: PING is answered with PONG, SYNC with
+ * SYNC_REPLY, and AUDIO frames carrying a playout time (F_PLAYOUT) are checked
+ * against the simulated clock.
+ *
+ * The receiver clock is simulated as  local = mono + offset + (mono - start) * drift,
+ * so a sender on the same host has a known truth to be measured against. With -t the
+ * sender puts its intended playout time (its CLOCK_MONOTONIC ns, i64 BE) in the first
+ * 8 payload bytes of each AUDIO frame; the error is then
+ *     err = (host time at which pts comes due on our clock) - intended
+ * i.e. how far from the intended moment this receiver would play the sample.
+ *
+ * seq is checked over all frames of a connection; jumps are reported as gaps (lost
+ * frames) with the summary.
+ *
+ * GAIN frames (passthrough mode) are logged; their pts is checked against the AUDIO
+ * frame that follows, which is where the receiver would apply them.
+ *
+ * With -e out_ms it echoes what it plays (LatencyProbe.java): every AUDIO frame goes
+ * back as an ECHO frame, downmixed to mono s16le, stamped with its play time on our clock,
+ * i.e. its pts for playout frames, else back to back from its arrival on (as an output
+ * without a jitter buffer would), plus out_ms of simulated output path.
+ *
+ * With -m group it joins a multicast group instead (MulticastSender.java): one frame per
+ * datagram, loss counted from seq gaps, interarrival jitter as in RFC 3550 (A.8) from
+ * arrival time vs. pts. -s secs stops it after that long. On TCP the same estimate over
+ * AUDIO frames goes back in every PONG, after the buffer fill.
+ *
+ * -a file writes one line per AUDIO frame, over all connections, for test scripts:
+ *     arrival_ns seq pts_ns dur_ns
+ * arrival on CLOCK_MONOTONIC, dur from the current FORMAT; with a capture pts from a sender
+ * on the same host, arrival - pts is the frame's age and a pts that does not follow on
+ * from the previous pts + dur is audio that never arrived (pwproxy tests).
+ *
+ *   cc -O2 -Wall -o pwrecv pwrecv.c -lm
+ *   pwrecv [-p port] [-o offset_ms] [-d drift_ppm] [-j reply_jitter_us] [-t] [-1] [-n name]
+ *          [-e out_ms] [-a trace]
+ *   pwrecv -m group [-p port] [-s secs] [-n name] [-a trace]
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <math.h>
+#include <arpa/inet.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/time.h>
+#include <time.h>
+#include <unistd.h>
+
+#define HDR        20
+#define MAGIC      0x5057
+#define T_AUDIO    1
+#define T_FORMAT   2
+#define T_PING     3
+#define T_PONG     4
+#define T_REPORT   5
+#define T_SYNC     6
+#define T_SYNC_REPLY 7
+#define T_GAIN     8
+#define T_ECHO     9
+#define ENC_ULAW   2
+#define F_PLAYOUT  0x01
+#define MAX_PAYLOAD (1 << 20)
+
+static int64_t opt_offset_ns;
+static double opt_drift;        /* fraction, ppm * 1e-6 */
+static int opt_jitter_us;
+static int opt_test;
+static int opt_once;
+static const char *opt_name = "rx";
+static const char *opt_group;
+static int opt_secs;
+static int opt_echo_ms = -1;
+static FILE *opt_trace;
+
+static int64_t mono0;
+
+static int64_t mono_ns(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+/* simulated receiver clock */
+static int64_t sim_of(int64_t m)
+{
+	return m + opt_offset_ns + (int64_t)((double)(m - mono0) * opt_drift);
+}
+
+static int64_t sim_now(void) { return sim_of(mono_ns()); }
+
+/* host time at which our clock reads s */
+static int64_t mono_of(int64_t s)
+{
+	return (int64_t)((double)(s - opt_offset_ns - mono0) / (1.0 + opt_drift)) + mono0;
+}
+
+static uint32_t get32(const uint8_t *b)
+{
+	return ((uint32_t)b[0] << 24) | ((uint32_t)b[1] << 16) | ((uint32_t)b[2] << 8) | b[3];
+}
+
+static int64_t get64(const uint8_t *b)
+{
+	return (int64_t)(((uint64_t)get32(b) << 32) | get32(b + 4));
+}
+
+static void put32(uint8_t *b, uint32_t v)
+{
+	b[0] = v >> 24; b[1] = v >> 16; b[2] = v >> 8; b[3] = v;
+}
+
+static void put64(uint8_t *b, int64_t v)
+{
+	put32(b, (uint32_t)((uint64_t)v >> 32));
+	put32(b + 4, (uint32_t)v);
+}
+
+static void put_hdr(uint8_t *b, int type, int flags, uint32_t len, uint32_t seq, int64_t pts)
+{
+	b[0] = MAGIC >> 8; b[1] = MAGIC & 0xFF; b[2] = type; b[3] = flags;
+	put32(b + 4, len);
+	put32(b + 8, seq);
+	put64(b + 12, pts);
+}
+
+static int read_full(int fd, uint8_t *b, size_t n)
+{
+	size_t off = 0;
+	while (off < n) {
+		ssize_t r = read(fd, b + off, n - off);
+		if (r < 0 && errno == EINTR)
+			continue;
+		if (r <= 0)
+			return -1;
+		off += r;
+	}
+	return 0;
+}
+
+static int write_full(int fd, const uint8_t *b, size_t n)
+{
+	size_t off = 0;
+	while (off < n) {
+		ssize_t r = write(fd, b + off, n - off);
+		if (r < 0 && errno == EINTR)
+			continue;
+		if (r <= 0)
+			return -1;
+		off += r;
+	}
+	return 0;
+}
+
+struct stats {
+	int64_t bytes, frames, played, late;
+	double lead_sum, lead_min;      /* ms, playout frames: pts - now on arrival */
+	double err_sum, err_sq, err_max; /* us, -t */
+	int64_t err_n;
+};
+
+static void stats_reset(struct stats *s)
+{
+	memset(s, 0, sizeof(*s));
+	s->lead_min = 1e9;
+}
+
+static void stats_line(const char *what, const struct stats *s, double secs)
+{
+	printf("pwrecv[%s] %s kbps=%.0f frames=%lld",
+	       opt_name, what, secs > 0 ? s->bytes * 8 / secs / 1000.0 : 0.0,
+	       (long long)s->frames);
+	if (s->played)
+		printf(" lead_ms=%.1f/%.1f late=%lld", s->lead_min, s->lead_sum / s->played,
+		       (long long)s->late);
+	if (s->err_n)
+		printf(" err_mean_us=%.1f err_rms_us=%.1f err_max_us=%.1f",
+		       s->err_sum / s->err_n, sqrt(s->err_sq / s->err_n), s->err_max);
+	printf("\n");
+	fflush(stdout);
+}
+
+static void on_audio(struct stats *st, int flags, int64_t pts, const uint8_t *p, uint32_t len)
+{
+	if (!(flags & F_PLAYOUT))
+		return;
+	double lead = (pts - sim_now()) / 1e6;
+	st->played++;
+	st->lead_sum += lead;
+	if (lead < st->lead_min)
+		st->lead_min = lead;
+	if (lead < 0)
+		st->late++;
+	if (opt_test && len >= 8) {
+		double err = (mono_of(pts) - get64(p)) / 1e3;
+		st->err_sum += err;
+		st->err_sq += err * err;
+		if (fabs(err) > st->err_max)
+			st->err_max = fabs(err);
+		st->err_n++;
+	}
+}
+
+static int64_t gain_pts = -1;   /* pts of the last GAIN, until the next AUDIO checks it */
+
+static void on_gain(int64_t pts, const uint8_t *p, uint32_t len)
+{
+	if (len < 8)
+		return;
+	printf("pwrecv[%s] gain %.4f muted=%d pts=%lld\n", opt_name, get32(p) / 65536.0, p[4],
+	       (long long)pts);
+	fflush(stdout);
+	gain_pts = pts;
+}
+
+/* a GAIN applies from the first sample of the AUDIO frame that follows it */
+static void check_gain(int64_t pts)
+{
+	if (gain_pts < 0)
+		return;
+	if (gain_pts != pts)
+		printf("pwrecv[%s] gain pts %lld != audio pts %lld\n", opt_name,
+		       (long long)gain_pts, (long long)pts);
+	gain_pts = -1;
+}
+
+static int ulaw_dec(uint8_t u)
+{
+	u = ~u;
+	int t = (((u & 0x0F) << 3) + 0x84) << ((u & 0x70) >> 4);
+	return (u & 0x80) ? 0x84 - t : t - 0x84;
+}
+
+/* -a: one line per AUDIO frame */
+static void trace_audio(uint32_t seq, int64_t pts, const uint8_t *fmt, uint32_t len)
+{
+	int ch = fmt[1] ? fmt[1] : 1, bps = fmt[0] == ENC_ULAW ? 1 : 2;
+	uint32_t rate = get32(fmt + 4);
+
+	if (!opt_trace || !rate)
+		return;
+	fprintf(opt_trace, "%lld %u %lld %lld\n", (long long)mono_ns(), seq, (long long)pts,
+		(long long)(len / (bps * ch)) * 1000000000LL / rate);
+}
+
+/* -e: the frame as we would play it, mono, back to the sender with its play time */
+static int send_echo(int fd, uint32_t *seq, int flags, int64_t pts, int64_t t2, const uint8_t *fmt,
+		     const uint8_t *p, uint32_t len)
+{
+	static int64_t next_play; /* free running: where the previous frame ended */
+	static uint8_t e[HDR + 4 + MAX_PAYLOAD];
+	int enc = fmt[0], ch = fmt[1] ? fmt[1] : 1, bps = enc == ENC_ULAW ? 1 : 2;
+	uint32_t n = len / (bps * ch);
+	uint8_t *o = e + HDR + 4;
+
+	for (uint32_t i = 0; i < n; i++) {
+		int sum = 0;
+		for (int c = 0; c < ch; c++) {
+			uint32_t k = i * ch + c;
+			sum += enc == ENC_ULAW ? ulaw_dec(p[k]) : (int16_t)(p[2 * k] | (p[2 * k + 1] << 8));
+		}
+		int v = sum / ch;
+		o[2 * i] = v & 0xFF;
+		o[2 * i + 1] = (v >> 8) & 0xFF;
+	}
+	int64_t play = pts;
+	if (!(flags & F_PLAYOUT)) {
+		play = t2 > next_play ? t2 : next_play;
+		next_play = play + (int64_t)n * 1000000000LL / get32(fmt + 4);
+	}
+	play += opt_echo_ms * 1000000LL;
+	put_hdr(e, T_ECHO, 0, 4 + 2 * n, (*seq)++, play);
+	memcpy(e + HDR, fmt + 4, 4); /* rate, as FORMAT has it */
+	return write_full(fd, e, HDR + 4 + 2 * n);
+}
+
+static void serve(int fd)
+{
+	static uint8_t p[MAX_PAYLOAD];
+	uint8_t h[HDR], out[HDR + 16];
+	uint8_t fmt[8] = { 1, 2, 0, 0, 0, 0, 0xBB, 0x80 }; /* s16 stereo 48000 until FORMAT */
+	struct stats tot, sec;
+	int64_t t_start = mono_ns(), t_sec = t_start;
+	uint32_t seq = 0, rx_seq = 0;
+	int framed = -1;
+	long long seq_gaps = 0, frames_in = 0;
+	double jitter = -1;             /* ns, RFC 3550 over AUDIO arrivals, -1 = none yet */
+	int64_t transit = 0;
+
+	stats_reset(&tot);
+	stats_reset(&sec);
+	for (;;) {
+		if (framed == 0) {
+			ssize_t r = read(fd, p, sizeof(p));
+			if (r <= 0)
+				break;
+			tot.bytes += r;
+			sec.bytes += r;
+		} else {
+			if (read_full(fd, h, HDR) < 0)
+				break;
+			if (framed < 0) {
+				framed = ((h[0] << 8) | h[1]) == MAGIC;
+				printf("pwrecv[%s] %s stream\n", opt_name, framed ? "framed" : "raw");
+				if (!framed) {
+					tot.bytes += HDR;
+					continue;
+				}
+			}
+			if (((h[0] << 8) | h[1]) != MAGIC) {
+				fprintf(stderr, "pwrecv[%s] lost framing\n", opt_name);
+				break;
+			}
+			int64_t t2 = sim_now();
+			int type = h[2], flags = h[3];
+			uint32_t len = get32(h + 4);
+			int64_t pts = get64(h + 12);
+			/* seq runs over every frame the sender writes: a jump is a frame lost */
+			if (frames_in++ > 0 && get32(h + 8) != rx_seq + 1)
+				seq_gaps++;
+			rx_seq = get32(h + 8);
+			if (len > MAX_PAYLOAD || read_full(fd, p, len) < 0)
+				break;
+			tot.bytes += HDR + len;
+			sec.bytes += HDR + len;
+			switch (type) {
+			case T_FORMAT:
+				if (len >= 8) {
+					printf("pwrecv[%s] format enc=%d ch=%d rung=%d rate=%u\n", opt_name,
+					       p[0], p[1], p[2], get32(p + 4));
+					memcpy(fmt, p, 8);
+				}
+				break;
+			case T_GAIN:
+				on_gain(pts, p, len);
+				break;
+			case T_AUDIO:
+				if (jitter < 0) {
+					jitter = 0;
+				} else {
+					double d = (double)llabs((t2 - pts) - transit);
+					jitter += (d - jitter) / 16;
+				}
+				transit = t2 - pts;
+				check_gain(pts);
+				trace_audio(rx_seq, pts, fmt, len);
+				tot.frames++;
+				sec.frames++;
+				on_audio(&tot, flags, pts, p, len);
+				on_audio(&sec, flags, pts, p, len);
+				if (opt_echo_ms >= 0 &&
+				    send_echo(fd, &seq, flags, pts, t2, fmt, p, len) < 0)
+					goto done;
+				break;
+			case T_PING:
+				put_hdr(out, T_PONG, 0, 8, seq++, pts);
+				put32(out + HDR, sec.played ? (uint32_t)(int)(sec.lead_sum / sec.played) : (uint32_t)-1);
+				put32(out + HDR + 4, jitter >= 0 ? (uint32_t)(int)(jitter / 1e3) : (uint32_t)-1);
+				if (write_full(fd, out, HDR + 8) < 0)
+					goto done;
+				break;
+			case T_SYNC: {
+				put_hdr(out, T_SYNC_REPLY, 0, 16, seq++, pts);
+				put64(out + HDR, t2);
+				put64(out + HDR + 8, sim_now());
+				/* queueing after the timestamp: asymmetric delay the sender must reject */
+				if (opt_jitter_us)
+					usleep(rand() % (opt_jitter_us + 1));
+				if (write_full(fd, out, HDR + 16) < 0)
+					goto done;
+				break;
+			}
+			default:
+				break;
+			}
+		}
+		int64_t now = mono_ns();
+		if (now - t_sec >= 1000000000LL) {
+			stats_line("1s", &sec, (now - t_sec) / 1e9);
+			stats_reset(&sec);
+			t_sec = now;
+		}
+	}
+done:
+	stats_line("summary", &tot, (mono_ns() - t_start) / 1e9);
+	if (framed > 0)
+		printf("pwrecv[%s] seq frames=%lld gaps=%lld\n", opt_name, frames_in, seq_gaps);
+	fflush(stdout);
+}
+
+struct mstats {
+	int64_t pkts, bytes, lost, dup, reord;
+	double jitter;                  /* ns, RFC 3550 running estimate */
+};
+
+static void mstats_line(const char *what, const struct mstats *s, double secs, double jitter)
+{
+	int64_t exp = s->pkts + s->lost;
+	printf("pwrecv[%s] %s kbps=%.0f pkts=%lld lost=%lld loss=%.3f%% reord=%lld dup=%lld "
+	       "jitter_us=%.1f\n", opt_name, what, secs > 0 ? s->bytes * 8 / secs / 1000.0 : 0.0,
+	       (long long)s->pkts, (long long)s->lost, exp ? s->lost * 100.0 / exp : 0.0,
+	       (long long)s->reord, (long long)s->dup, jitter / 1e3);
+	fflush(stdout);
+}
+
+static int serve_mcast(int port)
+{
+	static uint8_t p[65536];
+	uint8_t fmt[8] = { 1, 2, 0, 0, 0, 0, 0xBB, 0x80 };
+	int fd = socket(AF_INET, SOCK_DGRAM, 0), one = 1;
+	struct sockaddr_in a;
+	struct ip_mreq mr;
+
+	memset(&a, 0, sizeof(a));
+	a.sin_family = AF_INET;
+	a.sin_port = htons(port);
+	a.sin_addr.s_addr = htonl(INADDR_ANY);
+	setsockopt(fd, SOL_SOCKET, SO_REUSEADDR, &one, sizeof(one));
+	memset(&mr, 0, sizeof(mr));
+	if (inet_pton(AF_INET, opt_group, &mr.imr_multiaddr) != 1) {
+		fprintf(stderr, "pwrecv: bad group %s\n", opt_group);
+		return 2;
+	}
+	mr.imr_interface.s_addr = htonl(INADDR_ANY);
+	if (bind(fd, (struct sockaddr *)&a, sizeof(a)) < 0 ||
+	    setsockopt(fd, IPPROTO_IP, IP_ADD_MEMBERSHIP, &mr, sizeof(mr)) < 0) {
+		perror("pwrecv: bind/join");
+		return 1;
+	}
+	struct timeval tv = { 0, 200000 };
+	setsockopt(fd, SOL_SOCKET, SO_RCVTIMEO, &tv, sizeof(tv));
+	printf("pwrecv[%s] joined %s:%d\n", opt_name, opt_group, port);
+	fflush(stdout);
+
+	struct mstats tot, sec;
+	int64_t t_start = mono_ns(), t_sec = t_start, prev_transit = 0;
+	uint32_t next = 0;
+	int have = 0;
+
+	memset(&tot, 0, sizeof(tot));
+	memset(&sec, 0, sizeof(sec));
+	for (;;) {
+		ssize_t r = recv(fd, p, sizeof(p), 0);
+		int64_t now = mono_ns();
+		if (opt_secs && now - t_start >= opt_secs * 1000000000LL)
+			break;
+		if (now - t_sec >= 1000000000LL) {
+			mstats_line("1s", &sec, (now - t_sec) / 1e9, tot.jitter);
+			memset(&sec, 0, sizeof(sec));
+			t_sec = now;
+		}
+		if (r < HDR || ((p[0] << 8) | p[1]) != MAGIC)
+			continue;
+		int type = p[2];
+		uint32_t len = get32(p + 4), seq = get32(p + 8);
+		int64_t pts = get64(p + 12);
+		if (HDR + len != (uint32_t)r)
+			continue;
+		tot.pkts++;
+		sec.pkts++;
+		tot.bytes += r;
+		sec.bytes += r;
+		if (!have) {
+			have = 1;
+			next = seq + 1;
+		} else if ((int32_t)(seq - next) >= 0) {
+			int64_t gap = seq - next;  /* frames never seen (yet) */
+			tot.lost += gap;
+			sec.lost += gap;
+			next = seq + 1;
+		} else if ((int32_t)(seq - next) < -1000) {
+			next = seq + 1;             /* sender restarted */
+		} else {
+			/* late arrival of one counted lost, or a duplicate */
+			tot.reord++;
+			sec.reord++;
+			if (tot.lost > 0) {
+				tot.lost--;
+				if (sec.lost > 0)
+					sec.lost--;
+			} else {
+				tot.dup++;
+				sec.dup++;
+			}
+		}
+		if (type == T_FORMAT && len >= 8) {
+			printf("pwrecv[%s] format enc=%d ch=%d rung=%d rate=%u\n", opt_name,
+			       p[HDR], p[HDR + 1], p[HDR + 2], get32(p + HDR + 4));
+			memcpy(fmt, p + HDR, 8);
+		} else if (type == T_GAIN) {
+			on_gain(pts, p + HDR, len);
+		} else if (type == T_AUDIO) {
+			check_gain(pts);
+			trace_audio(seq, pts, fmt, len);
+			/* same host clock as the sender in the test: transit is arrival - pts */
+			int64_t transit = now - pts;
+			if (prev_transit) {
+				double d = (double)llabs(transit - prev_transit);
+				tot.jitter += (d - tot.jitter) / 16;
+			}
+			prev_transit = transit;
+		}
+	}
+	mstats_line("summary", &tot, (mono_ns() - t_start) / 1e9, tot.jitter);
+	close(fd);
+	return 0;
+}
+
+int main(int argc, char **argv)
+{
+	int port = 4010, c;
+
+	while ((c = getopt(argc, argv, "p:o:d:j:n:m:s:e:a:t1")) != -1) {
+		switch (c) {
+		case 'p': port = atoi(optarg); break;
+		case 'o': opt_offset_ns = (int64_t)(atof(optarg) * 1e6); break;
+		case 'd': opt_drift = atof(optarg) * 1e-6; break;
+		case 'j': opt_jitter_us = atoi(optarg); break;
+		case 'n': opt_name = optarg; break;
+		case 't': opt_test = 1; break;
+		case '1': opt_once = 1; break;
+		case 'm': opt_group = optarg; break;
+		case 's': opt_secs = atoi(optarg); break;
+		case 'e': opt_echo_ms = atoi(optarg); break;
+		case 'a':
+			if (!(opt_trace = fopen(optarg, "w"))) {
+				perror("pwrecv: trace");
+				return 1;
+			}
+			setvbuf(opt_trace, NULL, _IOLBF, 0); /* the tests kill us */
+			break;
+		default:
+			fprintf(stderr, "usage: %s [-p port] [-o offset_ms] [-d drift_ppm] "
+				"[-j reply_jitter_us] [-t] [-1] [-n name] [-e out_ms] [-a trace]\n"
+				"       %s -m group [-p port] [-s secs] [-n name] [-a trace]\n", argv[0], argv[0]);
+			return 2;
+		}
+	}
+	mono0 = mono_ns();
+	srand((unsigned)mono0);
+	if (opt_group)
+		return serve_mcast(port);
+
+	int ls = socket(AF_INET, SOCK_STREAM, 0), one = 1;
+	struct sockaddr_in a;
+	memset(&a, 0, sizeof(a));
+	a.sin_family = AF_INET;
+	a.sin_port = htons(port);
+	a.sin_addr.s_addr = htonl(INADDR_ANY);
+	setsockopt(ls, SOL_SOCKET, SO_REUSEADDR, &one, sizeof(one));
+	if (bind(ls, (struct sockaddr *)&a, sizeof(a)) < 0 || listen(ls, 1) < 0) {
+		perror("pwrecv: bind/listen");
+		return 1;
+	}
+	printf("pwrecv[%s] listening on %d offset=%.3fms drift=%.1fppm\n", opt_name, port,
+	       opt_offset_ns / 1e6, opt_drift * 1e6);
+	fflush(stdout);
+	for (;;) {
+		int fd = accept(ls, NULL, NULL);
+		if (fd < 0) {
+			if (errno == EINTR)
+				continue;
+			perror("pwrecv: accept");
+			return 1;
+		}
+		setsockopt(fd, IPPROTO_TCP, TCP_NODELAY, &one, sizeof(one));
+		serve(fd);
+		close(fd);
+		if (opt_once)
+			break;
+	}
+	close(ls);
+	return 0;
+}
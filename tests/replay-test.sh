@@ -0,0 +1,95 @@
+#!/bin/sh
+
+## hyphop ##
+
+## the sender without a device: a WAV replayed through FileSource into SendPipeline, the
+## stages StreamService runs (tests/ReplayBench.java), pwrecv as the local receiver. Three
+## runs: real time on the Java path (hold latency, CPU), as fast as it goes (throughput,
+## x real time) and real time on the native path. FILE=x.wav replays your own 48 kHz s16
+## file; OPTS (paced, abr, pass, comma separated) as ReplayBench takes them; BATCH may
+## also name a latency profile (ultra, balanced, bulk).
+##
+## PROFILES=1: instead, each latency profile in real time on both paths, one line each
+## with the sender's hold and CPU and the age (arrival - capture pts) at the receiver.
+##
+##   SECS=10 BATCH=2 GAIN=0.5 RUNG=1 OPTS=paced,pass ./replay-test.sh
+##   PROFILES=1 SECS=30 ./replay-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-replay}
+SECS=${SECS:-10}
+BATCH=${BATCH:-1}
+GAIN=${GAIN:-1.0}
+RUNG=${RUNG:-0}
+OPTS=${OPTS:--}
+PORT=${PORT:-47400}
+FILE=${FILE:-$OUT/tone.wav}
+JAVA_HOME=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v javac)")")")}
+SRC=../src/org/example/mininative
+J=../jni
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+cc -O2 -Wall -shared -fPIC -pthread -I"$JAVA_HOME/include" -I"$JAVA_HOME/include/linux" \
+    -I$J -o "$OUT/libpwtx.so" $J/pwtx.c $J/nettx.c
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java ReplayBench.java
+[ -f "$FILE" ] || java -cp "$OUT/classes" ReplayBench gen "$FILE" 10
+
+bench() {
+	"$OUT/pwrecv" -1 -p "$PORT" -n "$1" > "$OUT/$1.log" &
+	R=$!
+	sleep 0.3
+	java -Djava.library.path="$OUT" -cp "$OUT/classes" ReplayBench "127.0.0.1:$PORT" \
+	    "$FILE" "$SECS" "$2" "$3" "$BATCH" "$GAIN" "$RUNG" "$OPTS" > "$OUT/$1.tx" 2>&1
+	sleep 0.3
+	kill $R 2>/dev/null || true
+	wait $R 2>/dev/null || true
+	grep -h "^replay\|^bench" "$OUT/$1.tx"
+	grep -h "^ntx" "$OUT/$1.tx" | tail -n 1
+	grep -h "summary\|seq" "$OUT/$1.log" || true
+}
+
+# age at the receiver from its trace, start-up second left out: "p50 p99 max" in ms
+age() {
+	awk 'NR == 1 { t0 = $1 } $1 > t0 + 1e9 { print ($1 - $3) / 1e6 }' "$1" | sort -n | awk '
+		{ v[NR] = $1 }
+		END { if (NR) printf "%.2f %.2f %.2f", v[int(NR * 0.5) + 1], v[int(NR * 0.99) + 1], v[NR] }'
+}
+
+profile() {
+	N="$1-$2"
+	"$OUT/pwrecv" -1 -p "$PORT" -n "$N" -a "$OUT/$N.trace" > "$OUT/$N.log" &
+	R=$!
+	sleep 0.3
+	java -Djava.library.path="$OUT" -cp "$OUT/classes" ReplayBench "127.0.0.1:$PORT" \
+	    "$FILE" "$SECS" rt "$2" "$1" 1.0 0 "$OPTS" > "$OUT/$N.tx" 2>&1
+	sleep 0.3
+	kill $R 2>/dev/null || true
+	wait $R 2>/dev/null || true
+	set -- "$1" "$2" $(age "$OUT/$N.trace")
+	C=$(sed -n 's/^replay .* \(chunk=[0-9]*ms x[0-9]*\) .*/\1/p' "$OUT/$N.tx")
+	if [ "$2" = java ]; then
+		B=$(sed -n 's/^bench java .*\(wr=[^ ]*\) \(hold_ms p50=[^ ]* p99=[^ ]*\) .*cpu=[^ ]* (\([^)]*\)).*/\1 \2 cpu=\3/p' "$OUT/$N.tx")
+	else
+		B=$(sed -n 's/^bench native .*java_cpu=[^ ]* (\([^)]*\)).*/java_cpu=\1/p' "$OUT/$N.tx")
+		B="$B $(grep '^ntx' "$OUT/$N.tx" | tail -n 1 | sed 's/.*\(wr=[^ ]*\).*\(cpu=[^ ]*\).*/\1 tx_\2/')"
+	fi
+	echo "profile $1 $2 $C $B age_ms p50=$3 p99=$4 max=$5"
+}
+
+if [ -n "$PROFILES" ]; then
+	for p in ultra balanced bulk; do
+		profile $p java
+		profile $p native
+	done
+	exit 0
+fi
+
+bench rt rt java
+bench fast fast java
+bench native rt native
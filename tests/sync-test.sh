@@ -0,0 +1,37 @@
+#!/bin/sh
+
+## hyphop ##
+
+## multi-room playout sync on a Linux host: one sender, two simulated receivers whose
+## clocks are off by different offsets and drift, one of them answering SYNC with
+## queueing jitter. Prints what each receiver would play relative to the intended time.
+##
+##   SECS=30 ./sync-test.sh
+
+set -e
+
+cd "$(dirname "$0")"
+OUT=${OUT:-/tmp/pwnet-sync}
+SECS=${SECS:-20}
+DELAY_MS=${DELAY_MS:-200}
+SRC=../src/org/example/mininative
+
+mkdir -p "$OUT/classes"
+cc -O2 -Wall -o "$OUT/pwrecv" pwrecv.c -lm
+javac -d "$OUT/classes" $SRC/CaptureSource.java $SRC/FileSource.java $SRC/CaptureClock.java \
+    $SRC/Framing.java $SRC/PcmConvert.java $SRC/RateController.java $SRC/NativeSender.java \
+    $SRC/Pacer.java $SRC/ClockSync.java $SRC/ControlChannel.java $SRC/LatencyProbe.java \
+    $SRC/WavTee.java $SRC/SendPipeline.java $SRC/LatencyProfile.java ReplayBench.java \
+    SyncSend.java
+[ -f "$OUT/tone.wav" ] || java -cp "$OUT/classes" ReplayBench gen "$OUT/tone.wav" 10
+
+"$OUT/pwrecv" -1 -t -n A -p 47001 -o 12345.678 -d 80 -j 300 > "$OUT/a.log" &
+A=$!
+"$OUT/pwrecv" -1 -t -n B -p 47002 -o -777.5 -d -40 -j 3000 > "$OUT/b.log" &
+B=$!
+sleep 0.5
+
+java -cp "$OUT/classes" SyncSend 127.0.0.1:47001,127.0.0.1:47002 "$OUT/tone.wav" "$SECS" "$DELAY_MS"
+wait $A $B
+
+grep -h summary "$OUT/a.log" "$OUT/b.log"